@@ -0,0 +1,17 @@
+#!/bin/sh
+#
+# Builds the benchmarks with Maven and runs them with JMH.
+#
+# Usage: ./run.sh [JMH options]
+#        MAIN=class ./run.sh [options of the class]
+#
+# See README.md for details.
+
+set -e
+
+HERE=$(cd "$(dirname "$0")" && pwd)
+MAIN="${MAIN:-org.openjdk.jmh.Main}"
+
+mvn -B -q -f "$HERE/pom.xml" package
+
+exec java -cp "$HERE/target/benchmarks.jar" "$MAIN" "$@"
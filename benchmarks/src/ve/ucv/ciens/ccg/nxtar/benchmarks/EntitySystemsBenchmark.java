@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ve.ucv.ciens.ccg.nxtar.components.CollisionDetectionComponent;
+import ve.ucv.ciens.ccg.nxtar.components.CollisionModelComponent;
+import ve.ucv.ciens.ccg.nxtar.components.GeometryComponent;
+import ve.ucv.ciens.ccg.nxtar.components.MarkerCodeComponent;
+import ve.ucv.ciens.ccg.nxtar.components.RenderModelComponent;
+import ve.ucv.ciens.ccg.nxtar.components.VisibilityComponent;
+import ve.ucv.ciens.ccg.nxtar.interfaces.ImageProcessor.MarkerData;
+import ve.ucv.ciens.ccg.nxtar.systems.CollisionDetectionSystem;
+import ve.ucv.ciens.ccg.nxtar.systems.GeometrySystem;
+import ve.ucv.ciens.ccg.nxtar.systems.MarkerCodeManager;
+import ve.ucv.ciens.ccg.nxtar.systems.MarkerPositioningSystem;
+import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
+
+import com.artemis.Entity;
+import com.artemis.World;
+import com.artemis.managers.GroupManager;
+import com.badlogic.gdx.graphics.g3d.Model;
+import com.badlogic.gdx.math.Matrix3;
+import com.badlogic.gdx.math.Vector3;
+
+/**
+ * <p>Measures the entity systems that run on every rendered frame over a synthetic Artemis world
+ * laid out like the bomb game: many marker bound objects that can be hit and a few robot arm like
+ * entities that collide with them.</p>
+ * <p>The systems are registered as passive so each benchmark runs exactly one of them, except for
+ * {@link #frame()} which runs them in the same order as the game.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntitySystemsBenchmark{
+	/**
+	 * <p>Number of marker bound entities in the world.</p>
+	 */
+	@Param({"16", "128", "1024"})
+	public int markerEntities;
+
+	/**
+	 * <p>Number of entities checked against the marker bound entities for collisions.</p>
+	 */
+	@Param({"1", "4"})
+	public int colliderEntities;
+
+	private World                    world;
+	private Model                    model;
+	private MarkerPositioningSystem  markerPositioningSystem;
+	private GeometrySystem           geometrySystem;
+	private CollisionDetectionSystem collisionDetectionSystem;
+	private GeometryComponent[]      geometries;
+
+	@Setup
+	public void setUp(){
+		GroupManager groupManager;
+		Entity       entity;
+
+		HeadlessApplication.install();
+
+		model = SyntheticModels.createBox(0.5f);
+
+		world = new World();
+		world.setManager(new GroupManager());
+		world.setManager(new MarkerCodeManager());
+		markerPositioningSystem  = world.setSystem(new MarkerPositioningSystem(), true);
+		geometrySystem           = world.setSystem(new GeometrySystem(), true);
+		collisionDetectionSystem = world.setSystem(new CollisionDetectionSystem(), true);
+		world.initialize();
+
+		groupManager = world.getManager(GroupManager.class);
+		geometries   = new GeometryComponent[markerEntities + colliderEntities];
+
+		for(int i = 0; i < markerEntities; i++){
+			entity = world.createEntity();
+			geometries[i] = new GeometryComponent(new Vector3(i * 2.0f, 0.0f, -10.0f), new Matrix3(), new Vector3(1, 1, 1));
+			entity.addComponent(geometries[i]);
+			entity.addComponent(new MarkerCodeComponent(i % 1024));
+			entity.addComponent(new VisibilityComponent());
+			entity.addComponent(new RenderModelComponent(model));
+			entity.addComponent(new CollisionModelComponent(model));
+			entity.addComponent(new CollisionDetectionComponent());
+			entity.addToWorld();
+			groupManager.add(entity, CollisionDetectionSystem.COLLIDABLE_OBJECTS_GROUP);
+		}
+
+		for(int i = 0; i < colliderEntities; i++){
+			entity = world.createEntity();
+			geometries[markerEntities + i] = new GeometryComponent(new Vector3(-i * 2.0f - 2.0f, 0.0f, -10.0f), new Matrix3(), new Vector3(1, 1, 1));
+			entity.addComponent(geometries[markerEntities + i]);
+			entity.addComponent(new RenderModelComponent(model));
+			entity.addComponent(new CollisionModelComponent(model));
+			entity.addComponent(new CollisionDetectionComponent());
+			entity.addToWorld();
+		}
+
+		// Let the world add the new entities to the systems.
+		world.setDelta(16.0f);
+		world.process();
+
+		markerPositioningSystem.setMarkerData(createMarkerData());
+		collisionDetectionSystem.enableCollisions();
+
+		// Place the models so the collision checks see the same transforms as in a real frame.
+		markerPositioningSystem.process();
+		geometrySystem.process();
+	}
+
+	@TearDown
+	public void tearDown(){
+		model.dispose();
+	}
+
+	@Benchmark
+	public void markerPositioning(){
+		markerPositioningSystem.process();
+	}
+
+	/**
+	 * <p>Runs the geometry system when no entity moved, so every transform is skipped.</p>
+	 */
+	@Benchmark
+	public void geometry(){
+		geometrySystem.process();
+	}
+
+	/**
+	 * <p>Runs the geometry system after every entity moved, so every visible transform is recomputed.</p>
+	 */
+	@Benchmark
+	public void geometryChanged(){
+		for(int i = 0; i < geometries.length; i++)
+			geometries[i].markChanged();
+
+		geometrySystem.process();
+	}
+
+	@Benchmark
+	public void collisionDetection(){
+		collisionDetectionSystem.process();
+	}
+
+	/**
+	 * <p>Runs the three systems in the same order as the game world does.</p>
+	 */
+	@Benchmark
+	public void frame(){
+		markerPositioningSystem.process();
+		geometrySystem.process();
+		collisionDetectionSystem.process();
+	}
+
+	/**
+	 * <p>Creates a detection result that finds the first markers of the world, spread in front of
+	 * the camera.</p>
+	 */
+	private MarkerData createMarkerData(){
+		MarkerData data = new MarkerData();
+
+		data.markerCodes        = new int[ProjectConstants.MAXIMUM_NUMBER_OF_MARKERS];
+		data.translationVectors = new Vector3[ProjectConstants.MAXIMUM_NUMBER_OF_MARKERS];
+		data.rotationMatrices   = new Matrix3[ProjectConstants.MAXIMUM_NUMBER_OF_MARKERS];
+
+		for(int i = 0; i < ProjectConstants.MAXIMUM_NUMBER_OF_MARKERS; i++){
+			data.markerCodes[i]        = i < markerEntities ? i : -1;
+			data.translationVectors[i] = new Vector3(i * 2.0f, 0.0f, -10.0f);
+			data.rotationMatrices[i]   = new Matrix3().setToRotation(15.0f * i);
+		}
+
+		return data;
+	}
+}
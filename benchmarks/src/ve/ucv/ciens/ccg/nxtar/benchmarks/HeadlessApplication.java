@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.benchmarks;
+
+import com.badlogic.gdx.Application;
+import com.badlogic.gdx.ApplicationListener;
+import com.badlogic.gdx.Audio;
+import com.badlogic.gdx.Files;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.Graphics;
+import com.badlogic.gdx.Input;
+import com.badlogic.gdx.LifecycleListener;
+import com.badlogic.gdx.Net;
+import com.badlogic.gdx.Preferences;
+import com.badlogic.gdx.utils.Clipboard;
+import com.badlogic.gdx.utils.GdxNativesLoader;
+
+/**
+ * <p>Minimal {@link Application} that lets the core classes run without a window or a GPU.</p>
+ * <p>The core classes only use {@link Gdx#app} for logging, so every log call is discarded. The
+ * libGDX natives are loaded because some math and buffer utilities are implemented in native
+ * code, but no OpenGL context is ever created.</p>
+ */
+public class HeadlessApplication implements Application{
+	private int logLevel;
+
+	private HeadlessApplication(){
+		logLevel = LOG_NONE;
+	}
+
+	/**
+	 * <p>Installs a headless application in {@link Gdx#app} if there is none and loads the
+	 * libGDX natives. Safe to call from any benchmark setup method.</p>
+	 */
+	public static synchronized void install(){
+		if(Gdx.app == null){
+			GdxNativesLoader.load();
+			Gdx.app = new HeadlessApplication();
+		}
+	}
+
+	@Override
+	public ApplicationListener getApplicationListener(){
+		return null;
+	}
+
+	@Override
+	public Graphics getGraphics(){
+		return null;
+	}
+
+	@Override
+	public Audio getAudio(){
+		return null;
+	}
+
+	@Override
+	public Input getInput(){
+		return null;
+	}
+
+	@Override
+	public Files getFiles(){
+		return null;
+	}
+
+	@Override
+	public Net getNet(){
+		return null;
+	}
+
+	@Override
+	public void log(String tag, String message){ }
+
+	@Override
+	public void log(String tag, String message, Throwable exception){ }
+
+	@Override
+	public void error(String tag, String message){ }
+
+	@Override
+	public void error(String tag, String message, Throwable exception){ }
+
+	@Override
+	public void debug(String tag, String message){ }
+
+	@Override
+	public void debug(String tag, String message, Throwable exception){ }
+
+	@Override
+	public void setLogLevel(int logLevel){
+		this.logLevel = logLevel;
+	}
+
+	@Override
+	public int getLogLevel(){
+		return logLevel;
+	}
+
+	@Override
+	public ApplicationType getType(){
+		return ApplicationType.HeadlessDesktop;
+	}
+
+	@Override
+	public int getVersion(){
+		return 0;
+	}
+
+	@Override
+	public long getJavaHeap(){
+		return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+	}
+
+	@Override
+	public long getNativeHeap(){
+		return getJavaHeap();
+	}
+
+	@Override
+	public Preferences getPreferences(String name){
+		return null;
+	}
+
+	@Override
+	public Clipboard getClipboard(){
+		return null;
+	}
+
+	@Override
+	public void postRunnable(Runnable runnable){
+		runnable.run();
+	}
+
+	@Override
+	public void exit(){ }
+
+	@Override
+	public void addLifecycleListener(LifecycleListener listener){ }
+
+	@Override
+	public void removeLifecycleListener(LifecycleListener listener){ }
+}
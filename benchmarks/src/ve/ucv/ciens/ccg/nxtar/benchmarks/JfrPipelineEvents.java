@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.benchmarks;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import ve.ucv.ciens.ccg.networkdata.MotorEvent.motor_t;
+import ve.ucv.ciens.ccg.networkdata.SensorRecord.sensor_t;
+import ve.ucv.ciens.ccg.nxtar.interfaces.PipelineEventsListener;
+import ve.ucv.ciens.ccg.nxtar.profiling.PipelineEvents;
+
+/**
+ * <p>Forwards the events of the video pipeline and the robot link to Java Flight Recorder.</p>
+ * <p>Install it with {@link PipelineEvents#setListener(PipelineEventsListener)} on a desktop JVM
+ * with Flight Recorder, Java 8u262 or later. The events are disabled until a recording enables
+ * them, for example with <code>-XX:StartFlightRecording</code> or with {@link #enableAll(Recording)},
+ * and a disabled event is dropped right after it is created without storing its fields. Every
+ * event type lives in the <code>NxtAR</code> category and its name starts with
+ * {@link #EVENT_PREFIX}, see {@link PipelineRecordingAnalyzer} for a report of a recording.</p>
+ */
+public class JfrPipelineEvents implements PipelineEventsListener{
+	public static final String EVENT_PREFIX = "nxtar.";
+
+	@Name(EVENT_PREFIX + "VideoFrameReceived")
+	@Label("Video Frame Received")
+	@Description("A complete video frame was received and published.")
+	@Category({"NxtAR", "Video"})
+	@StackTrace(false)
+	static class VideoFrameReceived extends Event{
+		@Label("Session")
+		int  sessionId;
+		@Label("Length")
+		int  length;
+		@Label("Capture Time")
+		@Description("Capture time sent by the robot in milliseconds, zero if unknown.")
+		long captureTimestamp;
+		@Label("Reassembly")
+		@Timespan(Timespan.NANOSECONDS)
+		long reassemblyTime;
+	}
+
+	@Name(EVENT_PREFIX + "VideoFramesDropped")
+	@Label("Video Frames Dropped")
+	@Description("Video frames lost during the last second.")
+	@Category({"NxtAR", "Video"})
+	@StackTrace(false)
+	static class VideoFramesDropped extends Event{
+		@Label("Session")
+		int sessionId;
+		@Label("Lost")
+		int lostFrames;
+		@Label("Late")
+		int lateFrames;
+		@Label("Incomplete")
+		int incompleteFrames;
+	}
+
+	@Name(EVENT_PREFIX + "MarkerDetection")
+	@Label("Marker Detection")
+	@Description("A marker detection pass over a video frame.")
+	@Category({"NxtAR", "Vision"})
+	@StackTrace(false)
+	static class MarkerDetection extends Event{
+		@Label("Frame")
+		long frameSequence;
+		@Label("Detection")
+		@Timespan(Timespan.NANOSECONDS)
+		long detectionTime;
+	}
+
+	@Name(EVENT_PREFIX + "WorldTick")
+	@Label("World Tick")
+	@Description("Processing of the entity world of a game state.")
+	@Category({"NxtAR", "Game"})
+	@StackTrace(false)
+	static class WorldTick extends Event{
+		@Label("State")
+		String state;
+		@Label("Tick")
+		@Timespan(Timespan.NANOSECONDS)
+		long   tickTime;
+	}
+
+	@Name(EVENT_PREFIX + "MotorCommandSent")
+	@Label("Motor Command Sent")
+	@Category({"NxtAR", "Robot"})
+	@StackTrace(false)
+	static class MotorCommandSent extends Event{
+		@Label("Session")
+		int    sessionId;
+		@Label("Sequence")
+		int    sequence;
+		@Label("Motor")
+		String motor;
+		@Label("Power")
+		byte   power;
+	}
+
+	@Name(EVENT_PREFIX + "MotorCommandAcknowledged")
+	@Label("Motor Command Acknowledged")
+	@Category({"NxtAR", "Robot"})
+	@StackTrace(false)
+	static class MotorCommandAcknowledged extends Event{
+		@Label("Session")
+		int  sessionId;
+		@Label("Sequence")
+		int  sequence;
+		@Label("Credits")
+		int  credits;
+		@Label("Round Trip")
+		@Description("Time from the send of the command to its acknowledgement, -1 if unknown.")
+		@Timespan(Timespan.NANOSECONDS)
+		long roundTripTime;
+	}
+
+	@Name(EVENT_PREFIX + "SensorUpdate")
+	@Label("Sensor Update")
+	@Category({"NxtAR", "Robot"})
+	@StackTrace(false)
+	static class SensorUpdate extends Event{
+		@Label("Session")
+		int    sessionId;
+		@Label("Sensor")
+		String sensor;
+		@Label("Value")
+		int    value;
+	}
+
+	/**
+	 * <p>Enables every pipeline event in the given recording.</p>
+	 */
+	public static void enableAll(Recording recording){
+		recording.enable(VideoFrameReceived.class);
+		recording.enable(VideoFramesDropped.class);
+		recording.enable(MarkerDetection.class);
+		recording.enable(WorldTick.class);
+		recording.enable(MotorCommandSent.class);
+		recording.enable(MotorCommandAcknowledged.class);
+		recording.enable(SensorUpdate.class);
+	}
+
+	@Override
+	public void onVideoFrameReceived(int sessionId, int length, long captureTimestamp, long receiveTimestamp){
+		VideoFrameReceived event = new VideoFrameReceived();
+
+		if(event.isEnabled()){
+			event.sessionId        = sessionId;
+			event.length           = length;
+			event.captureTimestamp = captureTimestamp;
+			event.reassemblyTime   = System.nanoTime() - receiveTimestamp;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void onVideoFramesDropped(int sessionId, int lostFrames, int lateFrames, int incompleteFrames){
+		VideoFramesDropped event = new VideoFramesDropped();
+
+		if(event.isEnabled()){
+			event.sessionId        = sessionId;
+			event.lostFrames       = lostFrames;
+			event.lateFrames       = lateFrames;
+			event.incompleteFrames = incompleteFrames;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void onMarkerDetection(long frameSequence, long start, long end){
+		MarkerDetection event = new MarkerDetection();
+
+		if(event.isEnabled()){
+			event.frameSequence = frameSequence;
+			event.detectionTime = end - start;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void onWorldTick(String state, long start, long end){
+		WorldTick event = new WorldTick();
+
+		if(event.isEnabled()){
+			event.state    = state;
+			event.tickTime = end - start;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void onMotorCommandSent(int sessionId, int sequence, motor_t motor, byte power){
+		MotorCommandSent event = new MotorCommandSent();
+
+		if(event.isEnabled()){
+			event.sessionId = sessionId;
+			event.sequence  = sequence;
+			event.motor     = motor.name();
+			event.power     = power;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void onMotorCommandAcknowledged(int sessionId, int sequence, int credits, long latency){
+		MotorCommandAcknowledged event = new MotorCommandAcknowledged();
+
+		if(event.isEnabled()){
+			event.sessionId     = sessionId;
+			event.sequence      = sequence;
+			event.credits       = credits;
+			event.roundTripTime = latency;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void onSensorUpdate(int sessionId, sensor_t sensor, int value, long robotTimestamp){
+		SensorUpdate event = new SensorUpdate();
+
+		if(event.isEnabled()){
+			event.sessionId = sessionId;
+			event.sensor    = sensor.name();
+			event.value     = value;
+			event.commit();
+		}
+	}
+}
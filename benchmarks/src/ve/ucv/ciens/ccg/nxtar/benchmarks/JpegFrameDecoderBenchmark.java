@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.benchmarks;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ve.ucv.ciens.ccg.nxtar.interfaces.FrameDecoder.DecodedFrame;
+import ve.ucv.ciens.ccg.nxtar.vision.JpegFrameDecoder;
+
+/**
+ * <p>Measures the decoding of a JPEG video frame into a pooled direct buffer.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JpegFrameDecoderBenchmark{
+	/**
+	 * <p>Frame resolution, as width x height.</p>
+	 */
+	@Param({"320x240", "640x480"})
+	public String resolution;
+
+	private JpegFrameDecoder decoder;
+	private byte[]           frame;
+
+	@Setup
+	public void setUp() throws IOException{
+		int width  = Integer.parseInt(resolution.substring(0, resolution.indexOf('x')));
+		int height = Integer.parseInt(resolution.substring(resolution.indexOf('x') + 1));
+
+		HeadlessApplication.install();
+
+		decoder = new JpegFrameDecoder();
+		frame   = encodeTestFrame(width, height);
+	}
+
+	@Benchmark
+	public int decode(){
+		DecodedFrame decoded = decoder.decode(frame, 0, frame.length);
+		int          size    = decoded.pixels.limit();
+
+		decoder.release(decoded);
+
+		return size;
+	}
+
+	/**
+	 * <p>Encodes a frame that looks roughly like a camera image of a marker board: smooth
+	 * gradients with a grid of high contrast squares.</p>
+	 */
+	static byte[] encodeTestFrame(int width, int height) throws IOException{
+		return encodeTestFrame(width, height, 75);
+	}
+
+	/**
+	 * <p>Encodes the test frame with the given JPEG quality, between 1 and 100.</p>
+	 */
+	static byte[] encodeTestFrame(int width, int height, int quality) throws IOException{
+		return encodeTestFrame(width, height, quality, false);
+	}
+
+	/**
+	 * <p>Encodes the test frame with the given JPEG quality, between 1 and 100, as a color or a
+	 * single component grayscale image.</p>
+	 */
+	static byte[] encodeTestFrame(int width, int height, int quality, boolean grayscale) throws IOException{
+		BufferedImage                image;
+		Graphics2D                   graphics;
+		ByteArrayOutputStream        output;
+		ImageWriter                  writer;
+		ImageWriteParam              parameters;
+		MemoryCacheImageOutputStream stream;
+
+		image = new BufferedImage(width, height, grayscale ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+		for(int y = 0; y < height; y++){
+			for(int x = 0; x < width; x++)
+				image.setRGB(x, y, ((x * 255 / width) << 16) | ((y * 255 / height) << 8) | 96);
+		}
+
+		graphics = image.createGraphics();
+		for(int y = height / 8; y < height - height / 8; y += height / 4){
+			for(int x = width / 8; x < width - width / 8; x += width / 4){
+				graphics.setColor(Color.BLACK);
+				graphics.fillRect(x, y, width / 8, height / 8);
+				graphics.setColor(Color.WHITE);
+				graphics.fillRect(x + width / 32, y + height / 32, width / 16, height / 16);
+			}
+		}
+		graphics.dispose();
+
+		output     = new ByteArrayOutputStream();
+		stream     = new MemoryCacheImageOutputStream(output);
+		writer     = ImageIO.getImageWritersByFormatName("jpg").next();
+		parameters = writer.getDefaultWriteParam();
+		parameters.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		parameters.setCompressionQuality(Math.max(1, Math.min(quality, 100)) / 100.0f);
+
+		try{
+			writer.setOutput(stream);
+			writer.write(null, new IIOImage(image, null, null), parameters);
+			stream.flush();
+		}finally{
+			writer.dispose();
+			stream.close();
+		}
+
+		return output.toByteArray();
+	}
+}
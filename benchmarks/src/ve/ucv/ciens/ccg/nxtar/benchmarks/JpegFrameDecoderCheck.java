@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import ve.ucv.ciens.ccg.nxtar.interfaces.FrameDecoder.DecodedFrame;
+import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
+import ve.ucv.ciens.ccg.nxtar.vision.JpegFrameDecoder;
+
+/**
+ * <p>Checks the output of the {@link JpegFrameDecoder} against the JPEG decoder of
+ * <code>javax.imageio</code>.</p>
+ * <p>Decodes test frames like the ones of {@link JpegFrameDecoderBenchmark}, in color and
+ * grayscale, at several sizes and qualities, plus any JPEG files given as arguments, and prints the
+ * largest and the root mean square difference of the pixels of each. Grayscale frames must match
+ * within {@link #MAX_GRAYSCALE_ERROR}. Color frames must stay within {@link #MAX_COLOR_RMS_ERROR},
+ * as the decoder upsamples the chroma by repeating samples instead of interpolating them.</p>
+ * <p>It then corrupts a few random bytes of the test frames, or cuts them short, and checks that
+ * the decoder rejects every frame it cannot decode with an {@link IllegalArgumentException}, as any
+ * other exception would end the marker detection thread. The exit status is not zero if any frame
+ * is off. Run it through the benchmarks script:</p>
+ * <pre>MAIN=ve.ucv.ciens.ccg.nxtar.benchmarks.JpegFrameDecoderCheck ./run.sh [frame.jpg ...]</pre>
+ */
+public class JpegFrameDecoderCheck{
+	public static final int    MAX_GRAYSCALE_ERROR = 1;
+	public static final double MAX_COLOR_RMS_ERROR = 4.0;
+
+	private static final int[][] SIZES     = {{320, 240}, {640, 480}, {176, 144}, {321, 239}};
+	private static final int[]   QUALITIES = {50, 75, 95};
+	private static final int     CORRUPT_FRAMES = 20000;
+	private static final long    CORRUPT_SEED   = 0x4E5854L;
+
+	/**
+	 * <p>The difference between the two decoded images of a frame.</p>
+	 */
+	static class Comparison{
+		public boolean grayscale;
+		public int     maxError;
+		public double  rmsError;
+
+		public boolean isWithinTolerance(){
+			return grayscale ? maxError <= MAX_GRAYSCALE_ERROR : rmsError <= MAX_COLOR_RMS_ERROR;
+		}
+
+		@Override
+		public String toString(){
+			return String.format("%-9s %5d %8.3f  %s", grayscale ? "grayscale" : "color", maxError, rmsError, isWithinTolerance() ? "ok" : "FAILED");
+		}
+	}
+
+	public static void main(String[] args) throws IOException{
+		JpegFrameDecoder decoder = new JpegFrameDecoder();
+		boolean          passed  = true;
+		Comparison       comparison;
+		String           name;
+
+		HeadlessApplication.install();
+
+		System.out.println(String.format("%-24s %-9s %5s %8s", "Frame", "Format", "max", "rms"));
+
+		for(int[] size : SIZES){
+			for(int quality : QUALITIES){
+				for(int i = 0; i < 2; i++){
+					name       = String.format("%dx%d q%d", size[0], size[1], quality);
+					comparison = compare(decoder, JpegFrameDecoderBenchmark.encodeTestFrame(size[0], size[1], quality, i == 1));
+					passed    &= comparison.isWithinTolerance();
+					System.out.println(String.format("%-24s %s", name, comparison));
+				}
+			}
+		}
+
+		for(String path : args){
+			comparison = compare(decoder, Files.readAllBytes(new File(path).toPath()));
+			passed    &= comparison.isWithinTolerance();
+			System.out.println(String.format("%-24s %s", new File(path).getName(), comparison));
+		}
+
+		passed &= checkCorruptFrames(decoder);
+
+		if(!passed){
+			System.out.println("The decoder output is off.");
+			System.exit(ProjectConstants.EXIT_FAILURE);
+		}
+	}
+
+	/**
+	 * <p>Decodes corrupt copies of the test frames.</p>
+	 *
+	 * @return True if the decoder threw nothing but {@link IllegalArgumentException}.
+	 */
+	static boolean checkCorruptFrames(JpegFrameDecoder decoder) throws IOException{
+		Random   random   = new Random(CORRUPT_SEED);
+		byte[][] frames   = new byte[SIZES.length][];
+		int      rejected = 0;
+		int      failed   = 0;
+		byte[]   frame;
+
+		for(int i = 0; i < SIZES.length; i++)
+			frames[i] = JpegFrameDecoderBenchmark.encodeTestFrame(SIZES[i][0], SIZES[i][1], QUALITIES[i % QUALITIES.length], i % 2 == 1);
+
+		for(int i = 0; i < CORRUPT_FRAMES; i++){
+			frame = frames[i % frames.length].clone();
+
+			if(random.nextInt(4) == 0){
+				frame = Arrays.copyOf(frame, 2 + random.nextInt(frame.length - 2));
+			}else{
+				// Favor the headers, where the sizes and tables are.
+				for(int j = random.nextInt(4); j >= 0; j--)
+					frame[2 + random.nextInt(random.nextBoolean() ? 640 : frame.length - 2)] = (byte)random.nextInt(256);
+			}
+
+			try{
+				decoder.release(decoder.decode(frame, 0, frame.length));
+			}catch(IllegalArgumentException e){
+				rejected++;
+			}catch(RuntimeException e){
+				if(failed++ == 0)
+					e.printStackTrace();
+			}
+		}
+
+		System.out.println(String.format("%-24s %d rejected, %d failed  %s", CORRUPT_FRAMES + " corrupt frames", rejected, failed, failed == 0 ? "ok" : "FAILED"));
+
+		return failed == 0;
+	}
+
+	/**
+	 * <p>Decodes a frame with both decoders and compares every pixel.</p>
+	 *
+	 * @throws IOException If <code>javax.imageio</code> cannot read the frame.
+	 * @throws IllegalStateException If the sizes of the decoded images differ.
+	 */
+	static Comparison compare(JpegFrameDecoder decoder, byte[] data) throws IOException, IllegalStateException{
+		Comparison    comparison = new Comparison();
+		BufferedImage expected   = ImageIO.read(new ByteArrayInputStream(data));
+		DecodedFrame  decoded    = decoder.decode(data, 0, data.length);
+		Raster        raster;
+		ByteBuffer    pixels;
+		int[]         sample     = new int[3];
+		long          squares    = 0L;
+		int           error;
+
+		try{
+			if(expected == null)
+				throw new IOException("Not a JPEG image.");
+			if(expected.getWidth() != decoded.width || expected.getHeight() != decoded.height)
+				throw new IllegalStateException("Decoded " + decoded.width + "x" + decoded.height + " instead of " + expected.getWidth() + "x" + expected.getHeight() + ".");
+
+			// Read the raster directly, as getRGB() applies a gamma curve to grayscale images.
+			raster               = expected.getRaster();
+			pixels               = decoded.pixels;
+			comparison.grayscale = raster.getNumBands() == 1;
+
+			for(int y = 0; y < decoded.height; y++){
+				for(int x = 0; x < decoded.width; x++){
+					raster.getPixel(x, y, sample);
+					if(comparison.grayscale)
+						sample[1] = sample[2] = sample[0];
+
+					for(int c = 0; c < 3; c++){
+						error               = Math.abs((pixels.get((y * decoded.width + x) * 3 + c) & 0xFF) - sample[c]);
+						comparison.maxError = Math.max(comparison.maxError, error);
+						squares            += error * error;
+					}
+				}
+			}
+
+			comparison.rmsError = Math.sqrt(squares / (3.0 * decoded.width * decoded.height));
+
+		}finally{
+			decoder.release(decoded);
+		}
+
+		return comparison;
+	}
+}
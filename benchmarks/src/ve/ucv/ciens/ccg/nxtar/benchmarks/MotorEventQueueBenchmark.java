@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ve.ucv.ciens.ccg.networkdata.MotorEvent;
+import ve.ucv.ciens.ccg.networkdata.MotorEvent.motor_t;
+import ve.ucv.ciens.ccg.nxtar.network.monitors.MotorEventQueue;
+import ve.ucv.ciens.ccg.nxtar.network.monitors.MotorEventQueue.queue_mode_t;
+
+/**
+ * <p>Measures the throughput of the {@link MotorEventQueue} between the input handlers, which
+ * produce the motor events, and the robot control thread, which consumes them.</p>
+ * <p>The producers cycle through the three motors so the coalescing mode has events to merge.
+ * Events are added with {@link MotorEventQueue#offerEvent(MotorEvent)} and taken with
+ * {@link MotorEventQueue#pollEvent()}, so no thread blocks when the benchmark stops.</p>
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MotorEventQueueBenchmark{
+	@Param({"FIFO", "COALESCING"})
+	public queue_mode_t mode;
+
+	@Param({"64"})
+	public int capacity;
+
+	private MotorEventQueue queue;
+	private MotorEvent[]    events;
+
+	@Setup
+	public void setUp(){
+		motor_t[] motors = {motor_t.MOTOR_A, motor_t.MOTOR_B, motor_t.MOTOR_C};
+
+		HeadlessApplication.install();
+
+		queue  = new MotorEventQueue(mode, capacity);
+		events = new MotorEvent[motors.length * 8];
+		for(int i = 0; i < events.length; i++){
+			events[i] = new MotorEvent();
+			events[i].setMotor(motors[i % motors.length]);
+			events[i].setPower((byte)((i * 25) % 100));
+		}
+	}
+
+	/**
+	 * <p>Per thread position in the event sequence.</p>
+	 */
+	@State(Scope.Thread)
+	public static class Producer{
+		int next = 0;
+	}
+
+	/**
+	 * <p>Adds and removes an event from the same thread.</p>
+	 */
+	@Benchmark
+	@Group("uncontended")
+	public MotorEvent addAndTake(Producer producer){
+		produce(producer);
+		return queue.pollEvent();
+	}
+
+	@Benchmark
+	@Group("oneProducer")
+	@GroupThreads(1)
+	public boolean oneProducerAdd(Producer producer){
+		return produce(producer);
+	}
+
+	@Benchmark
+	@Group("oneProducer")
+	@GroupThreads(1)
+	public MotorEvent oneProducerTake(){
+		return queue.pollEvent();
+	}
+
+	@Benchmark
+	@Group("threeProducers")
+	@GroupThreads(3)
+	public boolean threeProducersAdd(Producer producer){
+		return produce(producer);
+	}
+
+	@Benchmark
+	@Group("threeProducers")
+	@GroupThreads(1)
+	public MotorEvent threeProducersTake(){
+		return queue.pollEvent();
+	}
+
+	private boolean produce(Producer producer){
+		MotorEvent event = events[producer.next];
+
+		producer.next = (producer.next + 1) % events.length;
+
+		return queue.offerEvent(event);
+	}
+}
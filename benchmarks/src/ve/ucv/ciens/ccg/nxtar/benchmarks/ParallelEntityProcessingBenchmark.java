@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ve.ucv.ciens.ccg.nxtar.components.CollisionModelComponent;
+import ve.ucv.ciens.ccg.nxtar.components.GeometryComponent;
+import ve.ucv.ciens.ccg.nxtar.components.RenderModelComponent;
+import ve.ucv.ciens.ccg.nxtar.systems.GeometrySystem;
+
+import com.artemis.Entity;
+import com.artemis.World;
+import com.badlogic.gdx.graphics.g3d.Model;
+import com.badlogic.gdx.math.Matrix3;
+import com.badlogic.gdx.math.Vector3;
+
+/**
+ * <p>Compares the serial and parallel processing of the {@link GeometrySystem}, a
+ * {@link ve.ucv.ciens.ccg.nxtar.systems.ParallelEntityProcessingSystem}, from a handful of
+ * entities to far more than any game world holds.</p>
+ * <p>Every entity is moved before each run, so every transform and bounding box is recomputed.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ParallelEntityProcessingBenchmark{
+	/**
+	 * <p>Number of entities in the world.</p>
+	 */
+	@Param({"10", "100", "1000", "10000", "100000"})
+	public int entities;
+
+	/**
+	 * <p>Whether the system may process the entities in parallel.</p>
+	 */
+	@Param({"false", "true"})
+	public boolean parallel;
+
+	private World               world;
+	private Model               model;
+	private GeometrySystem      geometrySystem;
+	private GeometryComponent[] geometries;
+
+	@Setup
+	public void setUp(){
+		Entity entity;
+
+		HeadlessApplication.install();
+
+		model = SyntheticModels.createBox(0.5f);
+
+		world = new World();
+		geometrySystem = world.setSystem(new GeometrySystem(), true);
+		world.initialize();
+
+		geometrySystem.setParallelProcessingEnabled(parallel);
+		geometries = new GeometryComponent[entities];
+
+		for(int i = 0; i < entities; i++){
+			entity = world.createEntity();
+			geometries[i] = new GeometryComponent(new Vector3(i * 2.0f, 0.0f, -10.0f), new Matrix3().setToRotation(i), new Vector3(1, 1, 1));
+			entity.addComponent(geometries[i]);
+			entity.addComponent(new RenderModelComponent(model));
+			entity.addComponent(new CollisionModelComponent(model));
+			entity.addToWorld();
+		}
+
+		// Let the world add the new entities to the system.
+		world.setDelta(16.0f);
+		world.process();
+	}
+
+	@TearDown
+	public void tearDown(){
+		model.dispose();
+	}
+
+	@Benchmark
+	public void geometryChanged(){
+		for(int i = 0; i < geometries.length; i++)
+			geometries[i].markChanged();
+
+		geometrySystem.process();
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jdk.jfr.ValueDescriptor;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import ve.ucv.ciens.ccg.nxtar.profiling.LatencyHistogram;
+import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
+
+/**
+ * <p>Prints the throughput and latency of every stage of the video pipeline and the robot link
+ * found in a Flight Recorder file written with {@link JfrPipelineEvents}.</p>
+ * <p>For each event type the report shows the number of events, the events per second over the
+ * span of the recording and, for the events that carry a time span, its median, 99th percentile
+ * and maximum. The frames dropped are added up from the per second reports. Run it through the
+ * benchmarks script:</p>
+ * <pre>MAIN=ve.ucv.ciens.ccg.nxtar.benchmarks.PipelineRecordingAnalyzer ./run.sh recording.jfr</pre>
+ */
+public class PipelineRecordingAnalyzer{
+	private static final String TIMESPAN = "jdk.jfr.Timespan";
+
+	private static class Stage{
+		public long             count     = 0L;
+		public LatencyHistogram durations = new LatencyHistogram();
+	}
+
+	public static void main(String[] args) throws IOException{
+		Map<String, Stage> stages     = new TreeMap<String, Stage>();
+		Instant            first      = null;
+		Instant            last       = null;
+		long               lost       = 0L;
+		long               late       = 0L;
+		long               incomplete = 0L;
+		double             span;
+		RecordedEvent      event;
+		Stage              stage;
+		String             name;
+
+		if(args.length != 1){
+			System.err.println("Usage: PipelineRecordingAnalyzer FILE.jfr");
+			System.exit(ProjectConstants.EXIT_FAILURE);
+			return;
+		}
+
+		try(RecordingFile recording = new RecordingFile(new File(args[0]).toPath())){
+			while(recording.hasMoreEvents()){
+				event = recording.readEvent();
+				name  = event.getEventType().getName();
+				if(!name.startsWith(JfrPipelineEvents.EVENT_PREFIX))
+					continue;
+
+				name  = name.substring(JfrPipelineEvents.EVENT_PREFIX.length());
+				stage = stages.get(name);
+				if(stage == null){
+					stage = new Stage();
+					stages.put(name, stage);
+				}
+
+				stage.count++;
+				first = first == null || event.getEndTime().isBefore(first) ? event.getEndTime() : first;
+				last  = last == null || event.getEndTime().isAfter(last) ? event.getEndTime() : last;
+
+				for(ValueDescriptor field : event.getFields()){
+					if(TIMESPAN.equals(field.getContentType()) && !field.getName().equals("duration") && event.getLong(field.getName()) >= 0L)
+						stage.durations.record(event.getLong(field.getName()));
+				}
+
+				if(event.hasField("lostFrames")){
+					lost       += event.getInt("lostFrames");
+					late       += event.getInt("lateFrames");
+					incomplete += event.getInt("incompleteFrames");
+				}
+			}
+		}
+
+		if(stages.isEmpty()){
+			System.out.println("No pipeline events found in " + args[0]);
+			return;
+		}
+
+		span = Math.max((last.toEpochMilli() - first.toEpochMilli()) / 1000.0, 0.001);
+		System.out.println(String.format("%.1f s recorded.", span));
+		System.out.println(String.format("%-26s %9s %9s %9s %9s %9s", "Event", "count", "per s", "p50 ms", "p99 ms", "max ms"));
+
+		for(Map.Entry<String, Stage> entry : stages.entrySet()){
+			stage = entry.getValue();
+			if(stage.durations.getCount() > 0L)
+				System.out.println(String.format("%-26s %9d %9.1f %9.3f %9.3f %9.3f", entry.getKey(), stage.count, stage.count / span,
+						stage.durations.getValueAtPercentile(0.5) / 1000000.0, stage.durations.getValueAtPercentile(0.99) / 1000000.0,
+						stage.durations.getMax() / 1000000.0));
+			else
+				System.out.println(String.format("%-26s %9d %9.1f %9s %9s %9s", entry.getKey(), stage.count, stage.count / span, "-", "-", "-"));
+		}
+
+		System.out.println(String.format("Frames dropped: %d lost, %d of them late and %d incomplete.", lost, late, incomplete));
+	}
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ve.ucv.ciens.ccg.networkdata.MotorEvent;
+import ve.ucv.ciens.ccg.networkdata.MotorEvent.motor_t;
+import ve.ucv.ciens.ccg.networkdata.SensorRecord.sensor_t;
+import ve.ucv.ciens.ccg.nxtar.components.CollisionDetectionComponent;
+import ve.ucv.ciens.ccg.nxtar.components.CollisionModelComponent;
+import ve.ucv.ciens.ccg.nxtar.components.GeometryComponent;
+import ve.ucv.ciens.ccg.nxtar.components.MarkerCodeComponent;
+import ve.ucv.ciens.ccg.nxtar.components.RenderModelComponent;
+import ve.ucv.ciens.ccg.nxtar.components.VisibilityComponent;
+import ve.ucv.ciens.ccg.nxtar.interfaces.FrameDecoder.DecodedFrame;
+import ve.ucv.ciens.ccg.nxtar.network.RobotSessionManager;
+import ve.ucv.ciens.ccg.nxtar.network.monitors.VideoFrameMonitor;
+import ve.ucv.ciens.ccg.nxtar.network.recording.SessionRecorder;
+import ve.ucv.ciens.ccg.nxtar.network.recording.SessionRecorder.record_type_t;
+import ve.ucv.ciens.ccg.nxtar.network.recording.SessionReplay;
+import ve.ucv.ciens.ccg.nxtar.systems.CollisionDetectionSystem;
+import ve.ucv.ciens.ccg.nxtar.systems.GeometrySystem;
+import ve.ucv.ciens.ccg.nxtar.systems.MarkerCodeManager;
+import ve.ucv.ciens.ccg.nxtar.systems.MarkerPositioningSystem;
+import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
+import ve.ucv.ciens.ccg.nxtar.vision.JpegFrameDecoder;
+import ve.ucv.ciens.ccg.nxtar.vision.MarkerDetectionResult;
+import ve.ucv.ciens.ccg.nxtar.vision.MarkerDetectionThread;
+import ve.ucv.ciens.ccg.nxtar.vision.MarkerDetectionThread.frame_drop_policy_t;
+
+import com.artemis.Entity;
+import com.artemis.World;
+import com.artemis.managers.GroupManager;
+import com.badlogic.gdx.graphics.g3d.Model;
+import com.badlogic.gdx.math.Matrix3;
+import com.badlogic.gdx.math.Vector3;
+
+/**
+ * <p>Measures the whole frame pipeline of the application, from the video frame of a recorded
+ * session to the update of the game world, using a {@link SessionReplay} in place of the robot.</p>
+ * <p>Every operation replays the log up to the next video frame of the default session, waits for
+ * the {@link MarkerDetectionThread} to decode it and run a {@link SimulatedMarkerProcessor} on it,
+ * releases the decoded frame as the texture upload would, and processes a world laid out like the
+ * one of {@link EntitySystemsBenchmark} with the markers found. The log starts over when it ends.</p>
+ * <p>The log is given with the <code>log</code> parameter, for example one written by the
+ * application with {@link ProjectConstants#RECORD_SESSIONS}. Without it a synthetic session is
+ * recorded first, so the benchmark also runs without a robot.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplayPipelineBenchmark{
+	private static final int  SYNTHETIC_FRAMES = 300;
+	private static final int  SYNTHETIC_WIDTH  = 352;
+	private static final int  SYNTHETIC_HEIGHT = 288;
+	private static final long RESULT_TIMEOUT   = 5000000000L;
+
+	/**
+	 * <p>Path of the session log to replay. Empty to record a synthetic session.</p>
+	 */
+	@Param({""})
+	public String log;
+
+	/**
+	 * <p>Simulated detection time per pixel in nanoseconds.</p>
+	 */
+	@Param({"0"})
+	public long pixelCost;
+
+	/**
+	 * <p>Number of marker bound entities in the world.</p>
+	 */
+	@Param({"16", "1024"})
+	public int markerEntities;
+
+	private File                    logFile;
+	private boolean                 syntheticLog;
+	private SessionReplay           replay;
+	private VideoFrameMonitor       frameMonitor;
+	private JpegFrameDecoder        decoder;
+	private MarkerDetectionThread   detectionThread;
+	private World                   world;
+	private Model                   model;
+	private MarkerPositioningSystem markerPositioningSystem;
+
+	@Setup
+	public void setUp() throws IOException{
+		HeadlessApplication.install();
+
+		syntheticLog = log.isEmpty();
+		logFile      = syntheticLog ? recordSyntheticSession() : new File(log);
+		replay       = new SessionReplay(logFile, SessionReplay.AS_FAST_AS_POSSIBLE, false);
+		frameMonitor = RobotSessionManager.getInstance().getDefaultSession().getFrameMonitor();
+
+		createWorld();
+
+		decoder         = new JpegFrameDecoder();
+		detectionThread = new MarkerDetectionThread(new SimulatedMarkerProcessor(pixelCost, ProjectConstants.MAXIMUM_NUMBER_OF_MARKERS), decoder, frame_drop_policy_t.LATEST_FRAME, 1000L, 1000);
+		detectionThread.start();
+		detectionThread.play();
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException{
+		detectionThread.finish();
+		detectionThread.join();
+		model.dispose();
+
+		if(syntheticLog)
+			logFile.delete();
+	}
+
+	/**
+	 * <p>Takes the next video frame of the log through detection and the world update.</p>
+	 */
+	@Benchmark
+	public void frame(){
+		MarkerDetectionResult result;
+		DecodedFrame          decodedFrame;
+
+		result = awaitResult(replayNextFrame());
+
+		decodedFrame = result.claimDecodedFrame();
+		if(decodedFrame != null)
+			decoder.release(decodedFrame);
+
+		markerPositioningSystem.setMarkerData(result.markerData, result.frameReceiveTimestamp, System.nanoTime());
+		world.setDelta(16.0f);
+		world.process();
+	}
+
+	/**
+	 * <p>Replays the log until a frame is published in the default session, starting over at the end.</p>
+	 *
+	 * @return The sequence number of the frame.
+	 */
+	private long replayNextFrame(){
+		long          previous = frameMonitor.getLatestSequence();
+		boolean       rewound  = false;
+		record_type_t type;
+
+		for(;;){
+			type = replay.replayNext();
+
+			if(frameMonitor.getLatestSequence() != previous)
+				return frameMonitor.getLatestSequence();
+
+			if(type == record_type_t.END){
+				if(rewound)
+					throw new IllegalStateException("The log has no video frames of the default session.");
+
+				replay.rewind();
+				rewound = true;
+			}
+		}
+	}
+
+	private MarkerDetectionResult awaitResult(long sequence){
+		MarkerDetectionResult result;
+		long                  deadline = System.nanoTime() + RESULT_TIMEOUT;
+
+		while((result = detectionThread.getLatestResult()) == null || result.frameSequence < sequence){
+			if(System.nanoTime() > deadline)
+				throw new IllegalStateException("No detection result for frame " + Long.toString(sequence) + ".");
+			Thread.yield();
+		}
+
+		return result;
+	}
+
+	private void createWorld(){
+		GroupManager groupManager;
+		Entity       entity;
+
+		model = SyntheticModels.createBox(0.5f);
+
+		world = new World();
+		world.setManager(new GroupManager());
+		world.setManager(new MarkerCodeManager());
+		markerPositioningSystem = world.setSystem(new MarkerPositioningSystem());
+		world.setSystem(new GeometrySystem());
+		world.setSystem(new CollisionDetectionSystem()).enableCollisions();
+		world.initialize();
+
+		groupManager = world.getManager(GroupManager.class);
+
+		for(int i = 0; i < markerEntities; i++){
+			entity = world.createEntity();
+			entity.addComponent(new GeometryComponent(new Vector3(i * 2.0f, 0.0f, -10.0f), new Matrix3(), new Vector3(1, 1, 1)));
+			entity.addComponent(new MarkerCodeComponent(i % 1024));
+			entity.addComponent(new VisibilityComponent());
+			entity.addComponent(new RenderModelComponent(model));
+			entity.addComponent(new CollisionModelComponent(model));
+			entity.addComponent(new CollisionDetectionComponent());
+			entity.addToWorld();
+			groupManager.add(entity, CollisionDetectionSystem.COLLIDABLE_OBJECTS_GROUP);
+		}
+
+		// A robot arm like entity that collides with the markers.
+		entity = world.createEntity();
+		entity.addComponent(new GeometryComponent(new Vector3(0.0f, 0.0f, -10.0f), new Matrix3(), new Vector3(1, 1, 1)));
+		entity.addComponent(new RenderModelComponent(model));
+		entity.addComponent(new CollisionModelComponent(model));
+		entity.addComponent(new CollisionDetectionComponent());
+		entity.addToWorld();
+	}
+
+	/**
+	 * <p>Records ten seconds of a robot streaming at 30 frames per second, with a light sensor
+	 * reading per frame and a motor event every tenth frame.</p>
+	 */
+	private File recordSyntheticSession() throws IOException{
+		File            file   = File.createTempFile("nxtar_replay", ".log");
+		SessionRecorder recorder;
+		MotorEvent      event  = new MotorEvent();
+		byte[]          frame  = JpegFrameDecoderBenchmark.encodeTestFrame(SYNTHETIC_WIDTH, SYNTHETIC_HEIGHT);
+
+		recorder = new SessionRecorder(file);
+		event.setMotor(motor_t.MOTOR_A);
+
+		for(int i = 0; i < SYNTHETIC_FRAMES; i++){
+			recorder.recordVideoFrame(RobotSessionManager.DEFAULT_SESSION, frame, 0, frame.length, SYNTHETIC_WIDTH, SYNTHETIC_HEIGHT);
+			recorder.recordSensorReading(RobotSessionManager.DEFAULT_SESSION, sensor_t.LIGHT, 40 + i % 20, i * 33L);
+
+			if(i % 10 == 0){
+				event.setPower((byte)(i % 100));
+				recorder.recordMotorEvent(RobotSessionManager.DEFAULT_SESSION, event);
+			}
+		}
+
+		recorder.close();
+
+		return file;
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.benchmarks;
+
+import ve.ucv.ciens.ccg.nxtar.interfaces.DecodedFrameProcessor;
+import ve.ucv.ciens.ccg.nxtar.interfaces.FrameDecoder.DecodedFrame;
+import ve.ucv.ciens.ccg.nxtar.interfaces.ImageProcessor;
+import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
+
+import com.badlogic.gdx.math.Matrix3;
+import com.badlogic.gdx.math.Vector3;
+
+/**
+ * <p>Stands in for the marker detection of the application. It spends a fixed time per pixel
+ * of every decoded frame and finds the first markers, from code zero up, spread in front of the
+ * camera. The markers turn a little on every detection, so the entities bound to them move.</p>
+ */
+class SimulatedMarkerProcessor implements ImageProcessor, DecodedFrameProcessor{
+	private final long pixelCost;
+	private final int  markers;
+	private int        detections;
+
+	/**
+	 * @param pixelCost Detection time per pixel in nanoseconds.
+	 * @param markers Number of markers found in every frame, up to {@link ProjectConstants#MAXIMUM_NUMBER_OF_MARKERS}.
+	 */
+	public SimulatedMarkerProcessor(long pixelCost, int markers){
+		this.pixelCost  = pixelCost;
+		this.markers    = Math.min(markers, ProjectConstants.MAXIMUM_NUMBER_OF_MARKERS);
+		this.detections = 0;
+	}
+
+	@Override
+	public MarkerData findMarkersInDecodedFrame(DecodedFrame frame){
+		return detect((long)frame.width * frame.height);
+	}
+
+	@Override
+	public MarkerData findMarkersInFrame(byte[] frame){
+		return detect(frame.length);
+	}
+
+	private MarkerData detect(long pixels){
+		MarkerData data = new MarkerData();
+		long       end  = System.nanoTime() + pixels * pixelCost;
+
+		// Busy wait like a real detection would keep the processor busy.
+		while(System.nanoTime() < end);
+
+		data.markerCodes        = new int[ProjectConstants.MAXIMUM_NUMBER_OF_MARKERS];
+		data.translationVectors = new Vector3[ProjectConstants.MAXIMUM_NUMBER_OF_MARKERS];
+		data.rotationMatrices   = new Matrix3[ProjectConstants.MAXIMUM_NUMBER_OF_MARKERS];
+
+		for(int i = 0; i < ProjectConstants.MAXIMUM_NUMBER_OF_MARKERS; i++){
+			data.markerCodes[i]        = i < markers ? i : -1;
+			data.translationVectors[i] = new Vector3(i * 2.0f, 0.0f, -10.0f);
+			data.rotationMatrices[i]   = new Matrix3().setToRotation((15.0f * i + detections) % 360.0f);
+		}
+		detections++;
+
+		return data;
+	}
+
+	@Override
+	public CalibrationData findCalibrationPattern(byte[] frame){
+		return new CalibrationData();
+	}
+
+	@Override
+	public void calibrateCamera(float[][] calibrationSamples, byte[] frame){ }
+
+	@Override
+	public byte[] undistortFrame(byte[] frame){
+		return frame;
+	}
+
+	@Override
+	public boolean isCameraCalibrated(){
+		return false;
+	}
+
+	@Override
+	public float getFocalPointX(){
+		return 0.0f;
+	}
+
+	@Override
+	public float getFocalPointY(){
+		return 0.0f;
+	}
+
+	@Override
+	public float getCameraCenterX(){
+		return 0.0f;
+	}
+
+	@Override
+	public float getCameraCenterY(){
+		return 0.0f;
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.benchmarks;
+
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.Mesh.VertexDataType;
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.VertexAttributes.Usage;
+import com.badlogic.gdx.graphics.g3d.Material;
+import com.badlogic.gdx.graphics.g3d.Model;
+import com.badlogic.gdx.graphics.g3d.model.MeshPart;
+import com.badlogic.gdx.graphics.g3d.model.Node;
+import com.badlogic.gdx.graphics.g3d.model.NodePart;
+
+/**
+ * <p>Builds models that can be used without an OpenGL context.</p>
+ * <p>The ModelBuilder of libGDX stores its meshes in vertex buffer objects, which need a GL
+ * context. The models built here keep their vertices in plain vertex arrays instead, which is
+ * enough for the transform and bounding box calculations done by the entity systems.</p>
+ */
+public final class SyntheticModels{
+	private static final short[] BOX_INDICES = {
+		0, 1, 2, 2, 3, 0,
+		4, 5, 6, 6, 7, 4,
+		0, 4, 7, 7, 3, 0,
+		1, 5, 6, 6, 2, 1,
+		3, 2, 6, 6, 7, 3,
+		0, 1, 5, 5, 4, 0
+	};
+
+	private SyntheticModels(){ }
+
+	/**
+	 * <p>Creates an axis aligned box centered at the origin.</p>
+	 *
+	 * @param halfSize Half the length of the sides of the box.
+	 * @return The box model.
+	 */
+	public static Model createBox(float halfSize){
+		Model    model;
+		Mesh     mesh;
+		MeshPart meshPart;
+		Node     node;
+		float[]  vertices;
+
+		vertices = new float[]{
+			-halfSize, -halfSize, -halfSize,
+			 halfSize, -halfSize, -halfSize,
+			 halfSize,  halfSize, -halfSize,
+			-halfSize,  halfSize, -halfSize,
+			-halfSize, -halfSize,  halfSize,
+			 halfSize, -halfSize,  halfSize,
+			 halfSize,  halfSize,  halfSize,
+			-halfSize,  halfSize,  halfSize
+		};
+
+		mesh = new Mesh(VertexDataType.VertexArray, true, vertices.length / 3, BOX_INDICES.length, new VertexAttribute(Usage.Position, 3, "a_position"));
+		mesh.setVertices(vertices);
+		mesh.setIndices(BOX_INDICES);
+
+		meshPart = new MeshPart("box", mesh, 0, BOX_INDICES.length, GL20.GL_TRIANGLES);
+
+		node    = new Node();
+		node.id = "box";
+		node.parts.add(new NodePart(meshPart, new Material()));
+
+		model = new Model();
+		model.meshes.add(mesh);
+		model.meshParts.add(meshPart);
+		model.nodes.add(node);
+
+		return model;
+	}
+}
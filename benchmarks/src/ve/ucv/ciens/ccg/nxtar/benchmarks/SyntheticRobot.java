@@ -0,0 +1,545 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import ve.ucv.ciens.ccg.networkdata.MotorCommandFrame;
+import ve.ucv.ciens.ccg.networkdata.MotorEventACK;
+import ve.ucv.ciens.ccg.networkdata.SensorRecord;
+import ve.ucv.ciens.ccg.networkdata.SensorRecord.sensor_t;
+import ve.ucv.ciens.ccg.networkdata.SessionHello;
+import ve.ucv.ciens.ccg.networkdata.VideoFrameHeader;
+import ve.ucv.ciens.ccg.networkdata.VideoStreamingControlMessage;
+import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
+
+/**
+ * <p>A stand-in for the robot client that speaks the binary protocols of the core network
+ * handlers.</p>
+ * <p>The robot streams the same JPEG frame over and over at a fixed rate, reports light sensor
+ * readings and runs the motor command protocol with a command queue of its own. The queue holds
+ * as many commands as the credits the robot announces and is drained at a fixed rate. Commands
+ * are acknowledged after a configurable delay, with the credits left in the queue, so a slow
+ * robot fills its queue and announces zero credits until it drains again.</p>
+ * <p>Robots with a session id other than zero open every connection with a {@link SessionHello}
+ * and send the session variant of the video header.</p>
+ * <p>The robot applies the {@link VideoStreamingControlMessage}s the core sends back to its video
+ * socket, encoding the frame again with the requested resolution and quality.</p>
+ */
+public class SyntheticRobot{
+	private static final long SECOND = 1000000000L;
+
+	/**
+	 * <p>Tells when the core issued a motor command, so the robot can measure the latency of the
+	 * commands it receives. Only available when the core runs in the same process.</p>
+	 */
+	public interface CommandClock{
+		/**
+		 * @param sessionId The session of the robot.
+		 * @param sequence The sequence number of the command.
+		 * @return The {@link System#nanoTime()} when the command was issued, or zero if unknown.
+		 */
+		public long getIssueTime(int sessionId, int sequence);
+	}
+
+	/**
+	 * <p>Behaviour of a synthetic robot.</p>
+	 */
+	public static class Settings{
+		public int  sessionId       = 0;
+		public int  width           = 320;
+		public int  height          = 240;
+		public int  quality         = 75;
+		public int  framesPerSecond = 30;
+		public int  fragmentSize    = 60000;
+		public int  sensorRate      = 20;
+		public int  credits         = ProjectConstants.MOTOR_COMMAND_WINDOW;
+		public int  drainRate       = 0;
+		public long ackDelay        = 0L;
+	}
+
+	private final Settings     settings;
+	private final InetAddress  server;
+	private final CommandClock clock;
+	private final Thread[]     threads;
+	private volatile boolean   done;
+	private volatile String    streamParameters;
+	private byte[]             frame;
+
+	private final AtomicLong framesSent;
+	private final AtomicLong controlMessages;
+	private final AtomicLong bytesSent;
+	private final AtomicLong sensorReadings;
+	private final AtomicLong commandsReceived;
+	private final AtomicLong zeroCreditAcks;
+	private final AtomicLong protocolErrors;
+	private final AtomicLong latencySum;
+	private final AtomicLong latencyCount;
+	private final AtomicLong latencyMax;
+
+	/**
+	 * @param settings The behaviour of this robot.
+	 * @param server The address of the core.
+	 * @param clock The issue times of the motor commands. Can be null.
+	 * @throws IllegalArgumentException If any of the settings is out of range.
+	 * @throws IOException If the frame cannot be encoded.
+	 */
+	public SyntheticRobot(Settings settings, InetAddress server, CommandClock clock) throws IllegalArgumentException, IOException{
+		if(settings.framesPerSecond < 0 || settings.sensorRate < 0 || settings.drainRate < 0 || settings.ackDelay < 0L)
+			throw new IllegalArgumentException("Rates and delays cannot be negative.");
+		if(settings.width <= 0 || settings.height <= 0 || settings.quality <= 0 || settings.quality > 100)
+			throw new IllegalArgumentException("Invalid resolution or quality.");
+		if(settings.credits <= 0 || settings.credits > Short.MAX_VALUE)
+			throw new IllegalArgumentException("Credits out of range: " + Integer.toString(settings.credits));
+		if(settings.fragmentSize <= 0 || settings.fragmentSize > 65507 - VideoFrameHeader.TIMED_HEADER_SIZE)
+			throw new IllegalArgumentException("Fragment size out of range: " + Integer.toString(settings.fragmentSize));
+
+		this.settings = settings;
+		this.server   = server;
+		this.clock    = clock;
+		threads       = new Thread[3];
+		done          = false;
+
+		encodeFrame(settings.width, settings.height, settings.quality, settings.framesPerSecond);
+
+		framesSent       = new AtomicLong(0L);
+		controlMessages  = new AtomicLong(0L);
+		bytesSent        = new AtomicLong(0L);
+		sensorReadings   = new AtomicLong(0L);
+		commandsReceived = new AtomicLong(0L);
+		zeroCreditAcks   = new AtomicLong(0L);
+		protocolErrors   = new AtomicLong(0L);
+		latencySum       = new AtomicLong(0L);
+		latencyCount     = new AtomicLong(0L);
+		latencyMax       = new AtomicLong(0L);
+	}
+
+	public void start(){
+		threads[0] = new Thread(new Runnable(){ @Override public void run(){ streamVideo(); } }, "SyntheticRobot-" + settings.sessionId + "-video");
+		threads[1] = new Thread(new Runnable(){ @Override public void run(){ reportSensors(); } }, "SyntheticRobot-" + settings.sessionId + "-sensor");
+		threads[2] = new Thread(new Runnable(){ @Override public void run(){ runMotors(); } }, "SyntheticRobot-" + settings.sessionId + "-motor");
+
+		for(Thread thread : threads){
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * <p>Stops the robot and waits for its threads to close their connections.</p>
+	 */
+	public void finish() throws InterruptedException{
+		done = true;
+		for(Thread thread : threads){
+			if(thread != null){
+				LockSupport.unpark(thread);
+				thread.join();
+			}
+		}
+	}
+
+	public int getSessionId(){
+		return settings.sessionId;
+	}
+
+	public long getFramesSent(){
+		return framesSent.get();
+	}
+
+	/**
+	 * <p>Number of video control messages applied.</p>
+	 */
+	public long getControlMessages(){
+		return controlMessages.get();
+	}
+
+	/**
+	 * <p>Describes the current resolution, quality and frame rate of the video stream.</p>
+	 */
+	public String getStreamParameters(){
+		return streamParameters;
+	}
+
+	public long getBytesSent(){
+		return bytesSent.get();
+	}
+
+	public long getSensorReadings(){
+		return sensorReadings.get();
+	}
+
+	public long getCommandsReceived(){
+		return commandsReceived.get();
+	}
+
+	/**
+	 * <p>Number of acknowledgements sent with zero credits because the command queue was full.</p>
+	 */
+	public long getZeroCreditAcks(){
+		return zeroCreditAcks.get();
+	}
+
+	/**
+	 * <p>Number of commands received out of sequence or beyond the announced credits, and of
+	 * connections lost before the robot finished.</p>
+	 */
+	public long getProtocolErrors(){
+		return protocolErrors.get();
+	}
+
+	/**
+	 * <p>Sum in nanoseconds of the latencies of the commands received.</p>
+	 */
+	public long getLatencySum(){
+		return latencySum.get();
+	}
+
+	public long getLatencyCount(){
+		return latencyCount.get();
+	}
+
+	/**
+	 * <p>Returns the largest latency measured since the last call and starts over.</p>
+	 */
+	public long takeLatencyMax(){
+		return latencyMax.getAndSet(0L);
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;
+	  ; VIDEO STREAMING ;
+	  ;;;;;;;;;;;;;;;;;;;*/
+
+	private void streamVideo(){
+		DatagramChannel              channel     = null;
+		VideoFrameHeader             header      = new VideoFrameHeader();
+		VideoStreamingControlMessage control     = new VideoStreamingControlMessage();
+		ByteBuffer                   datagram    = ByteBuffer.allocateDirect(settings.fragmentSize + VideoFrameHeader.TIMED_HEADER_SIZE);
+		int                          width       = settings.width;
+		int                          height      = settings.height;
+		int                          quality     = settings.quality;
+		int                          rate        = settings.framesPerSecond;
+		int                          lastControl = 0;
+		long                         next;
+
+		if(settings.framesPerSecond == 0)
+			return;
+
+		header.sessionId = settings.sessionId;
+
+		try{
+			channel = DatagramChannel.open();
+			channel.connect(new InetSocketAddress(server, ProjectConstants.VIDEO_STREAMING_PORT));
+			channel.configureBlocking(false);
+
+			next = System.nanoTime();
+			while(!done){
+				// Apply the newest control message sent by the core.
+				while(receiveControl(channel, datagram, control)){
+					if(control.sequence <= lastControl)
+						continue;
+
+					lastControl = control.sequence;
+					width   = control.imageWidth > 0 ? control.imageWidth : width;
+					height  = control.imageHeight > 0 ? control.imageHeight : height;
+					quality = control.quality > 0 ? Math.min(control.quality, 100) : quality;
+					rate    = control.framesPerSecond > 0 ? control.framesPerSecond : rate;
+					encodeFrame(width, height, quality, rate);
+					controlMessages.incrementAndGet();
+				}
+
+				header.sequence++;
+				header.captureTimestamp = System.currentTimeMillis();
+				header.imageWidth    = width;
+				header.imageHeight   = height;
+				header.frameLength   = frame.length;
+				header.fragmentCount = (frame.length + settings.fragmentSize - 1) / settings.fragmentSize;
+
+				for(int i = 0; i < header.fragmentCount; i++){
+					header.fragmentIndex  = i;
+					header.fragmentOffset = i * settings.fragmentSize;
+					header.payloadLength  = Math.min(settings.fragmentSize, frame.length - header.fragmentOffset);
+
+					datagram.clear();
+					header.writeTo(datagram);
+					datagram.put(frame, header.fragmentOffset, header.payloadLength);
+					datagram.flip();
+					bytesSent.addAndGet(channel.write(datagram));
+				}
+				framesSent.incrementAndGet();
+
+				// Frames that fall behind are sent right away instead of being skipped.
+				next += SECOND / rate;
+				waitUntil(next);
+			}
+
+		}catch(IOException io){
+			if(!done)
+				protocolErrors.incrementAndGet();
+		}finally{
+			close(channel);
+		}
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;;
+	  ; SENSOR REPORTING ;
+	  ;;;;;;;;;;;;;;;;;;;;*/
+
+	private void reportSensors(){
+		SocketChannel channel = null;
+		SensorRecord  record  = new SensorRecord();
+		ByteBuffer    buffer  = ByteBuffer.allocateDirect(SensorRecord.RECORD_SIZE);
+		long          start   = System.nanoTime();
+		long          period;
+		long          next;
+
+		if(settings.sensorRate == 0)
+			return;
+
+		period = SECOND / settings.sensorRate;
+		record.sensor = sensor_t.LIGHT;
+
+		try{
+			channel = connect(ProjectConstants.SENSOR_REPORT_PORT);
+
+			next = start;
+			while(!done){
+				// A slow light wave between 0 and 100.
+				record.timestamp = (System.nanoTime() - start) / 1000000L;
+				record.value     = (int)(50.0 + 50.0 * Math.sin(record.timestamp / 1000.0));
+
+				buffer.clear();
+				record.writeTo(buffer);
+				buffer.flip();
+				writeFully(channel, buffer);
+				sensorReadings.incrementAndGet();
+
+				next += period;
+				waitUntil(next);
+			}
+
+		}catch(IOException io){
+			if(!done)
+				protocolErrors.incrementAndGet();
+		}finally{
+			close(channel);
+		}
+	}
+
+	/*;;;;;;;;;;;;;;;;;;
+	  ; MOTOR COMMANDS ;
+	  ;;;;;;;;;;;;;;;;;;*/
+
+	/**
+	 * <p>Receives commands into the robot queue, drains the queue at the configured rate and sends
+	 * the acknowledgements once their delay has elapsed. An acknowledgement is due after every
+	 * batch of commands received and whenever a full queue makes room again.</p>
+	 */
+	private void runMotors(){
+		SocketChannel     channel      = null;
+		Selector          selector     = null;
+		MotorCommandFrame command      = new MotorCommandFrame();
+		ByteBuffer        input        = ByteBuffer.allocateDirect(MotorCommandFrame.FRAME_SIZE * 64);
+		ByteBuffer        output       = ByteBuffer.allocateDirect(MotorEventACK.FRAME_SIZE);
+		long              drainPeriod  = settings.drainRate > 0 ? SECOND / settings.drainRate : 0L;
+		long              nextDrain    = 0L;
+		long              ackDue       = 0L;
+		int               lastReceived = 0;
+		int               queued       = 0;
+		int               announced    = settings.credits;
+		long              now;
+		long              wait;
+		long              issued;
+
+		try{
+			channel  = connect(ProjectConstants.MOTOR_CONTROL_PORT);
+			selector = Selector.open();
+
+			// The initial acknowledgement opens the binary protocol.
+			sendAck(channel, output, 0, settings.credits);
+
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ);
+
+			while(!done){
+				now = System.nanoTime();
+
+				// Drain the queue.
+				if(queued > 0 && drainPeriod > 0L && now >= nextDrain){
+					queued -= Math.min(queued, (int)((now - nextDrain) / drainPeriod) + 1);
+					nextDrain = now + drainPeriod;
+
+					// A full queue made room, so the core gets a window update.
+					if(announced == 0 && ackDue == 0L)
+						ackDue = now + settings.ackDelay * 1000000L;
+				}
+
+				if(ackDue != 0L && now >= ackDue){
+					announced = settings.credits - queued;
+					sendAck(channel, output, lastReceived, announced);
+					if(announced == 0)
+						zeroCreditAcks.incrementAndGet();
+					ackDue = 0L;
+				}
+
+				wait = ackDue != 0L ? ackDue - now : SECOND / 10;
+				if(queued > 0 && drainPeriod > 0L)
+					wait = Math.min(wait, nextDrain - now);
+				selector.select(Math.max(wait / 1000000L, 1L));
+				selector.selectedKeys().clear();
+
+				if(channel.read(input) < 0)
+					break;
+
+				input.flip();
+				now = System.nanoTime();
+				while(command.readFrom(input)){
+					commandsReceived.incrementAndGet();
+
+					if(command.sequence != lastReceived + 1 || queued >= settings.credits)
+						protocolErrors.incrementAndGet();
+					lastReceived = command.sequence;
+
+					if(drainPeriod > 0L){
+						if(queued == 0)
+							nextDrain = now + drainPeriod;
+						queued++;
+					}
+
+					issued = clock != null ? clock.getIssueTime(settings.sessionId, command.sequence) : 0L;
+					if(issued != 0L)
+						addLatency(now - issued);
+
+					if(ackDue == 0L)
+						ackDue = now + settings.ackDelay * 1000000L;
+				}
+				if(input.remaining() >= MotorCommandFrame.FRAME_SIZE){
+					protocolErrors.incrementAndGet();
+					break;
+				}
+				input.compact();
+			}
+
+			if(!done)
+				protocolErrors.incrementAndGet();
+
+		}catch(IOException io){
+			if(!done)
+				protocolErrors.incrementAndGet();
+		}finally{
+			close(selector);
+			close(channel);
+		}
+	}
+
+	/**
+	 * <p>Reads a datagram sent by the core to the video socket, if any.</p>
+	 */
+	private boolean receiveControl(DatagramChannel channel, ByteBuffer buffer, VideoStreamingControlMessage control) throws IOException{
+		for(;;){
+			buffer.clear();
+			try{
+				if(channel.read(buffer) <= 0)
+					return false;
+			}catch(PortUnreachableException pu){
+				// The core is not listening yet.
+				return false;
+			}
+
+			buffer.flip();
+			if(control.readFrom(buffer))
+				return true;
+		}
+	}
+
+	/**
+	 * <p>Encodes the frame streamed from now on.</p>
+	 */
+	private void encodeFrame(int width, int height, int quality, int framesPerSecond) throws IOException{
+		frame            = JpegFrameDecoderBenchmark.encodeTestFrame(width, height, quality);
+		streamParameters = Integer.toString(width) + "x" + Integer.toString(height) + " q" + Integer.toString(quality) + " " + Integer.toString(framesPerSecond) + "fps";
+	}
+
+	private void sendAck(SocketChannel channel, ByteBuffer output, int sequence, int credits) throws IOException{
+		output.clear();
+		new MotorEventACK(sequence, credits).writeTo(output);
+		output.flip();
+		writeFully(channel, output);
+	}
+
+	private void addLatency(long latency){
+		long max;
+
+		latencySum.addAndGet(latency);
+		latencyCount.incrementAndGet();
+
+		do{
+			max = latencyMax.get();
+		}while(latency > max && !latencyMax.compareAndSet(max, latency));
+	}
+
+	/*;;;;;;;;;;;;;;;;;;
+	  ; HELPER METHODS ;
+	  ;;;;;;;;;;;;;;;;;;*/
+
+	private SocketChannel connect(int port) throws IOException{
+		SocketChannel channel = SocketChannel.open(new InetSocketAddress(server, port));
+		ByteBuffer    buffer;
+		SessionHello  hello;
+
+		channel.socket().setTcpNoDelay(true);
+
+		if(settings.sessionId != 0){
+			hello = new SessionHello();
+			hello.sessionId = settings.sessionId;
+			buffer = ByteBuffer.allocate(SessionHello.FRAME_SIZE);
+			hello.writeTo(buffer);
+			buffer.flip();
+			writeFully(channel, buffer);
+		}
+
+		return channel;
+	}
+
+	private void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException{
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	private void waitUntil(long deadline){
+		long remaining;
+
+		while(!done && (remaining = deadline - System.nanoTime()) > 0L)
+			LockSupport.parkNanos(this, remaining);
+	}
+
+	private static void close(Closeable closeable){
+		try{
+			if(closeable != null)
+				closeable.close();
+		}catch(IOException io){ }
+	}
+}
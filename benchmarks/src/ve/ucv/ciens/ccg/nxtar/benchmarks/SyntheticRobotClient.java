@@ -0,0 +1,513 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import jdk.jfr.Recording;
+import ve.ucv.ciens.ccg.networkdata.MotorEvent;
+import ve.ucv.ciens.ccg.networkdata.MotorEvent.motor_t;
+import ve.ucv.ciens.ccg.nxtar.network.RobotControlThread;
+import ve.ucv.ciens.ccg.nxtar.network.RobotSession;
+import ve.ucv.ciens.ccg.nxtar.network.RobotSessionManager;
+import ve.ucv.ciens.ccg.nxtar.network.SensorReportThread;
+import ve.ucv.ciens.ccg.nxtar.network.ServiceDiscoveryThread;
+import ve.ucv.ciens.ccg.nxtar.network.VideoQualityController;
+import ve.ucv.ciens.ccg.nxtar.network.VideoQualityController.StreamSettings;
+import ve.ucv.ciens.ccg.nxtar.network.VideoStreamingThread;
+import ve.ucv.ciens.ccg.nxtar.profiling.FrameLatencyTracer;
+import ve.ucv.ciens.ccg.nxtar.profiling.FrameLatencyTracer.stage_t;
+import ve.ucv.ciens.ccg.nxtar.profiling.PipelineEvents;
+import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
+import ve.ucv.ciens.ccg.nxtar.vision.JpegFrameDecoder;
+import ve.ucv.ciens.ccg.nxtar.vision.MarkerDetectionThread;
+import ve.ucv.ciens.ccg.nxtar.vision.MarkerDetectionThread.frame_drop_policy_t;
+
+/**
+ * <p>Load and soak test driver built on {@link SyntheticRobot}.</p>
+ * <p>Without a server address the robots wait for the service discovery announcement of the core
+ * and connect to its sender. With <code>--host-core</code> the core network handlers run in this
+ * process instead, and a command driver feeds motor commands to every session at a fixed rate.
+ * Since both sides then share the same clock, the robots also report the latency from the moment
+ * a command was queued in the core until it arrived at the robot.</p>
+ * <p>With <code>--adaptive</code> the frames of the first robot are also decoded and run through a
+ * simulated marker detection that takes a fixed time per pixel, and a
+ * {@link VideoQualityController} asks that robot for a lighter or richer stream to keep the
+ * latency under the given budget, like the application does.</p>
+ * <p>A line per robot is printed every second, followed in host mode by the latency of the frames
+ * in every stage of the core pipeline, and the totals when the test ends. Run it through
+ * the benchmarks script, for example:</p>
+ * <pre>MAIN=ve.ucv.ciens.ccg.nxtar.benchmarks.SyntheticRobotClient ./run.sh --host-core --robots 3 --fps 90</pre>
+ */
+public class SyntheticRobotClient{
+	private static final String USAGE =
+			"Options:\n" +
+			"  --server HOST        Address of the core. By default it is found with service discovery.\n" +
+			"  --host-core          Run the core network handlers in this process and drive motor commands.\n" +
+			"  --robots N           Number of robots, each in its own session starting at zero. Default 1.\n" +
+			"  --resolution WxH     Frame resolution. Default 320x240.\n" +
+			"  --quality Q          JPEG quality between 1 and 100. Default 75.\n" +
+			"  --fps N              Frames per second per robot. Default 30.\n" +
+			"  --fragment BYTES     Largest video payload per datagram. Default 60000.\n" +
+			"  --sensor-rate N      Light sensor readings per second per robot. Default 20.\n" +
+			"  --credits N          Size of the robot command queue. Default " + ProjectConstants.MOTOR_COMMAND_WINDOW + ".\n" +
+			"  --drain-rate N       Commands per second the robot executes, zero for no limit. Default 0.\n" +
+			"  --ack-delay MS       Delay before acknowledging commands. Default 0.\n" +
+			"  --command-rate N     Commands per second per robot queued by the driver. Needs --host-core. Default 50.\n" +
+			"  --adaptive MS        Adapt the stream of the first robot to this latency budget. Needs --host-core.\n" +
+			"  --detection-cost NS  Simulated detection time per pixel with --adaptive. Default 200.\n" +
+			"  --duration S         Length of the test in seconds. Default 60.\n" +
+			"  --jfr FILE           Record the pipeline events of the core with Flight Recorder. Needs --host-core.\n" +
+			"  --help               Show this message.\n";
+
+	private static final long DISCOVERY_TIMEOUT = 10000L;
+	private static final int  ISSUE_TIME_SLOTS  = 1024;
+	private static final long RENDER_FRAME_TIME = 16L;
+
+	private static SyntheticRobot.Settings settings    = new SyntheticRobot.Settings();
+	private static String                  serverName  = null;
+	private static boolean                 hostCore    = false;
+	private static int                     robotCount  = 1;
+	private static int                     commandRate = 50;
+	private static int                     duration    = 60;
+	private static long                    budget      = 0L;
+	private static long                    pixelCost   = 200L;
+	private static String                  jfrFile     = null;
+
+	private static ServiceDiscoveryThread serviceDiscoveryThread;
+	private static VideoStreamingThread   videoThread;
+	private static RobotControlThread     robotThread;
+	private static SensorReportThread     sensorThread;
+	private static MarkerDetectionThread  detectionThread;
+	private static VideoQualityController qualityController;
+	private static Recording              recording;
+
+	public static void main(String[] args) throws Exception{
+		SyntheticRobot[] robots;
+		CommandDriver    driver = null;
+		InetAddress      server;
+
+		try{
+			parseArguments(args);
+		}catch(IllegalArgumentException ia){
+			System.err.println(ia.getMessage());
+			System.err.print(USAGE);
+			System.exit(ProjectConstants.EXIT_FAILURE);
+			return;
+		}
+
+		if(hostCore){
+			startCore();
+			driver = new CommandDriver();
+		}
+
+		if(serverName != null)
+			server = InetAddress.getByName(serverName);
+		else if(hostCore)
+			server = InetAddress.getLoopbackAddress();
+		else
+			server = discoverServer();
+
+		System.out.println("Streaming to " + server.getHostAddress() + " from " + robotCount + " robot(s).");
+
+		robots = new SyntheticRobot[robotCount];
+		for(int i = 0; i < robotCount; i++){
+			SyntheticRobot.Settings robotSettings = copySettings(settings);
+
+			robotSettings.sessionId = i;
+			robots[i] = new SyntheticRobot(robotSettings, server, driver);
+			robots[i].start();
+		}
+
+		if(driver != null)
+			driver.start();
+
+		report(robots);
+
+		if(driver != null)
+			driver.finish();
+		for(SyntheticRobot robot : robots)
+			robot.finish();
+		if(hostCore)
+			stopCore();
+
+		System.exit(ProjectConstants.EXIT_SUCCESS);
+	}
+
+	/*;;;;;;;;;;;;;
+	  ; REPORTING ;
+	  ;;;;;;;;;;;;;*/
+
+	private static void report(SyntheticRobot[] robots) throws InterruptedException{
+		long[][] last = new long[robots.length][6];
+		long     next = System.nanoTime();
+		long[]   now;
+
+		System.out.println(hostCore ?
+				"   s robot  fps/s   MB/s sens/s  cmd/s lat ms max ms  full  errs | core fps  lost  late incmp  out" :
+				"   s robot  fps/s   MB/s sens/s  cmd/s lat ms max ms  full  errs");
+
+		for(int second = 1; second <= duration; second++){
+			next += 1000000000L;
+			while(System.nanoTime() < next)
+				Thread.sleep(Math.max((next - System.nanoTime()) / 1000000L, 1L));
+
+			if(qualityController != null)
+				updateQuality();
+
+			for(int i = 0; i < robots.length; i++){
+				now = sample(robots[i]);
+				System.out.print(String.format("%4d %5d %6d %6.2f %6d %6d %6s %6s %5d %5d",
+						second, robots[i].getSessionId(),
+						now[0] - last[i][0],
+						(now[1] - last[i][1]) / 1048576.0,
+						now[2] - last[i][2],
+						now[3] - last[i][3],
+						formatLatency(now[4] - last[i][4], now[5] - last[i][5]),
+						formatMillis(robots[i].takeLatencyMax()),
+						robots[i].getZeroCreditAcks(),
+						robots[i].getProtocolErrors()));
+				System.out.println(hostCore ? formatCore(robots[i].getSessionId()) : "");
+				last[i] = now;
+			}
+
+			if(hostCore && FrameLatencyTracer.getInstance().update(next))
+				System.out.println(formatFrameLatency());
+		}
+
+		System.out.println("Totals:");
+		for(SyntheticRobot robot : robots){
+			now = sample(robot);
+			System.out.println(String.format("  robot %d: %d frames (%.1f MB), %d sensor readings, %d commands, mean latency %s ms, %d zero credit acks, %d errors",
+					robot.getSessionId(), now[0], now[1] / 1048576.0, now[2], now[3], formatLatency(now[4], now[5]),
+					robot.getZeroCreditAcks(), robot.getProtocolErrors()));
+			System.out.println(String.format("           stream %s after %d control messages", robot.getStreamParameters(), robot.getControlMessages()));
+		}
+	}
+
+	/**
+	 * <p>Updates the video quality controller with the metrics of the first session and asks its
+	 * robot for new stream parameters when the controller changes level.</p>
+	 */
+	private static void updateQuality(){
+		RobotSession   session = RobotSessionManager.getInstance().getDefaultSession();
+		StreamSettings stream;
+
+		if(qualityController.update(session.getFps(), session.getLostFrames(), detectionThread.getDetectionLatency(), RENDER_FRAME_TIME)){
+			stream = qualityController.getSettings();
+			System.out.println(String.format("Latency %d ms with a budget of %d ms, requesting level %d: %s",
+					qualityController.getLatencyEstimate(), qualityController.getLatencyBudget(), qualityController.getLevel(), stream));
+			videoThread.requestVideoParameters(session.getId(), stream.width, stream.height, stream.quality, stream.framesPerSecond);
+		}
+	}
+
+	private static long[] sample(SyntheticRobot robot){
+		return new long[]{robot.getFramesSent(), robot.getBytesSent(), robot.getSensorReadings(), robot.getCommandsReceived(), robot.getLatencySum(), robot.getLatencyCount()};
+	}
+
+	private static String formatLatency(long sum, long count){
+		return count > 0L ? formatMillis(sum / count) : "-";
+	}
+
+	private static String formatMillis(long nanos){
+		return hostCore ? String.format("%.2f", nanos / 1000000.0) : "-";
+	}
+
+	private static String formatCore(int sessionId){
+		RobotSession session = RobotSessionManager.getInstance().getSession(sessionId);
+
+		if(session == null)
+			return " |        -     -     -     -    -";
+
+		return String.format(" | %8d %5d %5d %5d %4d", session.getFps(), session.getLostFrames(), session.getLateFrames(),
+				session.getIncompleteFrames(), session.getOutstandingCommands());
+	}
+
+	/**
+	 * <p>Formats the frame latency of every stage traced during the last second.</p>
+	 */
+	private static String formatFrameLatency(){
+		FrameLatencyTracer tracer  = FrameLatencyTracer.getInstance();
+		StringBuilder      builder = new StringBuilder("      frame latency p50/p99/max ms:");
+
+		for(stage_t stage : stage_t.values()){
+			if(tracer.getCount(stage) == 0L)
+				continue;
+			builder.append(String.format(" %s %.2f/%.2f/%.2f", stage.toString(), tracer.getMedian(stage) / 1000000.0,
+					tracer.getPercentile99(stage) / 1000000.0, tracer.getMax(stage) / 1000000.0));
+		}
+
+		return builder.toString();
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;;;;;;;;;
+	  ; CORE AND COMMAND DRIVER ;
+	  ;;;;;;;;;;;;;;;;;;;;;;;;;;;*/
+
+	private static void startCore(){
+		HeadlessApplication.install();
+
+		if(jfrFile != null){
+			recording = new Recording();
+			JfrPipelineEvents.enableAll(recording);
+			recording.start();
+			PipelineEvents.setListener(new JfrPipelineEvents());
+		}
+
+		serviceDiscoveryThread = ServiceDiscoveryThread.getInstance();
+		videoThread            = VideoStreamingThread.getInstance();
+		robotThread            = RobotControlThread.getInstance();
+		sensorThread           = SensorReportThread.getInstance();
+
+		serviceDiscoveryThread.start();
+		videoThread.start();
+		robotThread.start();
+		sensorThread.start();
+
+		if(budget > 0L){
+			qualityController = new VideoQualityController(budget);
+			detectionThread   = new MarkerDetectionThread(new SimulatedMarkerProcessor(pixelCost, 0), new JpegFrameDecoder(), frame_drop_policy_t.LATEST_FRAME, 1000L, 1000);
+			detectionThread.setDaemon(true);
+			detectionThread.start();
+			detectionThread.play();
+		}
+	}
+
+	private static void stopCore() throws IOException{
+		if(detectionThread != null)
+			detectionThread.finish();
+
+		serviceDiscoveryThread.finish();
+		videoThread.finish();
+		robotThread.finish();
+		sensorThread.finish();
+
+		ServiceDiscoveryThread.freeInstance();
+		VideoStreamingThread.freeInstance();
+		RobotControlThread.freeInstance();
+		SensorReportThread.freeInstance();
+
+		if(recording != null){
+			PipelineEvents.setListener(null);
+			recording.stop();
+			recording.dump(new File(jfrFile).toPath());
+			recording.close();
+			System.out.println("Pipeline events written to " + jfrFile);
+		}
+	}
+
+	/**
+	 * <p>Queues motor commands for every session at the command rate and remembers when each one
+	 * was queued. The commands move both motors at once, which the motor queue never merges, so the
+	 * n-th command queued for a session is always sent with sequence number n.</p>
+	 */
+	private static class CommandDriver extends Thread implements SyntheticRobot.CommandClock{
+		private final AtomicLongArray[] issueTimes;
+		private final int[]             queued;
+		private volatile boolean        done;
+
+		public CommandDriver(){
+			super("CommandDriver");
+			setDaemon(true);
+
+			issueTimes = new AtomicLongArray[robotCount];
+			queued     = new int[robotCount];
+			done       = false;
+
+			for(int i = 0; i < robotCount; i++)
+				issueTimes[i] = new AtomicLongArray(ISSUE_TIME_SLOTS);
+		}
+
+		@Override
+		public long getIssueTime(int sessionId, int sequence){
+			return issueTimes[sessionId].get(sequence & (ISSUE_TIME_SLOTS - 1));
+		}
+
+		public void finish() throws InterruptedException{
+			done = true;
+			join();
+		}
+
+		@Override
+		public void run(){
+			RobotSessionManager sessions = RobotSessionManager.getInstance();
+			MotorEvent          event;
+			long                period;
+			long                next;
+			long                remaining;
+
+			if(commandRate == 0)
+				return;
+
+			period = 1000000000L / commandRate;
+
+			next = System.nanoTime();
+			while(!done){
+				for(int i = 0; i < robotCount; i++){
+					event = new MotorEvent();
+					event.setMotor(motor_t.MOTOR_AC);
+					event.setPower((byte)(queued[i] % 100));
+
+					// The time is stored before the command can reach the robot.
+					issueTimes[i].set((queued[i] + 1) & (ISSUE_TIME_SLOTS - 1), System.nanoTime());
+					if(sessions.getOrCreateSession(i).getMotorQueue().offerEvent(event))
+						queued[i]++;
+				}
+
+				next += period;
+				while(!done && (remaining = next - System.nanoTime()) > 0L)
+					LockSupport.parkNanos(this, remaining);
+			}
+		}
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+	  ; DISCOVERY AND CONFIGURATION ;
+	  ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;*/
+
+	/**
+	 * <p>Waits for the service discovery announcement of the core and returns its sender.</p>
+	 */
+	private static InetAddress discoverServer() throws IOException{
+		MulticastSocket socket   = new MulticastSocket(null);
+		DatagramPacket  packet   = new DatagramPacket(new byte[256], 256);
+		InetAddress     group    = InetAddress.getByName(ProjectConstants.MULTICAST_ADDRESS);
+		long            deadline = System.currentTimeMillis() + DISCOVERY_TIMEOUT;
+
+		System.out.println("Waiting for the core announcement on " + ProjectConstants.MULTICAST_ADDRESS + ":" + ProjectConstants.SERVICE_DISCOVERY_PORT);
+
+		try{
+			// The core binds the same port when it runs on this machine.
+			socket.setReuseAddress(true);
+			socket.bind(new InetSocketAddress(ProjectConstants.SERVICE_DISCOVERY_PORT));
+			// A null interface lets the system pick the interface, like the deprecated joinGroup(InetAddress).
+			socket.joinGroup(new InetSocketAddress(group, 0), null);
+			while(System.currentTimeMillis() < deadline){
+				socket.setSoTimeout((int)Math.max(deadline - System.currentTimeMillis(), 1L));
+				try{
+					socket.receive(packet);
+				}catch(SocketTimeoutException st){
+					break;
+				}
+
+				if(new String(packet.getData(), 0, packet.getLength()).startsWith("NxtAR server"))
+					return packet.getAddress();
+			}
+		}finally{
+			socket.close();
+		}
+
+		throw new IOException("No core found after " + (DISCOVERY_TIMEOUT / 1000L) + " seconds. Use --server.");
+	}
+
+	private static void parseArguments(String[] args) throws IllegalArgumentException{
+		String option;
+		String value;
+
+		for(int i = 0; i < args.length; i++){
+			option = args[i];
+
+			if(option.equals("--host-core")){
+				hostCore = true;
+				continue;
+			}else if(option.equals("--help"))
+				throw new IllegalArgumentException("Synthetic robot client.");
+
+			if(i + 1 >= args.length)
+				throw new IllegalArgumentException("Missing value for " + option);
+			value = args[++i];
+
+			try{
+				if(option.equals("--server"))
+					serverName = value;
+				else if(option.equals("--robots"))
+					robotCount = Integer.parseInt(value);
+				else if(option.equals("--resolution")){
+					settings.width  = Integer.parseInt(value.substring(0, value.indexOf('x')));
+					settings.height = Integer.parseInt(value.substring(value.indexOf('x') + 1));
+				}else if(option.equals("--quality"))
+					settings.quality = Integer.parseInt(value);
+				else if(option.equals("--adaptive"))
+					budget = Long.parseLong(value);
+				else if(option.equals("--detection-cost"))
+					pixelCost = Long.parseLong(value);
+				else if(option.equals("--fps"))
+					settings.framesPerSecond = Integer.parseInt(value);
+				else if(option.equals("--fragment"))
+					settings.fragmentSize = Integer.parseInt(value);
+				else if(option.equals("--sensor-rate"))
+					settings.sensorRate = Integer.parseInt(value);
+				else if(option.equals("--credits"))
+					settings.credits = Integer.parseInt(value);
+				else if(option.equals("--drain-rate"))
+					settings.drainRate = Integer.parseInt(value);
+				else if(option.equals("--ack-delay"))
+					settings.ackDelay = Long.parseLong(value);
+				else if(option.equals("--command-rate"))
+					commandRate = Integer.parseInt(value);
+				else if(option.equals("--duration"))
+					duration = Integer.parseInt(value);
+				else if(option.equals("--jfr"))
+					jfrFile = value;
+				else
+					throw new IllegalArgumentException("Unknown option " + option);
+
+			}catch(NumberFormatException nf){
+				throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+			}catch(StringIndexOutOfBoundsException si){
+				throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+			}
+		}
+
+		if(robotCount <= 0 || robotCount > ProjectConstants.MAX_ROBOT_SESSIONS)
+			throw new IllegalArgumentException("The number of robots must be between 1 and " + ProjectConstants.MAX_ROBOT_SESSIONS);
+		if(settings.width <= 0 || settings.height <= 0)
+			throw new IllegalArgumentException("Invalid resolution.");
+		if(settings.quality <= 0 || settings.quality > 100)
+			throw new IllegalArgumentException("The quality must be between 1 and 100.");
+		if(commandRate < 0 || duration <= 0)
+			throw new IllegalArgumentException("The command rate cannot be negative and the duration must be positive.");
+		if(budget < 0L || pixelCost < 0L || (budget > 0L && !hostCore))
+			throw new IllegalArgumentException("The latency budget and detection cost cannot be negative, and --adaptive needs --host-core.");
+		if(jfrFile != null && !hostCore)
+			throw new IllegalArgumentException("--jfr needs --host-core.");
+	}
+
+	private static SyntheticRobot.Settings copySettings(SyntheticRobot.Settings settings){
+		SyntheticRobot.Settings copy = new SyntheticRobot.Settings();
+
+		copy.sessionId       = settings.sessionId;
+		copy.width           = settings.width;
+		copy.height          = settings.height;
+		copy.quality         = settings.quality;
+		copy.framesPerSecond = settings.framesPerSecond;
+		copy.fragmentSize    = settings.fragmentSize;
+		copy.sensorRate      = settings.sensorRate;
+		copy.credits         = settings.credits;
+		copy.drainRate       = settings.drainRate;
+		copy.ackDelay        = settings.ackDelay;
+
+		return copy;
+	}
+}
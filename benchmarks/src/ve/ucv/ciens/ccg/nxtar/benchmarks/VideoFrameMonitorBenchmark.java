@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ve.ucv.ciens.ccg.nxtar.network.monitors.VideoFrame;
+import ve.ucv.ciens.ccg.nxtar.network.monitors.VideoFrameMonitor;
+
+/**
+ * <p>Measures the hand-off of frames from the network thread to the consumers of the
+ * {@link VideoFrameMonitor}, both uncontended and with a producer and a consumer running at the
+ * same time.</p>
+ * <p>The monitor is a singleton that supports a single producer and a single consumer, so every
+ * benchmark of this class must run in its own fork.</p>
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VideoFrameMonitorBenchmark{
+	/**
+	 * <p>Size in bytes of the encoded frames.</p>
+	 */
+	@Param({"16384", "65536"})
+	public int frameSize;
+
+	private byte[]            frame;
+	private VideoFrameMonitor frameMonitor;
+
+	@Setup
+	public void setUp(){
+		HeadlessApplication.install();
+
+		frame = new byte[frameSize];
+		new Random(42).nextBytes(frame);
+		frameMonitor = VideoFrameMonitor.getInstance();
+	}
+
+	/**
+	 * <p>Publishes a frame and takes it from the same thread.</p>
+	 */
+	@Benchmark
+	@Group("uncontended")
+	public VideoFrame publishAndTake(){
+		frameMonitor.setNewFrame(frame, 0, frame.length, 640, 480);
+		return frameMonitor.getLatestFrame();
+	}
+
+	@Benchmark
+	@Group("handoff")
+	@GroupThreads(1)
+	public long producer(){
+		frameMonitor.setNewFrame(frame, 0, frame.length, 640, 480);
+		return frameMonitor.getLatestSequence();
+	}
+
+	@Benchmark
+	@Group("handoff")
+	@GroupThreads(1)
+	public VideoFrame consumer(){
+		return frameMonitor.getLatestFrame();
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ve.ucv.ciens.ccg.networkdata.VideoFrameHeader;
+import ve.ucv.ciens.ccg.nxtar.network.VideoFrameReassembler;
+import ve.ucv.ciens.ccg.nxtar.network.monitors.VideoFrameMonitor;
+
+/**
+ * <p>Measures the receive path of the {@link ve.ucv.ciens.ccg.nxtar.network.VideoStreamingThread}
+ * without the socket: every operation parses the headers of all the datagrams of a frame,
+ * reassembles the frame and publishes it in the {@link VideoFrameMonitor}.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VideoPacketDecodeBenchmark{
+	private static final int SEQUENCE_OFFSET = 4;
+
+	/**
+	 * <p>Size in bytes of the encoded frame.</p>
+	 */
+	@Param({"16384", "65536"})
+	public int frameSize;
+
+	/**
+	 * <p>Maximum payload of a single datagram.</p>
+	 */
+	@Param({"1400", "8192"})
+	public int fragmentSize;
+
+	private ByteBuffer[]          packets;
+	private VideoFrameHeader      header;
+	private VideoFrameReassembler reassembler;
+	private VideoFrameMonitor     frameMonitor;
+	private int                   sequence;
+
+	@Setup
+	public void setUp(){
+		VideoFrameHeader fragmentHeader;
+		byte[]           frame;
+		int              fragmentCount;
+
+		HeadlessApplication.install();
+
+		frame = new byte[frameSize];
+		new Random(42).nextBytes(frame);
+
+		fragmentCount  = (frameSize + fragmentSize - 1) / fragmentSize;
+		packets        = new ByteBuffer[fragmentCount];
+		fragmentHeader = new VideoFrameHeader();
+
+		fragmentHeader.imageWidth    = 640;
+		fragmentHeader.imageHeight   = 480;
+		fragmentHeader.frameLength   = frameSize;
+		fragmentHeader.fragmentCount = fragmentCount;
+
+		for(int i = 0; i < fragmentCount; i++){
+			fragmentHeader.fragmentIndex  = i;
+			fragmentHeader.fragmentOffset = i * fragmentSize;
+			fragmentHeader.payloadLength  = Math.min(fragmentSize, frameSize - fragmentHeader.fragmentOffset);
+
+			packets[i] = ByteBuffer.allocateDirect(VideoFrameHeader.HEADER_SIZE + fragmentHeader.payloadLength);
+			fragmentHeader.writeTo(packets[i]);
+			packets[i].put(frame, fragmentHeader.fragmentOffset, fragmentHeader.payloadLength);
+		}
+
+		header       = new VideoFrameHeader();
+		reassembler  = new VideoFrameReassembler();
+		frameMonitor = VideoFrameMonitor.getInstance();
+		sequence     = 0;
+	}
+
+	/**
+	 * <p>Decodes and publishes one complete frame.</p>
+	 *
+	 * @return The sequence number of the published frame.
+	 */
+	@Benchmark
+	public long decodeFrame(){
+		VideoFrameReassembler.PartialFrame frame = null;
+		ByteBuffer                         packet;
+
+		sequence++;
+
+		for(int i = 0; i < packets.length; i++){
+			packet = packets[i];
+			packet.putInt(SEQUENCE_OFFSET, sequence);
+			packet.clear();
+
+			if(header.readFrom(packet))
+				frame = reassembler.addFragment(header, packet, 0L);
+		}
+
+		if(frame != null)
+			frameMonitor.setNewFrame(frame.data, 0, frame.frameLength, frame.imageWidth, frame.imageHeight);
+
+		return frameMonitor.getLatestSequence();
+	}
+
+	/**
+	 * <p>Parses a single datagram header.</p>
+	 */
+	@Benchmark
+	public int parseHeader(){
+		ByteBuffer packet = packets[0];
+
+		packet.clear();
+		header.readFrom(packet);
+
+		return header.payloadLength;
+	}
+}
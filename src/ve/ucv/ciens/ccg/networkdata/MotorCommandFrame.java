@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.networkdata;
+
+import java.nio.ByteBuffer;
+
+import ve.ucv.ciens.ccg.networkdata.MotorEvent.motor_t;
+
+/**
+ * <p>Fixed size binary encoding of a {@link MotorEvent} sent to the robot.</p>
+ * <p>The frame is laid out in big endian order as follows: magic number as a 16 bit integer, the
+ * ordinal of the motor and the motor power as signed bytes and the sequence number of the command
+ * as a 32 bit integer. Sequence numbers start at one and grow by one with each command, so the
+ * robot can acknowledge many commands at once with a single cumulative
+ * {@link MotorEventACK}.</p>
+ */
+public final class MotorCommandFrame{
+	public static final short MAGIC_NUMBER = 0x4E43;
+	public static final int   FRAME_SIZE   = 8;
+
+	private static final motor_t[] MOTORS = motor_t.values();
+
+	public int     sequence;
+	public motor_t motor;
+	public byte    power;
+
+	public MotorCommandFrame(){
+		sequence = 0;
+		motor    = motor_t.NONE;
+		power    = 0;
+	}
+
+	/**
+	 * <p>Sets the contents of this frame.</p>
+	 *
+	 * @param event The event to encode.
+	 * @param sequence The sequence number of the command.
+	 */
+	public void set(MotorEvent event, int sequence){
+		this.sequence = sequence;
+		this.motor    = event.getMotor();
+		this.power    = event.getPower();
+	}
+
+	/**
+	 * <p>Writes this frame at the current position of the buffer.</p>
+	 *
+	 * @param buffer The destination buffer. Must have at least {@link #FRAME_SIZE} bytes remaining.
+	 */
+	public void writeTo(ByteBuffer buffer){
+		buffer.putShort(MAGIC_NUMBER);
+		buffer.put((byte)motor.ordinal());
+		buffer.put(power);
+		buffer.putInt(sequence);
+	}
+
+	/**
+	 * <p>Reads a frame from the current position of the buffer. The buffer position is only
+	 * advanced if a valid frame was found.</p>
+	 *
+	 * @param buffer The source buffer.
+	 * @return True if the buffer holds a valid motor command frame. False otherwise.
+	 */
+	public boolean readFrom(ByteBuffer buffer){
+		int start = buffer.position();
+		int motorIndex;
+
+		if(buffer.remaining() < FRAME_SIZE || buffer.getShort(start) != MAGIC_NUMBER)
+			return false;
+
+		motorIndex = buffer.get(start + 2);
+		if(motorIndex < 0 || motorIndex >= MOTORS.length)
+			return false;
+
+		buffer.position(start + 4);
+		motor    = MOTORS[motorIndex];
+		power    = buffer.get(start + 3);
+		sequence = buffer.getInt();
+
+		return true;
+	}
+
+	/**
+	 * <p>Copies the contents of this frame to a motor event.</p>
+	 *
+	 * @param event The destination event.
+	 * @throws IllegalArgumentException If the power of this frame is out of range.
+	 */
+	public void toMotorEvent(MotorEvent event) throws IllegalArgumentException{
+		event.setMotor(motor);
+		event.setPower(power);
+	}
+}
@@ -16,17 +16,86 @@
 package ve.ucv.ciens.ccg.networkdata;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
+/**
+ * <p>Acknowledgement sent by the robot for the motor commands it has received.</p>
+ * <p>On the binary protocol the acknowledgement is cumulative: it covers every
+ * {@link MotorCommandFrame} up to and including the given sequence number. It also carries the
+ * number of credits of the robot, which is the number of commands after that sequence number the
+ * robot can still accept. A robot whose queue is full sends zero credits and later sends a new
+ * acknowledgement with more credits once its queue drains. The robot opens the binary protocol by
+ * sending an acknowledgement for sequence number zero with its initial credits.</p>
+ * <p>The binary acknowledgement is laid out in big endian order as follows: magic number and
+ * credits as 16 bit integers and the sequence number as a 32 bit integer.</p>
+ */
 public class MotorEventACK implements Serializable {
 	private static final long serialVersionUID = 9989L;
 
+	public static final short MAGIC_NUMBER = 0x4E41;
+	public static final int   FRAME_SIZE   = 8;
+
 	private boolean clientQueueIsFull;
+	private int     sequence;
+	private int     credits;
 
 	public MotorEventACK(boolean isQueueFull){
 		this.clientQueueIsFull = isQueueFull;
+		this.sequence          = 0;
+		this.credits           = isQueueFull ? 0 : 1;
+	}
+
+	/**
+	 * @param sequence Sequence number of the last command received, inclusive.
+	 * @param credits Number of commands the robot can still accept.
+	 */
+	public MotorEventACK(int sequence, int credits){
+		this.clientQueueIsFull = credits <= 0;
+		this.sequence          = sequence;
+		this.credits           = Math.max(credits, 0);
 	}
 
 	public boolean isClientQueueFull(){
 		return this.clientQueueIsFull;
 	}
+
+	public int getSequence(){
+		return this.sequence;
+	}
+
+	public int getCredits(){
+		return this.credits;
+	}
+
+	/**
+	 * <p>Writes this acknowledgement at the current position of the buffer.</p>
+	 *
+	 * @param buffer The destination buffer. Must have at least {@link #FRAME_SIZE} bytes remaining.
+	 */
+	public void writeTo(ByteBuffer buffer){
+		buffer.putShort(MAGIC_NUMBER);
+		buffer.putShort((short)Math.min(credits, Short.MAX_VALUE));
+		buffer.putInt(sequence);
+	}
+
+	/**
+	 * <p>Reads an acknowledgement from the current position of the buffer into this object. The
+	 * buffer position is only advanced if a valid acknowledgement was found.</p>
+	 *
+	 * @param buffer The source buffer.
+	 * @return True if the buffer holds a binary acknowledgement. False otherwise.
+	 */
+	public boolean readFrom(ByteBuffer buffer){
+		int start = buffer.position();
+
+		if(buffer.remaining() < FRAME_SIZE || buffer.getShort(start) != MAGIC_NUMBER)
+			return false;
+
+		buffer.position(start + 2);
+		credits           = Math.max(buffer.getShort(), 0);
+		sequence          = buffer.getInt();
+		clientQueueIsFull = credits == 0;
+
+		return true;
+	}
 }
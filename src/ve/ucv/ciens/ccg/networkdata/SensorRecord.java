@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.networkdata;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Fixed size binary record with a single sensor reading sent by the robot.</p>
+ * <p>The record is laid out in big endian order as follows: magic number as a 16 bit integer,
+ * the ordinal of the sensor and a reserved byte, the sensor value as a 32 bit integer and the time
+ * of the reading in milliseconds since the robot started as a 64 bit integer. Records are sent
+ * back to back, so any number of them can be read with a single socket read.</p>
+ * <p>The first byte of the magic number is {@link #STREAM_MARKER}, a value older robots never
+ * send, as their light readings go from 0 to 100. This tells both kinds of stream apart.</p>
+ */
+public final class SensorRecord{
+	public static final byte  STREAM_MARKER = (byte)0xFF;
+	public static final short MAGIC_NUMBER  = (short)0xFF53;
+	public static final int   RECORD_SIZE   = 16;
+
+	/**
+	 * <p>The sensors of the robot.</p>
+	 */
+	public enum sensor_t{
+		LIGHT, TOUCH, SOUND, ULTRASONIC;
+	}
+
+	private static final sensor_t[] SENSORS = sensor_t.values();
+
+	public sensor_t sensor;
+	public int      value;
+	public long     timestamp;
+
+	public SensorRecord(){
+		sensor    = sensor_t.LIGHT;
+		value     = 0;
+		timestamp = 0L;
+	}
+
+	/**
+	 * <p>Writes this record at the current position of the buffer.</p>
+	 *
+	 * @param buffer The destination buffer. Must have at least {@link #RECORD_SIZE} bytes remaining.
+	 */
+	public void writeTo(ByteBuffer buffer){
+		buffer.putShort(MAGIC_NUMBER);
+		buffer.put((byte)sensor.ordinal());
+		buffer.put((byte)0);
+		buffer.putInt(value);
+		buffer.putLong(timestamp);
+	}
+
+	/**
+	 * <p>Reads a record from the current position of the buffer. The buffer position is only
+	 * advanced if a valid record was found.</p>
+	 *
+	 * @param buffer The source buffer.
+	 * @return True if the buffer holds a valid sensor record. False otherwise.
+	 */
+	public boolean readFrom(ByteBuffer buffer){
+		int start = buffer.position();
+		int sensorIndex;
+
+		if(buffer.remaining() < RECORD_SIZE || buffer.getShort(start) != MAGIC_NUMBER)
+			return false;
+
+		sensorIndex = buffer.get(start + 2);
+		if(sensorIndex < 0 || sensorIndex >= SENSORS.length)
+			return false;
+
+		buffer.position(start + 4);
+		sensor    = SENSORS[sensorIndex];
+		value     = buffer.getInt();
+		timestamp = buffer.getLong();
+
+		return true;
+	}
+}
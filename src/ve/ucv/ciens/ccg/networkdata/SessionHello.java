@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.networkdata;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Message a robot may send first on each of its TCP connections to tell the server which robot
+ * session the connection belongs to. Connections that do not start with it belong to the default
+ * session, so robots that only work alone need not send it.</p>
+ * <p>The message is laid out in big endian order as follows: magic number and session id as 16
+ * bit integers. Like a {@link SensorRecord}, the magic number starts with
+ * {@link SensorRecord#STREAM_MARKER}, so it cannot be mistaken for the readings of older robots.</p>
+ */
+public final class SessionHello{
+	public static final short MAGIC_NUMBER = (short)0xFF48;
+	public static final int   FRAME_SIZE   = 4;
+
+	public int sessionId;
+
+	public SessionHello(){
+		sessionId = 0;
+	}
+
+	/**
+	 * <p>Writes this message at the current position of the buffer.</p>
+	 *
+	 * @param buffer The destination buffer. Must have at least {@link #FRAME_SIZE} bytes remaining.
+	 */
+	public void writeTo(ByteBuffer buffer){
+		buffer.putShort(MAGIC_NUMBER);
+		buffer.putShort((short)sessionId);
+	}
+
+	/**
+	 * <p>Reads a message from the current position of the buffer. The buffer position is only
+	 * advanced if a valid message was found.</p>
+	 *
+	 * @param buffer The source buffer.
+	 * @return True if the buffer holds a complete session hello. False otherwise.
+	 */
+	public boolean readFrom(ByteBuffer buffer){
+		int start = buffer.position();
+
+		if(buffer.remaining() < FRAME_SIZE || buffer.getShort(start) != MAGIC_NUMBER)
+			return false;
+
+		buffer.position(start + 2);
+		sessionId = buffer.getShort() & 0xFFFF;
+
+		return true;
+	}
+
+	/**
+	 * <p>Checks if the buffer starts with the magic number of this message, without consuming
+	 * anything. The message may still be incomplete.</p>
+	 */
+	public static boolean isNext(ByteBuffer buffer){
+		return buffer.remaining() >= 2 && buffer.getShort(buffer.position()) == MAGIC_NUMBER;
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.networkdata;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Fixed size header that precedes every fragment of a binary video frame.</p>
+ * <p>A frame is split in one or more datagrams that share the same sequence number. The header
+ * is laid out in big endian order as follows: magic number, sequence number, image width, image
+ * height, total frame length and fragment offset as 32 bit integers, fragment index and fragment
+ * count as 16 bit integers and finally the length of the payload carried by this datagram. The
+ * payload follows the header immediately. Frames that fit in a single datagram are sent with a
+ * fragment count of one.</p>
+ * <p>Robots that share the server with other robots send the session variant of the header. It
+ * starts with a different magic number followed by the session id as a 32 bit integer, and then
+ * continues like the plain header. The plain header belongs to the default session, zero.</p>
+ * <p>Robots that stamp their frames send the timed variant, which follows the session id with the
+ * capture time of the frame in milliseconds as a 64 bit integer. The capture time comes from the
+ * clock of the robot, so only its changes from frame to frame are meaningful to the server.</p>
+ */
+public final class VideoFrameHeader{
+	public static final int MAGIC_NUMBER         = 0x4E584652;
+	public static final int SESSION_MAGIC_NUMBER = 0x4E584653;
+	public static final int TIMED_MAGIC_NUMBER   = 0x4E584654;
+	public static final int HEADER_SIZE          = 32;
+	public static final int SESSION_HEADER_SIZE  = 36;
+	public static final int TIMED_HEADER_SIZE    = 44;
+
+	public int  sessionId;
+	public long captureTimestamp;
+	public int  sequence;
+	public int  imageWidth;
+	public int  imageHeight;
+	public int  frameLength;
+	public int  fragmentOffset;
+	public int  fragmentIndex;
+	public int  fragmentCount;
+	public int  payloadLength;
+
+	public VideoFrameHeader(){
+		sessionId        = 0;
+		captureTimestamp = 0L;
+		sequence         = 0;
+		imageWidth       = -1;
+		imageHeight      = -1;
+		frameLength      = 0;
+		fragmentOffset   = 0;
+		fragmentIndex    = 0;
+		fragmentCount    = 1;
+		payloadLength    = 0;
+	}
+
+	/**
+	 * <p>Writes this header at the current position of the buffer.</p>
+	 * <p>The timed variant is written when the capture time is not zero, and the session variant
+	 * when the session id is not zero.</p>
+	 *
+	 * @param buffer The destination buffer. Must have at least {@link #getSize()} bytes remaining.
+	 */
+	public void writeTo(ByteBuffer buffer){
+		if(captureTimestamp != 0L){
+			buffer.putInt(TIMED_MAGIC_NUMBER);
+			buffer.putInt(sessionId);
+			buffer.putLong(captureTimestamp);
+		}else if(sessionId != 0){
+			buffer.putInt(SESSION_MAGIC_NUMBER);
+			buffer.putInt(sessionId);
+		}else
+			buffer.putInt(MAGIC_NUMBER);
+		buffer.putInt(sequence);
+		buffer.putInt(imageWidth);
+		buffer.putInt(imageHeight);
+		buffer.putInt(frameLength);
+		buffer.putInt(fragmentOffset);
+		buffer.putShort((short)fragmentIndex);
+		buffer.putShort((short)fragmentCount);
+		buffer.putInt(payloadLength);
+	}
+
+	/**
+	 * <p>Reads a header from the current position of the buffer. The buffer position is only
+	 * advanced if a valid header was found.</p>
+	 *
+	 * @param buffer The source buffer.
+	 * @return True if the buffer holds a binary video frame header. False otherwise.
+	 */
+	public boolean readFrom(ByteBuffer buffer){
+		int start = buffer.position();
+		int magic;
+
+		if(buffer.remaining() < HEADER_SIZE)
+			return false;
+
+		magic = buffer.getInt(start);
+		if(magic == MAGIC_NUMBER){
+			buffer.position(start + 4);
+			sessionId        = 0;
+			captureTimestamp = 0L;
+		}else if(magic == SESSION_MAGIC_NUMBER && buffer.remaining() >= SESSION_HEADER_SIZE){
+			buffer.position(start + 8);
+			sessionId        = buffer.getInt(start + 4);
+			captureTimestamp = 0L;
+		}else if(magic == TIMED_MAGIC_NUMBER && buffer.remaining() >= TIMED_HEADER_SIZE){
+			buffer.position(start + 16);
+			sessionId        = buffer.getInt(start + 4);
+			captureTimestamp = buffer.getLong(start + 8);
+		}else
+			return false;
+
+		sequence       = buffer.getInt();
+		imageWidth     = buffer.getInt();
+		imageHeight    = buffer.getInt();
+		frameLength    = buffer.getInt();
+		fragmentOffset = buffer.getInt();
+		fragmentIndex  = buffer.getShort() & 0xFFFF;
+		fragmentCount  = buffer.getShort() & 0xFFFF;
+		payloadLength  = buffer.getInt();
+
+		return true;
+	}
+
+	/**
+	 * <p>Size in bytes of this header once written.</p>
+	 */
+	public int getSize(){
+		if(captureTimestamp != 0L)
+			return TIMED_HEADER_SIZE;
+
+		return sessionId != 0 ? SESSION_HEADER_SIZE : HEADER_SIZE;
+	}
+}
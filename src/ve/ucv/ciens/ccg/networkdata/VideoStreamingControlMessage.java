@@ -16,14 +16,76 @@
 package ve.ucv.ciens.ccg.networkdata;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
+/**
+ * <p>Control message sent by the core to the robot that streams the video.</p>
+ * <p>The binary variant asks the robot to change the parameters of its stream. It is sent in a
+ * single datagram from the video streaming port to the address the video comes from, and is laid
+ * out in big endian order as follows: magic number as a 16 bit integer, JPEG quality and frame
+ * rate as unsigned bytes, image width and height as 16 bit integers and the request number as a
+ * 32 bit integer. Datagrams can be lost or reordered, so every request is sent more than once and
+ * the robot ignores requests with a number not greater than the last one it applied. A zero field
+ * leaves that parameter unchanged.</p>
+ */
 public final class VideoStreamingControlMessage implements Serializable{
 	private static final long serialVersionUID = 8898L;
 	public static final int magicNumber = 0x20;
 
+	public static final short MAGIC_NUMBER = 0x4E56;
+	public static final int   FRAME_SIZE   = 12;
+
 	public byte message;
 
+	public int sequence;
+	public int imageWidth;
+	public int imageHeight;
+	public int quality;
+	public int framesPerSecond;
+
 	public VideoStreamingControlMessage(){
-		message = -1;
+		message         = -1;
+		sequence        = 0;
+		imageWidth      = 0;
+		imageHeight     = 0;
+		quality         = 0;
+		framesPerSecond = 0;
+	}
+
+	/**
+	 * <p>Writes the binary variant of this message at the current position of the buffer.</p>
+	 *
+	 * @param buffer The destination buffer. Must have at least {@link #FRAME_SIZE} bytes remaining.
+	 */
+	public void writeTo(ByteBuffer buffer){
+		buffer.putShort(MAGIC_NUMBER);
+		buffer.put((byte)quality);
+		buffer.put((byte)framesPerSecond);
+		buffer.putShort((short)imageWidth);
+		buffer.putShort((short)imageHeight);
+		buffer.putInt(sequence);
+	}
+
+	/**
+	 * <p>Reads the binary variant of a message from the current position of the buffer. The buffer
+	 * position is only advanced if a valid message was found.</p>
+	 *
+	 * @param buffer The source buffer.
+	 * @return True if the buffer holds a binary control message. False otherwise.
+	 */
+	public boolean readFrom(ByteBuffer buffer){
+		int start = buffer.position();
+
+		if(buffer.remaining() < FRAME_SIZE || buffer.getShort(start) != MAGIC_NUMBER)
+			return false;
+
+		buffer.position(start + 2);
+		quality         = buffer.get() & 0xFF;
+		framesPerSecond = buffer.get() & 0xFF;
+		imageWidth      = buffer.getShort() & 0xFFFF;
+		imageHeight     = buffer.getShort() & 0xFFFF;
+		sequence        = buffer.getInt();
+
+		return true;
 	}
-}
\ No newline at end of file
+}
@@ -15,13 +15,27 @@
  */
 package ve.ucv.ciens.ccg.nxtar;
 
+import java.io.IOException;
+
+import ve.ucv.ciens.ccg.networkdata.SensorRecord.sensor_t;
+import ve.ucv.ciens.ccg.nxtar.graphics.StreamingTexture;
 import ve.ucv.ciens.ccg.nxtar.interfaces.ActionResolver;
 import ve.ucv.ciens.ccg.nxtar.interfaces.ApplicationEventsListener;
+import ve.ucv.ciens.ccg.nxtar.interfaces.FrameDecoder;
 import ve.ucv.ciens.ccg.nxtar.interfaces.ImageProcessor;
 import ve.ucv.ciens.ccg.nxtar.network.RobotControlThread;
+import ve.ucv.ciens.ccg.nxtar.network.RobotSession;
+import ve.ucv.ciens.ccg.nxtar.network.RobotSessionManager;
 import ve.ucv.ciens.ccg.nxtar.network.SensorReportThread;
 import ve.ucv.ciens.ccg.nxtar.network.ServiceDiscoveryThread;
+import ve.ucv.ciens.ccg.nxtar.network.VideoQualityController;
+import ve.ucv.ciens.ccg.nxtar.network.VideoQualityController.StreamSettings;
 import ve.ucv.ciens.ccg.nxtar.network.VideoStreamingThread;
+import ve.ucv.ciens.ccg.nxtar.network.monitors.MotorEventQueue;
+import ve.ucv.ciens.ccg.nxtar.network.monitors.SensorHistory;
+import ve.ucv.ciens.ccg.nxtar.network.recording.SessionRecorder;
+import ve.ucv.ciens.ccg.nxtar.profiling.FrameLatencyTracer;
+import ve.ucv.ciens.ccg.nxtar.profiling.FrameLatencyTracer.stage_t;
 import ve.ucv.ciens.ccg.nxtar.scenarios.ScenarioGlobals;
 import ve.ucv.ciens.ccg.nxtar.states.AutomaticActionState;
 import ve.ucv.ciens.ccg.nxtar.states.AutomaticActionSummaryState;
@@ -35,6 +49,10 @@ import ve.ucv.ciens.ccg.nxtar.states.ScenarioEndSummaryState;
 import ve.ucv.ciens.ccg.nxtar.states.TabletMainMenuState;
 import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
 import ve.ucv.ciens.ccg.nxtar.utils.Utils;
+import ve.ucv.ciens.ccg.nxtar.vision.JpegFrameDecoder;
+import ve.ucv.ciens.ccg.nxtar.vision.MarkerDetectionCache;
+import ve.ucv.ciens.ccg.nxtar.vision.MarkerDetectionThread;
+import ve.ucv.ciens.ccg.nxtar.vision.MarkerDetectionThread.frame_drop_policy_t;
 import aurelienribon.tweenengine.Tween;
 import aurelienribon.tweenengine.TweenEquations;
 import aurelienribon.tweenengine.primitives.MutableFloat;
@@ -74,6 +92,11 @@ public class NxtARCore extends Game implements ApplicationEventsListener{
 	 */
 	private static final String CLASS_NAME = NxtARCore.class.getSimpleName();
 
+	/**
+	 * Maximum time in milliseconds to wait for the marker detection thread to finish.
+	 */
+	private static final long DETECTION_THREAD_JOIN_TIMEOUT = 2000;
+
 	/**
 	 * Valid game states.
 	 */
@@ -118,11 +141,32 @@ public class NxtARCore extends Game implements ApplicationEventsListener{
 	 */
 	public SpriteBatch batch;
 
+	/**
+	 * <p>Texture holding the last video frame, shared by the states that render the video stream.</p>
+	 */
+	public StreamingTexture videoTexture;
+
 	/**
 	 * <p>The OpenCV wrapper.</p>
 	 */
 	public ImageProcessor cvProc;
 
+	/**
+	 * <p>Decoder for the JPEG video frames. Decoded frames must be released back to it.</p>
+	 */
+	public FrameDecoder frameDecoder;
+
+	/**
+	 * <p>Frame versioned cache of the marker detection results shared by the game states.</p>
+	 */
+	public MarkerDetectionCache markerDetectionCache;
+
+	/**
+	 * <p>Worker thread used to find the markers outside of the render thread. Null if the
+	 * detection runs synchronously.</p>
+	 */
+	public MarkerDetectionThread markerDetectionThread;
+
 	/**
 	 * <p>Wrapper around the Operating System methods.</p>
 	 */
@@ -175,6 +219,36 @@ public class NxtARCore extends Game implements ApplicationEventsListener{
 	 */
 	private BitmapFont font;
 
+	/**
+	 * <p>Statistics of the light sensor readings shown in the debugging overlay.</p>
+	 */
+	private SensorHistory.Statistics lightStatistics;
+
+	/**
+	 * <p>Adjusts the parameters of the video stream to keep its latency under budget.</p>
+	 */
+	private VideoQualityController videoQualityController;
+
+	/**
+	 * <p>Robot session whose video stream is adjusted by the video quality controller.</p>
+	 */
+	private RobotSession videoQualitySession;
+
+	/**
+	 * <p>Longest frame time in milliseconds since the last update of the video quality controller.</p>
+	 */
+	private long maxFrameTime;
+
+	/**
+	 * <p>Time of the last update of the video quality controller.</p>
+	 */
+	private long lastQualityUpdate;
+
+	/**
+	 * <p>Latency statistics of the video frames shown in the debugging overlay.</p>
+	 */
+	private FrameLatencyTracer frameLatencyTracer;
+
 	// Fade in/out effect fields.
 	/**
 	 * <p>The graphic used to render the fading effect.</p>
@@ -254,9 +328,21 @@ public class NxtARCore extends Game implements ApplicationEventsListener{
 		batch = new SpriteBatch();
 		batch.enableBlending();
 		batch.setBlendFunction(GL20.GL_SRC_ALPHA, GL20.GL_ONE_MINUS_SRC_ALPHA);
+		videoTexture = new StreamingTexture();
 		pixelPerfectCamera = new OrthographicCamera(Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
 		ShaderProgram.pedantic = false;
 
+		// Set up the marker detection stage.
+		frameDecoder = new JpegFrameDecoder();
+		if(cvProc != null){
+			markerDetectionCache = new MarkerDetectionCache(cvProc, frameDecoder);
+
+			if(ProjectConstants.ASYNC_MARKER_DETECTION){
+				markerDetectionThread = new MarkerDetectionThread(cvProc, frameDecoder, frame_drop_policy_t.fromCode(ProjectConstants.DETECTION_DROP_POLICY), ProjectConstants.MAX_DETECTION_FRAME_AGE, ProjectConstants.MAX_DETECTION_RATE);
+				markerDetectionThread.start();
+			}
+		}
+
 		// Create the state objects.
 		states = new BaseState[game_states_t.getNumStates()];
 
@@ -310,10 +396,19 @@ public class NxtARCore extends Game implements ApplicationEventsListener{
 		}else{
 			font.setScale(2.5f);
 		}
+		lightStatistics = new SensorHistory.Statistics();
 
 		// Start networking.
 		actionResolver.enableMulticast();
 
+		if(ProjectConstants.RECORD_SESSIONS){
+			try{
+				RobotSessionManager.getInstance().setRecorder(new SessionRecorder(Gdx.files.local(ProjectConstants.SESSION_LOG_FILE).file()));
+			}catch(IOException io){
+				Gdx.app.error(TAG, CLASS_NAME + ".create() :: Error creating the session log: " + io.getMessage(), io);
+			}
+		}
+
 		Gdx.app.debug(TAG, CLASS_NAME + ".create() :: Creating network threads");
 		serviceDiscoveryThread = ServiceDiscoveryThread.getInstance();
 		videoThread = VideoStreamingThread.getInstance();
@@ -327,6 +422,13 @@ public class NxtARCore extends Game implements ApplicationEventsListener{
 		videoThread.startStreaming();
 		videoThread.addNetworkConnectionListener(this);
 
+		if(ProjectConstants.ADAPTIVE_VIDEO_QUALITY)
+			videoQualityController = new VideoQualityController(ProjectConstants.VIDEO_LATENCY_BUDGET);
+		videoQualitySession = RobotSessionManager.getInstance().getActiveSession();
+		maxFrameTime = 0L;
+		lastQualityUpdate = System.currentTimeMillis();
+		frameLatencyTracer = FrameLatencyTracer.getInstance();
+
 		robotThread.addNetworkConnectionListener(this);
 		robotThread.start();
 
@@ -368,6 +470,8 @@ public class NxtARCore extends Game implements ApplicationEventsListener{
 	 * also handles state switching, rendering state transitions and global overlays.</p>
 	 */
 	public void render(){
+		MotorEventQueue motorQueue;
+
 		super.render();
 
 		// Load the assets.
@@ -427,22 +531,99 @@ public class NxtARCore extends Game implements ApplicationEventsListener{
 			}batch.end();
 		}
 
+		updateVideoQuality();
+		frameLatencyTracer.update(System.nanoTime());
+
 		// Render the debug overlay.
 		if(ProjectConstants.DEBUG){
 			batch.setProjectionMatrix(pixelPerfectCamera.combined);
 			batch.begin();{
 				// Draw the FPS overlay.
+				motorQueue = RobotSessionManager.getInstance().getActiveSession().getMotorQueue();
 				font.draw(batch, String.format("Render FPS: %d", Gdx.graphics.getFramesPerSecond()), overlayX, overlayY);
 				font.draw(batch, String.format("Total stream FPS: %d", videoThread.getFps()), overlayX, overlayY - font.getCapHeight() - 5);
 				font.draw(batch, String.format("Lost stream FPS: %d", videoThread.getLostFrames()), overlayX, overlayY - (2 * font.getCapHeight()) - 10);
-				font.draw(batch, String.format("Light sensor data: %d", sensorThread.getLightSensorReading()), overlayX, overlayY - (3 * font.getCapHeight()) - 15);
+				sensorThread.getHistory(sensor_t.LIGHT).getStatistics(1000000000L, lightStatistics);
+				font.draw(batch, String.format("Light sensor data/mean: %d/%.1f", sensorThread.getLightSensorReading(), lightStatistics.mean), overlayX, overlayY - (3 * font.getCapHeight()) - 15);
 				font.draw(batch, String.format("Device roll: %f", Gdx.input.getRoll()), overlayX, overlayY - (4 * font.getCapHeight()) - 20);
 				font.draw(batch, String.format("Device pitch: %f", Gdx.input.getPitch()), overlayX, overlayY - (5 * font.getCapHeight()) - 25);
 				font.draw(batch, String.format("Device azimuth: %f", Gdx.input.getAzimuth()), overlayX, overlayY - (6 * font.getCapHeight()) - 30);
+				if(markerDetectionThread != null)
+					font.draw(batch, String.format("Detection FPS/dropped: %d/%d", markerDetectionThread.getDetectionFps(), markerDetectionThread.getDroppedFrames()), overlayX, overlayY - (7 * font.getCapHeight()) - 35);
+				else if(markerDetectionCache != null)
+					font.draw(batch, String.format("Detection cache hits/misses: %d/%d", markerDetectionCache.getHits(), markerDetectionCache.getMisses()), overlayX, overlayY - (7 * font.getCapHeight()) - 35);
+				font.draw(batch, String.format("Motor queue depth/coalesced: %d/%d", motorQueue.getDepth(), motorQueue.getCoalescedEvents()), overlayX, overlayY - (8 * font.getCapHeight()) - 40);
+				if(videoQualityController != null)
+					font.draw(batch, String.format("Video quality/latency: %s/%d", videoQualityController.getSettings(), videoQualityController.getLatencyEstimate()), overlayX, overlayY - (9 * font.getCapHeight()) - 45);
+				if(ProjectConstants.FRAME_LATENCY_TRACING){
+					for(stage_t stage : stage_t.values()){
+						font.draw(batch, String.format("%s p50/p99/max ms: %.1f/%.1f/%.1f", stage.toString(), frameLatencyTracer.getMedian(stage) / 1000000.0f, frameLatencyTracer.getPercentile99(stage) / 1000000.0f, frameLatencyTracer.getMax(stage) / 1000000.0f), overlayX, overlayY - ((10 + stage.ordinal()) * font.getCapHeight()) - (50 + (5 * stage.ordinal())));
+					}
+				}
 			}batch.end();
 		}
 	}
 
+	/**
+	 * <p>Updates the video quality controller once per second and asks the robot for the new
+	 * stream parameters when the controller changes its level. The controller is suspended at its
+	 * richest level while the camera is being calibrated, and starts over from it when another
+	 * robot session is made active.</p>
+	 */
+	private void updateVideoQuality(){
+		StreamSettings settings;
+		RobotSession   session;
+		long           now;
+		long           detectionLatency;
+
+		if(videoQualityController == null || videoThread == null)
+			return;
+
+		session = RobotSessionManager.getInstance().getActiveSession();
+		if(session != videoQualitySession){
+			videoQualitySession = session;
+			videoQualityController.reset();
+			settings = videoQualityController.getSettings();
+			Gdx.app.debug(TAG, CLASS_NAME + ".updateVideoQuality() :: Session " + Integer.toString(session.getId()) + " is now active, requesting video stream " + settings.toString());
+			videoThread.requestVideoParameters(session.getId(), settings.width, settings.height, settings.quality, settings.framesPerSecond);
+
+			maxFrameTime = 0L;
+			lastQualityUpdate = System.currentTimeMillis();
+			return;
+		}
+
+		// The calibration samples must all be taken from the same stream, with every detail in it.
+		if(currState == game_states_t.CALIBRATION){
+			if(videoQualityController.reset()){
+				settings = videoQualityController.getSettings();
+				Gdx.app.debug(TAG, CLASS_NAME + ".updateVideoQuality() :: Calibrating, requesting video stream " + settings.toString());
+				videoThread.requestVideoParameters(session.getId(), settings.width, settings.height, settings.quality, settings.framesPerSecond);
+			}
+
+			maxFrameTime = 0L;
+			lastQualityUpdate = System.currentTimeMillis();
+			return;
+		}
+
+		maxFrameTime = Math.max(maxFrameTime, (long)(Gdx.graphics.getDeltaTime() * 1000.0f));
+
+		now = System.currentTimeMillis();
+		if(now - lastQualityUpdate < 1000)
+			return;
+		lastQualityUpdate = now;
+
+		// Without the detection thread the detection time is already part of the frame time.
+		detectionLatency = markerDetectionThread != null ? markerDetectionThread.getDetectionLatency() : 0L;
+
+		if(videoQualityController.update(videoThread.getFps(), videoThread.getLostFrames(), detectionLatency, maxFrameTime)){
+			settings = videoQualityController.getSettings();
+			Gdx.app.debug(TAG, CLASS_NAME + ".updateVideoQuality() :: Requesting video stream " + settings.toString());
+			videoThread.requestVideoParameters(session.getId(), settings.width, settings.height, settings.quality, settings.framesPerSecond);
+		}
+
+		maxFrameTime = 0L;
+	}
+
 	/**
 	 * <p>Pauses the video streaming and the current state.</p>
 	 */
@@ -467,6 +648,20 @@ public class NxtARCore extends Game implements ApplicationEventsListener{
 	 * <p>Clear graphic resources</p> 
 	 */
 	public void dispose(){
+		// Finish the marker detection thread. It must be done with the decoder and the frame buffers
+		// before they are disposed.
+		if(markerDetectionThread != null){
+			markerDetectionThread.finish();
+			try{
+				markerDetectionThread.join(DETECTION_THREAD_JOIN_TIMEOUT);
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+			if(markerDetectionThread.isAlive())
+				Gdx.app.error(TAG, CLASS_NAME + ".dispose() :: The marker detection thread did not finish in time.");
+			markerDetectionThread = null;
+		}
+
 		// Dispose screens.
 		for(int i = 0; i < states.length; i++){
 			states[i].dispose();
@@ -486,8 +681,14 @@ public class NxtARCore extends Game implements ApplicationEventsListener{
 		RobotControlThread.freeInstance();
 		SensorReportThread.freeInstance();
 
+		if(RobotSessionManager.getInstance().getRecorder() != null){
+			RobotSessionManager.getInstance().getRecorder().close();
+			RobotSessionManager.getInstance().setRecorder(null);
+		}
+
 		// Dispose graphic objects.
 		fadeTexture.dispose();
+		videoTexture.dispose();
 		batch.dispose();
 		font.dispose();
 
@@ -503,7 +704,8 @@ public class NxtARCore extends Game implements ApplicationEventsListener{
 		Gdx.app.log(TAG, CLASS_NAME + ".networkStreamConnected() :: Stream " + streamName + " connected.");
 		connections += 1;
 
-		if(connections >= 3){
+		// Every robot connects its video, motor and sensor streams.
+		if(connections >= 3 * ProjectConstants.EXPECTED_ROBOTS){
 			Gdx.app.debug(TAG, CLASS_NAME + ".networkStreamConnected() :: Stopping service broadcast.");
 			serviceDiscoveryThread.finish();
 			if(actionResolver != null) actionResolver.disableMulticast();
@@ -17,10 +17,27 @@ package ve.ucv.ciens.ccg.nxtar.components;
 
 import com.artemis.Component;
 
+/**
+ * <p>Marks an entity for collision detection.</p>
+ * <p>The layers are a bit set of the collision layers the entity belongs to, and the mask is a bit
+ * set of the layers it can collide with. Two entities are only tested for collision if each one
+ * belongs to a layer in the mask of the other.</p>
+ */
 public class CollisionDetectionComponent extends Component {
+	public static final int DEFAULT_LAYER = 1;
+	public static final int ALL_LAYERS    = 0xFFFFFFFF;
+
 	public boolean colliding;
+	public int     layers;
+	public int     mask;
 
 	public CollisionDetectionComponent(){
+		this(DEFAULT_LAYER, ALL_LAYERS);
+	}
+
+	public CollisionDetectionComponent(int layers, int mask){
 		this.colliding = false;
+		this.layers    = layers;
+		this.mask      = mask;
 	}
 }
@@ -15,6 +15,8 @@
  */
 package ve.ucv.ciens.ccg.nxtar.components;
 
+import ve.ucv.ciens.ccg.nxtar.graphics.ModelBounds;
+
 import com.artemis.Component;
 import com.badlogic.gdx.graphics.g3d.Model;
 import com.badlogic.gdx.graphics.g3d.ModelInstance;
@@ -22,11 +24,18 @@ import com.badlogic.gdx.graphics.g3d.ModelInstance;
 public class CollisionModelComponent extends Component {
 	public ModelInstance instance;
 
+	/**
+	 * <p>Bounds of the instance in world space. Must be updated whenever the transforms of the
+	 * instance change.</p>
+	 */
+	public ModelBounds   bounds;
+
 	public CollisionModelComponent(Model model) throws IllegalArgumentException{
 		if(model == null)
 			throw new IllegalArgumentException("Model is null.");
 
 		this.instance = new ModelInstance(model);
+		this.bounds   = new ModelBounds(instance);
 	}
 
 	public CollisionModelComponent(ModelInstance instance) throws IllegalArgumentException{
@@ -34,5 +43,6 @@ public class CollisionModelComponent extends Component {
 			throw new IllegalArgumentException("Instance is null.");
 
 		this.instance = instance;
+		this.bounds   = new ModelBounds(instance);
 	}
 }
@@ -19,20 +19,64 @@ import com.artemis.Component;
 import com.badlogic.gdx.math.Matrix3;
 import com.badlogic.gdx.math.Vector3;
 
+/**
+ * <p>Position, rotation and scaling of an entity.</p>
+ * <p>The {@link ve.ucv.ciens.ccg.nxtar.systems.GeometrySystem} only recomputes the world transforms
+ * of an entity when the version of it's geometry changes, so any code that modifies the fields
+ * directly must call {@link #markChanged()} afterwards.</p>
+ */
 public class GeometryComponent extends Component {
 	public Vector3 position;
 	public Matrix3 rotation;
 	public Vector3 scaling;
+	private int    version;
 
 	public GeometryComponent(){
 		this.position = new Vector3();
 		this.rotation = new Matrix3();
 		this.scaling = new Vector3(1.0f, 1.0f, 1.0f);
+		this.version = 0;
 	}
 
 	public GeometryComponent(Vector3 position, Matrix3 rotation, Vector3 scaling){
 		this.position = new Vector3(position);
 		this.rotation = new Matrix3(rotation);
 		this.scaling = new Vector3(scaling);
+		this.version = 0;
+	}
+
+	/**
+	 * <p>Sets the position and rotation of the entity. The geometry is only marked as changed if
+	 * they are different from the current ones.</p>
+	 *
+	 * @return true if the geometry changed.
+	 */
+	public boolean setPose(Vector3 position, Matrix3 rotation){
+		boolean changed = !this.position.equals(position);
+
+		for(int i = 0; !changed && i < this.rotation.val.length; i++)
+			changed = this.rotation.val[i] != rotation.val[i];
+
+		if(changed){
+			this.position.set(position);
+			this.rotation.set(rotation);
+			version++;
+		}
+
+		return changed;
+	}
+
+	/**
+	 * <p>Marks the geometry as changed after modifying the position, rotation or scaling directly.</p>
+	 */
+	public void markChanged(){
+		version++;
+	}
+
+	/**
+	 * <p>Gets a number that changes every time the geometry changes.</p>
+	 */
+	public int getVersion(){
+		return version;
 	}
 }
@@ -22,8 +22,8 @@ public class MarkerCodeComponent extends Component {
 	public boolean enabled;
 
 	public MarkerCodeComponent(int code) throws IllegalArgumentException{
-		if(code < 0 || code > 1024)
-			throw new IllegalArgumentException("Marker code must be between [0, 1024].");
+		if(code < 0 || code > 1023)
+			throw new IllegalArgumentException("Marker code must be between [0, 1023].");
 		this.code = code;
 		this.enabled = true;
 	}
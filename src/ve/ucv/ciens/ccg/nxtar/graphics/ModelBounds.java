@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.graphics;
+
+import java.util.WeakHashMap;
+
+import com.badlogic.gdx.graphics.g3d.Model;
+import com.badlogic.gdx.graphics.g3d.ModelInstance;
+import com.badlogic.gdx.graphics.g3d.model.MeshPart;
+import com.badlogic.gdx.graphics.g3d.model.Node;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.collision.BoundingBox;
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * <p>Axis aligned bounding box of a model instance in world space that can be kept up to date
+ * without walking the vertices of the model.</p>
+ * <p>The bounds of every mesh part are computed once per {@link Model} and shared by all of its
+ * instances. Updating the world bounds only transforms the bounds of each part by the transform of
+ * its node and of the instance, so the cost depends on the number of parts of the model instead of
+ * its number of vertices, and the bounds follow the animations of the instance. The world bounds
+ * enclose the exact bounds of the instance, and match them when the transforms do not rotate the
+ * parts.</p>
+ */
+public class ModelBounds{
+	private static final WeakHashMap<Model, BoundingBox[]> PART_BOUNDS = new WeakHashMap<Model, BoundingBox[]>();
+
+	private final ModelInstance instance;
+	private final BoundingBox[] partBounds;
+	private final BoundingBox   worldBounds;
+	private final Matrix4       partTransform;
+	private int                 nextPart;
+	private int                 version;
+
+	/**
+	 * <p>Creates the bounds of a model instance and computes them with the current transforms of
+	 * the instance.</p>
+	 *
+	 * @param instance The model instance.
+	 */
+	public ModelBounds(ModelInstance instance) throws IllegalArgumentException{
+		BoundingBox[] bounds;
+
+		if(instance == null)
+			throw new IllegalArgumentException("Instance is null.");
+
+		bounds = getPartBounds(instance.model);
+		if(bounds.length != countParts(instance.nodes))
+			// The instance does not have the nodes of its model so its parts can't share the cache.
+			bounds = calculatePartBounds(instance.nodes);
+
+		this.instance = instance;
+		partBounds    = bounds;
+		worldBounds   = new BoundingBox();
+		partTransform = new Matrix4();
+		version       = 0;
+
+		update();
+	}
+
+	/**
+	 * <p>Recomputes the world bounds from the current transform of the instance and of its nodes.
+	 * Must be called after the transforms change.</p>
+	 */
+	public void update(){
+		worldBounds.inf();
+		nextPart = 0;
+		extendBounds(instance.nodes);
+		version++;
+	}
+
+	/**
+	 * <p>The bounds of the instance in world space as of the last call to {@link #update()}. The
+	 * returned box must not be modified.</p>
+	 */
+	public BoundingBox getWorldBounds(){
+		return worldBounds;
+	}
+
+	/**
+	 * <p>Number of times the world bounds have been updated.</p>
+	 */
+	public int getVersion(){
+		return version;
+	}
+
+	/**
+	 * <p>Checks if two boxes overlap, touching included.</p>
+	 */
+	public static boolean overlap(BoundingBox a, BoundingBox b){
+		return a.min.x <= b.max.x && b.min.x <= a.max.x &&
+		       a.min.y <= b.max.y && b.min.y <= a.max.y &&
+		       a.min.z <= b.max.z && b.min.z <= a.max.z;
+	}
+
+	/*;;;;;;;;;;;;;;;;;;
+	  ; HELPER METHODS ;
+	  ;;;;;;;;;;;;;;;;;;*/
+
+	private void extendBounds(Array<Node> nodes){
+		Node node;
+
+		for(int i = 0; i < nodes.size; i++){
+			node = nodes.get(i);
+
+			for(int j = 0; j < node.parts.size; j++){
+				partTransform.set(instance.transform).mul(node.globalTransform);
+				extendTransformed(partBounds[nextPart++], partTransform);
+			}
+
+			extendBounds(node.children);
+		}
+	}
+
+	/**
+	 * <p>Extends the world bounds with the box that encloses the given box after the transform.</p>
+	 */
+	private void extendTransformed(BoundingBox box, Matrix4 transform){
+		float[] m = transform.val;
+		float   cx, cy, cz, ex, ey, ez;
+		float   x, y, z, dx, dy, dz;
+
+		// Empty parts have no bounds.
+		if(box.min.x > box.max.x)
+			return;
+
+		cx = (box.min.x + box.max.x) * 0.5f;
+		cy = (box.min.y + box.max.y) * 0.5f;
+		cz = (box.min.z + box.max.z) * 0.5f;
+		ex = (box.max.x - box.min.x) * 0.5f;
+		ey = (box.max.y - box.min.y) * 0.5f;
+		ez = (box.max.z - box.min.z) * 0.5f;
+
+		x  = m[Matrix4.M00] * cx + m[Matrix4.M01] * cy + m[Matrix4.M02] * cz + m[Matrix4.M03];
+		y  = m[Matrix4.M10] * cx + m[Matrix4.M11] * cy + m[Matrix4.M12] * cz + m[Matrix4.M13];
+		z  = m[Matrix4.M20] * cx + m[Matrix4.M21] * cy + m[Matrix4.M22] * cz + m[Matrix4.M23];
+		dx = Math.abs(m[Matrix4.M00]) * ex + Math.abs(m[Matrix4.M01]) * ey + Math.abs(m[Matrix4.M02]) * ez;
+		dy = Math.abs(m[Matrix4.M10]) * ex + Math.abs(m[Matrix4.M11]) * ey + Math.abs(m[Matrix4.M12]) * ez;
+		dz = Math.abs(m[Matrix4.M20]) * ex + Math.abs(m[Matrix4.M21]) * ey + Math.abs(m[Matrix4.M22]) * ez;
+
+		worldBounds.ext(x - dx, y - dy, z - dz);
+		worldBounds.ext(x + dx, y + dy, z + dz);
+	}
+
+	private static BoundingBox[] getPartBounds(Model model){
+		BoundingBox[] bounds;
+
+		synchronized(PART_BOUNDS){
+			bounds = PART_BOUNDS.get(model);
+			if(bounds == null){
+				bounds = calculatePartBounds(model.nodes);
+				PART_BOUNDS.put(model, bounds);
+			}
+		}
+
+		return bounds;
+	}
+
+	/**
+	 * <p>Computes the bounds of every node part in the space of its mesh, in depth first order.</p>
+	 */
+	private static BoundingBox[] calculatePartBounds(Array<Node> nodes){
+		BoundingBox[] bounds = new BoundingBox[countParts(nodes)];
+
+		fillPartBounds(nodes, bounds, 0);
+
+		return bounds;
+	}
+
+	private static int fillPartBounds(Array<Node> nodes, BoundingBox[] bounds, int next){
+		Node     node;
+		MeshPart meshPart;
+
+		for(int i = 0; i < nodes.size; i++){
+			node = nodes.get(i);
+
+			for(int j = 0; j < node.parts.size; j++){
+				meshPart = node.parts.get(j).meshPart;
+				bounds[next] = new BoundingBox().inf();
+				if(meshPart.numVertices > 0)
+					meshPart.mesh.calculateBoundingBox(bounds[next], meshPart.indexOffset, meshPart.numVertices);
+				next++;
+			}
+
+			next = fillPartBounds(node.children, bounds, next);
+		}
+
+		return next;
+	}
+
+	private static int countParts(Array<Node> nodes){
+		int count = 0;
+
+		for(int i = 0; i < nodes.size; i++)
+			count += nodes.get(i).parts.size + countParts(nodes.get(i).children);
+
+		return count;
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.graphics;
+
+import java.nio.ByteBuffer;
+
+import ve.ucv.ciens.ccg.nxtar.interfaces.FrameDecoder.DecodedFrame;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Pixmap.Format;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.Texture.TextureFilter;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.utils.Disposable;
+
+/**
+ * <p>A texture that is updated in place with the frames of a video stream.</p>
+ * <p>The GL textures are allocated once for each frame resolution and format and then updated
+ * with glTexSubImage2D. Two textures are used in turns, so a frame is never uploaded to the
+ * texture that the previous frame was drawn from, which would force the driver to wait for those
+ * draw calls to finish.</p>
+ * <p>This class must only be used from the rendering thread.</p>
+ */
+public class StreamingTexture implements Disposable{
+	private Texture[]     textures;
+	private int           current;
+	private int           width;
+	private int           height;
+	private Format        format;
+	private long          frameSequence;
+	private TextureRegion region;
+
+	public StreamingTexture(){
+		textures      = new Texture[2];
+		current       = 0;
+		width         = 0;
+		height        = 0;
+		format        = null;
+		frameSequence = 0L;
+		region        = new TextureRegion();
+	}
+
+	/**
+	 * <p>Uploads a new frame.</p>
+	 *
+	 * @param frame The decoded frame.
+	 * @param sequence The sequence number of the frame.
+	 */
+	public void update(Pixmap frame, long sequence){
+		upload(frame.getWidth(), frame.getHeight(), frame.getFormat(), frame.getGLFormat(), frame.getGLType(), frame.getPixels(), sequence);
+	}
+
+	/**
+	 * <p>Uploads a new frame decoded by a {@link ve.ucv.ciens.ccg.nxtar.interfaces.FrameDecoder}.
+	 * The frame can be released as soon as this method returns.</p>
+	 *
+	 * @param frame The decoded frame.
+	 * @param sequence The sequence number of the frame.
+	 */
+	public void update(DecodedFrame frame, long sequence){
+		upload(frame.width, frame.height, Format.RGB888, GL20.GL_RGB, GL20.GL_UNSIGNED_BYTE, frame.pixels, sequence);
+	}
+
+	/**
+	 * <p>Checks if the given frame has already been uploaded.</p>
+	 */
+	public boolean hasFrame(long sequence){
+		return textures[current] != null && frameSequence == sequence;
+	}
+
+	/**
+	 * <p>Returns a region covering the last frame uploaded, or null if no frame has been uploaded.
+	 * The same region object is returned on every call.</p>
+	 */
+	public TextureRegion getRegion(){
+		return textures[current] != null ? region : null;
+	}
+
+	public int getWidth(){
+		return width;
+	}
+
+	public int getHeight(){
+		return height;
+	}
+
+	@Override
+	public void dispose(){
+		for(int i = 0; i < textures.length; i++){
+			if(textures[i] != null){
+				textures[i].dispose();
+				textures[i] = null;
+			}
+		}
+
+		width  = 0;
+		height = 0;
+		format = null;
+	}
+
+	private void upload(int width, int height, Format format, int glFormat, int glType, ByteBuffer pixels, long sequence){
+		Texture texture;
+
+		if(width != this.width || height != this.height || format != this.format)
+			allocate(width, height, format);
+
+		current = (current + 1) % textures.length;
+		texture = textures[current];
+
+		texture.bind();
+		Gdx.gl.glPixelStorei(GL20.GL_UNPACK_ALIGNMENT, 1);
+		Gdx.gl.glTexSubImage2D(GL20.GL_TEXTURE_2D, 0, 0, 0, width, height, glFormat, glType, pixels);
+
+		region.setTexture(texture);
+		region.setRegion(0, 0, width, height);
+		frameSequence = sequence;
+	}
+
+	private void allocate(int width, int height, Format format){
+		dispose();
+
+		for(int i = 0; i < textures.length; i++){
+			textures[i] = new Texture(width, height, format);
+			textures[i].setFilter(TextureFilter.Linear, TextureFilter.Linear);
+		}
+
+		this.width  = width;
+		this.height = height;
+		this.format = format;
+	}
+}
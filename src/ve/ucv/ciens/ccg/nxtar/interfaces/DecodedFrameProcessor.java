@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.interfaces;
+
+import ve.ucv.ciens.ccg.nxtar.interfaces.FrameDecoder.DecodedFrame;
+import ve.ucv.ciens.ccg.nxtar.interfaces.ImageProcessor.MarkerData;
+
+/**
+ * <p>Optional interface for {@link ImageProcessor} implementations that can work directly on the
+ * pixels produced by a {@link FrameDecoder}, so each frame is decoded only once.</p>
+ */
+public interface DecodedFrameProcessor{
+	/**
+	 * <p>Finds up to {@link ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants#MAXIMUM_NUMBER_OF_MARKERS}
+	 * markers in the decoded frame. The markers may be highlighted directly in the frame pixels,
+	 * which are then used as the rendered video frame.</p>
+	 *
+	 * @param frame The decoded input image.
+	 * @return The detected marker codes and their respective locations. The output frame field
+	 * is ignored and can be null.
+	 */
+	public MarkerData findMarkersInDecodedFrame(DecodedFrame frame);
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.interfaces;
+
+import java.nio.ByteBuffer;
+
+public interface FrameDecoder{
+	/**
+	 * <p>A decoded video frame. The pixels are stored row by row from the top of the image as
+	 * tightly packed RGB888 triplets, starting at position zero of the buffer. The buffer limit is
+	 * set to the end of the last pixel.</p>
+	 */
+	public class DecodedFrame{
+		public ByteBuffer pixels;
+		public int width;
+		public int height;
+	}
+
+	/**
+	 * <p>Decodes an encoded video frame into a pooled direct buffer.</p>
+	 *
+	 * @param data The array holding the encoded frame.
+	 * @param offset Position of the first byte of the frame in the array.
+	 * @param length Length in bytes of the encoded frame.
+	 * @return The decoded frame. It must be returned to the decoder with {@link #release(DecodedFrame)}
+	 * once it is no longer used.
+	 * @throws IllegalArgumentException If the frame is malformed or uses an unsupported format.
+	 */
+	public DecodedFrame decode(byte[] data, int offset, int length) throws IllegalArgumentException;
+
+	/**
+	 * <p>Returns a decoded frame to the decoder pool.</p>
+	 *
+	 * @param frame The frame to release. Can be null.
+	 */
+	public void release(DecodedFrame frame);
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.interfaces;
+
+import ve.ucv.ciens.ccg.networkdata.MotorEvent.motor_t;
+import ve.ucv.ciens.ccg.networkdata.SensorRecord.sensor_t;
+
+/**
+ * <p>Receives the events of the video pipeline and the robot link, to be forwarded to a profiler
+ * or an event recorder of the platform.</p>
+ * <p>The methods are called from the network, detection and rendering threads while they do their
+ * work, so implementations must be thread safe and return quickly. All times are given by
+ * {@link System#nanoTime()}.</p>
+ *
+ * @see ve.ucv.ciens.ccg.nxtar.profiling.PipelineEvents
+ */
+public interface PipelineEventsListener{
+	/**
+	 * <p>A complete video frame was received and published.</p>
+	 *
+	 * @param sessionId The robot session of the frame.
+	 * @param length Length of the encoded frame in bytes.
+	 * @param captureTimestamp Capture time sent by the robot in milliseconds, zero if unknown.
+	 * @param receiveTimestamp Arrival time of the first byte of the frame.
+	 */
+	public void onVideoFrameReceived(int sessionId, int length, long captureTimestamp, long receiveTimestamp);
+
+	/**
+	 * <p>Video frames of a session were lost during the last second.</p>
+	 *
+	 * @param sessionId The robot session.
+	 * @param lostFrames All the frames lost, including the late and incomplete ones.
+	 * @param lateFrames Frames that arrived after a newer frame was published.
+	 * @param incompleteFrames Frames that never received all their fragments.
+	 */
+	public void onVideoFramesDropped(int sessionId, int lostFrames, int lateFrames, int incompleteFrames);
+
+	/**
+	 * <p>A marker detection pass finished.</p>
+	 *
+	 * @param frameSequence Sequence number of the frame in its frame monitor.
+	 * @param start Start of the pass.
+	 * @param end End of the pass.
+	 */
+	public void onMarkerDetection(long frameSequence, long start, long end);
+
+	/**
+	 * <p>The entity world of a game state was processed.</p>
+	 *
+	 * @param state Name of the game state.
+	 * @param start Start of the world tick.
+	 * @param end End of the world tick.
+	 */
+	public void onWorldTick(String state, long start, long end);
+
+	/**
+	 * <p>A motor command was written to the connection of a robot.</p>
+	 *
+	 * @param sessionId The robot session.
+	 * @param sequence Sequence number of the command, zero with the serialized protocol.
+	 * @param motor The motor of the command.
+	 * @param power The power of the command.
+	 */
+	public void onMotorCommandSent(int sessionId, int sequence, motor_t motor, byte power);
+
+	/**
+	 * <p>A robot acknowledged its motor commands up to a sequence number.</p>
+	 *
+	 * @param sessionId The robot session.
+	 * @param sequence Sequence number of the last command acknowledged.
+	 * @param credits Credits announced by the robot.
+	 * @param latency Time from the send of the command to its acknowledgement in nanoseconds, or -1 if unknown.
+	 */
+	public void onMotorCommandAcknowledged(int sessionId, int sequence, int credits, long latency);
+
+	/**
+	 * <p>A sensor reading arrived from a robot.</p>
+	 *
+	 * @param sessionId The robot session.
+	 * @param sensor The sensor.
+	 * @param value The reading.
+	 * @param robotTimestamp Time of the reading sent by the robot in milliseconds, or -1 if unknown.
+	 */
+	public void onSensorUpdate(int sessionId, sensor_t sensor, int value, long robotTimestamp);
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.network;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.badlogic.gdx.Gdx;
+
+/**
+ * <p>Single thread that serves all the network channels of the application.</p>
+ * <p>Each network service is a {@link ChannelHandler} that registers its channels in non-blocking
+ * mode with the selector of this engine. The engine thread calls the handler whenever one of its
+ * channels is ready, and gives every handler a tick on each loop iteration for periodic work.
+ * Handlers are only ever called from the engine thread, so they need no locking of their own.
+ * Other threads talk to the handlers by posting tasks with {@link #execute(Runnable)}.</p>
+ * <p>The engine thread is started when the first handler is added and is stopped when the last
+ * reference to the engine is freed.</p>
+ */
+public class NetworkEngine extends Thread{
+	public static final String  THREAD_NAME        = "NetworkEngine";
+	private static final String TAG                = "NXTAR_CORE_NETWORKENGINE";
+	private static final String CLASS_NAME         = NetworkEngine.class.getSimpleName();
+	private static final long   MAX_SELECT_TIMEOUT = 1000L;
+	private static int          refCount           = 0;
+
+	/**
+	 * <p>A network service served by the engine. All methods are called from the engine thread.</p>
+	 */
+	public interface ChannelHandler{
+		/**
+		 * <p>Called when the handler is added to the engine. Channels must be registered here or
+		 * later with {@link NetworkEngine#register(SelectableChannel, int, ChannelHandler)}.</p>
+		 *
+		 * @param engine The engine serving this handler.
+		 */
+		public void onStart(NetworkEngine engine) throws IOException;
+
+		/**
+		 * <p>Called when a channel of this handler is ready for the operations it is interested in.</p>
+		 * <p>Errors of a single client must be handled here, closing that client. Exceptions thrown
+		 * by this method remove the handler from the engine, so they are reserved for the failures
+		 * of the handler itself, like a closed server socket.</p>
+		 *
+		 * @param key The selection key of the channel.
+		 * @throws IOException If the handler can no longer work.
+		 */
+		public void onChannelReady(SelectionKey key) throws IOException;
+
+		/**
+		 * <p>Called on every iteration of the engine loop.</p>
+		 *
+		 * @param now The current time in milliseconds.
+		 * @return The time in milliseconds at which the handler needs its next tick, or
+		 * {@link Long#MAX_VALUE} if it only needs to run when its channels are ready.
+		 */
+		public long onTick(long now);
+
+		/**
+		 * <p>Called when the handler is removed or the engine stops. Must close the channels of the
+		 * handler. May be called more than once.</p>
+		 */
+		public void onStop();
+	}
+
+	private Selector                          selector;
+	private List<ChannelHandler>              handlers;
+	private ConcurrentLinkedQueue<Runnable>   tasks;
+	private volatile boolean                  done;
+
+	private NetworkEngine(){
+		super(THREAD_NAME);
+
+		handlers = new ArrayList<ChannelHandler>();
+		tasks    = new ConcurrentLinkedQueue<Runnable>();
+		done     = false;
+
+		try{
+			selector = Selector.open();
+		}catch(IOException io){
+			Gdx.app.error(TAG, CLASS_NAME + ".NetworkEngine() :: Error opening the selector: " + io.getMessage(), io);
+			selector = null;
+		}
+	}
+
+	private static class SingletonHolder{
+		public static NetworkEngine INSTANCE;
+	}
+
+	public static synchronized NetworkEngine getInstance(){
+		if(refCount == 0)
+			SingletonHolder.INSTANCE = new NetworkEngine();
+		refCount++;
+		return SingletonHolder.INSTANCE;
+	}
+
+	/**
+	 * <p>Releases a reference to the engine. Freeing the last reference stops the engine thread
+	 * after the pending tasks have run, and stops every handler still added.</p>
+	 */
+	public static synchronized void freeInstance(){
+		refCount--;
+		if(refCount == 0){
+			SingletonHolder.INSTANCE.shutdown();
+			SingletonHolder.INSTANCE = null;
+		}
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;;;;;;;;
+	  ; THREAD SAFE OPERATIONS ;
+	  ;;;;;;;;;;;;;;;;;;;;;;;;;;*/
+
+	/**
+	 * <p>Adds a handler to the engine, starting the engine thread if needed.</p>
+	 */
+	public synchronized void addHandler(final ChannelHandler handler){
+		execute(new Runnable(){
+			@Override
+			public void run(){
+				handlers.add(handler);
+				try{
+					handler.onStart(NetworkEngine.this);
+				}catch(IOException io){
+					Gdx.app.error(TAG, CLASS_NAME + ".addHandler() :: Error starting handler: " + io.getMessage(), io);
+					stopHandler(handler);
+				}
+			}
+		});
+
+		if(getState() == State.NEW && !done)
+			start();
+	}
+
+	/**
+	 * <p>Removes a handler from the engine and calls its {@link ChannelHandler#onStop()} method.</p>
+	 */
+	public void removeHandler(final ChannelHandler handler){
+		execute(new Runnable(){
+			@Override
+			public void run(){
+				stopHandler(handler);
+			}
+		});
+	}
+
+	/**
+	 * <p>Runs a task in the engine thread. Tasks run in the order they were posted, after the next
+	 * select operation, so any key cancelled before posting the task is already deregistered.</p>
+	 */
+	public void execute(Runnable task){
+		tasks.add(task);
+		wakeup();
+	}
+
+	/**
+	 * <p>Makes the engine run a loop iteration, ticking all handlers, as soon as possible.</p>
+	 */
+	public void wakeup(){
+		if(selector != null)
+			selector.wakeup();
+	}
+
+	public boolean isEngineThread(){
+		return Thread.currentThread() == this;
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+	  ; ENGINE THREAD ONLY OPERATIONS ;
+	  ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;*/
+
+	/**
+	 * <p>Registers a channel with the engine selector. The channel is switched to non-blocking mode.
+	 * Must only be called from the engine thread.</p>
+	 *
+	 * @return The selection key of the channel, with the handler as its attachment.
+	 * @throws IllegalStateException If called from any other thread.
+	 */
+	public SelectionKey register(SelectableChannel channel, int ops, ChannelHandler handler) throws IOException, IllegalStateException{
+		if(!isEngineThread())
+			throw new IllegalStateException("Channels can only be registered from the engine thread.");
+
+		channel.configureBlocking(false);
+		return channel.register(selector, ops, handler);
+	}
+
+	/*;;;;;;;;;;;;;;;;;
+	  ; ENGINE THREAD ;
+	  ;;;;;;;;;;;;;;;;;*/
+
+	@Override
+	public void run(){
+		long           nextTick = 0L;
+		long           now;
+		long           timeout;
+		SelectionKey   key;
+		ChannelHandler handler;
+		Iterator<SelectionKey> keys;
+
+		if(selector == null){
+			Gdx.app.error(TAG, CLASS_NAME + ".run() :: No selector available, ending thread.");
+			return;
+		}
+
+		while(!done){
+			now = System.currentTimeMillis();
+			timeout = Math.min(Math.max(nextTick - now, 1L), MAX_SELECT_TIMEOUT);
+
+			try{
+				selector.select(timeout);
+			}catch(IOException io){
+				Gdx.app.error(TAG, CLASS_NAME + ".run() :: Error selecting channels: " + io.getMessage(), io);
+				break;
+			}
+
+			runTasks();
+
+			keys = selector.selectedKeys().iterator();
+			while(keys.hasNext()){
+				key = keys.next();
+				keys.remove();
+				handler = (ChannelHandler)key.attachment();
+
+				if(!key.isValid() || !handlers.contains(handler))
+					continue;
+
+				try{
+					handler.onChannelReady(key);
+				}catch(IOException io){
+					Gdx.app.error(TAG, CLASS_NAME + ".run() :: Handler failed, removing it: " + io.getMessage(), io);
+					stopHandler(handler);
+				}catch(RuntimeException re){
+					Gdx.app.error(TAG, CLASS_NAME + ".run() :: Handler failed, removing it: " + re.getMessage(), re);
+					stopHandler(handler);
+				}
+			}
+
+			// Tick every handler and sleep until the earliest tick requested.
+			now = System.currentTimeMillis();
+			nextTick = Long.MAX_VALUE;
+			for(int i = 0; i < handlers.size(); i++)
+				nextTick = Math.min(nextTick, handlers.get(i).onTick(now));
+		}
+
+		// Run the tasks posted before the shutdown and stop the remaining handlers.
+		runTasks();
+		while(!handlers.isEmpty())
+			stopHandler(handlers.get(handlers.size() - 1));
+
+		try{
+			selector.close();
+		}catch(IOException io){
+			Gdx.app.error(TAG, CLASS_NAME + ".run() :: Error closing the selector: " + io.getMessage(), io);
+		}
+
+		Gdx.app.debug(TAG, CLASS_NAME + ".run() :: Thread finished.");
+	}
+
+	/*;;;;;;;;;;;;;;;;;;
+	  ; HELPER METHODS ;
+	  ;;;;;;;;;;;;;;;;;;*/
+
+	private synchronized void shutdown(){
+		done = true;
+		wakeup();
+	}
+
+	private void runTasks(){
+		Runnable task;
+
+		// Tasks posted by these tasks wait for the next iteration.
+		for(int pending = tasks.size(); pending > 0 && (task = tasks.poll()) != null; pending--){
+			try{
+				task.run();
+			}catch(RuntimeException re){
+				Gdx.app.error(TAG, CLASS_NAME + ".runTasks() :: Task failed: " + re.getMessage(), re);
+			}
+		}
+	}
+
+	private void stopHandler(ChannelHandler handler){
+		handlers.remove(handler);
+		handler.onStop();
+	}
+}
@@ -15,50 +15,133 @@
  */
 package ve.ucv.ciens.ccg.nxtar.network;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 
+import ve.ucv.ciens.ccg.networkdata.MotorCommandFrame;
 import ve.ucv.ciens.ccg.networkdata.MotorEvent;
 import ve.ucv.ciens.ccg.networkdata.MotorEventACK;
+import ve.ucv.ciens.ccg.networkdata.SessionHello;
 import ve.ucv.ciens.ccg.nxtar.interfaces.ApplicationEventsListener;
+import ve.ucv.ciens.ccg.nxtar.interfaces.PipelineEventsListener;
 import ve.ucv.ciens.ccg.nxtar.network.monitors.MotorEventQueue;
+import ve.ucv.ciens.ccg.nxtar.network.recording.SessionRecorder;
+import ve.ucv.ciens.ccg.nxtar.profiling.PipelineEvents;
 import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
 
 import com.badlogic.gdx.Gdx;
 
-public class RobotControlThread extends Thread {
+/**
+ * <p>Sends the motor events queued in the {@link MotorEventQueue} of each {@link RobotSession} to
+ * its robot. A robot may open the connection with a {@link SessionHello} to name its session.
+ * Robots that do not are served from the default session. A session sends its events to a single
+ * robot, so a robot that connects to a session that already has one is rejected.</p>
+ * <p>Robots that then send a binary {@link MotorEventACK} use the binary protocol:
+ * every event is sent as a fixed size {@link MotorCommandFrame} and up to
+ * {@link ProjectConstants#MOTOR_COMMAND_WINDOW} commands may be in flight at once. The robot
+ * acknowledges the commands cumulatively and limits the window further with the credits carried
+ * by each acknowledgement. The binary protocol is served from the {@link NetworkEngine} thread,
+ * which is woken up by the queues whenever an event is added.</p>
+ * <p>Any other robot is served with the original protocol, that sends each event as a serialized
+ * object and waits for its acknowledgement before sending the next. As object streams can not be
+ * read without blocking, the connection is handed to a dedicated thread in that case.</p>
+ */
+public class RobotControlThread implements NetworkEngine.ChannelHandler {
 	public static final String THREAD_NAME = "RobotControlThread";
 	private static final String TAG = "NXTAR_CORE_ROBOTTHREAD";
 	private static final String CLASS_NAME = RobotControlThread.class.getSimpleName();
 	private static int refCount = 0;
 
+	private enum protocol_t{
+		DETECTING, BINARY, SERIALIZED;
+	}
+
+	/**
+	 * <p>A connected robot and the state of its protocol.</p>
+	 */
+	private static class MotorConnection{
+		public SocketChannel client;
+		public SelectionKey  key;
+		public RobotSession  session;
+		public protocol_t    protocol;
+		public long          detectionDeadline;
+		public ByteBuffer    commandBuffer;
+		public ByteBuffer    ackBuffer;
+		public int           nextSequence;
+		public int           lastAckedSequence;
+		public int           credits;
+		public long[]        sendTimes;
+
+		public MotorConnection(SocketChannel client, RobotSession session, long detectionDeadline){
+			this.client            = client;
+			this.session           = session;
+			this.detectionDeadline = detectionDeadline;
+			key                    = null;
+			protocol               = protocol_t.DETECTING;
+			commandBuffer          = ByteBuffer.allocate(MotorCommandFrame.FRAME_SIZE * ProjectConstants.MOTOR_COMMAND_WINDOW);
+			ackBuffer              = ByteBuffer.allocate(MotorEventACK.FRAME_SIZE * ProjectConstants.MOTOR_COMMAND_WINDOW);
+			nextSequence           = 1;
+			lastAckedSequence      = 0;
+			credits                = 0;
+			sendTimes              = new long[ProjectConstants.MOTOR_COMMAND_WINDOW];
+		}
+
+		public boolean isWindowOpen(){
+			return nextSequence - 1 - lastAckedSequence < Math.min(ProjectConstants.MOTOR_COMMAND_WINDOW, credits);
+		}
+
+		public int getOutstandingCommands(){
+			return nextSequence - 1 - lastAckedSequence;
+		}
+	}
+
+	private NetworkEngine engine;
 	private ApplicationEventsListener netListener;
-	private ServerSocket server;
-	private Socket client;
-	private MotorEventQueue queue;
-	private Object pauseMonitor;
-	private boolean paused;
-	private boolean done;
-	private ObjectOutputStream os;
-	private ObjectInputStream is;
+	private ServerSocketChannel server;
+	private List<MotorConnection> connections;
+	private RobotSessionManager sessions;
+	private Runnable queueWakeup;
+	private volatile boolean paused;
+	private volatile boolean done;
+	private MotorCommandFrame commandFrame;
+	private MotorEventACK receivedAck;
+	private SessionHello hello;
 
 	private RobotControlThread(){
-		super(THREAD_NAME);
-
+		engine = NetworkEngine.getInstance();
 		netListener = null;
-		queue = MotorEventQueue.getInstance();
-		pauseMonitor = new Object();
+		connections = new ArrayList<MotorConnection>();
+		sessions = RobotSessionManager.getInstance();
 		paused = false;
 		done = false;
+		commandFrame = new MotorCommandFrame();
+		receivedAck = new MotorEventACK(0, 0);
+		hello = new SessionHello();
+		queueWakeup = new Runnable(){
+			@Override
+			public void run(){
+				engine.wakeup();
+			}
+		};
 
 		try{
-			server = new ServerSocket(ProjectConstants.MOTOR_CONTROL_PORT);
+			server = ServerSocketChannel.open();
+			server.socket().bind(new InetSocketAddress(ProjectConstants.MOTOR_CONTROL_PORT));
 		}catch(IOException io){
 			Gdx.app.error(TAG, CLASS_NAME + ".RobotControlThread() :: Error creating server: " + io.getMessage(), io);
+			server = null;
 		}
 	}
 
@@ -66,62 +149,430 @@ public class RobotControlThread extends Thread {
 		public static RobotControlThread INSTANCE;
 	}
 
-	public static RobotControlThread getInstance(){
+	public static synchronized RobotControlThread getInstance(){
 		if(refCount == 0)
 			SingletonHolder.INSTANCE = new RobotControlThread();
 		refCount++;
 		return SingletonHolder.INSTANCE;
 	}
 
-	public static void freeInstance(){
+	public static synchronized void freeInstance(){
 		refCount--;
-		if(refCount == 0) SingletonHolder.INSTANCE = null;
+		if(refCount == 0){
+			SingletonHolder.INSTANCE = null;
+			NetworkEngine.freeInstance();
+		}
 	}
 
 	public void addNetworkConnectionListener(ApplicationEventsListener listener){
 		netListener = listener;
 	}
 
+	/**
+	 * <p>Starts waiting for the robots.</p>
+	 */
+	public void start(){
+		engine.addHandler(this);
+	}
+
+	/**
+	 * <p>Stops sending motor events until {@link #resumeThread()} is called. Robots using the
+	 * serialized protocol are disconnected instead.</p>
+	 */
 	public void pauseThread(){
-		synchronized(pauseMonitor){
-			paused = true;
-		}
+		paused = true;
 	}
 
 	public void resumeThread(){
-		synchronized(pauseMonitor){
-			paused = false;
-		}
+		paused = false;
+		engine.wakeup();
 	}
 
 	public void finish(){
 		done = true;
+		engine.removeHandler(this);
+	}
+
+	/**
+	 * <p>Number of commands sent to the robot of the active session that have not been
+	 * acknowledged yet. Always zero with the serialized protocol.</p>
+	 */
+	public int getOutstandingCommands(){
+		return sessions.getActiveSession().getOutstandingCommands();
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+	  ; CHANNEL HANDLER INTERFACE METHODS ;
+	  ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;*/
+
+	@Override
+	public void onStart(NetworkEngine engine) throws IOException{
+		if(server == null)
+			throw new IOException("No server available.");
+
+		engine.register(server, SelectionKey.OP_ACCEPT, this);
+		sessions.getDefaultSession().getMotorQueue().setConsumerWakeup(queueWakeup);
+	}
+
+	@Override
+	public void onChannelReady(SelectionKey key) throws IOException{
+		MotorConnection connection;
+
+		if(key.isAcceptable()){
+			acceptClient();
+			return;
+		}
+
+		connection = findConnection(key);
+		if(connection == null)
+			return;
+
 		try{
-			server.close();
+			if(key.isReadable())
+				readClient(connection);
+
+			if(connection.protocol == protocol_t.BINARY && connection.client.isOpen())
+				sendCommands(connection);
+
 		}catch(IOException io){
-			Gdx.app.error(TAG, CLASS_NAME + ".run() :: Error closing client: " + io.getMessage(), io);
+			Gdx.app.error(TAG, CLASS_NAME + ".onChannelReady() :: IOException during communication: " + io.getMessage(), io);
+			closeClient(connection);
+		}
+	}
+
+	@Override
+	public long onTick(long now){
+		MotorConnection connection;
+		long            nextTick = Long.MAX_VALUE;
+
+		for(int i = connections.size() - 1; i >= 0; i--){
+			connection = connections.get(i);
+
+			if(connection.protocol == protocol_t.DETECTING){
+				// Robots using the serialized protocol may wait for this side to talk first.
+				if(now < connection.detectionDeadline){
+					nextTick = Math.min(nextTick, connection.detectionDeadline);
+				}else{
+					Gdx.app.debug(TAG, CLASS_NAME + ".onTick() :: Client did not talk first.");
+					startSerializedProtocol(connection);
+				}
+
+			}else if(connection.protocol == protocol_t.BINARY){
+				try{
+					sendCommands(connection);
+				}catch(IOException io){
+					Gdx.app.error(TAG, CLASS_NAME + ".onTick() :: IOException during communication: " + io.getMessage(), io);
+					closeClient(connection);
+				}
+
+			}else if(!connection.client.isOpen()){
+				// The serialized protocol thread has finished.
+				connections.remove(i);
+			}
 		}
+
+		return nextTick;
 	}
 
 	@Override
-	public void run(){
+	public void onStop(){
+		for(int i = 0; i < sessions.getMaxSessions(); i++){
+			if(sessions.getSession(i) != null)
+				sessions.getSession(i).getMotorQueue().setConsumerWakeup(null);
+		}
+
+		try{
+			if(server != null)
+				server.close();
+		}catch(IOException io){
+			Gdx.app.error(TAG, CLASS_NAME + ".onStop() :: Error closing server: " + io.getMessage(), io);
+		}
+
+		while(!connections.isEmpty())
+			closeClient(connections.get(connections.size() - 1));
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;;;;;;;
+	  ; CONNECTION MANAGEMENT ;
+	  ;;;;;;;;;;;;;;;;;;;;;;;;;*/
+
+	private void acceptClient() throws IOException{
+		MotorConnection connection;
+		SocketChannel   client;
+
+		try{
+			client = server.accept();
+		}catch(IOException io){
+			// Only a closed server is fatal, any other error only affects this connection attempt.
+			if(!server.isOpen())
+				throw io;
+
+			Gdx.app.error(TAG, CLASS_NAME + ".acceptClient() :: Error accepting client: " + io.getMessage(), io);
+			return;
+		}
+
+		if(client == null)
+			return;
+
+		try{
+			client.socket().setTcpNoDelay(true);
+			connection = new MotorConnection(client, sessions.getDefaultSession(), System.currentTimeMillis() + ProjectConstants.PROTOCOL_DETECTION_TIMEOUT);
+			connection.key = engine.register(client, SelectionKey.OP_READ, this);
+		}catch(IOException io){
+			Gdx.app.error(TAG, CLASS_NAME + ".acceptClient() :: Error setting up client: " + io.getMessage(), io);
+			closeChannel(client);
+			return;
+		}
+
+		connections.add(connection);
+	}
+
+	private MotorConnection findConnection(SelectionKey key){
+		for(int i = 0; i < connections.size(); i++){
+			if(connections.get(i).key == key)
+				return connections.get(i);
+		}
+
+		return null;
+	}
+
+	/**
+	 * <p>Called once the protocol of a connection is known. Closes the connection if its session
+	 * already has a robot taking its motor events.</p>
+	 *
+	 * @return False if the connection was rejected.
+	 */
+	private boolean onClientConnected(MotorConnection connection){
+		if(!connection.session.claimMotorQueue(connection)){
+			Gdx.app.error(TAG, CLASS_NAME + ".onClientConnected() :: Session " + Integer.toString(connection.session.getId()) + " already has a robot, rejecting connection.");
+			closeClient(connection);
+			return false;
+		}
+
+		connection.session.getMotorQueue().setConsumerWakeup(queueWakeup);
+		connection.session.onStreamConnected();
+		if(netListener != null) netListener.onNetworkStreamConnected(THREAD_NAME);
+
+		return true;
+	}
+
+	private void closeClient(MotorConnection connection){
+		connections.remove(connection);
+		if(connection.protocol == protocol_t.BINARY)
+			connection.session.setOutstandingCommands(0);
+		connection.session.releaseMotorQueue(connection);
+
+		closeChannel(connection.client);
+	}
+
+	private void closeChannel(SocketChannel client){
+		try{
+			client.close();
+		}catch(IOException io){
+			Gdx.app.error(TAG, CLASS_NAME + ".closeChannel() :: Error closing client: " + io.getMessage(), io);
+		}
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;
+	  ; BINARY PROTOCOL ;
+	  ;;;;;;;;;;;;;;;;;;;*/
+
+	/**
+	 * <p>Reads the available data. While detecting the protocol, reads the optional session hello
+	 * and checks if the robot then sent a binary acknowledgement. Robots using the serialized
+	 * protocol either send the header of an object stream or wait for the header of this side.</p>
+	 */
+	private void readClient(MotorConnection connection) throws IOException{
+		ByteBuffer ackBuffer = connection.ackBuffer;
+
+		if(connection.client.read(ackBuffer) < 0){
+			Gdx.app.debug(TAG, CLASS_NAME + ".readClient() :: Robot closed the connection.");
+			closeClient(connection);
+			return;
+		}
+
+		ackBuffer.flip();
+
+		if(connection.protocol == protocol_t.DETECTING){
+			if(SessionHello.isNext(ackBuffer) && hello.readFrom(ackBuffer)){
+				try{
+					connection.session = sessions.getOrCreateSession(hello.sessionId);
+				}catch(IllegalArgumentException ia){
+					throw new IOException(ia.getMessage());
+				}
+			}
+
+			if(SessionHello.isNext(ackBuffer) || ackBuffer.remaining() < 2){
+				// Wait for the rest of the hello or for the first bytes of the protocol.
+				ackBuffer.compact();
+				return;
+			}
+
+			if(ackBuffer.getShort(ackBuffer.position()) != MotorEventACK.MAGIC_NUMBER){
+				ackBuffer.compact();
+				startSerializedProtocol(connection);
+				return;
+			}
+
+			if(!onClientConnected(connection))
+				return;
+
+			Gdx.app.debug(TAG, CLASS_NAME + ".readClient() :: Using the binary protocol.");
+			connection.protocol = protocol_t.BINARY;
+		}
+
+		if(connection.protocol == protocol_t.BINARY){
+			// The first acknowledgement sets the initial credits.
+			while(ackBuffer.remaining() >= MotorEventACK.FRAME_SIZE){
+				if(!receivedAck.readFrom(ackBuffer))
+					throw new IOException("Malformed acknowledgement.");
+				processAck(connection);
+			}
+		}
+
+		ackBuffer.compact();
+	}
+
+	/**
+	 * <p>Sends queued events while the window is open, then flushes as much as the socket accepts.
+	 * The rest is sent when the channel becomes writable.</p>
+	 */
+	private void sendCommands(MotorConnection connection) throws IOException{
+		ByteBuffer             commandBuffer = connection.commandBuffer;
+		MotorEventQueue        queue         = connection.session.getMotorQueue();
+		PipelineEventsListener events        = PipelineEvents.getListener();
+		MotorEvent             message;
+
+		while(!paused && connection.isWindowOpen() && commandBuffer.remaining() >= MotorCommandFrame.FRAME_SIZE){
+			message = queue.pollEvent();
+			if(message == null)
+				break;
+
+			commandFrame.set(message, connection.nextSequence);
+			commandFrame.writeTo(commandBuffer);
+			recordEvent(connection, message);
+
+			if(events != null){
+				connection.sendTimes[connection.nextSequence % connection.sendTimes.length] = System.nanoTime();
+				events.onMotorCommandSent(connection.session.getId(), connection.nextSequence, message.getMotor(), message.getPower());
+			}
+
+			connection.nextSequence++;
+			connection.session.setOutstandingCommands(connection.getOutstandingCommands());
+		}
+
+		commandBuffer.flip();
+		connection.client.write(commandBuffer);
+		commandBuffer.compact();
+
+		connection.key.interestOps(commandBuffer.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+	}
+
+	private void recordEvent(MotorConnection connection, MotorEvent event){
+		SessionRecorder recorder = sessions.getRecorder();
+
+		if(recorder != null)
+			recorder.recordMotorEvent(connection.session.getId(), event);
+	}
+
+	private void processAck(MotorConnection connection){
+		PipelineEventsListener events = PipelineEvents.getListener();
+		int                    acked  = receivedAck.getSequence() - connection.lastAckedSequence;
+		long                   sent;
+
+		// Ignore stale acknowledgements and acknowledgements for commands never sent.
+		if(acked < 0 || acked > connection.getOutstandingCommands()){
+			Gdx.app.debug(TAG, CLASS_NAME + ".processAck() :: Ignoring acknowledgement for sequence " + Integer.toString(receivedAck.getSequence()));
+			return;
+		}
+
+		// An acknowledgement for the same sequence is a window update.
+		connection.lastAckedSequence = receivedAck.getSequence();
+		connection.credits = receivedAck.getCredits();
+		connection.session.setOutstandingCommands(connection.getOutstandingCommands());
+
+		if(events != null){
+			sent = connection.sendTimes[receivedAck.getSequence() % connection.sendTimes.length];
+			events.onMotorCommandAcknowledged(connection.session.getId(), receivedAck.getSequence(), receivedAck.getCredits(), acked > 0 && sent != 0L ? System.nanoTime() - sent : -1L);
+		}
+	}
+
+	/**
+	 * <p>Hands the connection to a thread that runs the serialized protocol. The bytes already
+	 * read are replayed to the object stream.</p>
+	 */
+	private void startSerializedProtocol(final MotorConnection connection){
+		final byte[] consumed = new byte[connection.ackBuffer.position()];
+
+		if(!onClientConnected(connection))
+			return;
+
+		connection.protocol = protocol_t.SERIALIZED;
+		connection.ackBuffer.flip();
+		connection.ackBuffer.get(consumed);
+		connection.ackBuffer.clear();
+		connection.key.cancel();
+
+		// The channel can only be made blocking once the cancelled key is deregistered.
+		engine.execute(new Runnable(){
+			@Override
+			public void run(){
+				final InputStream input;
+
+				try{
+					connection.client.configureBlocking(true);
+					input = new SequenceInputStream(new ByteArrayInputStream(consumed), connection.client.socket().getInputStream());
+				}catch(IOException io){
+					Gdx.app.error(TAG, CLASS_NAME + ".startSerializedProtocol() :: Error preparing client: " + io.getMessage(), io);
+					closeClient(connection);
+					return;
+				}
+
+				new Thread(THREAD_NAME){
+					@Override
+					public void run(){
+						runSerializedProtocol(connection, input);
+
+						try{
+							connection.client.close();
+						}catch(IOException io){
+							Gdx.app.error(TAG, CLASS_NAME + ".run() :: Error closing client: " + io.getMessage(), io);
+						}
+
+						connection.session.releaseMotorQueue(connection);
+					}
+				}.start();
+			}
+		});
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;;;;;
+	  ; SERIALIZED PROTOCOL ;
+	  ;;;;;;;;;;;;;;;;;;;;;;;*/
+
+	private void runSerializedProtocol(MotorConnection connection, InputStream input){
+		MotorEventQueue queue = connection.session.getMotorQueue();
+		SocketChannel client = connection.client;
+		ObjectOutputStream os;
+		ObjectInputStream is;
 		MotorEvent message;
 		MotorEventACK ack;
+		PipelineEventsListener events = null;
+		long sent = 0L;
+
+		Gdx.app.debug(TAG, CLASS_NAME + ".runSerializedProtocol() :: Using the serialized protocol.");
 
 		try{
-			client = server.accept();
-			client.setTcpNoDelay(true);
-			if(netListener != null) netListener.onNetworkStreamConnected(THREAD_NAME);
-			os = new ObjectOutputStream(client.getOutputStream());
-			is = new ObjectInputStream(client.getInputStream());
+			os = new ObjectOutputStream(client.socket().getOutputStream());
+			is = new ObjectInputStream(input);
 
 		}catch(IOException io){
-			Gdx.app.error(TAG, CLASS_NAME + ".run() :: Error accepting client: " + io.getMessage(), io);
+			Gdx.app.error(TAG, CLASS_NAME + ".runSerializedProtocol() :: Error creating object streams: " + io.getMessage(), io);
 			return;
 		}
 
 		while(!paused){
-			if(done){
+			if(done || !client.isOpen()){
 				break;
 			}
 
@@ -129,14 +580,20 @@ public class RobotControlThread extends Thread {
 			try{
 				message = queue.getNextEvent();
 				os.writeObject(message);
+				recordEvent(connection, message);
+				events = PipelineEvents.getListener();
+				if(events != null){
+					sent = System.nanoTime();
+					events.onMotorCommandSent(connection.session.getId(), 0, message.getMotor(), message.getPower());
+				}
 				message = null;
 
 			}catch(InvalidClassException ic){
-				Gdx.app.error(TAG, CLASS_NAME + ".run() :: InvalidClassException during transmission: " + ic.getMessage(), ic);
+				Gdx.app.error(TAG, CLASS_NAME + ".runSerializedProtocol() :: InvalidClassException during transmission: " + ic.getMessage(), ic);
 				break;
 
 			}catch(IOException io){
-				Gdx.app.error(TAG, CLASS_NAME + ".run() :: IOException during transmission: " + io.getMessage(), io);
+				Gdx.app.error(TAG, CLASS_NAME + ".runSerializedProtocol() :: IOException during transmission: " + io.getMessage(), io);
 				break;
 			}
 
@@ -144,33 +601,36 @@ public class RobotControlThread extends Thread {
 			try{
 				ack = (MotorEventACK)is.readObject();
 			}catch(ClassNotFoundException cn){
-				Gdx.app.error(TAG, CLASS_NAME + ".run() :: InvalidClassException during reception: " + cn.getMessage(), cn);
+				Gdx.app.error(TAG, CLASS_NAME + ".runSerializedProtocol() :: InvalidClassException during reception: " + cn.getMessage(), cn);
 				break;
 
 			}catch(ClassCastException cc){
-				Gdx.app.error(TAG, CLASS_NAME + ".run() :: InvalidClassException during reception: " + cc.getMessage(), cc);
+				Gdx.app.error(TAG, CLASS_NAME + ".runSerializedProtocol() :: InvalidClassException during reception: " + cc.getMessage(), cc);
 				break;
 
 			}catch(IOException io){
-				Gdx.app.error(TAG, CLASS_NAME + ".run() :: InvalidClassException during reception: " + io.getMessage(), io);
+				Gdx.app.error(TAG, CLASS_NAME + ".runSerializedProtocol() :: InvalidClassException during reception: " + io.getMessage(), io);
 				break;
 			}
 
+			if(events != null)
+				events.onMotorCommandAcknowledged(connection.session.getId(), 0, ack.isClientQueueFull() ? 0 : 1, System.nanoTime() - sent);
+
 			if(ack.isClientQueueFull()){
 				// Wait for client to notify.
 				// A client will never send two queue full acks in a row.
 				try{
 					ack = (MotorEventACK)is.readObject();
 				}catch(ClassNotFoundException cn){
-					Gdx.app.error(TAG, CLASS_NAME + ".run() :: InvalidClassException during reception: " + cn.getMessage(), cn);
+					Gdx.app.error(TAG, CLASS_NAME + ".runSerializedProtocol() :: InvalidClassException during reception: " + cn.getMessage(), cn);
 					break;
 
 				}catch(ClassCastException cc){
-					Gdx.app.error(TAG, CLASS_NAME + ".run() :: InvalidClassException during reception: " + cc.getMessage(), cc);
+					Gdx.app.error(TAG, CLASS_NAME + ".runSerializedProtocol() :: InvalidClassException during reception: " + cc.getMessage(), cc);
 					break;
 
 				}catch(IOException io){
-					Gdx.app.error(TAG, CLASS_NAME + ".run() :: InvalidClassException during reception: " + io.getMessage(), io);
+					Gdx.app.error(TAG, CLASS_NAME + ".runSerializedProtocol() :: InvalidClassException during reception: " + io.getMessage(), io);
 					break;
 				}
 
@@ -181,11 +641,5 @@ public class RobotControlThread extends Thread {
 				continue;
 			}
 		}
-
-		try{
-			client.close();
-		}catch(IOException io){
-			Gdx.app.error(TAG, CLASS_NAME + ".run() :: Error closing client: " + io.getMessage(), io);
-		}
 	}
 }
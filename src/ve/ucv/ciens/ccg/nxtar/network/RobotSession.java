@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.network;
+
+import java.net.SocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ve.ucv.ciens.ccg.networkdata.SensorRecord.sensor_t;
+import ve.ucv.ciens.ccg.networkdata.VideoStreamingControlMessage;
+import ve.ucv.ciens.ccg.nxtar.network.monitors.MotorEventQueue;
+import ve.ucv.ciens.ccg.nxtar.network.monitors.SensorHistory;
+import ve.ucv.ciens.ccg.nxtar.network.monitors.VideoFrameMonitor;
+import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
+
+/**
+ * <p>The state the server keeps for a single robot: its video frames, its motor event queue, its
+ * sensor readings and the statistics of its streams.</p>
+ * <p>Sessions are created by the {@link RobotSessionManager} when a robot first connects. The
+ * getters can be used from any thread. The package private members are only used from the
+ * {@link NetworkEngine} thread, except for the motor queue claims.</p>
+ * <p>The motor queue has a single consumer, so only one connection at a time can claim it to send
+ * the motor events to the robot.</p>
+ */
+public class RobotSession{
+	private final int                     id;
+	private final VideoFrameMonitor       frameMonitor;
+	private final MotorEventQueue         motorQueue;
+	private final SensorHistory[]         sensorHistories;
+	private final AtomicInteger           connectedStreams;
+	private final AtomicReference<Object> motorConsumer;
+
+	final VideoFrameReassembler           reassembler;
+	final VideoStreamingControlMessage    videoControl;
+	boolean                               videoConnected;
+	SocketAddress                         videoSource;
+	int                                   videoControlCopies;
+	int                                   framesPerSecond;
+	int                                   lostFramesPerSecond;
+
+	private volatile int                  fps;
+	private volatile int                  lostFrames;
+	private volatile int                  lateFrames;
+	private volatile int                  duplicateFragments;
+	private volatile int                  incompleteFrames;
+	private volatile int                  outstandingCommands;
+
+	RobotSession(int id, VideoFrameMonitor frameMonitor, MotorEventQueue motorQueue){
+		this.id            = id;
+		this.frameMonitor  = frameMonitor;
+		this.motorQueue    = motorQueue;
+		sensorHistories    = new SensorHistory[sensor_t.values().length];
+		connectedStreams   = new AtomicInteger(0);
+		motorConsumer      = new AtomicReference<Object>(null);
+		reassembler        = new VideoFrameReassembler();
+		videoControl       = new VideoStreamingControlMessage();
+		videoConnected     = false;
+		videoSource        = null;
+		videoControlCopies = 0;
+
+		for(int i = 0; i < sensorHistories.length; i++)
+			sensorHistories[i] = new SensorHistory(ProjectConstants.SENSOR_HISTORY_CAPACITY);
+	}
+
+	public int getId(){
+		return id;
+	}
+
+	public VideoFrameMonitor getFrameMonitor(){
+		return frameMonitor;
+	}
+
+	public MotorEventQueue getMotorQueue(){
+		return motorQueue;
+	}
+
+	public SensorHistory getSensorHistory(sensor_t sensor){
+		return sensorHistories[sensor.ordinal()];
+	}
+
+	/**
+	 * <p>Number of streams of this robot connected so far.</p>
+	 */
+	public int getConnectedStreams(){
+		return connectedStreams.get();
+	}
+
+	/*;;;;;;;;;;;;;;;;;;
+	  ; STREAM METRICS ;
+	  ;;;;;;;;;;;;;;;;;;*/
+
+	/**
+	 * <p>Video frames received during the last second.</p>
+	 */
+	public int getFps(){
+		return fps;
+	}
+
+	/**
+	 * <p>Frames lost during the last second. Includes incomplete frames, frames that arrived
+	 * after a newer frame was delivered and malformed or unreadable packets.</p>
+	 */
+	public int getLostFrames(){
+		return lostFrames;
+	}
+
+	public int getLateFrames(){
+		return lateFrames;
+	}
+
+	public int getDuplicateFragments(){
+		return duplicateFragments;
+	}
+
+	public int getIncompleteFrames(){
+		return incompleteFrames;
+	}
+
+	/**
+	 * <p>Number of motor commands sent to the robot that have not been acknowledged yet. Always
+	 * zero with the serialized protocol.</p>
+	 */
+	public int getOutstandingCommands(){
+		return outstandingCommands;
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;;;;;;;;
+	  ; NETWORK ENGINE METHODS ;
+	  ;;;;;;;;;;;;;;;;;;;;;;;;;;*/
+
+	int onStreamConnected(){
+		return connectedStreams.incrementAndGet();
+	}
+
+	/**
+	 * <p>Makes a connection the consumer of the motor queue.</p>
+	 *
+	 * @param consumer The connection.
+	 * @return False if another connection is already the consumer.
+	 */
+	boolean claimMotorQueue(Object consumer){
+		return motorConsumer.compareAndSet(null, consumer) || motorConsumer.get() == consumer;
+	}
+
+	/**
+	 * <p>Lets another connection consume the motor queue, if the given connection was the consumer.</p>
+	 */
+	void releaseMotorQueue(Object consumer){
+		motorConsumer.compareAndSet(consumer, null);
+	}
+
+	void setOutstandingCommands(int outstandingCommands){
+		this.outstandingCommands = outstandingCommands;
+	}
+
+	/**
+	 * <p>Publishes the video statistics gathered during the last second and starts over.</p>
+	 */
+	void updateVideoStatistics(){
+		fps = framesPerSecond;
+		framesPerSecond = 0;
+		lateFrames = reassembler.getLateFrames();
+		duplicateFragments = reassembler.getDuplicateFragments();
+		incompleteFrames = reassembler.getIncompleteFrames();
+		lostFrames = lostFramesPerSecond + lateFrames + incompleteFrames + reassembler.getMalformedFragments();
+		lostFramesPerSecond = 0;
+		reassembler.resetCounters();
+	}
+}
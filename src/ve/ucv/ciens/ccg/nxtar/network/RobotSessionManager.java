@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.network;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import ve.ucv.ciens.ccg.nxtar.network.monitors.MotorEventQueue;
+import ve.ucv.ciens.ccg.nxtar.network.monitors.MotorEventQueue.queue_mode_t;
+import ve.ucv.ciens.ccg.nxtar.network.monitors.VideoFrameMonitor;
+import ve.ucv.ciens.ccg.nxtar.network.recording.SessionRecorder;
+import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
+
+/**
+ * <p>Keeps the {@link RobotSession} of every robot connected to the server.</p>
+ * <p>Robots name their session with the session id sent in the wire protocols. Robots that do
+ * not send one use the default session, zero, whose frame monitor and motor queue are the
+ * singleton instances. Sessions are never removed, so a robot that reconnects gets its previous
+ * session back.</p>
+ * <p>One session at a time is the active session, which starts as the default session. The game
+ * states drive the robot of the active session: they take its motor queue and hand its frame
+ * monitor to the marker detection when they are set, so a call to {@link #setActiveSession(int)}
+ * takes effect the next time a game state is entered. The sensor histories, the stream statistics
+ * and the video quality controller follow the active session right away. The frames and motor queues
+ * of the other sessions are kept up to date by the network threads, but nothing processes them
+ * until their session is made active. Running a detection and game pipeline per session is not
+ * supported, and every session is served from the single {@link NetworkEngine} thread.</p>
+ */
+public class RobotSessionManager{
+	public static final int DEFAULT_SESSION = 0;
+
+	private final AtomicReferenceArray<RobotSession> sessions;
+	private volatile SessionRecorder                 recorder;
+	private volatile RobotSession                    activeSession;
+
+	private RobotSessionManager(){
+		sessions = new AtomicReferenceArray<RobotSession>(ProjectConstants.MAX_ROBOT_SESSIONS);
+		sessions.set(DEFAULT_SESSION, new RobotSession(DEFAULT_SESSION, VideoFrameMonitor.getInstance(), MotorEventQueue.getInstance()));
+		recorder = null;
+		activeSession = sessions.get(DEFAULT_SESSION);
+	}
+
+	private static class SingletonHolder{
+		public static final RobotSessionManager INSTANCE = new RobotSessionManager();
+	}
+
+	public static RobotSessionManager getInstance(){
+		return SingletonHolder.INSTANCE;
+	}
+
+	public RobotSession getDefaultSession(){
+		return sessions.get(DEFAULT_SESSION);
+	}
+
+	/**
+	 * <p>Gets the session that feeds the marker detection and the game states. Never null.</p>
+	 */
+	public RobotSession getActiveSession(){
+		return activeSession;
+	}
+
+	/**
+	 * <p>Makes a session the one that feeds the marker detection and the game states.</p>
+	 *
+	 * @param id The session id.
+	 * @throws IllegalArgumentException If the id is out of range or no robot has used it yet.
+	 */
+	public void setActiveSession(int id) throws IllegalArgumentException{
+		RobotSession session;
+
+		checkId(id);
+
+		session = sessions.get(id);
+		if(session == null)
+			throw new IllegalArgumentException("No robot has used session " + Integer.toString(id) + " yet.");
+
+		activeSession = session;
+	}
+
+	/**
+	 * <p>Gets a session.</p>
+	 *
+	 * @param id The session id.
+	 * @return The session or null if no robot has used that id yet.
+	 * @throws IllegalArgumentException If the id is out of range.
+	 */
+	public RobotSession getSession(int id) throws IllegalArgumentException{
+		checkId(id);
+		return sessions.get(id);
+	}
+
+	/**
+	 * <p>Gets a session, creating it if no robot has used that id yet.</p>
+	 *
+	 * @param id The session id.
+	 * @return The session.
+	 * @throws IllegalArgumentException If the id is out of range.
+	 */
+	public RobotSession getOrCreateSession(int id) throws IllegalArgumentException{
+		RobotSession session;
+
+		checkId(id);
+
+		session = sessions.get(id);
+		if(session != null)
+			return session;
+
+		session = new RobotSession(id, new VideoFrameMonitor(), new MotorEventQueue(ProjectConstants.MOTOR_EVENT_COALESCING ? queue_mode_t.COALESCING : queue_mode_t.FIFO, ProjectConstants.MOTOR_EVENT_QUEUE_CAPACITY));
+		if(sessions.compareAndSet(id, null, session))
+			return session;
+
+		// Another thread created it first.
+		return sessions.get(id);
+	}
+
+	/**
+	 * <p>Maximum number of sessions. Valid session ids go from zero to this value minus one.</p>
+	 */
+	public int getMaxSessions(){
+		return sessions.length();
+	}
+
+	/**
+	 * <p>Sets the recorder that gets the traffic of every session.</p>
+	 *
+	 * @param recorder The recorder, or null to stop recording. The previous recorder is not closed.
+	 */
+	public void setRecorder(SessionRecorder recorder){
+		this.recorder = recorder;
+	}
+
+	/**
+	 * <p>Gets the recorder that gets the traffic of every session, or null if nothing is being recorded.</p>
+	 */
+	public SessionRecorder getRecorder(){
+		return recorder;
+	}
+
+	private void checkId(int id) throws IllegalArgumentException{
+		if(id < 0 || id >= sessions.length())
+			throw new IllegalArgumentException("Invalid session id " + Integer.toString(id) + ".");
+	}
+}
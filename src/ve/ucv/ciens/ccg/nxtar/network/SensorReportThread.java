@@ -16,42 +16,89 @@
 package ve.ucv.ciens.ccg.nxtar.network;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 
+import ve.ucv.ciens.ccg.networkdata.SensorRecord;
+import ve.ucv.ciens.ccg.networkdata.SensorRecord.sensor_t;
+import ve.ucv.ciens.ccg.networkdata.SessionHello;
 import ve.ucv.ciens.ccg.nxtar.interfaces.ApplicationEventsListener;
+import ve.ucv.ciens.ccg.nxtar.interfaces.PipelineEventsListener;
+import ve.ucv.ciens.ccg.nxtar.network.monitors.SensorHistory;
+import ve.ucv.ciens.ccg.nxtar.network.recording.SessionRecorder;
+import ve.ucv.ciens.ccg.nxtar.profiling.PipelineEvents;
 import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
 
 import com.badlogic.gdx.Gdx;
 
-public class SensorReportThread extends Thread {
+/**
+ * <p>Receives the sensor readings sent by the robots and stores them in the {@link SensorHistory}
+ * objects of their {@link RobotSession}.</p>
+ * <p>A robot may open the connection with a {@link SessionHello} to name its session. After that
+ * it can send either a stream of {@link SensorRecord} objects or, like older robots, a stream of
+ * single byte light sensor readings from 0 to 100. Binary streams start with
+ * {@link SensorRecord#STREAM_MARKER}, which is never a light reading, so the format is known from
+ * the first byte after the optional hello.
+ * In both cases the socket is read in bulk into a reusable buffer from the {@link NetworkEngine}
+ * thread.</p>
+ * <p>The readings returned by this class are those of the default session.</p>
+ */
+public class SensorReportThread implements NetworkEngine.ChannelHandler {
 	public static final String THREAD_NAME = "SensorReportThread";
 	private static final String TAG = "NXTAR_CORE_ROBOTTHREAD";
 	private static final String CLASS_NAME = SensorReportThread.class.getSimpleName();
+	private static final int BUFFER_SIZE = 4096;
 	private static int refCount = 0;
 
+	/**
+	 * <p>A connected robot.</p>
+	 */
+	private static class SensorConnection{
+		public SocketChannel client;
+		public SelectionKey  key;
+		public ByteBuffer    buffer;
+		public RobotSession  session;
+		public boolean       formatDetected;
+		public boolean       binary;
+
+		public SensorConnection(SocketChannel client, RobotSession session){
+			this.client    = client;
+			this.session   = session;
+			key            = null;
+			buffer         = ByteBuffer.allocate(BUFFER_SIZE);
+			formatDetected = false;
+			binary         = false;
+		}
+	}
+
+	private NetworkEngine engine;
 	private ApplicationEventsListener netListener;
-	private ServerSocket server;
-	private Socket client;
-	private Object pauseMonitor;
-	private boolean paused;
-	private boolean done;
-	private InputStream reader;
-	private Byte lightReading;
+	private ServerSocketChannel server;
+	private List<SensorConnection> connections;
+	private volatile boolean paused;
+	private SensorRecord record;
+	private SessionHello hello;
+	private RobotSessionManager sessions;
 
 	private SensorReportThread(){
+		engine = NetworkEngine.getInstance();
 		paused = false;
-		done = false;
 		netListener = null;
-		pauseMonitor = null;
-		client = null;
-		lightReading = -1;
+		connections = new ArrayList<SensorConnection>();
+		record = new SensorRecord();
+		hello = new SessionHello();
+		sessions = RobotSessionManager.getInstance();
 
 		try{
-			server = new ServerSocket(ProjectConstants.SENSOR_REPORT_PORT);
+			server = ServerSocketChannel.open();
+			server.socket().bind(new InetSocketAddress(ProjectConstants.SENSOR_REPORT_PORT));
 		}catch(IOException io){
-			Gdx.app.error(TAG, CLASS_NAME + ".RobotControlThread() :: Error creating server: " + io.getMessage(), io);
+			Gdx.app.error(TAG, CLASS_NAME + ".SensorReportThread() :: Error creating server: " + io.getMessage(), io);
 			server = null;
 		}
 	}
@@ -60,89 +107,280 @@ public class SensorReportThread extends Thread {
 		public static SensorReportThread INSTANCE;
 	}
 
-	public static SensorReportThread getInstance(){
+	public static synchronized SensorReportThread getInstance(){
 		if(refCount == 0)
 			SingletonHolder.INSTANCE = new SensorReportThread();
 		refCount++;
 		return SingletonHolder.INSTANCE;
 	}
 
-	public static void freeInstance(){
+	public static synchronized void freeInstance(){
 		refCount--;
-		if(refCount == 0) SingletonHolder.INSTANCE = null;
+		if(refCount == 0){
+			SingletonHolder.INSTANCE = null;
+			NetworkEngine.freeInstance();
+		}
 	}
 
 	public void addNetworkConnectionListener(ApplicationEventsListener listener){
 		netListener = listener;
 	}
 
+	/**
+	 * <p>Starts waiting for the robots.</p>
+	 */
+	public void start(){
+		engine.addHandler(this);
+	}
+
+	/**
+	 * <p>Stops reading sensor reports until {@link #resumeThread()} is called.</p>
+	 */
 	public void pauseThread(){
-		synchronized(pauseMonitor){
-			paused = true;
-		}
+		paused = true;
+		setClientInterest();
 	}
 
 	public void resumeThread(){
-		synchronized(pauseMonitor){
-			paused = false;
-		}
+		paused = false;
+		setClientInterest();
 	}
 
 	public void finish(){
-		done = true;
+		engine.removeHandler(this);
+	}
+
+	/**
+	 * <p>Gets the reading history of a sensor of the active session. The history can be queried
+	 * from any thread.</p>
+	 */
+	public SensorHistory getHistory(sensor_t sensor){
+		return sessions.getActiveSession().getSensorHistory(sensor);
+	}
+
+	/**
+	 * <p>Gets the latest light sensor reading of the active session, or -1 if no reading has been
+	 * received yet.</p>
+	 */
+	public int getLightSensorReading(){
+		return getHistory(sensor_t.LIGHT).getLatestValue(-1);
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+	  ; CHANNEL HANDLER INTERFACE METHODS ;
+	  ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;*/
+
+	@Override
+	public void onStart(NetworkEngine engine) throws IOException{
+		if(server == null)
+			throw new IOException("No server available.");
+
+		engine.register(server, SelectionKey.OP_ACCEPT, this);
+	}
+
+	@Override
+	public void onChannelReady(SelectionKey key) throws IOException{
+		SensorConnection connection;
+
+		if(key.isAcceptable()){
+			acceptClient();
+			return;
+		}
+
+		connection = findConnection(key);
+		if(connection == null || !key.isReadable())
+			return;
+
 		try{
-			server.close();
+			readClient(connection);
 		}catch(IOException io){
-			Gdx.app.error(TAG, CLASS_NAME + ".run() :: IOException closing sockets: " + io.getMessage(), io);
+			Gdx.app.error(TAG, CLASS_NAME + ".onChannelReady() :: IOException during sensor read: " + io.getMessage(), io);
+			closeClient(connection);
 		}
 	}
 
-	public byte getLightSensorReading(){
-		byte data;
+	@Override
+	public long onTick(long now){
+		return Long.MAX_VALUE;
+	}
 
-		synchronized(lightReading){
-			data = lightReading.byteValue();
-		}
+	@Override
+	public void onStop(){
+		while(!connections.isEmpty())
+			closeClient(connections.get(connections.size() - 1));
 
-		return data;
+		try{
+			if(server != null)
+				server.close();
+		}catch(IOException io){
+			Gdx.app.error(TAG, CLASS_NAME + ".onStop() :: IOException closing sockets: " + io.getMessage(), io);
+		}
 	}
 
-	@Override
-	public void run(){
-		byte[] reading = new byte[1];
+	/*;;;;;;;;;;;;;;;;;;
+	  ; HELPER METHODS ;
+	  ;;;;;;;;;;;;;;;;;;*/
+
+	private void acceptClient() throws IOException{
+		SensorConnection connection;
+		SocketChannel    client;
 
 		try{
 			client = server.accept();
-			client.setTcpNoDelay(true);
-			if(netListener != null) netListener.onNetworkStreamConnected(THREAD_NAME);
-			reader = client.getInputStream();
+		}catch(IOException io){
+			// Only a closed server is fatal, any other error only affects this connection attempt.
+			if(!server.isOpen())
+				throw io;
+
+			Gdx.app.error(TAG, CLASS_NAME + ".acceptClient() :: Error accepting client: " + io.getMessage(), io);
+			return;
+		}
 
+		if(client == null)
+			return;
+
+		try{
+			client.socket().setTcpNoDelay(true);
+			connection = new SensorConnection(client, sessions.getDefaultSession());
+			connection.key = engine.register(client, paused ? 0 : SelectionKey.OP_READ, this);
 		}catch(IOException io){
-			Gdx.app.error(TAG, CLASS_NAME + ".run() :: Error accepting client: " + io.getMessage(), io);
+			Gdx.app.error(TAG, CLASS_NAME + ".acceptClient() :: Error setting up client: " + io.getMessage(), io);
+			closeChannel(client);
 			return;
 		}
 
-		while(!paused){
-			if(done) break;
+		connections.add(connection);
 
-			try{
-				reader.read(reading);
-			}catch(IOException io){
-				Gdx.app.error(TAG, CLASS_NAME + ".run() :: IOException during sensor read: " + io.getMessage(), io);
-				break;
-			}
+		if(netListener != null) netListener.onNetworkStreamConnected(THREAD_NAME);
+	}
 
-			synchronized (lightReading) {
-				lightReading = reading[0];
-			}
+	private SensorConnection findConnection(SelectionKey key){
+		for(int i = 0; i < connections.size(); i++){
+			if(connections.get(i).key == key)
+				return connections.get(i);
 		}
 
+		return null;
+	}
+
+	private void closeClient(SensorConnection connection){
+		connections.remove(connection);
+
+		closeChannel(connection.client);
+	}
+
+	private void closeChannel(SocketChannel client){
 		try{
-			reader.close();
 			client.close();
-			server.close();
 		}catch(IOException io){
-			Gdx.app.error(TAG, CLASS_NAME + ".run() :: IOException closing sockets: " + io.getMessage(), io);
+			Gdx.app.error(TAG, CLASS_NAME + ".closeChannel() :: IOException closing socket: " + io.getMessage(), io);
+		}
+	}
+
+	private void setClientInterest(){
+		engine.execute(new Runnable(){
+			@Override
+			public void run(){
+				for(int i = 0; i < connections.size(); i++){
+					if(connections.get(i).key.isValid())
+						connections.get(i).key.interestOps(paused ? 0 : SelectionKey.OP_READ);
+				}
+			}
+		});
+	}
+
+	/**
+	 * <p>Reads the available data and adds every complete reading to the histories of the session
+	 * of the connection.</p>
+	 */
+	private void readClient(SensorConnection connection) throws IOException{
+		ByteBuffer             buffer = connection.buffer;
+		SensorHistory          light;
+		SessionRecorder        recorder;
+		PipelineEventsListener events;
+		int                    value;
+		long                   now;
+
+		if(connection.client.read(buffer) < 0){
+			Gdx.app.debug(TAG, CLASS_NAME + ".readClient() :: Robot closed the connection.");
+			closeClient(connection);
+			return;
+		}
+
+		buffer.flip();
+
+		// Detect the session and the format once the first bytes are available.
+		if(!connection.formatDetected && !detectFormat(connection)){
+			buffer.compact();
+			return;
 		}
+
+		now = System.nanoTime();
+		recorder = sessions.getRecorder();
+		events = PipelineEvents.getListener();
+
+		if(connection.binary){
+			while(buffer.remaining() >= SensorRecord.RECORD_SIZE){
+				if(record.readFrom(buffer)){
+					connection.session.getSensorHistory(record.sensor).add(record.value, now, record.timestamp);
+					if(recorder != null)
+						recorder.recordSensorReading(connection.session.getId(), record.sensor, record.value, record.timestamp);
+					if(events != null)
+						events.onSensorUpdate(connection.session.getId(), record.sensor, record.value, record.timestamp);
+				}else
+					// Skip garbage until the next record.
+					buffer.position(buffer.position() + 1);
+			}
+
+		}else{
+			light = connection.session.getSensorHistory(sensor_t.LIGHT);
+			while(buffer.hasRemaining()){
+				value = buffer.get();
+				light.add(value, now, -1L);
+				if(recorder != null)
+					recorder.recordSensorReading(connection.session.getId(), sensor_t.LIGHT, value, -1L);
+				if(events != null)
+					events.onSensorUpdate(connection.session.getId(), sensor_t.LIGHT, value, -1L);
+			}
+		}
+
+		// Keep any partial record for the next read.
+		buffer.compact();
+	}
+
+	/**
+	 * @return True if the format of the connection is known. False if more data is needed.
+	 */
+	private boolean detectFormat(SensorConnection connection) throws IOException{
+		ByteBuffer buffer = connection.buffer;
+
+		if(SessionHello.isNext(buffer)){
+			if(!hello.readFrom(buffer))
+				return false;
+
+			try{
+				connection.session = sessions.getOrCreateSession(hello.sessionId);
+			}catch(IllegalArgumentException ia){
+				throw new IOException(ia.getMessage());
+			}
+		}
+
+		if(!buffer.hasRemaining())
+			return false;
+
+		// Light readings go from 0 to 100, so only binary streams start with the marker.
+		if(buffer.get(buffer.position()) != SensorRecord.STREAM_MARKER)
+			connection.binary = false;
+		else if(buffer.remaining() < 2)
+			return false;
+		else if(buffer.getShort(buffer.position()) == SensorRecord.MAGIC_NUMBER)
+			connection.binary = true;
+		else
+			throw new IOException("Unknown sensor stream format.");
+
+		connection.formatDetected = true;
+		connection.session.onStreamConnected();
+
+		return true;
 	}
 }
@@ -16,65 +16,78 @@
 package ve.ucv.ciens.ccg.nxtar.network;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
 
 import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
 
 import com.badlogic.gdx.Gdx;
 
 /**
- * Ad hoc service discovery server thread.
+ * Ad hoc service discovery server.
  * 
- * <p> This thread performs an ad hoc service discovery protocol. A multicast datagram packet is sent every
+ * <p> This service performs an ad hoc service discovery protocol. A multicast datagram packet is sent every
  * 250 miliseconds carrying the string "NxtAR server is here!" on the multicast address defined 
  * in {@link ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants#MULTICAST_ADDRESS}. The port defined in
  * {@link ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants#SERVICE_DISCOVERY_PORT} is used for the transmissions. The server stops
  * when another thread calls the {@link #finish()} method or the server fails to transmit {@link #MAX_RETRIES} packets in
  * a row, whichever happens first.</p>
+ * <p> The packets are sent from the {@link NetworkEngine} thread.</p>
  * 
  * @author miky
  */
-public class ServiceDiscoveryThread extends Thread {
+public class ServiceDiscoveryThread implements NetworkEngine.ChannelHandler {
 	public  static final String THREAD_NAME = "ServiceDiscoveryThread";
 	private static final String TAG = "NXTAR_CORE_UDPTHREAD";
 	private static final String CLASS_NAME = ServiceDiscoveryThread.class.getSimpleName();
 	private static final int    MAX_RETRIES = 5;
+	private static final long   SEND_INTERVAL = 250L;
 
 	private static int refCount = 0;
 
 	/**
-	 * A semaphore object used to synchronize acces to this thread finish flag.
+	 * The engine that sends the packets.
 	 */
-	private Object semaphore;
+	private NetworkEngine engine;
 
 	/**
-	 * The finish flag.
+	 * The UDP channel used for the ad hoc service discovery protocol.
 	 */
-	private boolean done;
+	private DatagramChannel udpServer;
 
 	/**
-	 * The UDP server socket used for the ad hoc service discovery protocol.
+	 * Holder for the multicast address and port used in the protocol.
 	 */
-	private DatagramSocket udpServer;
+	private InetSocketAddress group;
 
 	/**
-	 * Holder for the multicast address used in the protocol.
+	 * The packet sent on every transmission.
 	 */
-	private InetAddress group;
+	private ByteBuffer packet;
 
-	private ServiceDiscoveryThread(){
-		// Setup this thread name.
-		super(THREAD_NAME);
+	/**
+	 * Number of failed transmissions in a row.
+	 */
+	private int retries;
+
+	/**
+	 * Time of the next transmission.
+	 */
+	private long nextTransmission;
 
-		done = false;
-		semaphore = new Object();
+	private ServiceDiscoveryThread(){
+		engine = NetworkEngine.getInstance();
+		packet = ByteBuffer.wrap((new String("NxtAR server here!")).getBytes());
+		retries = 0;
+		nextTransmission = 0L;
 
 		// Try to get the InetAddress defined by the IP address defined in ProjectConstants.MULTICAST_ADDRESS.
 		try{
-			group = InetAddress.getByName(ProjectConstants.MULTICAST_ADDRESS);
+			group = new InetSocketAddress(InetAddress.getByName(ProjectConstants.MULTICAST_ADDRESS), ProjectConstants.SERVICE_DISCOVERY_PORT);
 		}catch(UnknownHostException uh){
 			group = null;
 		}
@@ -82,7 +95,9 @@ public class ServiceDiscoveryThread extends Thread {
 		// Create a UDP socket at the port defined in ProjectConstants.SERVER_UDP_PORT.
 		Gdx.app.debug(TAG, CLASS_NAME + ".ServiceDiscoveryThread() :: Creating multicast server.");
 		try{
-			udpServer = new DatagramSocket(ProjectConstants.SERVICE_DISCOVERY_PORT);
+			udpServer = DatagramChannel.open();
+			udpServer.socket().setReuseAddress(true);
+			udpServer.socket().bind(new InetSocketAddress(ProjectConstants.SERVICE_DISCOVERY_PORT));
 		}catch(IOException io){
 			Gdx.app.error(TAG, CLASS_NAME + ".ServiceDiscoveryThread() :: Error creating UDP socket: " + io.getMessage());
 			udpServer = null;
@@ -102,79 +117,102 @@ public class ServiceDiscoveryThread extends Thread {
 	 * 
 	 * @return The singleton instance.
 	 */
-	public static ServiceDiscoveryThread getInstance(){
+	public static synchronized ServiceDiscoveryThread getInstance(){
 		if(refCount == 0)
 			SingletonHolder.INSTANCE = new ServiceDiscoveryThread();
 		refCount++;
 		return SingletonHolder.INSTANCE;
 	}
 
-	public static void freeInstance(){
+	public static synchronized void freeInstance(){
 		refCount--;
-		if(refCount == 0) SingletonHolder.INSTANCE = null;
+		if(refCount == 0){
+			SingletonHolder.INSTANCE = null;
+			NetworkEngine.freeInstance();
+		}
 	}
 
 	/**
-	 * This thread's run method.
-	 * 
-	 * <p>This method executes the ad hoc service discovery protocol implemented by this class, as
-	 * described in the class introduction.</p>
+	 * Starts sending the service discovery packets.
 	 */
-	@Override
-	public void run(){
-		int retries = 0;
-		byte[] buffer = (new String("NxtAR server here!")).getBytes();
+	public void start(){
+		engine.addHandler(this);
+	}
+
+	/**
+	 * Marks this service as ready to end.
+	 */
+	public void finish(){
+		Gdx.app.debug(TAG, CLASS_NAME + ".finish() :: Finishing service discovery thread.");
+		engine.removeHandler(this);
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+	  ; CHANNEL HANDLER INTERFACE METHODS ;
+	  ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;*/
 
-		// If failed to get any of the required network elements then end the thread right away.
+	@Override
+	public void onStart(NetworkEngine engine) throws IOException{
+		// If failed to get any of the required network elements then end the service right away.
 		if(group == null || udpServer == null){
-			Gdx.app.error(TAG, CLASS_NAME + ".run() :: No multicast address defined, ending thread.");
-			return;
-		}
-		if(group == null){
-			Gdx.app.error(TAG, CLASS_NAME + ".run() :: No server available, ending thread.");
+			Gdx.app.error(TAG, CLASS_NAME + ".onStart() :: No multicast address or server available, ending service.");
+			engine.removeHandler(this);
 			return;
 		}
 
-		while(true){
-			// Verify if the thread should end. If that is the case, close the server.
-			synchronized(semaphore){
-				if(done){
-					Gdx.app.log(TAG, CLASS_NAME + ".run(): Closing.");
-					udpServer.close();
-					break;
-				}
-			}
-			try{
-				// End the thread if already at the last retry attempt after too many failed transmissions.
-				if(retries >= MAX_RETRIES){
-					Gdx.app.error(TAG, CLASS_NAME + ".run() :: Too many failed transmissions, ending thread.");
-					udpServer.close();
-					break;
-				}
-				// Send the packet and reset the retry counter.
-				DatagramPacket packet = new DatagramPacket(buffer, buffer.length, group, ProjectConstants.SERVICE_DISCOVERY_PORT);
-				udpServer.send(packet);
+		// Nothing is received, so the channel is never selected.
+		udpServer.configureBlocking(false);
+	}
+
+	@Override
+	public void onChannelReady(SelectionKey key){ }
+
+	/**
+	 * <p>Sends a packet when the transmission interval has elapsed, as described in the class
+	 * introduction.</p>
+	 */
+	@Override
+	public long onTick(long now){
+		if(now < nextTransmission)
+			return nextTransmission;
+
+		nextTransmission = now + SEND_INTERVAL;
+
+		try{
+			// Send the packet and reset the retry counter.
+			packet.rewind();
+			if(udpServer.send(packet, group) > 0)
 				retries = 0;
-				try{ sleep(250L); }catch(InterruptedException ie){ }
 
-			}catch(IOException io){
-				Gdx.app.error(TAG, CLASS_NAME + ".run() :: Error sending packet: " + io.getMessage());
-				retries += 1;
+		}catch(IOException io){
+			Gdx.app.error(TAG, CLASS_NAME + ".onTick() :: Error sending packet: " + io.getMessage());
+			retries += 1;
+
+			// End the service after too many failed transmissions.
+			if(retries >= MAX_RETRIES){
+				Gdx.app.error(TAG, CLASS_NAME + ".onTick() :: Too many failed transmissions, ending service.");
+				engine.removeHandler(this);
 			}
 		}
-		if(retries < MAX_RETRIES)
-			Gdx.app.debug(TAG, CLASS_NAME + ".run() :: Service discovery successfully terminated.");
-		else
-			Gdx.app.debug(TAG, CLASS_NAME + ".run() :: Service discovery terminated after too many failed transmissions.");
+
+		return nextTransmission;
 	}
 
-	/**
-	 * Marks this thread as ready to end.
-	 */
-	public void finish(){
-		synchronized(semaphore){
-			Gdx.app.debug(TAG, CLASS_NAME + ".finish() :: Finishing service discovery thread.");
-			done = true;
+	@Override
+	public void onStop(){
+		if(udpServer == null || !udpServer.isOpen())
+			return;
+
+		try{
+			Gdx.app.log(TAG, CLASS_NAME + ".onStop(): Closing.");
+			udpServer.close();
+		}catch(IOException io){
+			Gdx.app.error(TAG, CLASS_NAME + ".onStop() :: Error closing the server: " + io.getMessage());
 		}
+
+		if(retries < MAX_RETRIES)
+			Gdx.app.debug(TAG, CLASS_NAME + ".onStop() :: Service discovery successfully terminated.");
+		else
+			Gdx.app.debug(TAG, CLASS_NAME + ".onStop() :: Service discovery terminated after too many failed transmissions.");
 	}
 }
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.network;
+
+import java.nio.ByteBuffer;
+
+import ve.ucv.ciens.ccg.networkdata.VideoFrameHeader;
+
+/**
+ * <p>Rebuilds video frames from the fragments received by the {@link VideoStreamingThread}.</p>
+ * <p>Partial frames are kept in a small fixed table of reusable slots. A partial frame is dropped
+ * and counted as incomplete when it gets too old, when the table needs room for a newer frame or
+ * when a newer frame is completed first. Fragments of frames older than the last delivered frame
+ * are counted as late and repeated fragments are counted as duplicates.</p>
+ * <p>The sequence numbers start over when the robot restarts, so the reassembler forgets the last
+ * delivered frame when a sequence jumps back by more than {@link #RESYNC_WINDOW} frames, or when no
+ * frame has been delivered for {@link #RESYNC_TIME} milliseconds. Otherwise every frame of the new
+ * stream would be counted as late until its sequence passed the old one.</p>
+ * <p>This class is not thread safe, it is meant to be used only by the streaming thread.</p>
+ */
+public class VideoFrameReassembler{
+	/**
+	 * <p>Maximum number of fragments a single frame can be split in.</p>
+	 */
+	public static final int MAX_FRAGMENTS = 256;
+
+	/**
+	 * <p>Maximum size in bytes of a reassembled frame.</p>
+	 */
+	public static final int MAX_FRAME_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * <p>Largest backwards jump in frames still taken as a late frame of the same stream. About three
+	 * seconds of video at 30 frames per second.</p>
+	 */
+	public static final int RESYNC_WINDOW = 90;
+
+	/**
+	 * <p>Time in milliseconds without delivered frames after which any sequence is accepted.</p>
+	 */
+	public static final long RESYNC_TIME = 2000;
+
+	private static final int  MAX_PARTIAL_FRAMES = 4;
+	private static final long STALE_FRAME_TIME   = 250;
+
+	/**
+	 * <p>A frame being reassembled. The data buffer is reused between frames.</p>
+	 */
+	public static class PartialFrame{
+		public int    sequence;
+		public int    imageWidth;
+		public int    imageHeight;
+		public int    frameLength;
+		public byte[] data;
+
+		/**
+		 * <p>Capture time sent by the robot in milliseconds, zero if unknown.</p>
+		 */
+		public long   captureTimestamp;
+
+		/**
+		 * <p>Arrival time of the first fragment, as given by {@link System#nanoTime()}.</p>
+		 */
+		public long   receiveTimestamp;
+
+		private boolean inUse;
+		private int     fragmentCount;
+		private int     receivedFragments;
+		private long[]  receivedMask;
+		private long    firstArrival;
+
+		private PartialFrame(){
+			inUse        = false;
+			data         = new byte[0];
+			receivedMask = new long[MAX_FRAGMENTS / 64];
+		}
+
+		private void reset(VideoFrameHeader header, long now){
+			inUse             = true;
+			sequence          = header.sequence;
+			imageWidth        = header.imageWidth;
+			imageHeight       = header.imageHeight;
+			frameLength       = header.frameLength;
+			fragmentCount     = header.fragmentCount;
+			receivedFragments = 0;
+			firstArrival      = now;
+			captureTimestamp  = header.captureTimestamp;
+			receiveTimestamp  = System.nanoTime();
+
+			for(int i = 0; i < receivedMask.length; i++)
+				receivedMask[i] = 0L;
+
+			if(data.length < frameLength)
+				data = new byte[frameLength];
+		}
+
+		private boolean markReceived(int index){
+			long bit = 1L << (index & 63);
+
+			if((receivedMask[index >> 6] & bit) != 0)
+				return false;
+
+			receivedMask[index >> 6] |= bit;
+			receivedFragments++;
+			return true;
+		}
+
+		private boolean isComplete(){
+			return receivedFragments == fragmentCount;
+		}
+	}
+
+	private PartialFrame[] partialFrames;
+	private boolean        anyFrameDelivered;
+	private int            lastDeliveredSequence;
+	private long           lastDeliveryTime;
+	private int            lastLateSequence;
+	private int            lateFrames;
+	private int            duplicateFragments;
+	private int            incompleteFrames;
+	private int            malformedFragments;
+
+	public VideoFrameReassembler(){
+		partialFrames = new PartialFrame[MAX_PARTIAL_FRAMES];
+		for(int i = 0; i < partialFrames.length; i++)
+			partialFrames[i] = new PartialFrame();
+
+		anyFrameDelivered = false;
+		lastDeliveredSequence = 0;
+		lastDeliveryTime = 0L;
+		lastLateSequence = 0;
+		resetCounters();
+	}
+
+	/**
+	 * <p>Adds a fragment to its frame.</p>
+	 *
+	 * @param header The header of the fragment.
+	 * @param payload A buffer positioned at the start of the fragment payload.
+	 * @param now The current time in milliseconds.
+	 * @return The completed frame if this fragment was the last one missing, null otherwise. The
+	 * returned frame is only valid until the next call to this method.
+	 */
+	public PartialFrame addFragment(VideoFrameHeader header, ByteBuffer payload, long now){
+		PartialFrame frame;
+
+		if(!isValid(header, payload)){
+			malformedFragments++;
+			return null;
+		}
+
+		evictStaleFrames(now);
+
+		if(anyFrameDelivered && (lastDeliveredSequence - header.sequence > RESYNC_WINDOW || now - lastDeliveryTime > RESYNC_TIME))
+			resync();
+
+		if(anyFrameDelivered && header.sequence - lastDeliveredSequence <= 0){
+			if(header.sequence == lastDeliveredSequence){
+				duplicateFragments++;
+			}else if(header.sequence != lastLateSequence){
+				// Count every late frame once, not once per fragment.
+				lastLateSequence = header.sequence;
+				lateFrames++;
+			}
+			return null;
+		}
+
+		frame = findFrame(header.sequence);
+		if(frame == null){
+			frame = acquireFrame();
+			frame.reset(header, now);
+
+		}else if(frame.frameLength != header.frameLength || frame.fragmentCount != header.fragmentCount){
+			malformedFragments++;
+			return null;
+		}
+
+		if(!frame.markReceived(header.fragmentIndex)){
+			duplicateFragments++;
+			return null;
+		}
+
+		payload.get(frame.data, header.fragmentOffset, header.payloadLength);
+
+		if(!frame.isComplete())
+			return null;
+
+		frame.inUse = false;
+		anyFrameDelivered = true;
+		lastDeliveredSequence = frame.sequence;
+		lastDeliveryTime = now;
+
+		// Older partial frames can no longer be delivered.
+		for(PartialFrame partial : partialFrames){
+			if(partial.inUse && partial.sequence - lastDeliveredSequence < 0){
+				partial.inUse = false;
+				incompleteFrames++;
+			}
+		}
+
+		return frame;
+	}
+
+	public int getLateFrames(){
+		return lateFrames;
+	}
+
+	public int getDuplicateFragments(){
+		return duplicateFragments;
+	}
+
+	public int getIncompleteFrames(){
+		return incompleteFrames;
+	}
+
+	public int getMalformedFragments(){
+		return malformedFragments;
+	}
+
+	public void resetCounters(){
+		lateFrames         = 0;
+		duplicateFragments = 0;
+		incompleteFrames   = 0;
+		malformedFragments = 0;
+	}
+
+	private boolean isValid(VideoFrameHeader header, ByteBuffer payload){
+		if(header.imageWidth <= 0 || header.imageHeight <= 0)
+			return false;
+		if(header.frameLength <= 0 || header.frameLength > MAX_FRAME_SIZE)
+			return false;
+		if(header.fragmentCount <= 0 || header.fragmentCount > MAX_FRAGMENTS || header.fragmentIndex >= header.fragmentCount)
+			return false;
+		if(header.payloadLength <= 0 || header.payloadLength > payload.remaining())
+			return false;
+		if(header.fragmentOffset < 0 || header.fragmentOffset > header.frameLength - header.payloadLength)
+			return false;
+
+		return true;
+	}
+
+	/**
+	 * <p>Starts over with a new stream. The partial frames of the old one can no longer be completed.</p>
+	 */
+	private void resync(){
+		anyFrameDelivered = false;
+
+		for(PartialFrame partial : partialFrames){
+			if(partial.inUse){
+				partial.inUse = false;
+				incompleteFrames++;
+			}
+		}
+	}
+
+	private void evictStaleFrames(long now){
+		for(PartialFrame partial : partialFrames){
+			if(partial.inUse && now - partial.firstArrival > STALE_FRAME_TIME){
+				partial.inUse = false;
+				incompleteFrames++;
+			}
+		}
+	}
+
+	private PartialFrame findFrame(int sequence){
+		for(PartialFrame partial : partialFrames){
+			if(partial.inUse && partial.sequence == sequence)
+				return partial;
+		}
+		return null;
+	}
+
+	private PartialFrame acquireFrame(){
+		PartialFrame oldest = null;
+
+		for(PartialFrame partial : partialFrames){
+			if(!partial.inUse)
+				return partial;
+			if(oldest == null || partial.sequence - oldest.sequence < 0)
+				oldest = partial;
+		}
+
+		// The table is full, drop the oldest partial frame.
+		oldest.inUse = false;
+		incompleteFrames++;
+
+		return oldest;
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.network;
+
+/**
+ * <p>Feedback controller that keeps the end to end latency of the video under a budget by asking
+ * the robot for a lighter or a richer stream.</p>
+ * <p>The controller walks a ladder of stream settings, from the richest to the lightest, and is
+ * updated once per second with the metrics of the last second. The latency is estimated as the
+ * age of the frames when their marker detection finished plus the time taken to render a frame.
+ * When the latency goes over the budget, or too many of the frames received are lost, the
+ * controller steps down right away. After every change it waits for the robot to apply it before
+ * stepping down again. When the latency stays under half of the budget without losses for a while,
+ * it probes the next richer level. A probe that is undone right away makes the next probe wait
+ * twice as long, so the controller settles instead of oscillating between two levels.</p>
+ * <p>Only the JPEG quality and the frame rate are adapted. The camera calibration only holds for the
+ * resolution it was computed at, so the levels leave the resolution of the robot unchanged.</p>
+ * <p>This class is not thread safe. The settings requested are sent to the robot with
+ * {@link VideoStreamingThread#requestVideoParameters(int, int, int, int, int)}.</p>
+ */
+public class VideoQualityController{
+	private static final float LOSS_THRESHOLD     = 0.1f;
+	private static final int   SETTLE_TIME        = 2;
+	private static final int   PROBE_INTERVAL     = 5;
+	private static final int   MAX_PROBE_INTERVAL = 60;
+
+	/**
+	 * <p>The parameters of the stream at one level of the ladder.</p>
+	 */
+	public static final class StreamSettings{
+		public final int width;
+		public final int height;
+		public final int quality;
+		public final int framesPerSecond;
+
+		public StreamSettings(int width, int height, int quality, int framesPerSecond){
+			this.width           = width;
+			this.height          = height;
+			this.quality         = quality;
+			this.framesPerSecond = framesPerSecond;
+		}
+
+		@Override
+		public String toString(){
+			return (width > 0 ? Integer.toString(width) + "x" + Integer.toString(height) : "native") + " q" + Integer.toString(quality) + " " + Integer.toString(framesPerSecond) + "fps";
+		}
+	}
+
+	/**
+	 * <p>The levels of the ladder. A zero width and height leave the resolution unchanged.</p>
+	 */
+	private static final StreamSettings[] LEVELS = {
+		new StreamSettings(0, 0, 80, 30),
+		new StreamSettings(0, 0, 65, 30),
+		new StreamSettings(0, 0, 50, 30),
+		new StreamSettings(0, 0, 50, 20),
+		new StreamSettings(0, 0, 40, 15),
+		new StreamSettings(0, 0, 30, 10)
+	};
+
+	private final long latencyBudget;
+	private int        level;
+	private int        settleTime;
+	private int        goodUpdates;
+	private int        probeInterval;
+	private boolean    probing;
+	private long       latencyEstimate;
+
+	/**
+	 * <p>Creates a controller that starts at the richest level.</p>
+	 *
+	 * @param latencyBudget The latency budget in milliseconds.
+	 * @throws IllegalArgumentException If the budget is not positive.
+	 */
+	public VideoQualityController(long latencyBudget) throws IllegalArgumentException{
+		if(latencyBudget <= 0L)
+			throw new IllegalArgumentException("Latency budget must be greater than cero.");
+
+		this.latencyBudget = latencyBudget;
+		level              = 0;
+		settleTime         = 0;
+		goodUpdates        = 0;
+		probeInterval      = PROBE_INTERVAL;
+		probing            = false;
+		latencyEstimate    = 0L;
+	}
+
+	/**
+	 * <p>Updates the controller with the metrics of the last second.</p>
+	 *
+	 * @param receivedFrames Frames received during the last second.
+	 * @param lostFrames Frames lost during the last second.
+	 * @param detectionLatency Mean age in milliseconds of the frames when their detection finished.
+	 * @param renderTime Time in milliseconds taken to render a frame.
+	 * @return True if the level changed and the new settings must be sent to the robot.
+	 */
+	public boolean update(int receivedFrames, int lostFrames, long detectionLatency, long renderTime){
+		boolean overloaded;
+
+		// Nothing to control while the robot is not streaming.
+		if(receivedFrames == 0 && lostFrames == 0)
+			return false;
+
+		latencyEstimate = detectionLatency + renderTime;
+		overloaded = latencyEstimate > latencyBudget || lostFrames > LOSS_THRESHOLD * (receivedFrames + lostFrames);
+
+		if(settleTime > 0){
+			settleTime--;
+
+			// A probe that overloads the stream is undone without waiting.
+			if(!(probing && overloaded))
+				return false;
+		}
+
+		if(overloaded){
+			goodUpdates = 0;
+
+			if(probing)
+				probeInterval = Math.min(probeInterval * 2, MAX_PROBE_INTERVAL);
+			probing = false;
+
+			return setLevel(level + 1);
+		}
+
+		// A probe that held resets the wait for the next one.
+		if(probing)
+			probeInterval = PROBE_INTERVAL;
+		probing = false;
+
+		if(latencyEstimate < latencyBudget / 2 && lostFrames == 0){
+			goodUpdates++;
+			if(goodUpdates >= probeInterval && level > 0){
+				goodUpdates = 0;
+				probing = true;
+				return setLevel(level - 1);
+			}
+		}else
+			goodUpdates = 0;
+
+		return false;
+	}
+
+	/**
+	 * <p>Goes back to the richest level and forgets the history of probes.</p>
+	 *
+	 * @return True if the level changed and the new settings must be sent to the robot.
+	 */
+	public boolean reset(){
+		goodUpdates   = 0;
+		probeInterval = PROBE_INTERVAL;
+		probing       = false;
+
+		return setLevel(0);
+	}
+
+	/**
+	 * <p>Index of the current level. Zero is the richest level.</p>
+	 */
+	public int getLevel(){
+		return level;
+	}
+
+	public int getLevelCount(){
+		return LEVELS.length;
+	}
+
+	public StreamSettings getSettings(){
+		return LEVELS[level];
+	}
+
+	/**
+	 * <p>The latency in milliseconds estimated on the last update.</p>
+	 */
+	public long getLatencyEstimate(){
+		return latencyEstimate;
+	}
+
+	public long getLatencyBudget(){
+		return latencyBudget;
+	}
+
+	private boolean setLevel(int newLevel){
+		newLevel = Math.max(0, Math.min(newLevel, LEVELS.length - 1));
+		if(newLevel == level)
+			return false;
+
+		level = newLevel;
+		settleTime = SETTLE_TIME;
+
+		return true;
+	}
+}
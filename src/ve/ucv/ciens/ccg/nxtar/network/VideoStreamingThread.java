@@ -18,53 +18,77 @@ package ve.ucv.ciens.ccg.nxtar.network;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
 
 import ve.ucv.ciens.ccg.networkdata.VideoFrameDataMessage;
+import ve.ucv.ciens.ccg.networkdata.VideoFrameHeader;
+import ve.ucv.ciens.ccg.networkdata.VideoStreamingControlMessage;
 import ve.ucv.ciens.ccg.nxtar.interfaces.ApplicationEventsListener;
+import ve.ucv.ciens.ccg.nxtar.interfaces.PipelineEventsListener;
 import ve.ucv.ciens.ccg.nxtar.network.monitors.VideoFrameMonitor;
+import ve.ucv.ciens.ccg.nxtar.network.recording.SessionRecorder;
+import ve.ucv.ciens.ccg.nxtar.profiling.FrameLatencyTracer;
+import ve.ucv.ciens.ccg.nxtar.profiling.FrameLatencyTracer.stage_t;
+import ve.ucv.ciens.ccg.nxtar.profiling.PipelineEvents;
 import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
 
 import com.badlogic.gdx.Gdx;
 
-public class VideoStreamingThread extends Thread{
+/**
+ * <p>Receives the video streams sent by the robots and publishes the frames in the
+ * {@link VideoFrameMonitor} of the {@link RobotSession} named in each frame header. Frames without
+ * a session id, including every frame of the legacy serialized protocol, go to the default
+ * session.</p>
+ * <p>The datagrams are received from the {@link NetworkEngine} thread. The statistics returned by
+ * this class are those of the default session.</p>
+ * <p>Robots that use the binary protocol can be asked to change the parameters of their stream
+ * with {@link #requestVideoParameters(int, int, int, int, int)}.</p>
+ */
+public class VideoStreamingThread implements NetworkEngine.ChannelHandler{
 	public static final String THREAD_NAME = "VideoStreamingThread";
 	private static final String TAG = "NXTAR_CORE_VIDEOTHREAD";
 	private static final String CLASS_NAME = VideoStreamingThread.class.getSimpleName();
+	private static final int MAX_DATAGRAM_SIZE = 65507;
+	private static final int MAX_DATAGRAMS_PER_READY = 64;
+	private static final int CONTROL_MESSAGE_COPIES = 3;
 	private static int refCount = 0;
 
+	private NetworkEngine engine;
 	private ApplicationEventsListener netListener;
-	private DatagramSocket socket;
-	private boolean protocolStarted;
-	private boolean done;
-	private boolean pause;
-	private boolean coreNotified;
-	private Object protocolPauseMonitor;
-	private VideoFrameMonitor frameMonitor;
+	private DatagramChannel channel;
+	private SelectionKey key;
+	private ByteBuffer packetBuffer;
+	private SocketAddress packetSource;
+	private ByteBuffer controlBuffer;
+	private VideoFrameHeader frameHeader;
+	private volatile boolean protocolStarted;
+	private int legacyMessageSize;
+	private RobotSessionManager sessions;
+	private RobotSession defaultSession;
 	private long then;
-	private long now;
-	private long delta;
-	private int fps;
-	private int lostFramesPerSecond;
-	private int lostFrames;
-	private Object pauseMonitor;
+	private FrameLatencyTracer tracer;
 
 	private VideoStreamingThread(){
-		super(THREAD_NAME);
-
-		pauseMonitor = new Object();
-		fps = 0;
-		lostFramesPerSecond = 0;
+		engine = NetworkEngine.getInstance();
 		netListener = null;
 		protocolStarted = false;
-		done = false;
-		coreNotified = false;
-		protocolPauseMonitor = new Object();
-		frameMonitor = VideoFrameMonitor.getInstance();
+		legacyMessageSize = 0;
+		key = null;
+		sessions = RobotSessionManager.getInstance();
+		defaultSession = sessions.getDefaultSession();
+		packetBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+		packetSource = null;
+		controlBuffer = ByteBuffer.allocateDirect(VideoStreamingControlMessage.FRAME_SIZE);
+		frameHeader = new VideoFrameHeader();
+		tracer = FrameLatencyTracer.getInstance();
 
 		try{
-			socket = new DatagramSocket(ProjectConstants.VIDEO_STREAMING_PORT);
+			channel = DatagramChannel.open();
+			channel.socket().bind(new InetSocketAddress(ProjectConstants.VIDEO_STREAMING_PORT));
 		}catch(IOException io){
 			Gdx.app.error(TAG, CLASS_NAME + ".VideoStreamingThread() :: Error creating server: " + io.getMessage(), io);
 		}
@@ -74,29 +98,36 @@ public class VideoStreamingThread extends Thread{
 		public static VideoStreamingThread INSTANCE;
 	}
 
-	public static VideoStreamingThread getInstance(){
+	public static synchronized VideoStreamingThread getInstance(){
 		if(refCount == 0)
 			SingletonHolder.INSTANCE = new VideoStreamingThread();
 		refCount++;
 		return SingletonHolder.INSTANCE;
 	}
 
-	public static void freeInstance(){
+	public static synchronized void freeInstance(){
 		refCount--;
-		if(refCount == 0) SingletonHolder.INSTANCE = null;
+		if(refCount == 0){
+			SingletonHolder.INSTANCE = null;
+			NetworkEngine.freeInstance();
+		}
 	}
 
 	public void addNetworkConnectionListener(ApplicationEventsListener listener){
 		netListener = listener;
 	}
 
+	/**
+	 * <p>Starts receiving datagrams.</p>
+	 */
+	public void start(){
+		engine.addHandler(this);
+	}
+
 	public void startStreaming(){
 		if(!protocolStarted){
 			Gdx.app.debug(TAG, CLASS_NAME + ".startStreaming() :: Requesting protocol start.");
-			synchronized(protocolPauseMonitor){
-				protocolStarted = true;
-				protocolPauseMonitor.notifyAll();
-			}
+			protocolStarted = true;
 		}
 	}
 
@@ -110,9 +141,6 @@ public class VideoStreamingThread extends Thread{
 	public void resumeStreaming(){
 		if(protocolStarted){
 			Gdx.app.debug(TAG, CLASS_NAME + ".resumeStreaming() :: Requesting protocol resume.");
-			synchronized(protocolPauseMonitor){
-				protocolPauseMonitor.notifyAll();
-			}
 		}else
 			return;
 	}
@@ -125,138 +153,291 @@ public class VideoStreamingThread extends Thread{
 	}
 
 	public void finish(){
-		done = true;
+		engine.removeHandler(this);
 	}
 
-	private int byteArray2Int(byte[] array){
-		int number = 0;
-		for(int i = 0; i < 4; i++){
-			number |= (array[3-i] & 0xff) << (i << 3);
-		}
-		return number;
+	/**
+	 * <p>Stops receiving datagrams. Datagrams sent meanwhile are dropped by the operating system
+	 * once the socket buffer fills.</p>
+	 */
+	public void pause(){
+		setInterest(0);
 	}
 
-	private void receiveUdp(){
-		try{
-			int intSize;
-			byte[] size = new byte[4];
-			byte[] data;
-			DatagramPacket packet;
-			VideoFrameDataMessage dataMessage;
-			Object tmpMessage;
-
-			//Gdx.app.debug(TAG, CLASS_NAME + ".receiveUdp() :: Reading message size from socket.");
-			try{
-				packet = new DatagramPacket(size, size.length);
-				socket.setSoTimeout(1000);
-				socket.receive(packet);
-			}catch(IOException io){
-				Gdx.app.error(TAG, CLASS_NAME + ".receiveUdp() :: IOException receiving size " + io.getMessage());
-				lostFramesPerSecond += 1;
-				return;
-			}
+	public void play(){
+		setInterest(SelectionKey.OP_READ);
+	}
 
-			//Gdx.app.debug(TAG, CLASS_NAME + ".receiveUdp() :: Creating buffers.");
-			intSize = byteArray2Int(size);
-			data = new byte[intSize];
-
-			//Gdx.app.debug(TAG, CLASS_NAME + ".receiveUdp() :: Reading message from socket.");
-			try{
-				packet = new DatagramPacket(data, data.length);
-				socket.receive(packet);
-			}catch(IOException io){
-				Gdx.app.error(TAG, CLASS_NAME + ".receiveUdp() :: IOException receiving data " + io.getMessage());
-				lostFramesPerSecond += 1;
-				return;
-			}
+	/**
+	 * <p>Frames delivered during the last second to the active session.</p>
+	 */
+	public int getFps(){
+		return sessions.getActiveSession().getFps();
+	}
 
-			ByteArrayInputStream bais = new ByteArrayInputStream(data);
+	/**
+	 * <p>Frames of the active session lost during the last second. Includes incomplete frames, frames that arrived
+	 * after a newer frame was delivered and malformed or unreadable packets.</p>
+	 */
+	public int getLostFrames(){
+		return sessions.getActiveSession().getLostFrames();
+	}
 
-			//Gdx.app.debug(TAG, CLASS_NAME + ".receiveUdp() :: Saving message in monitor.");
-			try{
-				ObjectInputStream ois = new ObjectInputStream(bais);
-				tmpMessage = ois.readObject();
+	public int getLateFrames(){
+		return sessions.getActiveSession().getLateFrames();
+	}
 
-				if(tmpMessage instanceof VideoFrameDataMessage){
-					//Gdx.app.debug(TAG, CLASS_NAME + ".receiveUdp() :: Received a data message.");
-					dataMessage = (VideoFrameDataMessage) tmpMessage;
+	public int getDuplicateFragments(){
+		return sessions.getActiveSession().getDuplicateFragments();
+	}
 
-					//Gdx.app.debug(TAG, CLASS_NAME + ".receiveUdp() :: Received frame dimensions are: " + Integer.toString(dataMessage.imageWidth) + "x" + Integer.toString(dataMessage.imageHeight));
-					frameMonitor.setFrameDimensions(dataMessage.imageWidth, dataMessage.imageHeight);
-					frameMonitor.setNewFrame(dataMessage.data);
+	public int getIncompleteFrames(){
+		return sessions.getActiveSession().getIncompleteFrames();
+	}
 
-				}else{
-					Gdx.app.debug(TAG, CLASS_NAME + ".receiveUdp() :: Received something unknown.");
-					lostFramesPerSecond += 1;
-				}
-			}catch(IOException io){
-				Gdx.app.error(TAG, CLASS_NAME + ".receiveUdp() :: IOException received deserializing message " + io.getMessage());
-				lostFramesPerSecond += 1;
-				return;
-			}catch(ClassNotFoundException cn){
-				Gdx.app.error(TAG, CLASS_NAME + ".receiveUdp() :: ClassNotFoundException received " + cn.getMessage());
-				lostFramesPerSecond += 1;
-				return;
+	/**
+	 * <p>Asks the robot of a session to change the parameters of its video stream. The request is
+	 * sent a few times, one second apart, to the address the binary frames of the session come
+	 * from. Robots using the legacy serialized protocol are never sent any request.</p>
+	 *
+	 * @param sessionId The session of the robot.
+	 * @param width The requested image width, or zero to keep the current one.
+	 * @param height The requested image height, or zero to keep the current one.
+	 * @param quality The requested JPEG quality between 1 and 100, or zero to keep the current one.
+	 * @param framesPerSecond The requested frame rate, or zero to keep the current one.
+	 */
+	public void requestVideoParameters(final int sessionId, final int width, final int height, final int quality, final int framesPerSecond){
+		engine.execute(new Runnable(){
+			@Override
+			public void run(){
+				RobotSession session = sessions.getSession(sessionId);
+
+				if(session == null)
+					return;
+
+				session.videoControl.sequence++;
+				session.videoControl.imageWidth = width;
+				session.videoControl.imageHeight = height;
+				session.videoControl.quality = quality;
+				session.videoControl.framesPerSecond = framesPerSecond;
+				session.videoControlCopies = CONTROL_MESSAGE_COPIES;
+
+				sendVideoControl(session);
 			}
-		}catch(Exception e){
-			Gdx.app.error(TAG, CLASS_NAME + ".receiveUdp() :: Exception received " + e.getMessage());
-			lostFramesPerSecond += 1;
-			return;
-		}
+		});
 	}
 
-	public int getFps(){
-		return fps;
-	}
+	/*;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+	  ; CHANNEL HANDLER INTERFACE METHODS ;
+	  ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;*/
 
-	public int getLostFrames(){
-		return lostFrames;
+	@Override
+	public void onStart(NetworkEngine engine) throws IOException{
+		if(channel == null)
+			throw new IOException("No channel available.");
+
+		then = System.currentTimeMillis();
+		key = engine.register(channel, SelectionKey.OP_READ, this);
 	}
 
+	/**
+	 * <p>Receives the datagrams available and dispatches them according to their format. A
+	 * bounded number of datagrams is read on each call so a flood of video packets does not
+	 * delay the other channels.</p>
+	 */
 	@Override
-	public void run(){
-		int frames = 0;
-		lostFrames = 0;
-		then = System.currentTimeMillis();
+	public void onChannelReady(SelectionKey key){
+		for(int i = 0; i < MAX_DATAGRAMS_PER_READY && receivePacket(); i++)
+			receiveUdp();
+	}
 
-		while(!done){
-			synchronized (pauseMonitor) {
-				while(pause){
-					try{ pauseMonitor.wait(); }catch(InterruptedException ie){ }
+	@Override
+	public long onTick(long now){
+		RobotSession           session;
+		PipelineEventsListener events = PipelineEvents.getListener();
+
+		if(now - then >= 1000){
+			for(int i = 0; i < sessions.getMaxSessions(); i++){
+				session = sessions.getSession(i);
+				if(session != null){
+					session.updateVideoStatistics();
+					if(events != null && session.getLostFrames() > 0)
+						events.onVideoFramesDropped(session.getId(), session.getLostFrames(), session.getLateFrames(), session.getIncompleteFrames());
+					if(session.videoControlCopies > 0)
+						sendVideoControl(session);
 				}
 			}
-			//Gdx.app.debug(TAG, CLASS_NAME + ".run() :: Receiving.");
-			if(netListener != null && !coreNotified && frameMonitor.getCurrentFrame() != null){
-				coreNotified = true;
-				netListener.onNetworkStreamConnected(THREAD_NAME);
+			then = now;
+		}
+
+		return then + 1000;
+	}
+
+	@Override
+	public void onStop(){
+		try{
+			if(channel != null && channel.isOpen())
+				channel.close();
+		}catch(IOException io){
+			Gdx.app.error(TAG, CLASS_NAME + ".onStop() :: Error closing the channel: " + io.getMessage(), io);
+		}
+
+		Gdx.app.debug(TAG, CLASS_NAME + ".onStop() :: Video streaming finished.");
+	}
+
+	/*;;;;;;;;;;;;;;;;;;
+	  ; HELPER METHODS ;
+	  ;;;;;;;;;;;;;;;;;;*/
+
+	private void setInterest(final int ops){
+		engine.execute(new Runnable(){
+			@Override
+			public void run(){
+				if(key != null && key.isValid())
+					key.interestOps(ops);
 			}
-			receiveUdp();
-			frames++;
-			now = System.currentTimeMillis();
-			delta = now - then;
-			if(delta >= 1000){
-				fps = frames;
-				frames = 0;
-				lostFrames = lostFramesPerSecond;
-				lostFramesPerSecond = 0;
-				then = now;
-				delta = 0;
+		});
+	}
+
+	/**
+	 * <p>Dispatches the datagram in the packet buffer according to its format. Binary frame
+	 * fragments start with a {@link VideoFrameHeader}. A datagram of exactly four bytes is the size
+	 * prefix used by the legacy serialized protocol, and the datagram after it holds the frame.</p>
+	 */
+	private void receiveUdp(){
+		if(legacyMessageSize > 0){
+			receiveLegacyFrame();
+		}else if(frameHeader.readFrom(packetBuffer)){
+			receiveBinaryFrame();
+		}else if(packetBuffer.remaining() == 4){
+			legacyMessageSize = packetBuffer.getInt();
+			if(legacyMessageSize <= 0 || legacyMessageSize > MAX_DATAGRAM_SIZE){
+				Gdx.app.debug(TAG, CLASS_NAME + ".receiveUdp() :: Invalid message size " + Integer.toString(legacyMessageSize));
+				legacyMessageSize = 0;
+				defaultSession.lostFramesPerSecond += 1;
 			}
+		}else{
+			Gdx.app.debug(TAG, CLASS_NAME + ".receiveUdp() :: Received something unknown.");
+			defaultSession.lostFramesPerSecond += 1;
 		}
+	}
 
-		Gdx.app.debug(TAG, CLASS_NAME + ".run() :: Thread finished.");
+	/**
+	 * <p>Reads a single datagram into the packet buffer and leaves the buffer ready for reading.</p>
+	 *
+	 * @return True if a datagram was received. False if there are no more datagrams available.
+	 */
+	private boolean receivePacket(){
+		try{
+			packetBuffer.clear();
+			packetSource = channel.receive(packetBuffer);
+			if(packetSource == null)
+				return false;
+			packetBuffer.flip();
+			return true;
+
+		}catch(IOException io){
+			Gdx.app.error(TAG, CLASS_NAME + ".receivePacket() :: IOException receiving packet " + io.getMessage());
+			defaultSession.lostFramesPerSecond += 1;
+			return false;
+		}
 	}
 
-	public void pause(){
-		synchronized (pauseMonitor){
-			pause = true;
+	private void receiveBinaryFrame(){
+		VideoFrameReassembler.PartialFrame frame;
+		RobotSession                       session;
+
+		try{
+			session = sessions.getOrCreateSession(frameHeader.sessionId);
+		}catch(IllegalArgumentException ia){
+			Gdx.app.debug(TAG, CLASS_NAME + ".receiveBinaryFrame() :: " + ia.getMessage());
+			defaultSession.lostFramesPerSecond += 1;
+			return;
 		}
+
+		session.videoSource = packetSource;
+		frame = session.reassembler.addFragment(frameHeader, packetBuffer, System.currentTimeMillis());
+		if(frame == null)
+			return;
+
+		publishFrame(session, frame.data, frame.frameLength, frame.imageWidth, frame.imageHeight, frame.captureTimestamp, frame.receiveTimestamp);
 	}
 
-	public void play(){
-		synchronized (pauseMonitor){
-			pause = false;
-			pauseMonitor.notifyAll();
+	private void publishFrame(RobotSession session, byte[] data, int length, int width, int height, long captureTimestamp, long receiveTimestamp){
+		SessionRecorder        recorder = sessions.getRecorder();
+		PipelineEventsListener events   = PipelineEvents.getListener();
+
+		session.getFrameMonitor().setNewFrame(data, 0, length, width, height, captureTimestamp, receiveTimestamp);
+		session.framesPerSecond++;
+
+		tracer.recordTransit(session.getId(), captureTimestamp, receiveTimestamp);
+		tracer.record(stage_t.REASSEMBLY, System.nanoTime() - receiveTimestamp);
+		if(events != null)
+			events.onVideoFrameReceived(session.getId(), length, captureTimestamp, receiveTimestamp);
+
+		if(recorder != null)
+			recorder.recordVideoFrame(session.getId(), data, 0, length, width, height);
+
+		if(!session.videoConnected){
+			session.videoConnected = true;
+			session.onStreamConnected();
+			if(netListener != null) netListener.onNetworkStreamConnected(THREAD_NAME);
+		}
+	}
+
+	/**
+	 * <p>Sends a copy of the pending control message of a session, if the address of its robot
+	 * is known.</p>
+	 */
+	private void sendVideoControl(RobotSession session){
+		if(session.videoSource == null)
+			return;
+
+		session.videoControlCopies--;
+
+		try{
+			controlBuffer.clear();
+			session.videoControl.writeTo(controlBuffer);
+			controlBuffer.flip();
+			channel.send(controlBuffer, session.videoSource);
+
+		}catch(IOException io){
+			Gdx.app.error(TAG, CLASS_NAME + ".sendVideoControl() :: IOException sending control message " + io.getMessage());
+		}
+	}
+
+	private void receiveLegacyFrame(){
+		byte[] data;
+		Object tmpMessage;
+		VideoFrameDataMessage dataMessage;
+		long receiveTimestamp = System.nanoTime();
+
+		legacyMessageSize = 0;
+		data = new byte[packetBuffer.remaining()];
+		packetBuffer.get(data);
+
+		try{
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data));
+			tmpMessage = ois.readObject();
+
+			if(tmpMessage instanceof VideoFrameDataMessage){
+				dataMessage = (VideoFrameDataMessage) tmpMessage;
+
+				publishFrame(defaultSession, dataMessage.data, dataMessage.data.length, dataMessage.imageWidth, dataMessage.imageHeight, 0L, receiveTimestamp);
+
+			}else{
+				Gdx.app.debug(TAG, CLASS_NAME + ".receiveLegacyFrame() :: Received something unknown.");
+				defaultSession.lostFramesPerSecond += 1;
+			}
+		}catch(IllegalArgumentException ia){
+			Gdx.app.debug(TAG, CLASS_NAME + ".receiveLegacyFrame() :: Invalid frame: " + ia.getMessage());
+			defaultSession.lostFramesPerSecond += 1;
+		}catch(IOException io){
+			Gdx.app.error(TAG, CLASS_NAME + ".receiveLegacyFrame() :: IOException received deserializing message " + io.getMessage());
+			defaultSession.lostFramesPerSecond += 1;
+		}catch(ClassNotFoundException cn){
+			Gdx.app.error(TAG, CLASS_NAME + ".receiveLegacyFrame() :: ClassNotFoundException received " + cn.getMessage());
+			defaultSession.lostFramesPerSecond += 1;
 		}
 	}
 }
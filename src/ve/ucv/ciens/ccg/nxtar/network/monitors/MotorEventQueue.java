@@ -15,30 +15,112 @@
  */
 package ve.ucv.ciens.ccg.nxtar.network.monitors;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 import ve.ucv.ciens.ccg.networkdata.MotorEvent;
+import ve.ucv.ciens.ccg.networkdata.MotorEvent.motor_t;
+import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
 
 /**
- * <p>A simple monitor class that encapsulates a queue.</p>
- * <p>As it name says it stores motor events to be forwarded to the NXT robot.</p>
- * <p>This class implements the singleton design pattern.<p> 
- * 
+ * <p>A bounded queue of motor events to be forwarded to the NXT robot.</p>
+ * <p>Any number of threads can add events while a single thread, the robot control thread,
+ * takes them. The queue is a lock-free ring buffer, so adding an event never takes a lock.</p>
+ * <p>In {@link queue_mode_t#COALESCING} mode the queue keeps at most one unsent power event per
+ * motor: a newer power value for a motor replaces the unsent one in place, so the robot always
+ * gets the latest value and never replays stale ones when the link is slow. Events that are not
+ * power levels (recenter, rotate, and the combined A and C motor) are never merged and act as
+ * barriers: power events added after them are not merged with events added before them, so the
+ * robot sees the same ordering it would see without coalescing.</p>
+ * <p>Events are added with {@link #offerEvent(MotorEvent)}, which never waits, as the events are
+ * produced by the render thread. When the queue is full, because the robot is slow or there is no
+ * robot connected, new events are discarded and counted.</p>
+ * <p>This class implements the singleton design pattern.<p>
+ *
  * @author Miguel Angel Astor Romero
  */
 public class MotorEventQueue{
 	/**
-	 * The event queue implemented as a linked list.
+	 * <p>Ways of handling the events of a motor that already has events waiting.</p>
+	 */
+	public enum queue_mode_t{
+		/**
+		 * <p>Every event is sent in the order it was added.</p>
+		 */
+		FIFO,
+
+		/**
+		 * <p>A newer power event replaces the unsent power event of the same motor.</p>
+		 */
+		COALESCING;
+	}
+
+	/**
+	 * <p>An entry of the ring buffer. The event is replaced while coalescing, and set to null by
+	 * the consumer once the entry has been taken.</p>
+	 */
+	private static final class Entry extends AtomicReference<MotorEvent>{
+		private static final long serialVersionUID = 1L;
+
+		public Entry(MotorEvent event){
+			super(event);
+		}
+	}
+
+	private final queue_mode_t                 mode;
+	private final int                          mask;
+	private final AtomicReferenceArray<Entry>  entries;
+	private final AtomicLongArray              sequences;
+	private final AtomicLong                   tail;
+	private volatile long                      head;
+	private final AtomicReferenceArray<Entry>  openEntries;
+	private final AtomicLong                   barriers;
+	private final AtomicLong                   coalescedEvents;
+	private final AtomicLong                   rejectedEvents;
+	private volatile Thread                    waitingConsumer;
+	private volatile Runnable                  consumerWakeup;
+
+	/**
+	 * <p>Creates a new queue. Most code should use the shared instance returned by
+	 * {@link #getInstance()}.</p>
+	 *
+	 * @param mode The handling of repeated events for the same motor.
+	 * @param capacity Maximum number of events waiting in the queue. Rounded up to a power of two.
+	 * @throws IllegalArgumentException If the mode is null or the capacity is not positive.
 	 */
-	private Queue<MotorEvent> motorEvents;
+	public MotorEventQueue(queue_mode_t mode, int capacity) throws IllegalArgumentException{
+		int size = 1;
+
+		if(mode == null)
+			throw new IllegalArgumentException("Mode is null.");
+		if(capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be greater than cero.");
+
+		while(size < capacity)
+			size <<= 1;
 
-	private MotorEventQueue(){
-		motorEvents = new LinkedList<MotorEvent>();
+		this.mode       = mode;
+		mask            = size - 1;
+		entries         = new AtomicReferenceArray<Entry>(size);
+		sequences       = new AtomicLongArray(size);
+		tail            = new AtomicLong(0L);
+		head            = 0L;
+		openEntries     = new AtomicReferenceArray<Entry>(motor_t.values().length);
+		barriers        = new AtomicLong(0L);
+		coalescedEvents = new AtomicLong(0L);
+		rejectedEvents  = new AtomicLong(0L);
+		waitingConsumer = null;
+		consumerWakeup  = null;
+
+		for(int i = 0; i < size; i++)
+			sequences.set(i, i);
 	}
 
 	private static class SingletonHolder{
-		public static final MotorEventQueue instance = new MotorEventQueue();
+		public static final MotorEventQueue instance = new MotorEventQueue(ProjectConstants.MOTOR_EVENT_COALESCING ? queue_mode_t.COALESCING : queue_mode_t.FIFO, ProjectConstants.MOTOR_EVENT_QUEUE_CAPACITY);
 	}
 
 	/**
@@ -49,24 +131,211 @@ public class MotorEventQueue{
 		return SingletonHolder.instance;
 	}
 
+	/*;;;;;;;;;;;;;;;;;;;;
+	  ; PRODUCER METHODS ;
+	  ;;;;;;;;;;;;;;;;;;;;*/
+
+	/**
+	 * <p>Adds an event to the back of the queue, or merges it with the unsent event of the same
+	 * motor, without waiting.</p>
+	 * @param event The event to add.
+	 * @return False if the queue is full and the event was discarded.
+	 */
+	public boolean offerEvent(MotorEvent event){
+		if(offer(event))
+			return true;
+
+		rejectedEvents.incrementAndGet();
+		return false;
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;;
+	  ; CONSUMER METHODS ;
+	  ;;;;;;;;;;;;;;;;;;;;*/
+
 	/**
 	 * <p>Get the first event on the queue.</p>
-	 * <p> If there are no events to return this method blocks until some thread calls the addEvent() method.</p>
+	 * <p> If there are no events to return this method blocks until some thread calls the offerEvent() method.</p>
 	 * @return The event at the front of the queue.
 	 */
-	public synchronized MotorEvent getNextEvent(){
-		while(motorEvents.size() == 0){
-			try{ wait(); }catch(InterruptedException ie){ }
+	public MotorEvent getNextEvent(){
+		MotorEvent event;
+
+		waitingConsumer = Thread.currentThread();
+		try{
+			while((event = pollEvent()) == null){
+				LockSupport.park(this);
+				Thread.interrupted();
+			}
+		}finally{
+			waitingConsumer = null;
 		}
-		return motorEvents.poll();
+
+		return event;
 	}
 
 	/**
-	 * <p>Adds an event to the back of the queue.</p>
-	 * @param event The event to add.
+	 * <p>Sets a callback run after every event added to the queue, for consumers that wait on
+	 * something other than this queue, like a selector, and poll it with {@link #pollEvent()}.</p>
+	 *
+	 * @param wakeup The callback. Can be null.
+	 */
+	public void setConsumerWakeup(Runnable wakeup){
+		consumerWakeup = wakeup;
+	}
+
+	/**
+	 * <p>Get the first event on the queue without waiting.</p>
+	 * @return The event at the front of the queue or null if the queue is empty.
+	 */
+	public MotorEvent pollEvent(){
+		long       position = head;
+		int        index    = (int)position & mask;
+		Entry      entry;
+		MotorEvent event;
+
+		if(sequences.get(index) != position + 1)
+			return null;
+
+		entry = entries.get(index);
+		entries.set(index, null);
+		sequences.lazySet(index, position + mask + 1);
+		head = position + 1;
+
+		// After this point producers can no longer merge events into this entry.
+		event = entry.getAndSet(null);
+		if(event != null)
+			openEntries.compareAndSet(event.getMotor().ordinal(), entry, null);
+
+		return event;
+	}
+
+	/*;;;;;;;;;;;
+	  ; METRICS ;
+	  ;;;;;;;;;;;*/
+
+	public queue_mode_t getMode(){
+		return mode;
+	}
+
+	public int getCapacity(){
+		return mask + 1;
+	}
+
+	/**
+	 * <p>Number of events waiting to be sent.</p>
+	 */
+	public int getDepth(){
+		return (int)Math.max(tail.get() - head, 0L);
+	}
+
+	/**
+	 * <p>Number of events that replaced an unsent event since the queue was created.</p>
+	 */
+	public long getCoalescedEvents(){
+		return coalescedEvents.get();
+	}
+
+	/**
+	 * <p>Number of events discarded by {@link #offerEvent(MotorEvent)} because the queue was full.</p>
 	 */
-	public synchronized void addEvent(MotorEvent event){
-		motorEvents.add(event);
-		notifyAll();
+	public long getRejectedEvents(){
+		return rejectedEvents.get();
+	}
+
+	/*;;;;;;;;;;;;;;;;;;
+	  ; HELPER METHODS ;
+	  ;;;;;;;;;;;;;;;;;;*/
+
+	private boolean offer(MotorEvent event){
+		Entry    entry;
+		Thread   consumer;
+		Runnable wakeup;
+		long     barrier;
+		int      motor = event.getMotor().ordinal();
+		boolean  merge = mode == queue_mode_t.COALESCING && isPowerEvent(event);
+
+		if(merge && mergeWithOpenEntry(motor, event)){
+			coalescedEvents.incrementAndGet();
+			return true;
+		}
+
+		barrier = barriers.get();
+		entry   = new Entry(event);
+		if(!enqueue(entry))
+			return false;
+
+		if(merge){
+			openEntries.set(motor, entry);
+
+			// If a barrier was added meanwhile it may be behind this entry.
+			if(barriers.get() != barrier)
+				openEntries.compareAndSet(motor, entry, null);
+
+		}else if(mode == queue_mode_t.COALESCING){
+			// Later power events must not jump ahead of this event.
+			barriers.incrementAndGet();
+			for(int i = 0; i < openEntries.length(); i++)
+				openEntries.set(i, null);
+		}
+
+		consumer = waitingConsumer;
+		if(consumer != null)
+			LockSupport.unpark(consumer);
+
+		wakeup = consumerWakeup;
+		if(wakeup != null)
+			wakeup.run();
+
+		return true;
+	}
+
+	private boolean mergeWithOpenEntry(int motor, MotorEvent event){
+		Entry      entry = openEntries.get(motor);
+		MotorEvent unsent;
+
+		if(entry == null)
+			return false;
+
+		do{
+			unsent = entry.get();
+			if(unsent == null)
+				return false;
+		}while(!entry.compareAndSet(unsent, event));
+
+		return true;
+	}
+
+	private boolean enqueue(Entry entry){
+		long position;
+		int  index;
+		long delta;
+
+		for(;;){
+			position = tail.get();
+			index    = (int)position & mask;
+			delta    = sequences.get(index) - position;
+
+			if(delta == 0L){
+				if(tail.compareAndSet(position, position + 1)){
+					entries.set(index, entry);
+					sequences.set(index, position + 1);
+					return true;
+				}
+			}else if(delta < 0L){
+				return false;
+			}
+		}
+	}
+
+	private boolean isPowerEvent(MotorEvent event){
+		switch(event.getMotor()){
+		case MOTOR_A:
+		case MOTOR_B:
+		case MOTOR_C:
+			return true;
+		default:
+			return false;
+		}
 	}
 }
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.network.monitors;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Ring buffer with the most recent readings of a sensor.</p>
+ * <p>A single thread, the sensor report thread, adds readings while any number of threads query
+ * them without locks. Readers never block the writer: a query that overlaps with the writer
+ * overwriting the readings it is looking at discards those readings.</p>
+ * <p>Every reading is stamped with the {@link System#nanoTime()} of its arrival, which is the
+ * time base used by all the queries.</p>
+ */
+public class SensorHistory{
+	/**
+	 * <p>A single sensor reading.</p>
+	 */
+	public static class Reading{
+		public int  value;
+		public long timestamp;
+		public long robotTimestamp;
+	}
+
+	/**
+	 * <p>Statistics of the readings received during a time window.</p>
+	 */
+	public static class Statistics{
+		public int   count;
+		public int   min;
+		public int   max;
+		public float mean;
+	}
+
+	private final int                mask;
+	private final AtomicIntegerArray values;
+	private final AtomicLongArray    timestamps;
+	private final AtomicLongArray    robotTimestamps;
+	private volatile long            count;
+
+	/**
+	 * @param capacity Maximum number of readings kept. Rounded up to a power of two.
+	 * @throws IllegalArgumentException If the capacity is less than two.
+	 */
+	public SensorHistory(int capacity) throws IllegalArgumentException{
+		int size = 2;
+
+		if(capacity < 2)
+			throw new IllegalArgumentException("Capacity must be at least two.");
+
+		while(size < capacity)
+			size <<= 1;
+
+		mask            = size - 1;
+		values          = new AtomicIntegerArray(size);
+		timestamps      = new AtomicLongArray(size);
+		robotTimestamps = new AtomicLongArray(size);
+		count           = 0L;
+	}
+
+	/*;;;;;;;;;;;;;;;;;;
+	  ; WRITER METHODS ;
+	  ;;;;;;;;;;;;;;;;;;*/
+
+	/**
+	 * <p>Adds a reading. Must only be called from a single thread.</p>
+	 *
+	 * @param value The value of the sensor.
+	 * @param timestamp Arrival time of the reading, as given by {@link System#nanoTime()}.
+	 * @param robotTimestamp Time of the reading in the clock of the robot, or -1 if unknown.
+	 */
+	public void add(int value, long timestamp, long robotTimestamp){
+		int index = (int)count & mask;
+
+		values.set(index, value);
+		timestamps.set(index, timestamp);
+		robotTimestamps.set(index, robotTimestamp);
+
+		// Publish the reading.
+		count = count + 1;
+	}
+
+	/*;;;;;;;;;;;;;;;;;;
+	  ; READER METHODS ;
+	  ;;;;;;;;;;;;;;;;;;*/
+
+	/**
+	 * <p>Total number of readings added since the history was created. Can be compared with a
+	 * previous value to check for new readings without querying them.</p>
+	 */
+	public long getCount(){
+		return count;
+	}
+
+	public int getCapacity(){
+		return mask + 1;
+	}
+
+	/**
+	 * <p>Gets the most recent reading.</p>
+	 *
+	 * @param out The object to store the reading in.
+	 * @return False if there are no readings yet.
+	 */
+	public boolean getLatest(Reading out){
+		long last;
+
+		do{
+			last = count - 1;
+			if(last < 0L)
+				return false;
+
+			read((int)last & mask, out);
+		}while(!isValid(last));
+
+		return true;
+	}
+
+	/**
+	 * <p>Gets the value of the most recent reading.</p>
+	 *
+	 * @param defaultValue The value to return if there are no readings yet.
+	 */
+	public int getLatestValue(int defaultValue){
+		long last;
+		int  value;
+
+		do{
+			last = count - 1;
+			if(last < 0L)
+				return defaultValue;
+
+			value = values.get((int)last & mask);
+		}while(!isValid(last));
+
+		return value;
+	}
+
+	/**
+	 * <p>Gets the readings that arrived after the given time, oldest first. If there are more
+	 * readings than room in the output array only the most recent ones are returned.</p>
+	 *
+	 * @param since Arrival time, as given by {@link System#nanoTime()}, after which readings are returned.
+	 * @param out Array of preallocated objects to store the readings in.
+	 * @return The number of readings stored at the start of the output array.
+	 */
+	public int getSince(long since, Reading[] out){
+		long    first;
+		long    last;
+		int     found;
+		int     valid;
+		Reading swap;
+
+		last  = count - 1;
+		found = 0;
+
+		// Walk the history backwards until the time limit or the output array is reached.
+		for(long i = last; i >= 0L && i > last - getCapacity() && found < out.length; i--){
+			read((int)i & mask, out[found]);
+			if(out[found].timestamp - since <= 0L)
+				break;
+			found++;
+		}
+
+		// Drop the oldest readings if they were overwritten while reading them.
+		first = last - found + 1;
+		valid = found;
+		while(valid > 0 && !isValid(first + found - valid))
+			valid--;
+
+		// Reverse the valid readings so the oldest comes first.
+		for(int i = 0; i < valid / 2; i++){
+			swap               = out[i];
+			out[i]             = out[valid - 1 - i];
+			out[valid - 1 - i] = swap;
+		}
+
+		return valid;
+	}
+
+	/**
+	 * <p>Computes the statistics of the readings that arrived during the last time window.</p>
+	 *
+	 * @param window Length of the window in nanoseconds.
+	 * @param out The object to store the statistics in.
+	 * @return False if there were no readings during the window.
+	 */
+	public boolean getStatistics(long window, Statistics out){
+		long since = System.nanoTime() - window;
+		long last;
+		long oldest;
+		long sum;
+		int  index;
+		int  value;
+
+		do{
+			last      = count - 1;
+			oldest    = last + 1;
+			sum       = 0L;
+			out.count = 0;
+			out.min   = Integer.MAX_VALUE;
+			out.max   = Integer.MIN_VALUE;
+
+			for(long i = last; i >= 0L && i > last - getCapacity(); i--){
+				index = (int)i & mask;
+				if(timestamps.get(index) - since < 0L)
+					break;
+
+				value = values.get(index);
+				out.min = Math.min(out.min, value);
+				out.max = Math.max(out.max, value);
+				sum += value;
+				out.count++;
+				oldest = i;
+			}
+		}while(out.count > 0 && !isValid(oldest));
+
+		out.mean = out.count > 0 ? (float)sum / out.count : 0.0f;
+
+		return out.count > 0;
+	}
+
+	/*;;;;;;;;;;;;;;;;;;
+	  ; HELPER METHODS ;
+	  ;;;;;;;;;;;;;;;;;;*/
+
+	private void read(int index, Reading out){
+		out.value          = values.get(index);
+		out.timestamp      = timestamps.get(index);
+		out.robotTimestamp = robotTimestamps.get(index);
+	}
+
+	/**
+	 * <p>Checks that the reading with the given position has not been overwritten, which happens
+	 * as soon as the writer starts adding the reading one capacity after it.</p>
+	 */
+	private boolean isValid(long position){
+		return position > count - getCapacity();
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.network.monitors;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>A recyclable slot of the {@link VideoFrameMonitor} triple buffer.</p>
+ * <p>The data array is sized to the largest frame seen so far, only the first length bytes of it
+ * belong to the current frame. The dimensions, timestamps and sequence number are published
+ * together with the frame data.</p>
+ */
+public class VideoFrame{
+	/**
+	 * <p>Encoded frame data. Only the first {@link #length} bytes are valid.</p>
+	 */
+	public byte[] data;
+	public int    length;
+	public int    width;
+	public int    height;
+
+	/**
+	 * <p>Time when the frame was published, as given by {@link System#nanoTime()}.</p>
+	 */
+	public long   timestamp;
+
+	/**
+	 * <p>Monotonically increasing frame number assigned by the monitor. Starts at one.</p>
+	 */
+	public long   sequence;
+
+	/**
+	 * <p>Capture time sent by the robot in milliseconds, zero if unknown.</p>
+	 */
+	public long   captureTimestamp;
+
+	/**
+	 * <p>Time when the first byte of the frame arrived, as given by {@link System#nanoTime()}.</p>
+	 */
+	public long   receiveTimestamp;
+
+	private byte[] frameBytes;
+
+	VideoFrame(int capacity){
+		data       = new byte[capacity];
+		length     = 0;
+		width      = 0;
+		height     = 0;
+		timestamp  = 0L;
+		sequence   = 0L;
+		frameBytes = null;
+
+		captureTimestamp = 0L;
+		receiveTimestamp = 0L;
+	}
+
+	/**
+	 * <p>Returns the frame data in an array of exactly {@link #length} bytes. The array is created
+	 * once per published frame and reused on later calls.</p>
+	 */
+	public byte[] getFrameBytes(){
+		if(frameBytes == null){
+			frameBytes = new byte[length];
+			System.arraycopy(data, 0, frameBytes, 0, length);
+		}
+
+		return frameBytes;
+	}
+
+	void set(byte[] source, int offset, int length, int width, int height){
+		ensureCapacity(length);
+		System.arraycopy(source, offset, data, 0, length);
+		setMetadata(length, width, height);
+	}
+
+	void set(ByteBuffer source, int length, int width, int height){
+		ensureCapacity(length);
+		source.get(data, 0, length);
+		setMetadata(length, width, height);
+	}
+
+	private void ensureCapacity(int length){
+		if(data.length < length)
+			data = new byte[length];
+	}
+
+	private void setMetadata(int length, int width, int height){
+		this.length = length;
+		this.width  = width;
+		this.height = height;
+		frameBytes  = null;
+	}
+}
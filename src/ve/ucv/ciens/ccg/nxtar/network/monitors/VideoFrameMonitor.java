@@ -15,23 +15,48 @@
  */
 package ve.ucv.ciens.ccg.nxtar.network.monitors;
 
-import ve.ucv.ciens.ccg.nxtar.utils.Size;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
-import com.badlogic.gdx.Gdx;
+import ve.ucv.ciens.ccg.nxtar.utils.Size;
 
+/**
+ * <p>Lock free triple buffer used to pass video frames from a single producer thread to a single
+ * consumer thread.</p>
+ * <p>The producer fills its back slot and swaps it with the middle slot. The consumer swaps the
+ * middle slot with its front slot only when the middle slot holds a frame it has not seen. Slots
+ * are recycled so no memory is allocated once the slots have grown to the largest frame size.</p>
+ */
 public class VideoFrameMonitor{
-	private final String TAG = "VIDEO_FRAME_MONITOR";
-	private final String CLASS_NAME = VideoFrameMonitor.class.getSimpleName();
-
-	private byte[] frameA;
-	private byte[] frameB;
-	private Object frameMonitor;
-	private Size frameDimensions;
-
-	private VideoFrameMonitor(){
-		frameA = null;
-		frameB = null;
-		frameMonitor = new Object();
+	private static final int INITIAL_FRAME_CAPACITY = 64 * 1024;
+	private static final int INDEX_MASK             = 0x03;
+	private static final int FRESH_BIT              = 0x04;
+
+	private final VideoFrame[]  frames;
+	private final AtomicInteger middleSlot;
+	private volatile long       latestSequence;
+	private volatile Thread     waitingConsumer;
+	private int                 backSlot;
+	private int                 frontSlot;
+	private long                nextSequence;
+	private Size                frameDimensions;
+
+	/**
+	 * <p>Creates a monitor for a robot session other than the default one, which uses the
+	 * singleton instance.</p>
+	 */
+	public VideoFrameMonitor(){
+		frames = new VideoFrame[3];
+		for(int i = 0; i < frames.length; i++)
+			frames[i] = new VideoFrame(INITIAL_FRAME_CAPACITY);
+
+		backSlot        = 0;
+		middleSlot      = new AtomicInteger(1);
+		frontSlot       = 2;
+		nextSequence    = 1L;
+		latestSequence  = 0L;
+		waitingConsumer = null;
 		frameDimensions = new Size();
 	}
 
@@ -43,38 +68,163 @@ public class VideoFrameMonitor{
 		return SingletonHolder.INSTANCE;
 	}
 
-	public void setFrameDimensions(int width, int height){
+	/*;;;;;;;;;;;;;;;;;;;;
+	  ; PRODUCER METHODS ;
+	  ;;;;;;;;;;;;;;;;;;;;*/
+
+	/**
+	 * <p>Publishes a new frame. The data is copied so the source array can be reused.</p>
+	 *
+	 * @param frame The encoded frame.
+	 * @param offset Position of the first byte of the frame in the array.
+	 * @param length Length in bytes of the frame.
+	 * @param width The width of the frame in pixels.
+	 * @param height The height of the frame in pixels.
+	 */
+	public void setNewFrame(byte[] frame, int offset, int length, int width, int height){
+		setNewFrame(frame, offset, length, width, height, 0L, 0L);
+	}
+
+	/**
+	 * <p>Publishes a new frame along with the times it was captured and received, which are used
+	 * to trace the latency of the frame. The data is copied so the source array can be reused.</p>
+	 *
+	 * @param frame The encoded frame.
+	 * @param offset Position of the first byte of the frame in the array.
+	 * @param length Length in bytes of the frame.
+	 * @param width The width of the frame in pixels.
+	 * @param height The height of the frame in pixels.
+	 * @param captureTimestamp Capture time sent by the robot in milliseconds, zero if unknown.
+	 * @param receiveTimestamp Arrival time of the frame as given by {@link System#nanoTime()}, zero to use the publication time.
+	 */
+	public void setNewFrame(byte[] frame, int offset, int length, int width, int height, long captureTimestamp, long receiveTimestamp){
+		checkFrame(length, width, height);
+		frames[backSlot].set(frame, offset, length, width, height);
+		publish(captureTimestamp, receiveTimestamp);
+	}
+
+	/**
+	 * <p>Publishes a new frame read from the current position of the buffer.</p>
+	 *
+	 * @param frame A buffer positioned at the start of the encoded frame.
+	 * @param length Length in bytes of the frame.
+	 * @param width The width of the frame in pixels.
+	 * @param height The height of the frame in pixels.
+	 */
+	public void setNewFrame(ByteBuffer frame, int length, int width, int height){
+		checkFrame(length, width, height);
+		frames[backSlot].set(frame, length, width, height);
+		publish(0L, 0L);
+	}
+
+	/**
+	 * <p>Sequence number of the last published frame, zero if no frame has been published.</p>
+	 */
+	public long getLatestSequence(){
+		return latestSequence;
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;;
+	  ; CONSUMER METHODS ;
+	  ;;;;;;;;;;;;;;;;;;;;*/
+
+	/**
+	 * <p>Checks if a frame newer than the given one has been published.</p>
+	 *
+	 * @param sequence The sequence number of the last frame processed by the caller.
+	 */
+	public boolean hasNewerFrameThan(long sequence){
+		return latestSequence > sequence;
+	}
+
+	/**
+	 * <p>Blocks the calling thread until a frame newer than the given one is published or the
+	 * timeout expires. Only one thread may wait at a time.</p>
+	 *
+	 * @param sequence The sequence number of the last frame processed by the caller.
+	 * @param timeout Maximum time to wait in nanoseconds.
+	 * @return True if a newer frame is available.
+	 */
+	public boolean awaitFrameNewerThan(long sequence, long timeout){
+		long deadline = System.nanoTime() + timeout;
+		long remaining;
+
+		waitingConsumer = Thread.currentThread();
 		try{
-			frameDimensions.setWidth(width);
-			frameDimensions.setHeight(height);
-		}catch(IllegalArgumentException ia){
-			Gdx.app.debug(TAG, CLASS_NAME + ".setFrameDimensions() :: Bad argument to Size: " + ia.getMessage());
-			frameDimensions.setWidth(0);
-			frameDimensions.setHeight(0);
+			while(latestSequence <= sequence){
+				remaining = deadline - System.nanoTime();
+				if(remaining <= 0L || Thread.interrupted())
+					break;
+				LockSupport.parkNanos(this, remaining);
+			}
+		}finally{
+			waitingConsumer = null;
 		}
+
+		return latestSequence > sequence;
+	}
+
+	/**
+	 * <p>Returns the most recent frame. The returned frame is owned by the consumer and remains
+	 * valid until the next call to this method.</p>
+	 *
+	 * @return The latest frame or null if no frame has been published yet.
+	 */
+	public VideoFrame getLatestFrame(){
+		if((middleSlot.get() & FRESH_BIT) != 0)
+			frontSlot = middleSlot.getAndSet(frontSlot) & INDEX_MASK;
+
+		return frames[frontSlot].sequence > 0L ? frames[frontSlot] : null;
+	}
+
+	/**
+	 * <p>Returns the data of the most recent frame as an array of exactly the frame length.</p>
+	 *
+	 * @see #getLatestFrame()
+	 */
+	public byte[] getCurrentFrame(){
+		VideoFrame frame = getLatestFrame();
+		return frame != null ? frame.getFrameBytes() : null;
 	}
 
+	/**
+	 * <p>Returns the dimensions of the frame last returned by {@link #getLatestFrame()} or
+	 * {@link #getCurrentFrame()}.</p>
+	 */
 	public Size getFrameDimensions(){
+		VideoFrame frame = frames[frontSlot];
+
+		frameDimensions.setWidth(frame.width);
+		frameDimensions.setHeight(frame.height);
+
 		return frameDimensions;
 	}
 
-	public void setNewFrame(byte[] frame){
-		byte[] temp;
+	/*;;;;;;;;;;;;;;;;;;
+	  ; HELPER METHODS ;
+	  ;;;;;;;;;;;;;;;;;;*/
 
-		frameA = frame;
-		temp = frameA;
-		synchronized(frameMonitor){
-			frameA = frameB;
-			frameB = temp;
-		}
+	private void checkFrame(int length, int width, int height) throws IllegalArgumentException{
+		if(length <= 0)
+			throw new IllegalArgumentException("Frame length must be greater than cero.");
+		if(width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Frame dimensions must be greater than cero.");
 	}
 
-	public byte[] getCurrentFrame(){
-		byte[] frame;
+	private void publish(long captureTimestamp, long receiveTimestamp){
+		VideoFrame frame = frames[backSlot];
+		Thread     waiter;
 
-		synchronized(frameMonitor){
-			frame = frameB;
-		}
-		return frame;
+		frame.timestamp        = System.nanoTime();
+		frame.sequence         = nextSequence++;
+		frame.captureTimestamp = captureTimestamp;
+		frame.receiveTimestamp = receiveTimestamp != 0L ? receiveTimestamp : frame.timestamp;
+
+		backSlot = middleSlot.getAndSet(backSlot | FRESH_BIT) & INDEX_MASK;
+		latestSequence = frame.sequence;
+
+		waiter = waitingConsumer;
+		if(waiter != null)
+			LockSupport.unpark(waiter);
 	}
 }
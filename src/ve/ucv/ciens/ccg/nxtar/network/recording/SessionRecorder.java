@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.network.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import ve.ucv.ciens.ccg.networkdata.MotorEvent;
+import ve.ucv.ciens.ccg.networkdata.SensorRecord.sensor_t;
+
+import com.badlogic.gdx.Gdx;
+
+/**
+ * <p>Appends the traffic of the robot sessions to a log file that can later be fed back to the
+ * application with a {@link SessionReplay}.</p>
+ * <p>The log starts with a header holding the {@link #MAGIC_NUMBER}, the {@link #VERSION} as 32
+ * bit integers and the wall clock time the recording started as a 64 bit integer. Records follow
+ * back to back. Every record starts with the length of its payload as a 32 bit integer, the
+ * {@link record_type_t} ordinal and the session id as 16 bit integers and the time since the
+ * recording started in nanoseconds as a 64 bit integer. The payloads are:</p>
+ * <ul>
+ * <li>Video frames: width and height as 32 bit integers followed by the encoded frame.</li>
+ * <li>Sensor readings: the sensor ordinal and three reserved bytes, the value as a 32 bit integer
+ * and the time of the reading in the clock of the robot as a 64 bit integer.</li>
+ * <li>Motor events: the motor ordinal, the power and two reserved bytes.</li>
+ * </ul>
+ * <p>The file is written through memory mapped regions, so recording costs a memory copy per
+ * record. A zero filled record header, as found after the last record of a log that was not
+ * closed, marks the end of the log.</p>
+ * <p>All methods are thread safe.</p>
+ */
+public class SessionRecorder{
+	private static final String TAG                = "NXTAR_CORE_RECORDER";
+	private static final String CLASS_NAME         = SessionRecorder.class.getSimpleName();
+
+	public static final int     MAGIC_NUMBER       = 0x4E585243;
+	public static final int     VERSION            = 1;
+	public static final int     FILE_HEADER_SIZE   = 16;
+	public static final int     RECORD_HEADER_SIZE = 16;
+	public static final int     SENSOR_RECORD_SIZE = 16;
+	public static final int     MOTOR_RECORD_SIZE  = 4;
+	public static final int     VIDEO_HEADER_SIZE  = 8;
+
+	private static final int    REGION_SIZE        = 16 * 1024 * 1024;
+
+	/**
+	 * <p>The kinds of records in a log.</p>
+	 */
+	public enum record_type_t{
+		END, VIDEO_FRAME, SENSOR_READING, MOTOR_EVENT;
+	}
+
+	private RandomAccessFile file;
+	private FileChannel      channel;
+	private MappedByteBuffer region;
+	private long             regionStart;
+	private long             startTime;
+	private long             recordCount;
+	private boolean          closed;
+
+	/**
+	 * <p>Creates a new log, replacing the file if it exists.</p>
+	 *
+	 * @param path The file to write.
+	 * @throws IOException If the file can not be created.
+	 */
+	public SessionRecorder(File path) throws IOException{
+		file        = new RandomAccessFile(path, "rw");
+		channel     = file.getChannel();
+		recordCount = 0L;
+		closed      = false;
+		startTime   = System.nanoTime();
+
+		channel.truncate(0L);
+		regionStart = 0L;
+		region      = channel.map(FileChannel.MapMode.READ_WRITE, 0L, REGION_SIZE);
+
+		region.putInt(MAGIC_NUMBER);
+		region.putInt(VERSION);
+		region.putLong(System.currentTimeMillis());
+	}
+
+	/*;;;;;;;;;;;;;;;;;;
+	  ; RECORD METHODS ;
+	  ;;;;;;;;;;;;;;;;;;*/
+
+	/**
+	 * <p>Appends an encoded video frame.</p>
+	 */
+	public synchronized void recordVideoFrame(int sessionId, byte[] frame, int offset, int length, int width, int height){
+		if(!beginRecord(record_type_t.VIDEO_FRAME, sessionId, VIDEO_HEADER_SIZE + length))
+			return;
+
+		region.putInt(width);
+		region.putInt(height);
+		region.put(frame, offset, length);
+	}
+
+	/**
+	 * <p>Appends a sensor reading.</p>
+	 */
+	public synchronized void recordSensorReading(int sessionId, sensor_t sensor, int value, long robotTimestamp){
+		if(!beginRecord(record_type_t.SENSOR_READING, sessionId, SENSOR_RECORD_SIZE))
+			return;
+
+		region.put((byte)sensor.ordinal());
+		region.put((byte)0);
+		region.putShort((short)0);
+		region.putInt(value);
+		region.putLong(robotTimestamp);
+	}
+
+	/**
+	 * <p>Appends a motor event sent to a robot.</p>
+	 */
+	public synchronized void recordMotorEvent(int sessionId, MotorEvent event){
+		if(!beginRecord(record_type_t.MOTOR_EVENT, sessionId, MOTOR_RECORD_SIZE))
+			return;
+
+		region.put((byte)event.getMotor().ordinal());
+		region.put(event.getPower());
+		region.putShort((short)0);
+	}
+
+	public synchronized long getRecordCount(){
+		return recordCount;
+	}
+
+	/**
+	 * <p>Size in bytes of the log written so far.</p>
+	 */
+	public synchronized long getLength(){
+		return regionStart + region.position();
+	}
+
+	/**
+	 * <p>Flushes the log to the storage and closes it. Later records are ignored.</p>
+	 */
+	public synchronized void close(){
+		long length;
+
+		if(closed)
+			return;
+
+		length = getLength();
+		closed = true;
+
+		try{
+			region.force();
+
+			// Some platforms can not truncate a file while it is mapped. The zero filled tail
+			// still marks the end of the log in that case.
+			try{
+				channel.truncate(length);
+			}catch(IOException io){
+				Gdx.app.debug(TAG, CLASS_NAME + ".close() :: Could not truncate the log: " + io.getMessage());
+			}
+
+			file.close();
+		}catch(IOException io){
+			Gdx.app.error(TAG, CLASS_NAME + ".close() :: Error closing the log: " + io.getMessage(), io);
+		}
+	}
+
+	/*;;;;;;;;;;;;;;;;;;
+	  ; HELPER METHODS ;
+	  ;;;;;;;;;;;;;;;;;;*/
+
+	/**
+	 * <p>Writes a record header, mapping a new region of the file if the record does not fit in
+	 * the current one, and leaves the region positioned at the start of the payload.</p>
+	 *
+	 * @return False if the log is closed or could not grow.
+	 */
+	private boolean beginRecord(record_type_t type, int sessionId, int length){
+		int size = RECORD_HEADER_SIZE + length;
+
+		if(closed)
+			return false;
+
+		// Leave room for the zero filled header that marks the end of the log.
+		if(region.remaining() < size + RECORD_HEADER_SIZE){
+			try{
+				regionStart += region.position();
+				region.force();
+				region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, Math.max(REGION_SIZE, size + RECORD_HEADER_SIZE));
+			}catch(IOException io){
+				Gdx.app.error(TAG, CLASS_NAME + ".beginRecord() :: Error growing the log, closing it: " + io.getMessage(), io);
+				close();
+				return false;
+			}
+		}
+
+		region.putInt(length);
+		region.putShort((short)type.ordinal());
+		region.putShort((short)sessionId);
+		region.putLong(System.nanoTime() - startTime);
+		recordCount++;
+
+		return true;
+	}
+}
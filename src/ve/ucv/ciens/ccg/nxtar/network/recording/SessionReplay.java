@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.network.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+import ve.ucv.ciens.ccg.networkdata.SensorRecord.sensor_t;
+import ve.ucv.ciens.ccg.nxtar.network.RobotSession;
+import ve.ucv.ciens.ccg.nxtar.network.RobotSessionManager;
+import ve.ucv.ciens.ccg.nxtar.network.recording.SessionRecorder.record_type_t;
+
+import com.badlogic.gdx.Gdx;
+
+/**
+ * <p>Feeds a log written by a {@link SessionRecorder} back to the application, in place of the
+ * robots.</p>
+ * <p>Video frames are published in the {@link ve.ucv.ciens.ccg.nxtar.network.monitors.VideoFrameMonitor}
+ * of their session and sensor readings are added to its sensor histories, straight from the
+ * memory mapped log. Motor events are only counted, as they are the output of the application.
+ * The records can be replayed with the timing they were recorded with, scaled by a speed
+ * factor, or as fast as possible. Benchmarks can also step through the log one record at a time
+ * with {@link #replayNext()} instead of starting the thread.</p>
+ * <p>The sessions replayed must not have a robot connected at the same time, as the frame
+ * monitors and the sensor histories accept a single producer.</p>
+ */
+public class SessionReplay extends Thread{
+	public static final String  THREAD_NAME         = "SessionReplay";
+	private static final String TAG                 = "NXTAR_CORE_REPLAY";
+	private static final String CLASS_NAME          = SessionReplay.class.getSimpleName();
+
+	/**
+	 * <p>Replays the log with the timing it was recorded with.</p>
+	 */
+	public static final float   REAL_TIME           = 1.0f;
+
+	/**
+	 * <p>Replays the log without waiting between records.</p>
+	 */
+	public static final float   AS_FAST_AS_POSSIBLE = 0.0f;
+
+	private static final record_type_t[] RECORD_TYPES = record_type_t.values();
+	private static final sensor_t[]      SENSORS      = sensor_t.values();
+
+	private MappedByteBuffer    log;
+	private ByteBuffer          cursor;
+	private int                 recordLength;
+	private int                 recordType;
+	private int                 recordSession;
+	private long                recordTime;
+	private RobotSessionManager sessions;
+	private float               speed;
+	private boolean             loop;
+	private volatile boolean    done;
+	private volatile long       videoFrames;
+	private volatile long       sensorReadings;
+	private volatile long       motorEvents;
+
+	/**
+	 * <p>Opens a log for replay. The replay starts when the thread is started, or when {@link #run()}
+	 * is called from the current thread.</p>
+	 *
+	 * @param path The log file.
+	 * @param speed Speed factor of the replay, for example {@link #REAL_TIME}. Zero or less replays as fast as possible.
+	 * @param loop Whether to start over at the end of the log until {@link #finish()} is called.
+	 * @throws IOException If the file can not be read.
+	 * @throws IllegalArgumentException If the file is not a session log or is too large to map.
+	 */
+	public SessionReplay(File path, float speed, boolean loop) throws IOException, IllegalArgumentException{
+		super(THREAD_NAME);
+
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+
+		try{
+			if(file.length() > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Log is too large.");
+
+			log = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0L, file.length());
+		}finally{
+			// The mapping stays valid after the file is closed.
+			file.close();
+		}
+
+		if(log.remaining() < SessionRecorder.FILE_HEADER_SIZE || log.getInt(0) != SessionRecorder.MAGIC_NUMBER)
+			throw new IllegalArgumentException("Not a session log.");
+		if(log.getInt(4) != SessionRecorder.VERSION)
+			throw new IllegalArgumentException("Unsupported log version " + Integer.toString(log.getInt(4)) + ".");
+
+		cursor         = log.duplicate();
+		cursor.position(SessionRecorder.FILE_HEADER_SIZE);
+		this.speed     = speed;
+		this.loop      = loop;
+		sessions       = RobotSessionManager.getInstance();
+		done           = false;
+		videoFrames    = 0L;
+		sensorReadings = 0L;
+		motorEvents    = 0L;
+	}
+
+	public void finish(){
+		done = true;
+	}
+
+	public long getVideoFrames(){
+		return videoFrames;
+	}
+
+	public long getSensorReadings(){
+		return sensorReadings;
+	}
+
+	public long getMotorEvents(){
+		return motorEvents;
+	}
+
+	/**
+	 * <p>Replays the next record of the log right away, ignoring its time. Must not be used while
+	 * the thread is running.</p>
+	 *
+	 * @return The type of the record replayed, or {@link record_type_t#END} at the end of the log.
+	 */
+	public record_type_t replayNext(){
+		if(!readRecordHeader())
+			return record_type_t.END;
+
+		dispatchRecord();
+
+		return RECORD_TYPES[recordType];
+	}
+
+	/**
+	 * <p>Makes {@link #replayNext()} start over from the first record. Must not be used while the
+	 * thread is running.</p>
+	 */
+	public void rewind(){
+		cursor.position(SessionRecorder.FILE_HEADER_SIZE);
+	}
+
+	@Override
+	public void run(){
+		do{
+			replay();
+		}while(loop && !done);
+
+		Gdx.app.debug(TAG, CLASS_NAME + ".run() :: Replay finished.");
+	}
+
+	/*;;;;;;;;;;;;;;;;;;
+	  ; HELPER METHODS ;
+	  ;;;;;;;;;;;;;;;;;;*/
+
+	private void replay(){
+		long start     = System.nanoTime();
+		long firstTime = -1L;
+
+		rewind();
+
+		while(!done && readRecordHeader()){
+			if(firstTime < 0L)
+				firstTime = recordTime;
+			waitUntil(start + (long)((recordTime - firstTime) / (double)speed));
+
+			dispatchRecord();
+		}
+	}
+
+	/**
+	 * <p>Reads the header of the record at the cursor.</p>
+	 *
+	 * @return False at the end of the log.
+	 */
+	private boolean readRecordHeader(){
+		int start = cursor.position();
+
+		if(cursor.remaining() < SessionRecorder.RECORD_HEADER_SIZE)
+			return false;
+
+		recordLength  = cursor.getInt();
+		recordType    = cursor.getShort();
+		recordSession = cursor.getShort() & 0xFFFF;
+		recordTime    = cursor.getLong();
+
+		if(recordType <= 0 || recordType >= RECORD_TYPES.length || recordLength < 0 || recordLength > cursor.remaining()){
+			// Stay at the end of the log.
+			cursor.position(start);
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * <p>Dispatches the payload of the record whose header was just read and moves the cursor to
+	 * the next record.</p>
+	 */
+	private void dispatchRecord(){
+		int payload = cursor.position();
+
+		try{
+			dispatch(RECORD_TYPES[recordType], sessions.getOrCreateSession(recordSession), cursor, recordLength);
+		}catch(IllegalArgumentException ia){
+			Gdx.app.debug(TAG, CLASS_NAME + ".dispatchRecord() :: Skipping record: " + ia.getMessage());
+		}
+		cursor.position(payload + recordLength);
+	}
+
+	private void dispatch(record_type_t type, RobotSession session, ByteBuffer buffer, int length) throws IllegalArgumentException{
+		int width;
+		int height;
+		int sensor;
+
+		switch(type){
+		case VIDEO_FRAME:
+			width  = buffer.getInt();
+			height = buffer.getInt();
+			session.getFrameMonitor().setNewFrame(buffer, length - SessionRecorder.VIDEO_HEADER_SIZE, width, height);
+			videoFrames++;
+			break;
+
+		case SENSOR_READING:
+			sensor = buffer.get();
+			if(sensor < 0 || sensor >= SENSORS.length)
+				throw new IllegalArgumentException("Invalid sensor " + Integer.toString(sensor) + ".");
+			buffer.position(buffer.position() + 3);
+			session.getSensorHistory(SENSORS[sensor]).add(buffer.getInt(), System.nanoTime(), buffer.getLong());
+			sensorReadings++;
+			break;
+
+		case MOTOR_EVENT:
+			motorEvents++;
+			break;
+
+		default:
+			break;
+		}
+	}
+
+	private void waitUntil(long deadline){
+		long remaining;
+
+		if(speed <= 0.0f)
+			return;
+
+		while(!done && (remaining = deadline - System.nanoTime()) > 0L)
+			LockSupport.parkNanos(this, remaining);
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.profiling;
+
+import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
+
+/**
+ * <p>Traces the latency of the video frames through every stage of the pipeline, from the camera
+ * of the robot to the screen.</p>
+ * <p>Every stage has its own {@link LatencyHistogram}. The threads that move a frame from one stage
+ * to the next record the time it spent in the stage, and {@link #update(long)} publishes the median,
+ * the 99th percentile and the maximum of every stage once per second and starts over, so the
+ * values returned by the getters always describe the last complete second. The getters must be
+ * called from the thread that calls {@link #update(long)}, usually the rendering thread.</p>
+ * <p>Tracing is disabled with {@link ProjectConstants#FRAME_LATENCY_TRACING}.</p>
+ * <p>This class implements the singleton design pattern.</p>
+ */
+public class FrameLatencyTracer{
+	private static final long REPORT_INTERVAL = 1000000000L;
+	private static final long TRANSIT_WINDOW  = 10000L;
+	private static final long MAX_TRANSIT     = 10000L;
+
+	/**
+	 * <p>The stages of the pipeline, in the order a frame goes through them.</p>
+	 */
+	public enum stage_t{
+		/**
+		 * <p>From the capture of the frame to the arrival of its first fragment. The clocks of the
+		 * robots and the server are not synchronized, so this is the delay over the fastest frame of
+		 * the same robot in the last seconds, which shows the queuing in the robot and the network.</p>
+		 */
+		TRANSIT,
+
+		/**
+		 * <p>From the arrival of the first fragment to the publication in the frame monitor.</p>
+		 */
+		REASSEMBLY,
+
+		/**
+		 * <p>From the publication of the frame to the start of the marker detection.</p>
+		 */
+		DETECTION_WAIT,
+
+		/**
+		 * <p>Decoding of the frame and marker detection.</p>
+		 */
+		DETECTION,
+
+		/**
+		 * <p>From the end of the detection until the rendering thread picks the result.</p>
+		 */
+		RESULT_WAIT,
+
+		/**
+		 * <p>Processing of the game world.</p>
+		 */
+		WORLD_UPDATE,
+
+		/**
+		 * <p>Upload of the frame to the video texture.</p>
+		 */
+		TEXTURE_UPLOAD,
+
+		/**
+		 * <p>From the arrival of the first fragment to the end of the draw calls of the first render
+		 * pass that shows the frame.</p>
+		 */
+		END_TO_END;
+	}
+
+	private static final stage_t[] STAGES = stage_t.values();
+
+	private final LatencyHistogram[] histograms;
+	private final long[]             medians;
+	private final long[]             percentiles99;
+	private final long[]             maximums;
+	private final long[]             counts;
+	private final long[]             transitWindowStarts;
+	private final long[]             transitWindowMins;
+	private final long[]             previousTransitMins;
+	private long                     lastUpdate;
+
+	private FrameLatencyTracer(){
+		histograms    = new LatencyHistogram[STAGES.length];
+		medians       = new long[STAGES.length];
+		percentiles99 = new long[STAGES.length];
+		maximums      = new long[STAGES.length];
+		counts        = new long[STAGES.length];
+		lastUpdate    = System.nanoTime();
+
+		transitWindowStarts = new long[ProjectConstants.MAX_ROBOT_SESSIONS];
+		transitWindowMins   = new long[ProjectConstants.MAX_ROBOT_SESSIONS];
+		previousTransitMins = new long[ProjectConstants.MAX_ROBOT_SESSIONS];
+
+		for(int i = 0; i < histograms.length; i++)
+			histograms[i] = new LatencyHistogram();
+
+		for(int i = 0; i < ProjectConstants.MAX_ROBOT_SESSIONS; i++)
+			resetTransitWindows(i, 0L);
+	}
+
+	private static class SingletonHolder{
+		public static final FrameLatencyTracer INSTANCE = new FrameLatencyTracer();
+	}
+
+	public static FrameLatencyTracer getInstance(){
+		return SingletonHolder.INSTANCE;
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;
+	  ; TRACING METHODS ;
+	  ;;;;;;;;;;;;;;;;;;;*/
+
+	/**
+	 * <p>Records the time a frame spent in a stage. Can be called from any thread.</p>
+	 *
+	 * @param stage The stage.
+	 * @param nanos The time in nanoseconds.
+	 */
+	public void record(stage_t stage, long nanos){
+		if(ProjectConstants.FRAME_LATENCY_TRACING)
+			histograms[stage.ordinal()].record(nanos);
+	}
+
+	/**
+	 * <p>Records the {@link stage_t#TRANSIT} stage of a frame. Must always be called from the
+	 * same thread.</p>
+	 *
+	 * @param sessionId The robot session the frame belongs to.
+	 * @param captureTimestamp The capture time sent by the robot in milliseconds. Zero if unknown.
+	 * @param receiveTimestamp The arrival time of the frame, as given by {@link System#nanoTime()}.
+	 */
+	public void recordTransit(int sessionId, long captureTimestamp, long receiveTimestamp){
+		long now;
+		long offset;
+		long fastest;
+
+		if(!ProjectConstants.FRAME_LATENCY_TRACING || captureTimestamp == 0L || sessionId < 0 || sessionId >= transitWindowMins.length)
+			return;
+
+		now    = receiveTimestamp / 1000000L;
+		offset = now - captureTimestamp;
+
+		if(now - transitWindowStarts[sessionId] >= TRANSIT_WINDOW){
+			previousTransitMins[sessionId] = transitWindowMins[sessionId];
+			transitWindowMins[sessionId]   = Long.MAX_VALUE;
+			transitWindowStarts[sessionId] = now;
+		}
+		transitWindowMins[sessionId] = Math.min(transitWindowMins[sessionId], offset);
+		fastest = Math.min(transitWindowMins[sessionId], previousTransitMins[sessionId]);
+
+		// A jump this large means the clock of the robot changed, so start over.
+		if(offset - fastest > MAX_TRANSIT){
+			resetTransitWindows(sessionId, now);
+			transitWindowMins[sessionId] = offset;
+			fastest = offset;
+		}
+
+		histograms[stage_t.TRANSIT.ordinal()].record((offset - fastest) * 1000000L);
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;;;
+	  ; REPORTING METHODS ;
+	  ;;;;;;;;;;;;;;;;;;;;;*/
+
+	/**
+	 * <p>Publishes the statistics of every stage if a second has passed since the last time they
+	 * were published.</p>
+	 *
+	 * @param now The current time, as given by {@link System#nanoTime()}.
+	 * @return True if the statistics were published.
+	 */
+	public boolean update(long now){
+		LatencyHistogram histogram;
+
+		if(now - lastUpdate < REPORT_INTERVAL)
+			return false;
+		lastUpdate = now;
+
+		for(int i = 0; i < histograms.length; i++){
+			histogram        = histograms[i];
+			counts[i]        = histogram.getCount();
+			medians[i]       = histogram.getValueAtPercentile(0.5);
+			percentiles99[i] = histogram.getValueAtPercentile(0.99);
+			maximums[i]      = histogram.getMax();
+			histogram.reset();
+		}
+
+		return true;
+	}
+
+	/**
+	 * <p>Median time in nanoseconds spent in the stage during the last second.</p>
+	 */
+	public long getMedian(stage_t stage){
+		return medians[stage.ordinal()];
+	}
+
+	/**
+	 * <p>99th percentile of the time in nanoseconds spent in the stage during the last second.</p>
+	 */
+	public long getPercentile99(stage_t stage){
+		return percentiles99[stage.ordinal()];
+	}
+
+	/**
+	 * <p>Longest time in nanoseconds spent in the stage during the last second.</p>
+	 */
+	public long getMax(stage_t stage){
+		return maximums[stage.ordinal()];
+	}
+
+	/**
+	 * <p>Number of times the stage was recorded during the last second.</p>
+	 */
+	public long getCount(stage_t stage){
+		return counts[stage.ordinal()];
+	}
+
+	private void resetTransitWindows(int sessionId, long now){
+		transitWindowStarts[sessionId] = now;
+		transitWindowMins[sessionId]   = Long.MAX_VALUE;
+		previousTransitMins[sessionId] = Long.MAX_VALUE;
+	}
+}
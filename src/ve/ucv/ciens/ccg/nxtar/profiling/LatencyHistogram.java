@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.profiling;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Lock free histogram of latencies with a bounded relative error.</p>
+ * <p>Values are kept in microseconds in log-linear buckets: every power of two is split in
+ * {@link #SUB_BUCKETS} linear buckets, so a percentile is off by less than a sixteenth of its
+ * value. Recording a value takes a few atomic operations and never allocates, so any thread can
+ * record a value for every frame. Percentiles are computed by walking the buckets, which is meant
+ * to be done once per reporting interval and not on every value recorded.</p>
+ */
+public class LatencyHistogram{
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_EXPONENT    = 40;
+	private static final int BUCKETS         = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts;
+	private final AtomicLong      count;
+	private final AtomicLong      max;
+
+	public LatencyHistogram(){
+		counts = new AtomicLongArray(BUCKETS);
+		count  = new AtomicLong(0L);
+		max    = new AtomicLong(0L);
+	}
+
+	/**
+	 * <p>Adds a value to the histogram. Negative values are counted as zero.</p>
+	 *
+	 * @param nanos The latency in nanoseconds.
+	 */
+	public void record(long nanos){
+		long current;
+
+		nanos = Math.max(nanos, 0L);
+		counts.incrementAndGet(indexOf(nanos / 1000L));
+		count.incrementAndGet();
+
+		do{
+			current = max.get();
+		}while(nanos > current && !max.compareAndSet(current, nanos));
+	}
+
+	/**
+	 * <p>Number of values recorded since the last reset.</p>
+	 */
+	public long getCount(){
+		return count.get();
+	}
+
+	/**
+	 * <p>Largest value recorded since the last reset, in nanoseconds.</p>
+	 */
+	public long getMax(){
+		return max.get();
+	}
+
+	/**
+	 * <p>Returns the smallest value such that the given fraction of the values recorded are not
+	 * greater than it.</p>
+	 *
+	 * @param percentile The fraction, between zero and one.
+	 * @return The value in nanoseconds, rounded up to the end of its bucket, or zero if the histogram is empty.
+	 */
+	public long getValueAtPercentile(double percentile){
+		long total = 0L;
+		long target;
+		long seen  = 0L;
+
+		for(int i = 0; i < BUCKETS; i++)
+			total += counts.get(i);
+
+		if(total == 0L)
+			return 0L;
+
+		target = Math.max((long)Math.ceil(Math.min(Math.max(percentile, 0.0), 1.0) * total), 1L);
+		for(int i = 0; i < BUCKETS; i++){
+			seen += counts.get(i);
+			if(seen >= target)
+				return Math.min((upperBoundOf(i) + 1L) * 1000L - 1L, Math.max(max.get(), 0L));
+		}
+
+		return max.get();
+	}
+
+	/**
+	 * <p>Removes every value. Values recorded while the histogram is being reset may be lost.</p>
+	 */
+	public void reset(){
+		for(int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0L);
+		count.set(0L);
+		max.set(0L);
+	}
+
+	private static int indexOf(long micros){
+		int exponent;
+
+		if(micros < SUB_BUCKETS)
+			return (int)micros;
+
+		exponent = 63 - Long.numberOfLeadingZeros(micros);
+		if(exponent > MAX_EXPONENT)
+			return BUCKETS - 1;
+
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + (int)((micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * <p>Largest value in microseconds that falls in the given bucket.</p>
+	 */
+	private static long upperBoundOf(int index){
+		int exponent;
+		int subBucket;
+
+		if(index < SUB_BUCKETS)
+			return index;
+
+		exponent  = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		subBucket = index % SUB_BUCKETS;
+
+		return ((long)(SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1L;
+	}
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.profiling;
+
+import ve.ucv.ciens.ccg.nxtar.interfaces.PipelineEventsListener;
+
+/**
+ * <p>Holds the {@link PipelineEventsListener} of the application, if any.</p>
+ * <p>No listener is installed by default. The code that emits events reads the listener once and
+ * skips building the event when it is null, so the events cost a single memory read while they are
+ * disabled. A platform that supports an event recorder installs its listener at start up, for
+ * example a desktop launcher that forwards the events to Java Flight Recorder.</p>
+ */
+public abstract class PipelineEvents{
+	private static volatile PipelineEventsListener listener = null;
+
+	/**
+	 * <p>Installs the listener, or removes it if null.</p>
+	 */
+	public static void setListener(PipelineEventsListener listener){
+		PipelineEvents.listener = listener;
+	}
+
+	/**
+	 * @return The installed listener or null if the events are disabled.
+	 */
+	public static PipelineEventsListener getListener(){
+		return listener;
+	}
+}
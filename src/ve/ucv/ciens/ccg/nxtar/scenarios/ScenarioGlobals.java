@@ -22,6 +22,8 @@ import ve.ucv.ciens.ccg.nxtar.systems.CollisionDetectionSystem;
 import ve.ucv.ciens.ccg.nxtar.systems.FadeEffectRenderingSystem;
 import ve.ucv.ciens.ccg.nxtar.systems.GameLogicSystemBase;
 import ve.ucv.ciens.ccg.nxtar.systems.GeometrySystem;
+import ve.ucv.ciens.ccg.nxtar.systems.IntGroupManager;
+import ve.ucv.ciens.ccg.nxtar.systems.MarkerCodeManager;
 import ve.ucv.ciens.ccg.nxtar.systems.MarkerPositioningSystem;
 import ve.ucv.ciens.ccg.nxtar.systems.MarkerRenderingSystem;
 import ve.ucv.ciens.ccg.nxtar.systems.RobotArmRenderingSystem;
@@ -56,6 +58,8 @@ public abstract class ScenarioGlobals{
 		if(gameWorld == null){
 			gameWorld = new World();
 			gameWorld.setManager(new GroupManager());
+			gameWorld.setManager(new MarkerCodeManager());
+			gameWorld.setManager(new IntGroupManager());
 		}
 
 		if(entityCreator == null){
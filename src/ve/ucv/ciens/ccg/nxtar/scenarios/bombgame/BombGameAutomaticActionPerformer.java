@@ -22,11 +22,11 @@ import ve.ucv.ciens.ccg.nxtar.interfaces.ImageProcessor.MarkerData;
 import ve.ucv.ciens.ccg.nxtar.scenarios.AutomaticActionPerformerBase;
 import ve.ucv.ciens.ccg.nxtar.scenarios.ScenarioGlobals;
 import ve.ucv.ciens.ccg.nxtar.scenarios.SummaryBase;
+import ve.ucv.ciens.ccg.nxtar.systems.IntGroupManager;
 import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
 
 import com.artemis.Entity;
 import com.artemis.World;
-import com.artemis.managers.GroupManager;
 import com.artemis.utils.ImmutableBag;
 import com.badlogic.gdx.Gdx;
 
@@ -95,7 +95,7 @@ public class BombGameAutomaticActionPerformer extends AutomaticActionPerformerBa
 	private float                          then;
 	private float                          now;
 	private int                            stops;
-	private GroupManager                   manager;
+	private IntGroupManager                manager;
 	private BombGameAutomaticActionSummary summary;
 
 	public BombGameAutomaticActionPerformer(){
@@ -123,9 +123,9 @@ public class BombGameAutomaticActionPerformer extends AutomaticActionPerformerBa
 			if(world == null)
 				throw new IllegalStateException("World is null after getGameWorld().");
 
-			manager = world.getManager(GroupManager.class);
+			manager = world.getManager(IntGroupManager.class);
 			if(manager == null)
-				throw new IllegalStateException("World has no group managers.");
+				throw new IllegalStateException("World has no integer group managers.");
 		}
 
 		if(markers == null)
@@ -182,7 +182,7 @@ public class BombGameAutomaticActionPerformer extends AutomaticActionPerformerBa
 				if(!markerAlreadyDetected){
 					Gdx.app.log(TAG, CLASS_NAME + ".performAutomaticAction(): New marker detected.");
 					detectedCode = markers.markerCodes[i];
-					entities = manager.getEntities(Integer.toString(detectedCode));
+					entities = manager.getEntities(detectedCode);
 
 					for(int e = 0; entities != null && e < entities.size() && entities.get(e) != null; e++){
 						bomb = entities.get(e).getComponent(BombComponent.class);
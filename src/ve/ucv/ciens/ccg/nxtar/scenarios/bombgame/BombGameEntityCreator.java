@@ -34,6 +34,7 @@ import ve.ucv.ciens.ccg.nxtar.graphics.shaders.DirectionalLightPerPixelShader;
 import ve.ucv.ciens.ccg.nxtar.scenarios.bombgame.BombComponent.bomb_type_t;
 import ve.ucv.ciens.ccg.nxtar.systems.AnimationSystem;
 import ve.ucv.ciens.ccg.nxtar.systems.CollisionDetectionSystem;
+import ve.ucv.ciens.ccg.nxtar.systems.IntGroupManager;
 
 import com.artemis.Entity;
 import com.artemis.managers.GroupManager;
@@ -57,6 +58,9 @@ public class BombGameEntityCreator extends EntityCreatorBase{
 	private static final boolean DEBUG_RENDER_DOOR_COLLISION_MODELS          = false;
 	private static final boolean DEBUG_RENDER_PARAPHERNALIA_COLLISION_MODELS = false;
 	public static  final String  DOORS_GROUP                                 = "DOORS";
+	public static  final int     ROBOT_ARM_COLLISION_LAYER                   = 1 << 1;
+	public static  final int     BOMB_COLLISION_LAYER                        = 1 << 2;
+	public static  final int     DOOR_COLLISION_LAYER                        = 1 << 3;
 	public static  final Vector3 ROBOT_ARM_START_POINT                       = new Vector3(0.0f, 0.0f, -1.0f);
 	public static  final int     DOOR_OPEN_ANIMATION                         = 1;
 	public static  final int     DOOR_CLOSE_ANIMATION                        = 0;
@@ -78,11 +82,12 @@ public class BombGameEntityCreator extends EntityCreatorBase{
 		}
 	}
 
-	private Shader       shader;
-	private int          currentBombId;
-	private GroupManager groupManager;
-	private List<Entity> entities;
-	private Entity       player;
+	private Shader          shader;
+	private int             currentBombId;
+	private GroupManager    groupManager;
+	private IntGroupManager markerGroups;
+	private List<Entity>    entities;
+	private Entity          player;
 
 	// Render models.
 	private Model  robotArmModel                       = null;
@@ -178,6 +183,7 @@ public class BombGameEntityCreator extends EntityCreatorBase{
 		Entity monkey;
 
 		groupManager = world.getManager(GroupManager.class);
+		markerGroups = world.getManager(IntGroupManager.class);
 
 		// Create and set the lighting.
 		parameters = new EntityParameters();
@@ -261,7 +267,7 @@ public class BombGameEntityCreator extends EntityCreatorBase{
 		robotArm.addComponent(new ShaderComponent(parameters.shader));
 		robotArm.addComponent(new RenderModelComponent(robotArmModel));
 		robotArm.addComponent(new CollisionModelComponent(robotArmCollisionModel));
-		robotArm.addComponent(new CollisionDetectionComponent());
+		robotArm.addComponent(new CollisionDetectionComponent(ROBOT_ARM_COLLISION_LAYER, BOMB_COLLISION_LAYER | DOOR_COLLISION_LAYER));
 		robotArm.addComponent(new AutomaticMovementComponent());
 		robotArm.addToWorld();
 		entities.add(robotArm);
@@ -305,7 +311,7 @@ public class BombGameEntityCreator extends EntityCreatorBase{
 			throw new IllegalArgumentException("Unrecognized bomb type: " + Integer.toString(type.getValue()));
 
 		// Add the bomb to the world and the respective marker group. Then increase the id for the next bomb.
-		groupManager.add(bomb, Integer.toString(parameters.markerCode));
+		markerGroups.add(bomb, parameters.markerCode);
 		bomb.addToWorld();
 		entities.add(bomb);
 		currentBombId++;
@@ -366,9 +372,9 @@ public class BombGameEntityCreator extends EntityCreatorBase{
 		thing.addComponent(new CollisionModelComponent(collisionModel));
 		thing.addComponent(new VisibilityComponent());
 		thing.addComponent(new MarkerCodeComponent(parameters.markerCode));
-		thing.addComponent(new CollisionDetectionComponent());
+		thing.addComponent(new CollisionDetectionComponent(BOMB_COLLISION_LAYER, ROBOT_ARM_COLLISION_LAYER));
 		groupManager.add(thing, CollisionDetectionSystem.COLLIDABLE_OBJECTS_GROUP);
-		groupManager.add(thing, Integer.toString(parameters.markerCode));
+		markerGroups.add(thing, parameters.markerCode);
 
 		if(DEBUG_RENDER_PARAPHERNALIA_COLLISION_MODELS)
 			addDebugCollisionModelRenderingEntity(collisionModel, parameters, false);
@@ -386,13 +392,13 @@ public class BombGameEntityCreator extends EntityCreatorBase{
 		frame.addComponent(new GeometryComponent(new Vector3(), new Matrix3(), new Vector3(1, 1, 1)));
 		frame.addComponent(new RenderModelComponent(doorFrameModel));
 		frame.addComponent(new CollisionModelComponent(doorFrameCollisionModel));
-		frame.addComponent(new CollisionDetectionComponent());
+		frame.addComponent(new CollisionDetectionComponent(DOOR_COLLISION_LAYER, ROBOT_ARM_COLLISION_LAYER));
 		frame.addComponent(new EnvironmentComponent(parameters.environment));
 		frame.addComponent(new ShaderComponent(parameters.shader));
 		frame.addComponent(new VisibilityComponent());
 		frame.addComponent(new MarkerCodeComponent(parameters.markerCode));
 		frame.addComponent(new BombGameEntityTypeComponent(BombGameEntityTypeComponent.DOOR_FRAME));
-		groupManager.add(frame, Integer.toString(parameters.markerCode));
+		markerGroups.add(frame, parameters.markerCode);
 		frame.addToWorld();
 
 		door = world.createEntity();
@@ -406,10 +412,10 @@ public class BombGameEntityCreator extends EntityCreatorBase{
 		doorInstance    = door.getComponent(RenderModelComponent.class).instance;
 		doorColInstance = door.getComponent(CollisionModelComponent.class).instance;
 		door.addComponent(new AnimationComponent(doorInstance, parameters.nextAnimation, parameters.loopAnimation, doorColInstance));
-		door.addComponent(new CollisionDetectionComponent());
+		door.addComponent(new CollisionDetectionComponent(DOOR_COLLISION_LAYER, ROBOT_ARM_COLLISION_LAYER));
 		door.addComponent(new BombGameEntityTypeComponent(BombGameEntityTypeComponent.DOOR));
 		groupManager.add(door, CollisionDetectionSystem.COLLIDABLE_OBJECTS_GROUP);
-		groupManager.add(door, Integer.toString(parameters.markerCode));
+		markerGroups.add(door, parameters.markerCode);
 		groupManager.add(door, DOORS_GROUP);
 		door.addToWorld();
 
@@ -16,13 +16,15 @@
 package ve.ucv.ciens.ccg.nxtar.scenarios.bombgame;
 
 import ve.ucv.ciens.ccg.nxtar.components.AnimationComponent;
-import ve.ucv.ciens.ccg.nxtar.components.CollisionDetectionComponent;
 import ve.ucv.ciens.ccg.nxtar.components.FadeEffectComponent;
 import ve.ucv.ciens.ccg.nxtar.components.MarkerCodeComponent;
 import ve.ucv.ciens.ccg.nxtar.components.PlayerComponentBase;
 import ve.ucv.ciens.ccg.nxtar.components.VisibilityComponent;
+import ve.ucv.ciens.ccg.nxtar.systems.CollisionContact;
+import ve.ucv.ciens.ccg.nxtar.systems.CollisionContact.contact_state_t;
 import ve.ucv.ciens.ccg.nxtar.systems.CollisionDetectionSystem;
 import ve.ucv.ciens.ccg.nxtar.systems.GameLogicSystemBase;
+import ve.ucv.ciens.ccg.nxtar.systems.IntGroupManager;
 import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
 import ve.ucv.ciens.ccg.nxtar.utils.Utils;
 
@@ -35,6 +37,10 @@ import com.artemis.managers.GroupManager;
 import com.artemis.utils.ImmutableBag;
 import com.badlogic.gdx.Gdx;
 
+/**
+ * <p>Game logic of the bomb game. Doors and bomb parts react to the contacts reported by the
+ * {@link CollisionDetectionSystem}, while door closing and fade effects are updated every frame.</p>
+ */
 public class BombGameLogicSystem extends GameLogicSystemBase {
 	private static final String TAG        = "BOMB_GAME_LOGIC";
 	private static final String CLASS_NAME = BombGameLogicSystem.class.getSimpleName();
@@ -57,48 +63,90 @@ public class BombGameLogicSystem extends GameLogicSystemBase {
 	@Mapper ComponentMapper<AnimationComponent>          animationMapper;
 	@Mapper ComponentMapper<VisibilityComponent>         visibilityMapper;
 	@Mapper ComponentMapper<MarkerCodeComponent>         markerMapper;
-	@Mapper ComponentMapper<CollisionDetectionComponent> collisionMapper;
 	@Mapper ComponentMapper<FadeEffectComponent>         fadeMapper;
 
 	private MarkerCodeComponent         tempMarker;
 	private BombGameEntityTypeComponent tempType;
 	private GroupManager                manager;
+	private IntGroupManager             markerGroups;
+	private CollisionDetectionSystem    collisionSystem;
 	private int                         then;
 
 	@SuppressWarnings("unchecked")
 	public BombGameLogicSystem(){
 		super(Aspect.getAspectForAll(BombGameEntityTypeComponent.class));
-		manager = null;
-		then = 0;
+		manager         = null;
+		markerGroups    = null;
+		collisionSystem = null;
+		then            = 0;
 	}
 
 	@Override
-	protected void process(Entity e){
-		BombGameEntityTypeComponent typeComponent;
+	protected void initialize(){
+		manager         = world.getManager(GroupManager.class);
+		markerGroups    = world.getManager(IntGroupManager.class);
+		collisionSystem = world.getSystem(CollisionDetectionSystem.class);
+	}
+
+	/**
+	 * <p>Checks the doors and bomb parts the player is touching.</p>
+	 */
+	@Override
+	protected void begin(){
+		ImmutableBag<CollisionContact> contacts;
+		CollisionContact               contact;
+		BombGameEntityTypeComponent    typeComponent;
 
-		if(manager == null)
-			manager = world.getManager(GroupManager.class);
+		if(collisionSystem == null)
+			return;
 
-		typeComponent = typeMapper.get(e);
+		contacts = collisionSystem.getContacts();
 
-		switch(typeComponent.type){
-		case BombGameEntityTypeComponent.BOMB_WIRE_1:
-		case BombGameEntityTypeComponent.BOMB_WIRE_2:
-		case BombGameEntityTypeComponent.BOMB_WIRE_3:
-			processWireBomb(e);
-			break;
+		for(int i = 0; i < contacts.size(); i++){
+			contact = contacts.get(i);
 
-		case BombGameEntityTypeComponent.BIG_BUTTON:
-			processInclinationBomb(e);
-			break;
+			// Bomb parts can be touched before their door finishes opening, so they are checked for as long as the contact lasts.
+			if(contact.state == contact_state_t.EXIT) continue;
 
-		case BombGameEntityTypeComponent.COM_BUTTON_1:
-		case BombGameEntityTypeComponent.COM_BUTTON_2:
-		case BombGameEntityTypeComponent.COM_BUTTON_3:
-		case BombGameEntityTypeComponent.COM_BUTTON_4:
-			processCombinationBomb(e);
-			break;
+			typeComponent = typeMapper.getSafe(contact.target);
+			if(typeComponent == null) continue;
+
+			switch(typeComponent.type){
+			case BombGameEntityTypeComponent.BOMB_WIRE_1:
+			case BombGameEntityTypeComponent.BOMB_WIRE_2:
+			case BombGameEntityTypeComponent.BOMB_WIRE_3:
+				processWireBomb(contact.target);
+				break;
+
+			case BombGameEntityTypeComponent.BIG_BUTTON:
+				processInclinationBomb(contact.target);
+				break;
+
+			case BombGameEntityTypeComponent.COM_BUTTON_1:
+			case BombGameEntityTypeComponent.COM_BUTTON_2:
+			case BombGameEntityTypeComponent.COM_BUTTON_3:
+			case BombGameEntityTypeComponent.COM_BUTTON_4:
+				processCombinationBomb(contact.target);
+				break;
+
+			case BombGameEntityTypeComponent.DOOR:
+				if(contact.state == contact_state_t.ENTER)
+					openDoor(contact.target);
+				break;
+
+			default:
+				break;
+			}
+		}
+	}
 
+	@Override
+	protected void process(Entity e){
+		BombGameEntityTypeComponent typeComponent;
+
+		typeComponent = typeMapper.get(e);
+
+		switch(typeComponent.type){
 		case BombGameEntityTypeComponent.DOOR:
 			processDoor(e);
 			break;
@@ -113,31 +161,29 @@ public class BombGameLogicSystem extends GameLogicSystemBase {
 	}
 
 	/**
-	 * <p>Checks if the current player interaction disables a wire based bomb.</p>
+	 * <p>Checks if the player touching a wire disables a wire based bomb.</p>
 	 * 
 	 * @param b An Artemis {@link Entity} that possibly represents any of a Wire Bomb's wires.
 	 */
 	private void processWireBomb(Entity b){
-		CollisionDetectionComponent collision;
 		MarkerCodeComponent         marker;
 		BombGameEntityTypeComponent wireType;
 
 		// Get this wire's parameters.
-		collision  = collisionMapper.getSafe(b);
 		marker     = markerMapper.getSafe(b);
 		wireType   = typeMapper.getSafe(b);
 
 		// if any of the parameters is missing then skip.
-		if(marker == null || collision == null || wireType == null){
+		if(marker == null || wireType == null){
 			Gdx.app.log(TAG, CLASS_NAME + ".processInclinationBomb(): Wire bomb is missing some components.");
 			return;
 		}
 
 		// If this bomb is still enabled and it's door is already open then process it.
 		try{
-			if(marker.enabled && isDoorOpen(marker.code, manager) && collision.colliding){
+			if(marker.enabled && isDoorOpen(marker.code, manager)){
 				manager.remove(b, CollisionDetectionSystem.COLLIDABLE_OBJECTS_GROUP);
-				manager.remove(b, Integer.toString(marker.code));
+				markerGroups.remove(b, marker.code);
 				b.deleteFromWorld();
 
 				if(wireType.type != BombGameEntityTypeComponent.BOMB_WIRE_1){
@@ -155,32 +201,30 @@ public class BombGameLogicSystem extends GameLogicSystemBase {
 	}
 
 	/**
-	 * <p>Checks if the current player interaction disables a combination bomb.</p>
+	 * <p>Checks if the player pressing a button disables a combination bomb.</p>
 	 * 
 	 * @param b An Artemis {@link Entity} that possibly represents any of a Combination Bomb's buttons.
 	 */
 	private void processCombinationBomb(Entity b){
 		combination_button_state_t  state;
-		CollisionDetectionComponent collision;
 		MarkerCodeComponent         marker;
 		BombGameEntityTypeComponent buttonType;
 
 		// Get this wire's parameters.
-		collision  = collisionMapper.getSafe(b);
 		marker     = markerMapper.getSafe(b);
 		buttonType = typeMapper.getSafe(b);
 
 		// if any of the parameters is missing then skip.
-		if(marker == null || collision == null || buttonType == null){
+		if(marker == null || buttonType == null){
 			Gdx.app.log(TAG, CLASS_NAME + ".processInclinationBomb(): Wire bomb is missing some components.");
 			return;
 		}
 
 		// If this bomb is still enabled and it's door is already open then process it.
 		try{
-			if(marker.enabled && isDoorOpen(marker.code, manager) && collision.colliding){
+			if(marker.enabled && isDoorOpen(marker.code, manager)){
 				manager.remove(b, CollisionDetectionSystem.COLLIDABLE_OBJECTS_GROUP);
-				manager.remove(b, Integer.toString(marker.code));
+				markerGroups.remove(b, marker.code);
 				b.deleteFromWorld();
 
 				// Check the state of the other buttons associated with this bomb.
@@ -203,28 +247,27 @@ public class BombGameLogicSystem extends GameLogicSystemBase {
 	}
 
 	/**
-	 * <p>Checks if the current player interaction disables an inclination bomb.</p>
+	 * <p>Checks if the player pressing the big button disables an inclination bomb.</p>
 	 * 
 	 * @param b An Artemis {@link Entity} that possibly represents an Inclination Bomb's big button.
 	 */
 	private void processInclinationBomb(Entity b){
 		// Get the components of the big button.
-		CollisionDetectionComponent collision  = collisionMapper.getSafe(b);
 		MarkerCodeComponent         marker     = markerMapper.getSafe(b);
 
 		// If any of the components is missing, skip this entity.
-		if(marker == null || collision == null ){
+		if(marker == null){
 			Gdx.app.log(TAG, CLASS_NAME + ".processInclinationBomb(): Inclination bomb is missing some components.");
 			return;
 		}
 
 		// If this bomb is still enabled and it's door is already open then process it.
 		try{
-			if(marker.enabled && isDoorOpen(marker.code, manager) && collision.colliding){
+			if(marker.enabled && isDoorOpen(marker.code, manager)){
 				// Disable the bomb and remove it from collision detection.
 				marker.enabled = false;
 				manager.remove(b, CollisionDetectionSystem.COLLIDABLE_OBJECTS_GROUP);
-				manager.remove(b, Integer.toString(marker.code));
+				markerGroups.remove(b, marker.code);
 				b.deleteFromWorld();
 
 				if(Utils.deviceHasOrientationSensors()){
@@ -246,41 +289,53 @@ public class BombGameLogicSystem extends GameLogicSystemBase {
 	}
 
 	/**
-	 * <p>Set's the animation for a door depending on it's collision and marker state.</p>
+	 * <p>Sets the opening animation of a door the player started touching.</p>
+	 *
+	 * @param d An Artemis {@link Entity} possibly representing a door.
+	 */
+	private void openDoor(Entity d){
+		// Get the components of the door.
+		AnimationComponent          animation  = animationMapper.getSafe(d);
+		MarkerCodeComponent         marker     = markerMapper.getSafe(d);
+
+		// If any of the components is missing, skip this entity.
+		if(marker == null || animation == null){
+			Gdx.app.log(TAG, CLASS_NAME + ".openDoor(): Door is missing some components.");
+			return;
+		}
+
+		// Only visible doors can be touched, so if the door is enabled then set it's opening animation.
+		if(marker.enabled){
+			animation.next = BombGameEntityCreator.DOOR_OPEN_ANIMATION;
+			animation.loop = false;
+			manager.remove(d, CollisionDetectionSystem.COLLIDABLE_OBJECTS_GROUP);
+			Gdx.app.log(TAG, CLASS_NAME + ".openDoor(): Opening door.");
+		}
+	}
+
+	/**
+	 * <p>Sets the closing animation for a door depending on it's marker state.</p>
 	 *
 	 * @param d An Artemis {@link Entity} possibly representing a door.
 	 */
 	private void processDoor(Entity d){
 		// Get the components of the door.
-		CollisionDetectionComponent collision  = collisionMapper.getSafe(d);
 		AnimationComponent          animation  = animationMapper.getSafe(d);
 		VisibilityComponent         visibility = visibilityMapper.getSafe(d);
 		MarkerCodeComponent         marker     = markerMapper.getSafe(d);
 
 		// If any of the components is missing, skip this entity.
-		if(marker == null || collision == null || animation == null || visibility == null){
+		if(marker == null || animation == null || visibility == null){
 			Gdx.app.log(TAG, CLASS_NAME + ".processDoor(): Door is missing some components.");
 			return;
 		}
 
-		if(visibility.visible){
-			if(marker.enabled){
-				if(collision.colliding){
-					// If the door is visible and enabled and the player is colliding with it then set
-					// it's opening animation;
-					animation.next = BombGameEntityCreator.DOOR_OPEN_ANIMATION;
-					animation.loop = false;
-					collision.colliding = false;
-					world.getManager(GroupManager.class).remove(d, CollisionDetectionSystem.COLLIDABLE_OBJECTS_GROUP);
-					Gdx.app.log(TAG, CLASS_NAME + ".processDoor(): Opening door.");
-				}
-			}else{
-				// If the door is disabled and open, then set it's closing animation.
-				if(animation.current != BombGameEntityCreator.DOOR_CLOSE_ANIMATION){
-					animation.next = BombGameEntityCreator.DOOR_CLOSE_ANIMATION;
-					animation.loop = false;
-					Gdx.app.log(TAG, CLASS_NAME + ".processDoor(): Closing door.");
-				}
+		// If the door is visible, disabled and open, then set it's closing animation.
+		if(visibility.visible && !marker.enabled){
+			if(animation.current != BombGameEntityCreator.DOOR_CLOSE_ANIMATION){
+				animation.next = BombGameEntityCreator.DOOR_CLOSE_ANIMATION;
+				animation.loop = false;
+				Gdx.app.log(TAG, CLASS_NAME + ".processDoor(): Closing door.");
 			}
 		}
 	}
@@ -373,13 +428,14 @@ public class BombGameLogicSystem extends GameLogicSystemBase {
 	 * @throws IllegalArgumentException If marker code is not in the range [0, 1023], inclusive.
 	 */
 	private void disableBomb(int markerCode) throws IllegalArgumentException{
-		ImmutableBag<Entity> related = manager.getEntities(Integer.toString(markerCode));
+		ImmutableBag<Entity> related = markerGroups.getEntities(markerCode);
 
 		if(markerCode < 0 || markerCode > 1023)
 			throw new IllegalArgumentException("Marker code is not within range [0, 1023]: " + Integer.toString(markerCode));
 
-		// Disable every entity sharing this marker code except for the corresponding door frame.
-		for(int i = 0; i < related.size(); i++){
+		// Disable every entity sharing this marker code except for the corresponding door frame. Entities
+		// are removed from the group while iterating, so iterate backwards to not skip any.
+		for(int i = related.size() - 1; i >= 0; i--){
 			tempMarker = markerMapper.getSafe(related.get(i));
 			tempType   = typeMapper.getSafe(related.get(i));
 
@@ -388,7 +444,7 @@ public class BombGameLogicSystem extends GameLogicSystemBase {
 			if(tempType != null){
 				if(tempType.type != BombGameEntityTypeComponent.DOOR_FRAME && tempType.type != BombGameEntityTypeComponent.DOOR){
 					manager.remove(related.get(i), CollisionDetectionSystem.COLLIDABLE_OBJECTS_GROUP);
-					manager.remove(related.get(i), Integer.toString(markerCode));
+					markerGroups.remove(related.get(i), markerCode);
 				}else if(tempType.type != BombGameEntityTypeComponent.DOOR_FRAME){
 					manager.add(related.get(i), CollisionDetectionSystem.COLLIDABLE_OBJECTS_GROUP);
 				}
@@ -418,7 +474,7 @@ public class BombGameLogicSystem extends GameLogicSystemBase {
 		if(markerCode < 0 || markerCode > 1023)
 			throw new IllegalArgumentException("Marker code is not within range [0, 1023]: " + Integer.toString(markerCode));
 
-		related = manager.getEntities(Integer.toString(markerCode));
+		related = markerGroups.getEntities(markerCode);
 
 		// Check the state of the other buttons associated with this bomb.
 		for(int i = 0; i < related.size(); i++){
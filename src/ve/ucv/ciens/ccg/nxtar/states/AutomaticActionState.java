@@ -17,13 +17,19 @@ package ve.ucv.ciens.ccg.nxtar.states;
 
 import ve.ucv.ciens.ccg.networkdata.MotorEvent;
 import ve.ucv.ciens.ccg.networkdata.MotorEvent.motor_t;
+import ve.ucv.ciens.ccg.networkdata.SensorRecord.sensor_t;
 import ve.ucv.ciens.ccg.nxtar.NxtARCore;
 import ve.ucv.ciens.ccg.nxtar.NxtARCore.game_states_t;
 import ve.ucv.ciens.ccg.nxtar.graphics.CustomPerspectiveCamera;
 import ve.ucv.ciens.ccg.nxtar.interfaces.ImageProcessor.MarkerData;
+import ve.ucv.ciens.ccg.nxtar.interfaces.PipelineEventsListener;
+import ve.ucv.ciens.ccg.nxtar.network.RobotSession;
+import ve.ucv.ciens.ccg.nxtar.network.RobotSessionManager;
 import ve.ucv.ciens.ccg.nxtar.network.SensorReportThread;
 import ve.ucv.ciens.ccg.nxtar.network.monitors.MotorEventQueue;
+import ve.ucv.ciens.ccg.nxtar.network.monitors.SensorHistory;
 import ve.ucv.ciens.ccg.nxtar.network.monitors.VideoFrameMonitor;
+import ve.ucv.ciens.ccg.nxtar.profiling.PipelineEvents;
 import ve.ucv.ciens.ccg.nxtar.scenarios.AutomaticActionPerformerBase;
 import ve.ucv.ciens.ccg.nxtar.scenarios.ScenarioGlobals;
 import ve.ucv.ciens.ccg.nxtar.scenarios.AutomaticActionPerformerBase.automatic_action_t;
@@ -32,6 +38,7 @@ import ve.ucv.ciens.ccg.nxtar.systems.MarkerPositioningSystem;
 import ve.ucv.ciens.ccg.nxtar.systems.MarkerRenderingSystem;
 import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
 import ve.ucv.ciens.ccg.nxtar.utils.Utils;
+import ve.ucv.ciens.ccg.nxtar.vision.MarkerDetectionResult;
 
 import com.artemis.World;
 import com.badlogic.gdx.Gdx;
@@ -41,7 +48,6 @@ import com.badlogic.gdx.controllers.mappings.Ouya;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.OrthographicCamera;
-import com.badlogic.gdx.graphics.Pixmap;
 import com.badlogic.gdx.graphics.Pixmap.Format;
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.Texture.TextureFilter;
@@ -94,9 +100,7 @@ public class AutomaticActionState extends BaseState{
 	private CustomPerspectiveCamera         perspectiveCamera;
 
 	// Video stream graphics.
-	private Texture                         videoFrameTexture;
 	private Sprite                          renderableVideoFrame;
-	private Pixmap                          videoFrame;
 
 	// Gui elements.
 	private Texture                         startButtonEnabledTexture;
@@ -122,18 +126,15 @@ public class AutomaticActionState extends BaseState{
 	// Monitors.
 	private VideoFrameMonitor               frameMonitor;
 	private MotorEventQueue                 queue;
-	private SensorReportThread              sensorThread;
+	private SensorHistory                   lightSensor;
 
 	public AutomaticActionState(final NxtARCore core) throws IllegalStateException, IllegalArgumentException{
 		if(core == null)
 			throw new IllegalArgumentException(CLASS_NAME + ": Core is null.");
 
 		this.core                = core;
-		frameMonitor             = VideoFrameMonitor.getInstance();
-		queue                    = MotorEventQueue.getInstance();
-		sensorThread             = SensorReportThread.getInstance();
+		setRobotSession(RobotSessionManager.getInstance().getActiveSession());
 		ignoreBackKey            = false;
-		videoFrame               = null;
 		aButtonPressed           = false;
 		automaticActionEnabled   = false;
 		startButtonPressed       = false;
@@ -201,10 +202,12 @@ public class AutomaticActionState extends BaseState{
 	@Override
 	public void render(float delta){
 		int w, h;
-		byte[] frame;
+		MarkerDetectionResult result;
 		MarkerData data;
 		TextureRegion region;
 		float focalPointX, focalPointY, cameraCenterX, cameraCenterY;
+		long start;
+		PipelineEventsListener events;
 
 		// Clear the screen.
 		Gdx.gl.glClearColor(1, 1, 1, 1);
@@ -221,10 +224,14 @@ public class AutomaticActionState extends BaseState{
 			if(backgroundShader != null) core.batch.setShader(null);
 		}core.batch.end();
 
-		// Fetch the current video frame.
-		frame = frameMonitor.getCurrentFrame();
-		w = frameMonitor.getFrameDimensions().getWidth();
-		h = frameMonitor.getFrameDimensions().getHeight();
+		// Fetch the markers found in the latest video frame.
+		if(core.markerDetectionThread != null)
+			result = core.markerDetectionThread.getLatestResult();
+		else
+			result = core.markerDetectionCache.findMarkersInFrame(frameMonitor.getLatestFrame());
+		data = result != null ? result.markerData : null;
+		w = result != null ? result.frameWidth : 0;
+		h = result != null ? result.frameHeight : 0;
 
 		// Create the 3D perspective camera and the frame buffer object if they don't exist.
 		if(perspectiveCamera == null && frameBuffer == null){
@@ -239,11 +246,8 @@ public class AutomaticActionState extends BaseState{
 			perspectiveCamera.update();
 		}
 
-		// Attempt to find the markers in the current video frame.
-		data = core.cvProc.findMarkersInFrame(frame);
-
 		// If a valid frame was fetched.
-		if(data != null && data.outFrame != null){
+		if(data != null && uploadVideoFrame(result)){
 			if(automaticActionEnabled)
 				performAutomaticAction(data);
 
@@ -258,16 +262,14 @@ public class AutomaticActionState extends BaseState{
 			// Update the game state.
 			gameWorld.setDelta(Gdx.graphics.getDeltaTime() * 1000);
 			gameWorld.getSystem(MarkerPositioningSystem.class).setMarkerData(data);
+			start = System.nanoTime();
 			gameWorld.process();
+			events = PipelineEvents.getListener();
+			if(events != null)
+				events.onWorldTick(CLASS_NAME, start, System.nanoTime());
 
-			// Decode the video frame.
-			videoFrame = new Pixmap(data.outFrame, 0, w * h);
-			videoFrameTexture = new Texture(videoFrame);
-			videoFrameTexture.setFilter(TextureFilter.Linear, TextureFilter.Linear);
-			videoFrame.dispose();
-
-			// Convert the decoded frame into a renderable texture.
-			region = new TextureRegion(videoFrameTexture, 0, 0, w, h);
+			// Convert the uploaded frame into a renderable sprite.
+			region = core.videoTexture.getRegion();
 			if(renderableVideoFrame == null)
 				renderableVideoFrame = new Sprite(region);
 			else
@@ -330,9 +332,6 @@ public class AutomaticActionState extends BaseState{
 				renderableVideoFrame.draw(core.batch);
 				frameBufferSprite.draw(core.batch);
 			}core.batch.end();
-
-			// Clear the video frame from memory.
-			videoFrameTexture.dispose();
 		}
 
 		core.batch.setProjectionMatrix(pixelPerfectOrthographicCamera.combined);
@@ -375,9 +374,6 @@ public class AutomaticActionState extends BaseState{
 		if(modelBatch != null)
 			modelBatch.dispose();
 
-		if(videoFrameTexture != null)
-			videoFrameTexture.dispose();
-
 		if(backgroundTexture != null)
 			backgroundTexture.dispose();
 
@@ -392,6 +388,9 @@ public class AutomaticActionState extends BaseState{
 	public void onStateSet(){
 		gameWorld.getSystem(CollisionDetectionSystem.class).disableCollisions();
 		stateActive = true;
+		setRobotSession(RobotSessionManager.getInstance().getActiveSession());
+		if(core.markerDetectionThread != null)
+			core.markerDetectionThread.play(frameMonitor);
 		Gdx.input.setInputProcessor(this);
 		Gdx.input.setCatchBackKey(true);
 		Gdx.input.setCatchMenuKey(true);
@@ -400,6 +399,8 @@ public class AutomaticActionState extends BaseState{
 	@Override
 	public void onStateUnset(){
 		stateActive = false;
+		if(core.markerDetectionThread != null)
+			core.markerDetectionThread.pause();
 		Gdx.input.setInputProcessor(null);
 		Gdx.input.setCatchBackKey(false);
 		Gdx.input.setCatchMenuKey(false);
@@ -409,6 +410,15 @@ public class AutomaticActionState extends BaseState{
 	  ; HELPER METHODS ;
 	  ;;;;;;;;;;;;;;;;;;*/
 
+	/**
+	 * <p>Takes the video, the light sensor and sends the motor events of the robot of the given session.</p>
+	 */
+	private void setRobotSession(RobotSession session){
+		frameMonitor = session.getFrameMonitor();
+		queue        = session.getMotorQueue();
+		lightSensor  = session.getSensorHistory(sensor_t.LIGHT);
+	}
+
 	private void setUpButton(){
 		TextButtonStyle       textButtonStyle;
 		FreeTypeFontGenerator fontGenerator;
@@ -466,7 +476,7 @@ public class AutomaticActionState extends BaseState{
 		automatic_action_t nextAction;
 
 		try{
-			if(!automaticActionPerformer.performAutomaticAction(sensorThread.getLightSensorReading(), data)){
+			if(!automaticActionPerformer.performAutomaticAction(lightSensor.getLatestValue(-1), data)){
 				nextAction = automaticActionPerformer.getNextAction();
 
 				if(nextAction != previousAction){
@@ -558,9 +568,9 @@ public class AutomaticActionState extends BaseState{
 					}
 
 					if(event1 != null)
-						queue.addEvent(event1);
+						queue.offerEvent(event1);
 					if(event2 != null)
-						queue.addEvent(event2);
+						queue.offerEvent(event2);
 
 					previousAction = nextAction;
 				}else{
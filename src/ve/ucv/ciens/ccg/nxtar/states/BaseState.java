@@ -16,17 +16,27 @@
 package ve.ucv.ciens.ccg.nxtar.states;
 
 import ve.ucv.ciens.ccg.nxtar.NxtARCore;
+import ve.ucv.ciens.ccg.nxtar.interfaces.FrameDecoder.DecodedFrame;
+import ve.ucv.ciens.ccg.nxtar.profiling.FrameLatencyTracer;
+import ve.ucv.ciens.ccg.nxtar.profiling.FrameLatencyTracer.stage_t;
+import ve.ucv.ciens.ccg.nxtar.vision.MarkerDetectionResult;
 
+import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.InputProcessor;
 import com.badlogic.gdx.Screen;
 import com.badlogic.gdx.controllers.Controller;
 import com.badlogic.gdx.controllers.ControllerListener;
 import com.badlogic.gdx.controllers.PovDirection;
 import com.badlogic.gdx.graphics.OrthographicCamera;
+import com.badlogic.gdx.graphics.Pixmap;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.GdxRuntimeException;
 
 public abstract class BaseState implements Screen, ControllerListener, InputProcessor{
+	private static final String TAG        = "BASE_STATE";
+	private static final String CLASS_NAME = BaseState.class.getSimpleName();
+
 	protected NxtARCore core;
 	protected boolean stateActive;
 	protected OrthographicCamera pixelPerfectCamera;
@@ -75,6 +85,54 @@ public abstract class BaseState implements Screen, ControllerListener, InputProc
 		touchPointWorldCoords.set(win2world.x, win2world.y);
 	}
 
+	/**
+	 * <p>Uploads the video frame of the given detection result if it is not in the video texture yet.</p>
+	 *
+	 * @return True if the video texture holds a frame that can be rendered.
+	 */
+	protected final boolean uploadVideoFrame(MarkerDetectionResult result){
+		FrameLatencyTracer tracer = FrameLatencyTracer.getInstance();
+		DecodedFrame       decodedFrame;
+		long               start;
+
+		if(!core.videoTexture.hasFrame(result.frameSequence)){
+			start = System.nanoTime();
+			tracer.record(stage_t.RESULT_WAIT, start - result.detectionEnd);
+			decodedFrame = result.claimDecodedFrame();
+
+			if(decodedFrame != null){
+				core.videoTexture.update(decodedFrame, result.frameSequence);
+				core.frameDecoder.release(decodedFrame);
+
+			}else if(result.decodedFrame == null && result.markerData.outFrame != null){
+				// The frame decoder could not decode this frame so fall back to libGDX.
+				uploadCompressedFrame(result.markerData.outFrame, result.frameSequence);
+			}
+
+			tracer.record(stage_t.TEXTURE_UPLOAD, System.nanoTime() - start);
+		}
+
+		return core.videoTexture.getRegion() != null;
+	}
+
+	/**
+	 * <p>Uploads a compressed video frame decoded by libGDX. Frames libGDX cannot decode either are
+	 * skipped, so a corrupt frame never escapes the render loop.</p>
+	 */
+	protected final void uploadCompressedFrame(byte[] data, long sequence){
+		Pixmap videoFrame;
+
+		try{
+			videoFrame = new Pixmap(data, 0, data.length);
+		}catch(GdxRuntimeException e){
+			Gdx.app.error(TAG, CLASS_NAME + ".uploadCompressedFrame() :: Corrupt video frame: " + e.getMessage());
+			return;
+		}
+
+		core.videoTexture.update(videoFrame, sequence);
+		videoFrame.dispose();
+	}
+
 	/*;;;;;;;;;;;;;;;;;;;;;;;;;;;
 	  ; INPUT PROCESSOR METHODS ;
 	  ;;;;;;;;;;;;;;;;;;;;;;;;;;;*/
@@ -15,21 +15,20 @@
  */
 package ve.ucv.ciens.ccg.nxtar.states;
 
-import java.util.Arrays;
-
 import ve.ucv.ciens.ccg.nxtar.NxtARCore;
 import ve.ucv.ciens.ccg.nxtar.NxtARCore.game_states_t;
+import ve.ucv.ciens.ccg.nxtar.interfaces.FrameDecoder.DecodedFrame;
 import ve.ucv.ciens.ccg.nxtar.interfaces.ImageProcessor.CalibrationData;
+import ve.ucv.ciens.ccg.nxtar.network.RobotSessionManager;
+import ve.ucv.ciens.ccg.nxtar.network.monitors.VideoFrame;
 import ve.ucv.ciens.ccg.nxtar.network.monitors.VideoFrameMonitor;
 import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
-import ve.ucv.ciens.ccg.nxtar.utils.Size;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.Input;
 import com.badlogic.gdx.controllers.mappings.Ouya;
 import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.OrthographicCamera;
-import com.badlogic.gdx.graphics.Pixmap;
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.Texture.TextureFilter;
 import com.badlogic.gdx.graphics.Texture.TextureWrap;
@@ -54,9 +53,8 @@ public class CameraCalibrationState extends BaseState{
 	private OrthographicCamera camera;
 
 	// Video stream graphics.
-	private Texture videoFrameTexture;
 	private Sprite renderableVideoFrame;
-	private Pixmap videoFrame;
+	private long lastFrameSequence;
 
 	// Monitors.
 	private VideoFrameMonitor frameMonitor;
@@ -66,8 +64,9 @@ public class CameraCalibrationState extends BaseState{
 
 	public CameraCalibrationState(final NxtARCore core){
 		this.core = core;
-		frameMonitor = VideoFrameMonitor.getInstance();
+		frameMonitor = RobotSessionManager.getInstance().getActiveSession().getFrameMonitor();
 		cameraCalibrated = false;
+		lastFrameSequence = 0L;
 
 		// Set up the cameras.
 		pixelPerfectCamera = new OrthographicCamera(Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
@@ -107,6 +106,8 @@ public class CameraCalibrationState extends BaseState{
 		Gdx.input.setCatchBackKey(true);
 		Gdx.input.setCatchMenuKey(true);
 
+		// Calibrate the camera of the robot of the active session.
+		frameMonitor = RobotSessionManager.getInstance().getActiveSession().getFrameMonitor();
 		lastSampleTaken = 0;
 		cameraCalibrated = false;
 
@@ -122,9 +123,10 @@ public class CameraCalibrationState extends BaseState{
 
 	@Override
 	public void render(float delta){
-		byte[] frame;
-		byte[] prevFrame = null;
-		Size dimensions = null;
+		VideoFrame frame;
+		CalibrationData data;
+		DecodedFrame decodedFrame;
+		TextureRegion region;
 
 		// Clear the screen.
 		Gdx.gl.glClearColor(1, 1, 1, 1);
@@ -142,55 +144,69 @@ public class CameraCalibrationState extends BaseState{
 		}core.batch.end();
 
 		// Fetch the current video frame.
-		frame = frameMonitor.getCurrentFrame();
-
-		// Find the calibration points in the video frame.
-		CalibrationData data = core.cvProc.findCalibrationPattern(frame);
-
-		// If the user requested a sample be taken.
-		if(!cameraCalibrated && data.calibrationPoints != null){
-			Gdx.app.log(TAG, CLASS_NAME + ".render(): Sample taken.");
-
-			// Save the calibration points to the samples array.
-			for(int i = 0; i < data.calibrationPoints.length; i += 2){
-				Gdx.app.log(TAG, CLASS_NAME + ".render(): Value " + Integer.toString(i) + " = (" + Float.toString(data.calibrationPoints[i]) + ", " + Float.toString(data.calibrationPoints[i + 1]) + ")");
-				calibrationSamples[lastSampleTaken][i] = data.calibrationPoints[i];
-				calibrationSamples[lastSampleTaken][i + 1] = data.calibrationPoints[i + 1];
+		frame = frameMonitor.getLatestFrame();
+
+		// Process the frame only once to avoid taking the same sample twice when network latency is high.
+		if(frame != null && frame.sequence != lastFrameSequence){
+			lastFrameSequence = frame.sequence;
+
+			// Find the calibration points in the video frame.
+			data = core.cvProc.findCalibrationPattern(frame.getFrameBytes());
+
+			// If the user requested a sample be taken.
+			if(!cameraCalibrated && data.calibrationPoints != null){
+				Gdx.app.log(TAG, CLASS_NAME + ".render(): Sample taken.");
+
+				// Save the calibration points to the samples array.
+				for(int i = 0; i < data.calibrationPoints.length; i += 2){
+					Gdx.app.log(TAG, CLASS_NAME + ".render(): Value " + Integer.toString(i) + " = (" + Float.toString(data.calibrationPoints[i]) + ", " + Float.toString(data.calibrationPoints[i + 1]) + ")");
+					calibrationSamples[lastSampleTaken][i] = data.calibrationPoints[i];
+					calibrationSamples[lastSampleTaken][i + 1] = data.calibrationPoints[i + 1];
+				}
+
+				// Move to the next sample.
+				lastSampleTaken++;
+
+				// If enough samples has been taken then calibrate the camera.
+				if(lastSampleTaken == ProjectConstants.CALIBRATION_SAMPLES){
+					Gdx.app.log(TAG, CLASS_NAME + "render(): Last sample taken.");
+
+					core.cvProc.calibrateCamera(calibrationSamples, frame.getFrameBytes());
+					cameraCalibrated = core.cvProc.isCameraCalibrated();
+					core.onCameraCalibrated();
+					core.nextState = game_states_t.MAIN_MENU;
+				}
 			}
 
-			// Move to the next sample.
-			lastSampleTaken++;
-
-			// If enough samples has been taken then calibrate the camera.
-			if(lastSampleTaken == ProjectConstants.CALIBRATION_SAMPLES){
-				Gdx.app.log(TAG, CLASS_NAME + "render(): Last sample taken.");
-
-				core.cvProc.calibrateCamera(calibrationSamples, frame);
-				cameraCalibrated = core.cvProc.isCameraCalibrated();
-				core.onCameraCalibrated();
-				core.nextState = game_states_t.MAIN_MENU;
+			// If the received frame is valid upload it to the video texture.
+			if(data != null && data.outFrame != null){
+				try{
+					decodedFrame = core.frameDecoder.decode(data.outFrame, 0, data.outFrame.length);
+					core.videoTexture.update(decodedFrame, frame.sequence);
+					core.frameDecoder.release(decodedFrame);
+				}catch(RuntimeException e){
+					// The frame decoder could not decode this frame so fall back to libGDX.
+					uploadCompressedFrame(data.outFrame, frame.sequence);
+				}
 			}
 		}
 
-		if(frame != null && data != null && data.outFrame != null && !Arrays.equals(frame, prevFrame)){
-			// If the received frame is valid and is different from the previous frame.
-			// Make a texture from the frame.
-			dimensions = frameMonitor.getFrameDimensions();
-			videoFrame = new Pixmap(data.outFrame, 0, dimensions.getWidth() * dimensions.getHeight());
-			videoFrameTexture = new Texture(videoFrame);
-			videoFrameTexture.setFilter(TextureFilter.Linear, TextureFilter.Linear);
-			videoFrame.dispose();
-
+		// Render the last valid frame.
+		region = core.videoTexture.getRegion();
+		if(region != null){
 			// Set up the frame texture as a rendereable sprite.
-			TextureRegion region = new TextureRegion(videoFrameTexture, 0, 0, dimensions.getWidth(), dimensions.getHeight());
-			renderableVideoFrame = new Sprite(region);
+			if(renderableVideoFrame == null)
+				renderableVideoFrame = new Sprite(region);
+			else
+				renderableVideoFrame.setRegion(region);
 			renderableVideoFrame.setOrigin(renderableVideoFrame.getWidth() / 2, renderableVideoFrame.getHeight() / 2);
+			renderableVideoFrame.setPosition(0, 0);
 			if(!Ouya.runningOnOuya){
 				renderableVideoFrame.setSize(1.0f, renderableVideoFrame.getHeight() / renderableVideoFrame.getWidth() );
 				renderableVideoFrame.rotate90(true);
 				renderableVideoFrame.translate(-renderableVideoFrame.getWidth() / 2, 0.5f - renderableVideoFrame.getHeight());
 			}else{
-				float xSize = Gdx.graphics.getHeight() * (dimensions.getWidth() / dimensions.getHeight());
+				float xSize = Gdx.graphics.getHeight() * (core.videoTexture.getWidth() / core.videoTexture.getHeight());
 				renderableVideoFrame.setSize(xSize * ProjectConstants.OVERSCAN, Gdx.graphics.getHeight() * ProjectConstants.OVERSCAN);
 				renderableVideoFrame.rotate90(true);
 				renderableVideoFrame.translate(-renderableVideoFrame.getWidth() / 2, -renderableVideoFrame.getHeight() / 2);
@@ -202,19 +218,11 @@ public class CameraCalibrationState extends BaseState{
 			core.batch.begin();{
 				renderableVideoFrame.draw(core.batch);
 			}core.batch.end();
-
-			// Clear texture memory.
-			videoFrameTexture.dispose();
 		}
-
-		// Save this frame as previous to avoid processing the same frame twice when network latency is high.
-		prevFrame = frame;
 	}
 
 	@Override
 	public void dispose(){
-		if(videoFrameTexture != null)
-			videoFrameTexture.dispose();
 		backgroundTexture.dispose();
 		if(backgroundShader != null) backgroundShader.dispose();
 	}
@@ -25,8 +25,14 @@ import ve.ucv.ciens.ccg.nxtar.input.KeyboardUserInput;
 import ve.ucv.ciens.ccg.nxtar.input.TouchUserInput;
 import ve.ucv.ciens.ccg.nxtar.input.UserInput;
 import ve.ucv.ciens.ccg.nxtar.interfaces.ImageProcessor.MarkerData;
+import ve.ucv.ciens.ccg.nxtar.interfaces.PipelineEventsListener;
+import ve.ucv.ciens.ccg.nxtar.network.RobotSession;
+import ve.ucv.ciens.ccg.nxtar.network.RobotSessionManager;
 import ve.ucv.ciens.ccg.nxtar.network.monitors.MotorEventQueue;
 import ve.ucv.ciens.ccg.nxtar.network.monitors.VideoFrameMonitor;
+import ve.ucv.ciens.ccg.nxtar.profiling.FrameLatencyTracer;
+import ve.ucv.ciens.ccg.nxtar.profiling.FrameLatencyTracer.stage_t;
+import ve.ucv.ciens.ccg.nxtar.profiling.PipelineEvents;
 import ve.ucv.ciens.ccg.nxtar.scenarios.ScenarioGlobals;
 import ve.ucv.ciens.ccg.nxtar.systems.CollisionDetectionSystem;
 import ve.ucv.ciens.ccg.nxtar.systems.FadeEffectRenderingSystem;
@@ -37,6 +43,7 @@ import ve.ucv.ciens.ccg.nxtar.systems.PlayerSystemBase;
 import ve.ucv.ciens.ccg.nxtar.systems.RobotArmPositioningSystem;
 import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
 import ve.ucv.ciens.ccg.nxtar.utils.Utils;
+import ve.ucv.ciens.ccg.nxtar.vision.MarkerDetectionResult;
 
 import com.artemis.World;
 import com.badlogic.gdx.Gdx;
@@ -45,7 +52,6 @@ import com.badlogic.gdx.controllers.Controller;
 import com.badlogic.gdx.controllers.mappings.Ouya;
 import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.OrthographicCamera;
-import com.badlogic.gdx.graphics.Pixmap;
 import com.badlogic.gdx.graphics.Pixmap.Format;
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.Texture.TextureFilter;
@@ -110,9 +116,7 @@ public class InGameState extends BaseState{
 	private CustomPerspectiveCamera         perspectiveCamera;
 
 	// Video stream graphics.
-	private Texture                         videoFrameTexture;
 	private Sprite                          renderableVideoFrame;
-	private Pixmap                          videoFrame;
 
 	// Gui textures.
 	private Texture                         upControlButtonTexture;
@@ -154,18 +158,18 @@ public class InGameState extends BaseState{
 	// Monitors.
 	private VideoFrameMonitor               frameMonitor;
 	private MotorEventQueue                 queue;
+	private FrameLatencyTracer              tracer;
 
 	public InGameState(final NxtARCore core) throws IllegalStateException, IllegalArgumentException{
 		if(core == null)
 			throw new IllegalArgumentException(CLASS_NAME + ": Core is null.");
 
 		this.core = core;
-		frameMonitor = VideoFrameMonitor.getInstance();
-		queue = MotorEventQueue.getInstance();
+		setRobotSession(RobotSessionManager.getInstance().getActiveSession());
+		tracer = FrameLatencyTracer.getInstance();
 		controlMode = robot_control_mode_t.WHEEL_CONTROL;
 
 		// Set up rendering fields;
-		videoFrame = null;
 
 		// Set up the cameras.
 		pixelPerfectOrthographicCamera = new OrthographicCamera(Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
@@ -267,10 +271,13 @@ public class InGameState extends BaseState{
 		final float MAX_SLIDER_X = correctAngleLedOnSprite != null ? (Utils.getScreenWidthWithOverscan() / 2) - 5 - correctAngleLedOnSprite.getWidth(): (Utils.getScreenWidthWithOverscan() / 2) - 5;
 		int w, h;
 		float t, xSliderPos;
-		byte[] frame;
+		MarkerDetectionResult result;
 		MarkerData data;
 		TextureRegion region;
 		float focalPointX, focalPointY, cameraCenterX, cameraCenterY;
+		boolean newFrame;
+		long start, end;
+		PipelineEventsListener events;
 
 		// Clear the screen.
 		Gdx.gl.glClearColor(1, 1, 1, 1);
@@ -287,10 +294,15 @@ public class InGameState extends BaseState{
 			if(backgroundShader != null) core.batch.setShader(null);
 		}core.batch.end();
 
-		// Fetch the current video frame.
-		frame = frameMonitor.getCurrentFrame();
-		w = frameMonitor.getFrameDimensions().getWidth();
-		h = frameMonitor.getFrameDimensions().getHeight();
+		// Fetch the markers found in the latest video frame.
+		if(core.markerDetectionThread != null)
+			result = core.markerDetectionThread.getLatestResult();
+		else
+			result = core.markerDetectionCache.findMarkersInFrame(frameMonitor.getLatestFrame());
+		data = result != null ? result.markerData : null;
+		w = result != null ? result.frameWidth : 0;
+		h = result != null ? result.frameHeight : 0;
+		newFrame = data != null && !core.videoTexture.hasFrame(result.frameSequence);
 
 		// Create the 3D perspective camera and the frame buffer object if they don't exist.
 		if(perspectiveCamera == null && frameBuffer == null){
@@ -305,11 +317,8 @@ public class InGameState extends BaseState{
 			perspectiveCamera.update();
 		}
 
-		// Attempt to find the markers in the current video frame.
-		data = core.cvProc.findMarkersInFrame(frame);
-
 		// If a valid frame was fetched.
-		if(data != null && data.outFrame != null){
+		if(data != null && uploadVideoFrame(result)){
 			try{
 				// Set the camera to the correct projection.
 				focalPointX   = core.cvProc.getFocalPointX();
@@ -326,17 +335,17 @@ public class InGameState extends BaseState{
 					gameWorld.getSystem(CollisionDetectionSystem.class).disableCollisions();
 
 				gameWorld.setDelta(Gdx.graphics.getDeltaTime() * 1000);
-				gameWorld.getSystem(MarkerPositioningSystem.class).setMarkerData(data);
+				gameWorld.getSystem(MarkerPositioningSystem.class).setMarkerData(data, result.frameReceiveTimestamp, System.nanoTime());
+				start = System.nanoTime();
 				gameWorld.process();
-
-				// Decode the video frame.
-				videoFrame = new Pixmap(data.outFrame, 0, w * h);
-				videoFrameTexture = new Texture(videoFrame);
-				videoFrameTexture.setFilter(TextureFilter.Linear, TextureFilter.Linear);
-				videoFrame.dispose();
-
-				// Convert the decoded frame into a renderable texture.
-				region = new TextureRegion(videoFrameTexture, 0, 0, w, h);
+				end = System.nanoTime();
+				tracer.record(stage_t.WORLD_UPDATE, end - start);
+				events = PipelineEvents.getListener();
+				if(events != null)
+					events.onWorldTick(CLASS_NAME, start, end);
+
+				// Convert the uploaded frame into a renderable sprite.
+				region = core.videoTexture.getRegion();
 				if(renderableVideoFrame == null)
 					renderableVideoFrame = new Sprite(region);
 				else
@@ -407,8 +416,8 @@ public class InGameState extends BaseState{
 					frameBufferSprite.draw(core.batch);
 				}core.batch.end();
 
-				// Clear the video frame from memory.
-				videoFrameTexture.dispose();
+				if(newFrame)
+					tracer.record(stage_t.END_TO_END, System.nanoTime() - result.frameReceiveTimestamp);
 			}catch(GdxRuntimeException e){
 				Gdx.app.error(TAG, CLASS_NAME + ".render(): Runtime exception caught: ", e);
 			}
@@ -476,9 +485,6 @@ public class InGameState extends BaseState{
 		if(modelBatch != null)
 			modelBatch.dispose();
 
-		if(videoFrameTexture != null)
-			videoFrameTexture.dispose();
-
 		if(upControlButtonTexture != null)
 			upControlButtonTexture.dispose();
 
@@ -529,6 +535,9 @@ public class InGameState extends BaseState{
 	@Override
 	public void onStateSet(){
 		stateActive = true;
+		setRobotSession(RobotSessionManager.getInstance().getActiveSession());
+		if(core.markerDetectionThread != null)
+			core.markerDetectionThread.play(frameMonitor);
 		Gdx.input.setInputProcessor(this);
 		Gdx.input.setCatchBackKey(true);
 		Gdx.input.setCatchMenuKey(true);
@@ -537,11 +546,21 @@ public class InGameState extends BaseState{
 	@Override
 	public void onStateUnset(){
 		stateActive = false;
+		if(core.markerDetectionThread != null)
+			core.markerDetectionThread.pause();
 		Gdx.input.setInputProcessor(null);
 		Gdx.input.setCatchBackKey(false);
 		Gdx.input.setCatchMenuKey(false);
 	}
 
+	/**
+	 * <p>Takes the video and sends the motor events of the robot of the given session.</p>
+	 */
+	private void setRobotSession(RobotSession session){
+		frameMonitor = session.getFrameMonitor();
+		queue        = session.getMotorQueue();
+	}
+
 	private void setUpButtons(){
 		// Set the main control buttons.
 		upControlButtonTexture = new Texture(Gdx.files.internal("data/gfx/gui/up_button.png"));
@@ -660,7 +679,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.MOTOR_A);
 					event.setPower((byte)100);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 
 				}else if(controlMode.getValue() == robot_control_mode_t.ARM_CONTROL.getValue()){
 					input = new KeyboardUserInput();
@@ -680,7 +699,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.MOTOR_A);
 					event.setPower((byte)-100);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 
 				}else if(controlMode.getValue() == robot_control_mode_t.ARM_CONTROL.getValue()){
 					input = new KeyboardUserInput();
@@ -699,7 +718,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.MOTOR_C);
 					event.setPower((byte)-100);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 
 				}else if(controlMode.getValue() == robot_control_mode_t.ARM_CONTROL.getValue()){
 					input = new KeyboardUserInput();
@@ -718,7 +737,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.MOTOR_C);
 					event.setPower((byte)100);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 
 				}else if(controlMode.getValue() == robot_control_mode_t.ARM_CONTROL.getValue()){
 					input = new KeyboardUserInput();
@@ -737,7 +756,7 @@ public class InGameState extends BaseState{
 				event = new MotorEvent();
 				event.setMotor(motor_t.MOTOR_B);
 				event.setPower((byte)-25);
-				queue.addEvent(event);
+				queue.offerEvent(event);
 
 			}else if(headBButton.getBoundingRectangle().contains(touchPointWorldCoords)){
 				Gdx.app.log(TAG, CLASS_NAME + ".touchDown() :: Head B button pressed");
@@ -748,7 +767,7 @@ public class InGameState extends BaseState{
 				event = new MotorEvent();
 				event.setMotor(motor_t.MOTOR_B);
 				event.setPower((byte)25);
-				queue.addEvent(event);
+				queue.offerEvent(event);
 
 			}else if(headCButton.getBoundingRectangle().contains(touchPointWorldCoords)){
 				Gdx.app.log(TAG, CLASS_NAME + ".touchDown() :: Head C button pressed");
@@ -760,7 +779,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.RECENTER);
 					event.setPower((byte)0x00);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 				}
 
 			}else if(wheelControlButton.getBoundingRectangle().contains(touchPointWorldCoords) || armControlButton.getBoundingRectangle().contains(touchPointWorldCoords)){
@@ -817,7 +836,7 @@ public class InGameState extends BaseState{
 						event = new MotorEvent();
 						event.setMotor(motor_t.MOTOR_A);
 						event.setPower((byte) 0);
-						queue.addEvent(event);
+						queue.offerEvent(event);
 					}
 
 				}else if(controlMode.getValue() == robot_control_mode_t.ARM_CONTROL.getValue()){
@@ -839,7 +858,7 @@ public class InGameState extends BaseState{
 						event = new MotorEvent();
 						event.setMotor(motor_t.MOTOR_A);
 						event.setPower((byte) 0);
-						queue.addEvent(event);
+						queue.offerEvent(event);
 					}
 
 				}else if(controlMode.getValue() == robot_control_mode_t.ARM_CONTROL.getValue()){
@@ -861,7 +880,7 @@ public class InGameState extends BaseState{
 						event = new MotorEvent();
 						event.setMotor(motor_t.MOTOR_C);
 						event.setPower((byte) 0);
-						queue.addEvent(event);
+						queue.offerEvent(event);
 					}
 
 				}else if(controlMode.getValue() == robot_control_mode_t.ARM_CONTROL.getValue()){
@@ -883,7 +902,7 @@ public class InGameState extends BaseState{
 						event = new MotorEvent();
 						event.setMotor(motor_t.MOTOR_C);
 						event.setPower((byte) 0);
-						queue.addEvent(event);
+						queue.offerEvent(event);
 					}
 
 				}else if(controlMode.getValue() == robot_control_mode_t.ARM_CONTROL.getValue()){
@@ -904,7 +923,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.MOTOR_B);
 					event.setPower((byte) 0);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 				}
 
 			}else if(headBButton.getBoundingRectangle().contains(touchPointWorldCoords)){
@@ -918,7 +937,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.MOTOR_B);
 					event.setPower((byte) 0);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 				}
 
 			}else if(headCButton.getBoundingRectangle().contains(touchPointWorldCoords)){
@@ -960,7 +979,7 @@ public class InGameState extends BaseState{
 						event = new MotorEvent();
 						event.setMotor(motor_t.MOTOR_A);
 						event.setPower((byte) 0);
-						queue.addEvent(event);
+						queue.offerEvent(event);
 					}
 
 				}else if(controlMode.getValue() == robot_control_mode_t.ARM_CONTROL.getValue()){
@@ -982,7 +1001,7 @@ public class InGameState extends BaseState{
 						event = new MotorEvent();
 						event.setMotor(motor_t.MOTOR_A);
 						event.setPower((byte) 0);
-						queue.addEvent(event);
+						queue.offerEvent(event);
 					}
 
 				}else if(controlMode.getValue() == robot_control_mode_t.ARM_CONTROL.getValue()){
@@ -1004,7 +1023,7 @@ public class InGameState extends BaseState{
 						event = new MotorEvent();
 						event.setMotor(motor_t.MOTOR_C);
 						event.setPower((byte) 0);
-						queue.addEvent(event);
+						queue.offerEvent(event);
 					}
 
 				}else if(controlMode.getValue() == robot_control_mode_t.ARM_CONTROL.getValue()){
@@ -1026,7 +1045,7 @@ public class InGameState extends BaseState{
 						event = new MotorEvent();
 						event.setMotor(motor_t.MOTOR_C);
 						event.setPower((byte) 0);
-						queue.addEvent(event);
+						queue.offerEvent(event);
 					}
 
 				}else if(controlMode.getValue() == robot_control_mode_t.ARM_CONTROL.getValue()){
@@ -1047,7 +1066,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.MOTOR_B);
 					event.setPower((byte) 0);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 				}
 
 			}else if(pointer == buttonPointers[5] && !headBButton.getBoundingRectangle().contains(touchPointWorldCoords)){
@@ -1061,7 +1080,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.MOTOR_B);
 					event.setPower((byte) 0);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 				}
 
 			}else if(pointer == buttonPointers[6] && !headCButton.getBoundingRectangle().contains(touchPointWorldCoords)){
@@ -1187,7 +1206,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.MOTOR_A);
 					event.setPower((byte)-100);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 				}
 
 			}else if(buttonCode == Ouya.BUTTON_R1){
@@ -1197,7 +1216,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.MOTOR_C);
 					event.setPower((byte)-100);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 				}
 
 			}else if(buttonCode == Ouya.BUTTON_DPAD_LEFT){
@@ -1207,7 +1226,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.MOTOR_B);
 					event.setPower((byte)-25);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 				}
 
 			}else if(buttonCode == Ouya.BUTTON_DPAD_RIGHT){
@@ -1217,7 +1236,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.MOTOR_B);
 					event.setPower((byte)25);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 				}
 
 			}else if(buttonCode ==  Ouya.BUTTON_L2){
@@ -1227,7 +1246,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.MOTOR_A);
 					event.setPower((byte)100);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 				}
 
 			}else if(buttonCode ==  Ouya.BUTTON_R2){
@@ -1237,7 +1256,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.MOTOR_C);
 					event.setPower((byte)100);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 				}
 
 			}else if(buttonCode == Ouya.BUTTON_Y){
@@ -1246,7 +1265,7 @@ public class InGameState extends BaseState{
 				event = new MotorEvent();
 				event.setMotor(motor_t.RECENTER);
 				event.setPower((byte)0x00);
-				queue.addEvent(event);
+				queue.offerEvent(event);
 
 			}else if(buttonCode == Ouya.BUTTON_O){
 				userInput = new GamepadUserInput();
@@ -1280,7 +1299,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.MOTOR_A);
 					event.setPower((byte)0);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 				}
 
 			}else if(buttonCode == Ouya.BUTTON_R1){
@@ -1290,7 +1309,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.MOTOR_C);
 					event.setPower((byte)0);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 				}
 
 			}else if(buttonCode == Ouya.BUTTON_DPAD_LEFT){
@@ -1300,7 +1319,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.MOTOR_B);
 					event.setPower((byte)0);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 				}
 			}else if(buttonCode == Ouya.BUTTON_DPAD_RIGHT){
 				gamepadButtonPressed[3] = false;
@@ -1309,7 +1328,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.MOTOR_B);
 					event.setPower((byte)0);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 				}
 			}else if(buttonCode ==  Ouya.BUTTON_L2){
 				gamepadButtonPressed[4] = false;
@@ -1318,7 +1337,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.MOTOR_A);
 					event.setPower((byte)0);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 				}
 
 			}else if(buttonCode ==  Ouya.BUTTON_R2){
@@ -1328,7 +1347,7 @@ public class InGameState extends BaseState{
 					event = new MotorEvent();
 					event.setMotor(motor_t.MOTOR_C);
 					event.setPower((byte)0);
-					queue.addEvent(event);
+					queue.offerEvent(event);
 				}
 
 			}else if(buttonCode == Ouya.BUTTON_Y){
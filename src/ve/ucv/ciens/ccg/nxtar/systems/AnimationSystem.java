@@ -16,6 +16,7 @@
 package ve.ucv.ciens.ccg.nxtar.systems;
 
 import ve.ucv.ciens.ccg.nxtar.components.AnimationComponent;
+import ve.ucv.ciens.ccg.nxtar.components.CollisionModelComponent;
 import ve.ucv.ciens.ccg.nxtar.components.VisibilityComponent;
 
 import com.artemis.Aspect;
@@ -28,8 +29,9 @@ import com.badlogic.gdx.Gdx;
 public class AnimationSystem extends EntityProcessingSystem {
 	public static final int NO_ANIMATION = -1;
 
-	@Mapper ComponentMapper<AnimationComponent> animationMapper;
-	@Mapper ComponentMapper<VisibilityComponent> visibilityMapper;
+	@Mapper ComponentMapper<AnimationComponent>      animationMapper;
+	@Mapper ComponentMapper<VisibilityComponent>     visibilityMapper;
+	@Mapper ComponentMapper<CollisionModelComponent> collisionModelMapper;
 
 	@SuppressWarnings("unchecked")
 	public AnimationSystem(){
@@ -38,9 +40,10 @@ public class AnimationSystem extends EntityProcessingSystem {
 
 	@Override
 	protected void process(Entity e) {
-		AnimationComponent  animation  = animationMapper.get(e);
-		VisibilityComponent visibility = visibilityMapper.get(e);
-		int                 loopCount  = animation.loop ? -1 : 1;
+		AnimationComponent      animation  = animationMapper.get(e);
+		VisibilityComponent     visibility = visibilityMapper.get(e);
+		CollisionModelComponent collision;
+		int                     loopCount  = animation.loop ? -1 : 1;
 
 		if(animation.current != animation.next && animation.next >= 0 && animation.next < animation.animationsIds.size()){
 			animation.current = animation.next;
@@ -62,8 +65,14 @@ public class AnimationSystem extends EntityProcessingSystem {
 
 		if(visibility.visible){
 			animation.controller.update(Gdx.graphics.getDeltaTime());
-			if(animation.collisionController != null)
+			if(animation.collisionController != null){
 				animation.collisionController.update(Gdx.graphics.getDeltaTime());
+
+				// The animation moved the nodes of the collision model.
+				collision = collisionModelMapper.getSafe(e);
+				if(collision != null && collision.instance == animation.collisionController.target)
+					collision.bounds.update();
+			}
 		}
 	}
 }
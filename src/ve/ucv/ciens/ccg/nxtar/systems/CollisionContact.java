@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.systems;
+
+import com.artemis.Entity;
+
+/**
+ * <p>A contact between a collider and a collidable reported by the {@link CollisionDetectionSystem}.</p>
+ * <p>Contacts are owned and recycled by the collision detection system. They are only valid until
+ * the next time the system is processed, so they must not be stored.</p>
+ */
+public class CollisionContact{
+	public enum contact_state_t{
+		ENTER, STAY, EXIT;
+	}
+
+	/**
+	 * <p>The entity that hit something, like the robot arm.</p>
+	 */
+	public Entity          collider;
+
+	/**
+	 * <p>The collidable entity that was hit. May have been deleted from the world if the state is EXIT.</p>
+	 */
+	public Entity          target;
+	public contact_state_t state;
+
+	long                   key;
+	int                    frame;
+
+	CollisionContact(){
+		reset();
+	}
+
+	void reset(){
+		collider = null;
+		target   = null;
+		state    = null;
+		key      = 0;
+		frame    = 0;
+	}
+}
@@ -19,6 +19,7 @@ import ve.ucv.ciens.ccg.nxtar.components.CollisionDetectionComponent;
 import ve.ucv.ciens.ccg.nxtar.components.CollisionModelComponent;
 import ve.ucv.ciens.ccg.nxtar.components.MarkerCodeComponent;
 import ve.ucv.ciens.ccg.nxtar.components.VisibilityComponent;
+import ve.ucv.ciens.ccg.nxtar.graphics.ModelBounds;
 
 import com.artemis.Aspect;
 import com.artemis.ComponentMapper;
@@ -26,38 +27,191 @@ import com.artemis.Entity;
 import com.artemis.annotations.Mapper;
 import com.artemis.managers.GroupManager;
 import com.artemis.systems.EntityProcessingSystem;
+import com.artemis.utils.Bag;
 import com.artemis.utils.ImmutableBag;
-import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.math.collision.BoundingBox;
+import com.badlogic.gdx.utils.LongMap;
 
+/**
+ * <p>Checks the entities that can hit things, like the robot arm, against the entities of the
+ * {@link #COLLIDABLE_OBJECTS_GROUP}.</p>
+ * <p>The world bounds of the collision models are kept up to date by the systems that move them,
+ * so this system never walks the vertices of a model. Before the colliders are processed the
+ * visible collidables are sorted by the lower x coordinate of their bounds. The sorted list is kept
+ * from one frame to the next and the collidables move little between frames, so an insertion sort
+ * puts it back in order in about linear time. Each collider is then only tested against the
+ * collidables whose bounds overlap it along the x axis.</p>
+ * <p>Pairs are filtered by the layers and masks of their {@link CollisionDetectionComponent}s and
+ * by the layer matrix of this system before their bounds are tested. By default every layer can
+ * collide with every layer.</p>
+ * <p>Every pair in contact is reported as a {@link CollisionContact}. A contact is reported as
+ * ENTER on the first frame the pair touches, as STAY on the following frames and as EXIT on the
+ * first frame it no longer does, so other systems can react to the changes instead of checking
+ * every entity on every frame. Entities are colliding if they are in contact with anything.
+ * Colliding flags are left untouched while the collisions are disabled, and disabling the
+ * collisions ends every contact.</p>
+ */
 public class CollisionDetectionSystem extends EntityProcessingSystem {
 	public static final String COLLIDABLE_OBJECTS_GROUP = "COLLIDABLE";
 
+	private static final int INITIAL_CAPACITY = 64;
+	private static final int NUM_LAYERS       = 32;
+
 	@Mapper ComponentMapper<CollisionModelComponent>     collisionModelMapper;
 	@Mapper ComponentMapper<CollisionDetectionComponent> collisionDetectionMapper;
 	@Mapper ComponentMapper<VisibilityComponent>         visibilityMapper;
 
-	private GroupManager groupManager;
-	private BoundingBox colBB;
-	private BoundingBox targetBB;
-	private boolean     collisionsEnabled;
+	private GroupManager                  groupManager;
+	private boolean                       collisionsEnabled;
+	private int                           frame;
+
+	// Candidate state indexed by entity id.
+	private Entity[]                      entities;
+	private CollisionModelComponent[]     models;
+	private CollisionDetectionComponent[] detections;
+	private int[]                         validFrames;
+	private int[]                         listedFrames;
+
+	/**
+	 * <p>Ids of the visible collidables, sorted by the lower x coordinate of their bounds.</p>
+	 */
+	private int[]                         candidates;
+	private int                           candidateCount;
+
+	/**
+	 * <p>Width along the x axis of the widest candidate.</p>
+	 */
+	private float                         maxCandidateWidth;
+
+	/**
+	 * <p>For every layer, the bit set of the layers it can collide with.</p>
+	 */
+	private int[]                         layerMatrix;
+
+	private LongMap<CollisionContact>     activeContacts;
+	private Bag<CollisionContact>         contacts;
+	private Bag<CollisionContact>         exitedContacts;
+	private Bag<CollisionContact>         contactPool;
 
 	@SuppressWarnings("unchecked")
 	public CollisionDetectionSystem(){
 		super(Aspect.getAspectForAll(CollisionModelComponent.class, CollisionDetectionComponent.class).exclude(MarkerCodeComponent.class));
-		colBB             = new BoundingBox();
-		targetBB          = new BoundingBox();
 		collisionsEnabled = true;
+		frame             = 0;
+		entities          = new Entity[INITIAL_CAPACITY];
+		models            = new CollisionModelComponent[INITIAL_CAPACITY];
+		detections        = new CollisionDetectionComponent[INITIAL_CAPACITY];
+		validFrames       = new int[INITIAL_CAPACITY];
+		listedFrames      = new int[INITIAL_CAPACITY];
+		candidates        = new int[INITIAL_CAPACITY];
+		candidateCount    = 0;
+		maxCandidateWidth = 0.0f;
+		layerMatrix       = new int[NUM_LAYERS];
+		activeContacts    = new LongMap<CollisionContact>();
+		contacts          = new Bag<CollisionContact>();
+		exitedContacts    = new Bag<CollisionContact>();
+		contactPool       = new Bag<CollisionContact>();
+
+		for(int i = 0; i < NUM_LAYERS; i++)
+			layerMatrix[i] = CollisionDetectionComponent.ALL_LAYERS;
 	}
 
 	@Override
-	protected void process(Entity e) {
+	protected void initialize(){
+		groupManager = world.getManager(GroupManager.class);
+	}
+
+	/**
+	 * <p>Recycles the contacts of the last frame, clears the colliding flags of the colliders and
+	 * the collidables, then updates and sorts the list of visible collidables. The flags are all
+	 * cleared here because a collider can also be hit as a collidable by the colliders processed
+	 * before it.</p>
+	 */
+	@Override
+	protected void begin(){
+		ImmutableBag<Entity>        colliders;
+		ImmutableBag<Entity>        collidables;
+		Entity                      entity;
+		CollisionModelComponent     target;
 		VisibilityComponent         visibility;
+		CollisionDetectionComponent onCollisionTarget;
+		BoundingBox                 bounds;
+		int                         id;
+		int                         kept;
+
+		clearContacts();
+
+		if(!collisionsEnabled){
+			endContacts(true);
+			return;
+		}
+
+		frame++;
+		maxCandidateWidth = 0.0f;
+		colliders         = getActives();
+		collidables       = groupManager.getEntities(COLLIDABLE_OBJECTS_GROUP);
+
+		for(int i = 0; i < colliders.size(); ++i)
+			collisionDetectionMapper.get(colliders.get(i)).colliding = false;
+
+		// Find the visible collidables.
+		for(int i = 0; i < collidables.size(); ++i){
+			// Try to get the necessary components for the collidable entity.
+			entity            = collidables.get(i);
+			target            = collisionModelMapper.getSafe(entity);
+			visibility        = visibilityMapper.getSafe(entity);
+			onCollisionTarget = collisionDetectionMapper.getSafe(entity);
+
+			// If any of the needed components does not exist then proceed to the next entity.
+			if(target == null || visibility == null || onCollisionTarget == null) continue;
+
+			// Only visible targets that belong to a layer can be hit.
+			onCollisionTarget.colliding = false;
+			if(!visibility.visible || onCollisionTarget.layers == 0) continue;
+
+			id = entity.getId();
+			ensureCapacity(id);
+			entities[id]    = entity;
+			models[id]      = target;
+			detections[id]  = onCollisionTarget;
+			validFrames[id] = frame;
+
+			bounds            = target.bounds.getWorldBounds();
+			maxCandidateWidth = Math.max(maxCandidateWidth, bounds.max.x - bounds.min.x);
+		}
+
+		// Drop the candidates of the last frame that are no longer visible collidables, keeping the order of the rest.
+		kept = 0;
+		for(int i = 0; i < candidateCount; i++){
+			id = candidates[i];
+			if(validFrames[id] == frame && listedFrames[id] != frame){
+				listedFrames[id]   = frame;
+				candidates[kept++] = id;
+			}
+		}
+		candidateCount = kept;
+
+		// Add the new ones.
+		for(int i = 0; i < collidables.size(); ++i){
+			id = collidables.get(i).getId();
+			if(id < validFrames.length && validFrames[id] == frame && listedFrames[id] != frame){
+				listedFrames[id] = frame;
+				addCandidate(id);
+			}
+		}
+
+		sortCandidates();
+	}
+
+	@Override
+	protected void process(Entity e) {
 		CollisionModelComponent     collision;
-		CollisionModelComponent     target;
 		CollisionDetectionComponent onCollision;
 		CollisionDetectionComponent onCollisionTarget;
-		ImmutableBag<Entity>        collidables;
+		BoundingBox                 bounds;
+		BoundingBox                 targetBounds;
+		int                         targetLayers;
+		int                         id;
 
 		if(!collisionsEnabled)
 			return;
@@ -65,48 +219,79 @@ public class CollisionDetectionSystem extends EntityProcessingSystem {
 		// Get this entity's known necessary components.
 		collision   = collisionModelMapper.get(e);
 		onCollision = collisionDetectionMapper.get(e);
+		bounds      = collision.bounds.getWorldBounds();
 
-		// Get all other entities this entity can collide with. 
-		groupManager = this.world.getManager(GroupManager.class);
-		collidables = groupManager.getEntities(COLLIDABLE_OBJECTS_GROUP);
+		// Find the layers this entity can hit. If there are none then skip it.
+		targetLayers = onCollision.mask & getCollidingLayers(onCollision.layers);
+		if(targetLayers == 0)
+			return;
 
-		for(int i = 0; i < collidables.size(); ++i){
-			// Try to get the necessary components for the collidable entity.
-			target            = collisionModelMapper.getSafe(collidables.get(i));
-			visibility        = visibilityMapper.getSafe(collidables.get(i));
-			onCollisionTarget = collisionDetectionMapper.getSafe(collidables.get(i));
+		// Any candidate that overlaps this entity along the x axis starts at most the width of the widest candidate before it.
+		for(int i = findFirstCandidate(bounds.min.x - maxCandidateWidth); i < candidateCount; i++){
+			id           = candidates[i];
+			targetBounds = models[id].bounds.getWorldBounds();
+			if(targetBounds.min.x > bounds.max.x)
+				break;
 
-			// If any of the needed components does not exist then proceed to the next entity.
-			if(target == null || visibility == null || onCollisionTarget == null) continue;
+			onCollisionTarget = detections[id];
+			if(entities[id] == e || (onCollisionTarget.layers & targetLayers) == 0 || (onCollisionTarget.mask & onCollision.layers) == 0)
+				continue;
+
+			if(ModelBounds.overlap(bounds, targetBounds)){
+				onCollision.colliding       = true;
+				onCollisionTarget.colliding = true;
+				addContact(e, entities[id]);
+			}
+		}
+	}
+
+	/**
+	 * <p>Ends the contacts that were not found during this frame.</p>
+	 */
+	@Override
+	protected void end(){
+		if(collisionsEnabled)
+			endContacts(false);
+	}
+
+	/**
+	 * <p>Gets the contacts found during the last time this system was processed, including the
+	 * contacts that ended. The contacts are only valid until the next time this system is
+	 * processed.</p>
+	 */
+	public ImmutableBag<CollisionContact> getContacts(){
+		return contacts;
+	}
+
+	/**
+	 * <p>Sets whether the entities of any of the given layers can collide with the entities of any
+	 * of the other given layers.</p>
+	 *
+	 * @param layersA A bit set of layers.
+	 * @param layersB A bit set of layers.
+	 * @param collide Whether the layers can collide.
+	 */
+	public void setLayersCollide(int layersA, int layersB, boolean collide){
+		for(int i = 0; i < NUM_LAYERS; i++){
+			if((layersA & (1 << i)) != 0){
+				if(collide) layerMatrix[i] |= layersB;
+				else        layerMatrix[i] &= ~layersB;
+			}
 
-			// Id the target is visible then examine the collision. Else there is no collision possible.
-			if(visibility.visible){
-				// Get the bounding box for both entities.
-				collision.instance.calculateBoundingBox(colBB);
-				target.instance.calculateBoundingBox(targetBB);
-
-				// Apply the model matrix to the bounding boxes.
-				colBB.mul(collision.instance.transform);
-				targetBB.mul(target.instance.transform);
-
-				// If the bounding boxes intersect then there is a collision.
-				if(colBB.intersects(targetBB) || targetBB.intersects(colBB)){
-					Gdx.app.log("TAG", "Collision hit.");
-					onCollision.colliding       = true;
-					onCollisionTarget.colliding = true;
-					break;
-				}else{
-					Gdx.app.log("TAG", "Collision miss.");
-					onCollision.colliding       = false;
-					onCollisionTarget.colliding = false;
-				}
-			}else{
-				onCollision.colliding       = false;
-				onCollisionTarget.colliding = false;
+			if((layersB & (1 << i)) != 0){
+				if(collide) layerMatrix[i] |= layersA;
+				else        layerMatrix[i] &= ~layersA;
 			}
 		}
 	}
 
+	/**
+	 * @return Whether any of the given layers can collide with any of the other given layers.
+	 */
+	public boolean canLayersCollide(int layersA, int layersB){
+		return (getCollidingLayers(layersA) & layersB) != 0;
+	}
+
 	public boolean isCollisionDetectionEnabled(){
 		return collisionsEnabled;
 	}
@@ -118,4 +303,177 @@ public class CollisionDetectionSystem extends EntityProcessingSystem {
 	public void disableCollisions(){
 		this.collisionsEnabled = false;
 	}
+
+	/*;;;;;;;;;;;;;;;;;;;
+	  ; CONTACT HELPERS ;
+	  ;;;;;;;;;;;;;;;;;;;*/
+
+	/**
+	 * @return The bit set of the layers that can collide with any of the given layers.
+	 */
+	private int getCollidingLayers(int layers){
+		int colliding = 0;
+
+		for(int i = 0; layers != 0 && i < NUM_LAYERS; i++){
+			if((layers & (1 << i)) != 0){
+				colliding |= layerMatrix[i];
+				layers    &= ~(1 << i);
+			}
+		}
+
+		return colliding;
+	}
+
+	private void addContact(Entity collider, Entity target){
+		long             key     = ((long)collider.getId() << 32) | (target.getId() & 0xFFFFFFFFL);
+		CollisionContact contact = activeContacts.get(key);
+
+		// If the ids of the pair now belong to other entities then the old contact is over.
+		if(contact != null && (contact.collider != collider || contact.target != target)){
+			activeContacts.remove(key);
+			contact.state = CollisionContact.contact_state_t.EXIT;
+			contacts.add(contact);
+			contact = null;
+		}
+
+		if(contact == null){
+			contact          = contactPool.isEmpty() ? new CollisionContact() : contactPool.removeLast();
+			contact.collider = collider;
+			contact.target   = target;
+			contact.key      = key;
+			contact.state    = CollisionContact.contact_state_t.ENTER;
+			activeContacts.put(key, contact);
+		}else
+			contact.state = CollisionContact.contact_state_t.STAY;
+
+		contact.frame = frame;
+		contacts.add(contact);
+	}
+
+	/**
+	 * <p>Reports as EXIT the active contacts not found during this frame, or all of them.</p>
+	 */
+	private void endContacts(boolean all){
+		CollisionContact contact;
+
+		if(activeContacts.size == 0)
+			return;
+
+		for(LongMap.Entry<CollisionContact> entry : activeContacts.entries()){
+			if(all || entry.value.frame != frame)
+				exitedContacts.add(entry.value);
+		}
+
+		for(int i = 0; i < exitedContacts.size(); i++){
+			contact       = exitedContacts.get(i);
+			contact.state = CollisionContact.contact_state_t.EXIT;
+			activeContacts.remove(contact.key);
+			contacts.add(contact);
+		}
+
+		exitedContacts.clear();
+	}
+
+	/**
+	 * <p>Returns the contacts that ended during the last frame to the pool and clears the list of contacts.</p>
+	 */
+	private void clearContacts(){
+		CollisionContact contact;
+
+		for(int i = 0; i < contacts.size(); i++){
+			contact = contacts.get(i);
+			if(contact.state == CollisionContact.contact_state_t.EXIT){
+				contact.reset();
+				contactPool.add(contact);
+			}
+		}
+
+		contacts.clear();
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;;;;
+	  ; BROADPHASE HELPERS ;
+	  ;;;;;;;;;;;;;;;;;;;;;;*/
+
+	private void ensureCapacity(int id){
+		int                           capacity;
+		Entity[]                      newEntities;
+		CollisionModelComponent[]     newModels;
+		CollisionDetectionComponent[] newDetections;
+		int[]                         newValidFrames;
+		int[]                         newListedFrames;
+
+		if(id < entities.length)
+			return;
+
+		capacity = Math.max(entities.length * 2, id + 1);
+
+		newEntities     = new Entity[capacity];
+		newModels       = new CollisionModelComponent[capacity];
+		newDetections   = new CollisionDetectionComponent[capacity];
+		newValidFrames  = new int[capacity];
+		newListedFrames = new int[capacity];
+
+		System.arraycopy(entities, 0, newEntities, 0, entities.length);
+		System.arraycopy(models, 0, newModels, 0, models.length);
+		System.arraycopy(detections, 0, newDetections, 0, detections.length);
+		System.arraycopy(validFrames, 0, newValidFrames, 0, validFrames.length);
+		System.arraycopy(listedFrames, 0, newListedFrames, 0, listedFrames.length);
+
+		entities     = newEntities;
+		models       = newModels;
+		detections   = newDetections;
+		validFrames  = newValidFrames;
+		listedFrames = newListedFrames;
+	}
+
+	private void addCandidate(int id){
+		int[] newCandidates;
+
+		if(candidateCount == candidates.length){
+			newCandidates = new int[candidates.length * 2];
+			System.arraycopy(candidates, 0, newCandidates, 0, candidateCount);
+			candidates = newCandidates;
+		}
+
+		candidates[candidateCount++] = id;
+	}
+
+	/**
+	 * <p>Insertion sort of the candidates by the lower x coordinate of their bounds.</p>
+	 */
+	private void sortCandidates(){
+		float minX;
+		int   id;
+		int   j;
+
+		for(int i = 1; i < candidateCount; i++){
+			id   = candidates[i];
+			minX = models[id].bounds.getWorldBounds().min.x;
+
+			for(j = i - 1; j >= 0 && models[candidates[j]].bounds.getWorldBounds().min.x > minX; j--)
+				candidates[j + 1] = candidates[j];
+
+			candidates[j + 1] = id;
+		}
+	}
+
+	/**
+	 * @return The index of the first candidate whose lower x coordinate is not less than the given one.
+	 */
+	private int findFirstCandidate(float minX){
+		int low  = 0;
+		int high = candidateCount;
+		int middle;
+
+		while(low < high){
+			middle = (low + high) >>> 1;
+			if(models[candidates[middle]].bounds.getWorldBounds().min.x < minX)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		return low;
+	}
 }
@@ -15,89 +15,202 @@
  */
 package ve.ucv.ciens.ccg.nxtar.systems;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import ve.ucv.ciens.ccg.nxtar.components.CollisionModelComponent;
 import ve.ucv.ciens.ccg.nxtar.components.GeometryComponent;
 import ve.ucv.ciens.ccg.nxtar.components.RenderModelComponent;
+import ve.ucv.ciens.ccg.nxtar.components.VisibilityComponent;
 
 import com.artemis.Aspect;
 import com.artemis.ComponentMapper;
 import com.artemis.Entity;
 import com.artemis.annotations.Mapper;
-import com.artemis.systems.EntityProcessingSystem;
+import com.artemis.utils.ImmutableBag;
 import com.badlogic.gdx.graphics.g3d.ModelInstance;
 import com.badlogic.gdx.math.Matrix4;
 
-public class GeometrySystem extends EntityProcessingSystem {
+/**
+ * <p>Sets the world transform of the render and collision models of every entity from it's
+ * {@link GeometryComponent}.</p>
+ * <p>The transforms are only recomputed when the version of the geometry changed since the last
+ * time they were set. Entities that are not visible are also skipped until they become visible
+ * again. The transforms of the nodes of the models are not recomputed here, as they only depend
+ * on the animations, which recompute them themselves.</p>
+ * <p>Every entity only touches it's own models, so large numbers of entities are processed in
+ * parallel.</p>
+ */
+public class GeometrySystem extends ParallelEntityProcessingSystem {
+	private static final int INITIAL_CAPACITY = 64;
+
 	@Mapper ComponentMapper<GeometryComponent>       geometryMapper;
 	@Mapper ComponentMapper<RenderModelComponent>    renderModelMapper;
 	@Mapper ComponentMapper<CollisionModelComponent> colModelMapper;
+	@Mapper ComponentMapper<VisibilityComponent>     visibilityMapper;
 
 	/**
-	 * <p>A matrix representing 3D translations.</p>
+	 * <p>Version of the geometry last applied to each entity, indexed by entity id.</p>
 	 */
-	private Matrix4 translationMatrix;
+	private int[] appliedVersions;
 
 	/**
-	 * <p>A matrix representing 3D rotations.</p>
+	 * <p>Whether the geometry was ever applied to each entity, indexed by entity id.</p>
 	 */
-	private Matrix4 rotationMatrix;
+	private boolean[] applied;
 
-	/**
-	 * <p>A matrix representing 3D scalings.</p>
-	 */
-	private Matrix4 scalingMatrix;
+	private int           recomputedTransforms;
+	private int           skippedTransforms;
+	private AtomicInteger currentRecomputed;
+	private AtomicInteger currentSkipped;
 
 	@SuppressWarnings("unchecked")
 	public GeometrySystem(){
 		super(Aspect.getAspectForAll(GeometryComponent.class).one(RenderModelComponent.class, CollisionModelComponent.class));
 
-		translationMatrix = new Matrix4().setToTranslation(0.0f, 0.0f, 0.0f);
-		rotationMatrix    = new Matrix4().idt();
-		scalingMatrix     = new Matrix4().setToScaling(0.0f, 0.0f, 0.0f);
+		appliedVersions      = new int[INITIAL_CAPACITY];
+		applied              = new boolean[INITIAL_CAPACITY];
+		recomputedTransforms = 0;
+		skippedTransforms    = 0;
+		currentRecomputed    = new AtomicInteger(0);
+		currentSkipped       = new AtomicInteger(0);
+	}
+
+	@Override
+	protected void inserted(Entity e){
+		ensureCapacity(e.getId());
+		applied[e.getId()] = false;
+	}
+
+	@Override
+	protected void begin(){
+		currentRecomputed.set(0);
+		currentSkipped.set(0);
+	}
+
+	@Override
+	protected void process(Entity e){
+		if(applyGeometry(e))
+			currentRecomputed.incrementAndGet();
+		else
+			currentSkipped.incrementAndGet();
+	}
+
+	@Override
+	protected void processRange(ImmutableBag<Entity> entities, int from, int to){
+		int recomputed = 0;
+
+		// Count locally to avoid contending on the counters for every entity.
+		for(int i = from; i < to; i++){
+			if(applyGeometry(entities.get(i)))
+				recomputed++;
+		}
+
+		currentRecomputed.addAndGet(recomputed);
+		currentSkipped.addAndGet((to - from) - recomputed);
 	}
 
 	@Override
-	protected void process(Entity e) {
+	protected void end(){
+		recomputedTransforms = currentRecomputed.get();
+		skippedTransforms    = currentSkipped.get();
+	}
+
+	/**
+	 * <p>Number of entities whose transforms were recomputed the last time this system was processed.</p>
+	 */
+	public int getRecomputedTransforms(){
+		return recomputedTransforms;
+	}
+
+	/**
+	 * <p>Number of entities skipped the last time this system was processed.</p>
+	 */
+	public int getSkippedTransforms(){
+		return skippedTransforms;
+	}
+
+	/**
+	 * <p>Sets the world transforms of the models of an entity if needed.</p>
+	 *
+	 * @return True if the transforms were recomputed, false if the entity was skipped.
+	 */
+	private boolean applyGeometry(Entity e){
 		GeometryComponent       geometry;
 		RenderModelComponent    renderModel;
 		CollisionModelComponent colModel;
+		VisibilityComponent     visibility;
+		int                     id;
+
+		geometry   = geometryMapper.get(e);
+		visibility = visibilityMapper.getSafe(e);
+		id         = e.getId();
+
+		// Skip the entity if it's geometry did not change or if it cannot be seen.
+		if((applied[id] && appliedVersions[id] == geometry.getVersion()) || (visibility != null && !visibility.visible)){
+			return false;
+		}
 
-		geometry    = geometryMapper.get(e);
 		renderModel = renderModelMapper.getSafe(e);
 		colModel    = colModelMapper.getSafe(e);
 
 		if(renderModel != null)
 			applyWorldTransform(renderModel.instance, geometry);
-		if(colModel != null)
+		if(colModel != null){
 			applyWorldTransform(colModel.instance, geometry);
+			colModel.bounds.update();
+		}
+
+		applied[id]         = true;
+		appliedVersions[id] = geometry.getVersion();
+
+		return true;
 	}
 
+	/**
+	 * <p>Sets the transform of the model to the translation times the rotation times the scaling
+	 * of the geometry, computing the product directly.</p>
+	 */
 	private void applyWorldTransform(ModelInstance model, GeometryComponent geometry){
-		translationMatrix.setToTranslation(geometry.position);
-
-		rotationMatrix.val[Matrix4.M00] = geometry.rotation.val[0];
-		rotationMatrix.val[Matrix4.M10] = geometry.rotation.val[1];
-		rotationMatrix.val[Matrix4.M20] = geometry.rotation.val[2];
-		rotationMatrix.val[Matrix4.M30] = 0;
+		float[] transform = model.transform.val;
+		float[] rotation  = geometry.rotation.val;
+
+		transform[Matrix4.M00] = rotation[0] * geometry.scaling.x;
+		transform[Matrix4.M10] = rotation[1] * geometry.scaling.x;
+		transform[Matrix4.M20] = rotation[2] * geometry.scaling.x;
+		transform[Matrix4.M30] = 0;
+
+		transform[Matrix4.M01] = rotation[3] * geometry.scaling.y;
+		transform[Matrix4.M11] = rotation[4] * geometry.scaling.y;
+		transform[Matrix4.M21] = rotation[5] * geometry.scaling.y;
+		transform[Matrix4.M31] = 0;
+
+		transform[Matrix4.M02] = rotation[6] * geometry.scaling.z;
+		transform[Matrix4.M12] = rotation[7] * geometry.scaling.z;
+		transform[Matrix4.M22] = rotation[8] * geometry.scaling.z;
+		transform[Matrix4.M32] = 0;
+
+		transform[Matrix4.M03] = geometry.position.x;
+		transform[Matrix4.M13] = geometry.position.y;
+		transform[Matrix4.M23] = geometry.position.z;
+		transform[Matrix4.M33] = 1;
+	}
 
-		rotationMatrix.val[Matrix4.M01] = geometry.rotation.val[3];
-		rotationMatrix.val[Matrix4.M11] = geometry.rotation.val[4];
-		rotationMatrix.val[Matrix4.M21] = geometry.rotation.val[5];
-		rotationMatrix.val[Matrix4.M31] = 0;
+	private void ensureCapacity(int id){
+		int       capacity;
+		int[]     newAppliedVersions;
+		boolean[] newApplied;
 
-		rotationMatrix.val[Matrix4.M02] = geometry.rotation.val[6];
-		rotationMatrix.val[Matrix4.M12] = geometry.rotation.val[7];
-		rotationMatrix.val[Matrix4.M22] = geometry.rotation.val[8];
-		rotationMatrix.val[Matrix4.M32] = 0;
+		if(id < applied.length)
+			return;
 
-		rotationMatrix.val[Matrix4.M03] = 0;
-		rotationMatrix.val[Matrix4.M13] = 0;
-		rotationMatrix.val[Matrix4.M23] = 0;
-		rotationMatrix.val[Matrix4.M33] = 1;
+		capacity           = Math.max(applied.length * 2, id + 1);
+		newAppliedVersions = new int[capacity];
+		newApplied         = new boolean[capacity];
 
-		scalingMatrix.setToScaling(geometry.scaling);
+		System.arraycopy(appliedVersions, 0, newAppliedVersions, 0, appliedVersions.length);
+		System.arraycopy(applied, 0, newApplied, 0, applied.length);
 
-		model.transform.idt().mul(translationMatrix).mul(rotationMatrix).mul(scalingMatrix);
-		model.calculateTransforms();
+		appliedVersions = newAppliedVersions;
+		applied         = newApplied;
 	}
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.systems;
+
+import com.artemis.Entity;
+import com.artemis.Manager;
+import com.artemis.utils.Bag;
+import com.artemis.utils.ImmutableBag;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.IntMap;
+
+/**
+ * <p>Artemis manager that groups entities under integer keys, like marker codes.</p>
+ * <p>Works like the {@link com.artemis.managers.GroupManager} but without building a string for
+ * every lookup. Entities are removed from all of their groups when deleted from the world.</p>
+ */
+public class IntGroupManager extends Manager{
+	private final IntMap<Bag<Entity>> entitiesByGroup;
+
+	/**
+	 * <p>The groups of each entity, indexed by entity id.</p>
+	 */
+	private final Bag<IntArray>       groupsByEntity;
+	private final Bag<Entity>         emptyBag;
+
+	public IntGroupManager(){
+		entitiesByGroup = new IntMap<Bag<Entity>>();
+		groupsByEntity  = new Bag<IntArray>();
+		emptyBag        = new Bag<Entity>(0);
+	}
+
+	@Override
+	protected void initialize(){ }
+
+	/**
+	 * <p>Adds an entity to a group. Does nothing if the entity is already in the group.</p>
+	 */
+	public void add(Entity e, int group){
+		Bag<Entity> entities = entitiesByGroup.get(group);
+		IntArray    groups   = getGroups(e);
+
+		if(groups == null){
+			groups = new IntArray(false, 4);
+			groupsByEntity.set(e.getId(), groups);
+		}
+
+		if(groups.contains(group))
+			return;
+
+		if(entities == null){
+			entities = new Bag<Entity>();
+			entitiesByGroup.put(group, entities);
+		}
+
+		entities.add(e);
+		groups.add(group);
+	}
+
+	/**
+	 * <p>Removes an entity from a group. Does nothing if the entity is not in the group.</p>
+	 */
+	public void remove(Entity e, int group){
+		Bag<Entity> entities = entitiesByGroup.get(group);
+		IntArray    groups   = getGroups(e);
+
+		if(groups == null || !groups.removeValue(group))
+			return;
+
+		entities.remove(e);
+	}
+
+	/**
+	 * <p>Removes an entity from all of it's groups.</p>
+	 */
+	public void removeFromAllGroups(Entity e){
+		IntArray groups = getGroups(e);
+
+		if(groups == null)
+			return;
+
+		for(int i = 0; i < groups.size; i++)
+			entitiesByGroup.get(groups.get(i)).remove(e);
+
+		groups.clear();
+	}
+
+	/**
+	 * <p>Gets the entities of a group. Removing entities from the group changes the returned bag.</p>
+	 *
+	 * @return The entities of the group. Empty if the group has no entities.
+	 */
+	public ImmutableBag<Entity> getEntities(int group){
+		Bag<Entity> entities = entitiesByGroup.get(group);
+
+		return entities != null ? entities : emptyBag;
+	}
+
+	public boolean isInGroup(Entity e, int group){
+		IntArray groups = getGroups(e);
+
+		return groups != null && groups.contains(group);
+	}
+
+	@Override
+	public void deleted(Entity e){
+		removeFromAllGroups(e);
+	}
+
+	private IntArray getGroups(Entity e){
+		return groupsByEntity.isIndexWithinBounds(e.getId()) ? groupsByEntity.get(e.getId()) : null;
+	}
+}
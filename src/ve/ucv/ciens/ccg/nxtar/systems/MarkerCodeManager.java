@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.systems;
+
+import ve.ucv.ciens.ccg.nxtar.components.MarkerCodeComponent;
+
+import com.artemis.ComponentMapper;
+import com.artemis.Entity;
+import com.artemis.Manager;
+import com.artemis.utils.Bag;
+import com.artemis.utils.ImmutableBag;
+
+/**
+ * <p>Artemis manager that indexes the entities of the world by their marker code.</p>
+ * <p>The index is updated when entities are added to, changed in or deleted from the world, so the
+ * code of a {@link MarkerCodeComponent} must not be changed while it's entity is in the world.</p>
+ */
+public class MarkerCodeManager extends Manager{
+	public static final int NUM_MARKER_CODES = 1024;
+
+	private ComponentMapper<MarkerCodeComponent> markerMapper;
+
+	/**
+	 * <p>The entities of each marker code, indexed by code.</p>
+	 */
+	private final Bag<Entity>[]                  entitiesByCode;
+
+	/**
+	 * <p>The code each entity was indexed with, indexed by entity id. -1 if the entity is not indexed.</p>
+	 */
+	private int[]                                indexedCodes;
+	private final Bag<Entity>                    emptyBag;
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public MarkerCodeManager(){
+		entitiesByCode = new Bag[NUM_MARKER_CODES];
+		indexedCodes   = new int[64];
+		emptyBag       = new Bag<Entity>(0);
+
+		for(int i = 0; i < NUM_MARKER_CODES; i++)
+			entitiesByCode[i] = new Bag<Entity>(4);
+
+		for(int i = 0; i < indexedCodes.length; i++)
+			indexedCodes[i] = -1;
+	}
+
+	@Override
+	protected void initialize(){
+		markerMapper = ComponentMapper.getFor(MarkerCodeComponent.class, world);
+	}
+
+	/**
+	 * <p>Gets the entities with the given marker code.</p>
+	 *
+	 * @param code A marker code.
+	 * @return The entities with that code. Empty if the code is not in the range [0, 1023].
+	 */
+	public ImmutableBag<Entity> getEntities(int code){
+		if(code < 0 || code >= NUM_MARKER_CODES)
+			return emptyBag;
+
+		return entitiesByCode[code];
+	}
+
+	@Override
+	public void added(Entity e){
+		index(e);
+	}
+
+	@Override
+	public void changed(Entity e){
+		unindex(e);
+		index(e);
+	}
+
+	@Override
+	public void deleted(Entity e){
+		unindex(e);
+	}
+
+	@Override
+	public void enabled(Entity e){
+		index(e);
+	}
+
+	@Override
+	public void disabled(Entity e){
+		unindex(e);
+	}
+
+	private void index(Entity e){
+		MarkerCodeComponent marker = markerMapper.getSafe(e);
+		int                 id     = e.getId();
+
+		if(marker == null || marker.code < 0 || marker.code >= NUM_MARKER_CODES)
+			return;
+
+		ensureCapacity(id);
+		if(indexedCodes[id] != -1)
+			return;
+
+		entitiesByCode[marker.code].add(e);
+		indexedCodes[id] = marker.code;
+	}
+
+	private void unindex(Entity e){
+		int id = e.getId();
+
+		if(id >= indexedCodes.length || indexedCodes[id] == -1)
+			return;
+
+		entitiesByCode[indexedCodes[id]].remove(e);
+		indexedCodes[id] = -1;
+	}
+
+	private void ensureCapacity(int id){
+		int[] newIndexedCodes;
+
+		if(id < indexedCodes.length)
+			return;
+
+		newIndexedCodes = new int[Math.max(indexedCodes.length * 2, id + 1)];
+		System.arraycopy(indexedCodes, 0, newIndexedCodes, 0, indexedCodes.length);
+
+		for(int i = indexedCodes.length; i < newIndexedCodes.length; i++)
+			newIndexedCodes[i] = -1;
+
+		indexedCodes = newIndexedCodes;
+	}
+}
@@ -20,54 +20,129 @@ import ve.ucv.ciens.ccg.nxtar.components.MarkerCodeComponent;
 import ve.ucv.ciens.ccg.nxtar.components.VisibilityComponent;
 import ve.ucv.ciens.ccg.nxtar.interfaces.ImageProcessor.MarkerData;
 import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
+import ve.ucv.ciens.ccg.nxtar.vision.MarkerPoseFilter;
 
 import com.artemis.Aspect;
 import com.artemis.ComponentMapper;
 import com.artemis.Entity;
+import com.artemis.EntitySystem;
 import com.artemis.annotations.Mapper;
-import com.artemis.systems.EntityProcessingSystem;
+import com.artemis.utils.ImmutableBag;
+import com.badlogic.gdx.math.Matrix3;
+import com.badlogic.gdx.math.Vector3;
 
-public class MarkerPositioningSystem extends EntityProcessingSystem {
-	@Mapper ComponentMapper<MarkerCodeComponent> markerMapper;
+/**
+ * <p>Places the entities with a marker code on their detected markers.</p>
+ * <p>Every entity is hidden first, and then each detected marker shows and places only the
+ * entities with it's code, found through the {@link MarkerCodeManager} of the world. If a code is
+ * detected more than once the first marker found is used.</p>
+ * <p>If marker pose filtering is enabled and the time of the detection is known, the poses go
+ * through a {@link MarkerPoseFilter} that smooths them and predicts them at the time of the
+ * current frame, so the entities keep moving smoothly while the same detection is reused.</p>
+ */
+public class MarkerPositioningSystem extends EntitySystem {
 	@Mapper ComponentMapper<GeometryComponent>   geometryMapper;
 	@Mapper ComponentMapper<VisibilityComponent> visibilityMapper;
 
-	private MarkerData markers;
+	private MarkerCodeManager markerCodeManager;
+	private MarkerData        markers;
+	private MarkerPoseFilter  poseFilter;
+	private long              measurementTime;
+	private long              predictionTime;
+	private long              lastMeasurementTime;
+	private Vector3           position;
+	private Matrix3           rotation;
 
 	@SuppressWarnings("unchecked")
 	public MarkerPositioningSystem(){
 		super(Aspect.getAspectForAll(MarkerCodeComponent.class, GeometryComponent.class, VisibilityComponent.class));
 
-		markers = null;
+		markers             = null;
+		poseFilter          = ProjectConstants.MARKER_POSE_FILTERING ? new MarkerPoseFilter(ProjectConstants.MAX_POSE_PREDICTION * 1000000L) : null;
+		measurementTime     = 0L;
+		predictionTime      = 0L;
+		lastMeasurementTime = 0L;
+		position            = new Vector3();
+		rotation            = new Matrix3();
+	}
+
+	@Override
+	protected void initialize() throws IllegalStateException{
+		markerCodeManager = world.getManager(MarkerCodeManager.class);
+
+		if(markerCodeManager == null)
+			throw new IllegalStateException("The world has no MarkerCodeManager.");
 	}
 
+	/**
+	 * <p>Sets the markers to use, placing the entities at the raw detected poses.</p>
+	 */
 	public void setMarkerData(MarkerData markers){
-		this.markers = markers;
+		setMarkerData(markers, 0L, 0L);
+	}
+
+	/**
+	 * <p>Sets the markers to use, filtering their poses if marker pose filtering is enabled.</p>
+	 *
+	 * @param markers The detected markers.
+	 * @param measurementTime When the video frame the markers were detected in was received, as given by {@link System#nanoTime()}. Zero if unknown.
+	 * @param predictionTime The time to predict the poses at, as given by {@link System#nanoTime()}.
+	 */
+	public void setMarkerData(MarkerData markers, long measurementTime, long predictionTime){
+		this.markers         = markers;
+		this.measurementTime = measurementTime;
+		this.predictionTime  = predictionTime;
 	}
 
 	@Override
-	protected void process(Entity e) {
-		MarkerCodeComponent marker;
-		GeometryComponent   geometry;
-		VisibilityComponent visibility;
+	protected boolean checkProcessing(){
+		return markers != null;
+	}
 
-		if(markers == null)
-			return;
+	@Override
+	protected void processEntities(ImmutableBag<Entity> entities){
+		ImmutableBag<Entity> related;
+		Entity               entity;
+		GeometryComponent    geometry;
+		VisibilityComponent  visibility;
+		boolean              filter;
+		boolean              newMeasurement;
+
+		// Hide everything.
+		for(int i = 0; i < entities.size(); i++)
+			visibilityMapper.get(entities.get(i)).visible = false;
 
-		marker     = markerMapper.get(e);
-		geometry   = geometryMapper.get(e);
-		visibility = visibilityMapper.get(e);
+		filter         = poseFilter != null && measurementTime != 0L;
+		newMeasurement = filter && measurementTime != lastMeasurementTime;
+		if(newMeasurement)
+			lastMeasurementTime = measurementTime;
 
+		// Show and place the entities of every detected marker.
 		for(int i = 0; i < ProjectConstants.MAXIMUM_NUMBER_OF_MARKERS; i++){
-			if(markers.markerCodes[i] != 1){
-				if(markers.markerCodes[i] == marker.code){
-					geometry.position.set(markers.translationVectors[i]);
-					geometry.rotation.set(markers.rotationMatrices[i]);
-					visibility.visible = true;
-					break;
-				}else{
-					visibility.visible = false;
-				}
+			related = markerCodeManager.getEntities(markers.markerCodes[i]);
+			if(related.isEmpty())
+				continue;
+
+			// Find the pose of this marker.
+			if(filter){
+				if(newMeasurement)
+					poseFilter.update(markers.markerCodes[i], measurementTime, markers.translationVectors[i], markers.rotationMatrices[i]);
+				poseFilter.predict(markers.markerCodes[i], predictionTime, position, rotation);
+			}else{
+				position.set(markers.translationVectors[i]);
+				rotation.set(markers.rotationMatrices[i]);
+			}
+
+			for(int j = 0; j < related.size(); j++){
+				entity     = related.get(j);
+				geometry   = geometryMapper.getSafe(entity);
+				visibility = visibilityMapper.getSafe(entity);
+
+				if(geometry == null || visibility == null || visibility.visible)
+					continue;
+
+				geometry.setPose(position, rotation);
+				visibility.visible = true;
 			}
 		}
 	}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.systems;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
+
+import com.artemis.Aspect;
+import com.artemis.Entity;
+import com.artemis.EntitySystem;
+import com.artemis.utils.ImmutableBag;
+
+/**
+ * <p>An entity processing system that splits the active entities in contiguous ranges and
+ * processes the ranges in parallel when there are enough entities.</p>
+ * <p>The ranges are run by a pool of worker threads shared by every parallel system, and the
+ * calling thread processes the first range itself. The call returns when every range is done. If
+ * there are fewer entities than twice the threshold, if the device has a single core or if parallel
+ * processing is disabled, the entities are processed serially in order, just like an Artemis
+ * {@link com.artemis.systems.EntityProcessingSystem} would.</p>
+ * <p>Entities may be processed concurrently, so {@link #process(Entity)} must only modify the
+ * state of the entity it receives, and must not add or remove entities or components.</p>
+ */
+public abstract class ParallelEntityProcessingSystem extends EntitySystem {
+	private final int     threshold;
+	private boolean       parallel;
+
+	/**
+	 * <p>Creates a system that processes at least {@link ProjectConstants#PARALLEL_THRESHOLD}
+	 * entities per thread.</p>
+	 */
+	public ParallelEntityProcessingSystem(Aspect aspect){
+		this(aspect, ProjectConstants.PARALLEL_THRESHOLD);
+	}
+
+	/**
+	 * @param aspect The aspect of the entities to process.
+	 * @param threshold The minimum number of entities processed by each thread.
+	 * @throws IllegalArgumentException If the threshold is less than 1.
+	 */
+	public ParallelEntityProcessingSystem(Aspect aspect, int threshold) throws IllegalArgumentException{
+		super(aspect);
+
+		if(threshold < 1)
+			throw new IllegalArgumentException("Threshold must be at least 1.");
+
+		this.threshold = threshold;
+		this.parallel  = true;
+	}
+
+	/**
+	 * <p>Processes an entity. May be called concurrently for different entities.</p>
+	 */
+	protected abstract void process(Entity e);
+
+	/**
+	 * <p>Processes the entities in the range [from, to) of the bag in order. Subclasses can
+	 * override this to gather per range results without synchronizing on every entity.</p>
+	 */
+	protected void processRange(ImmutableBag<Entity> entities, int from, int to){
+		for(int i = from; i < to; i++)
+			process(entities.get(i));
+	}
+
+	public boolean isParallelProcessingEnabled(){
+		return parallel;
+	}
+
+	/**
+	 * <p>Enables or disables parallel processing. When disabled the entities are always processed
+	 * serially in order.</p>
+	 */
+	public void setParallelProcessingEnabled(boolean parallel){
+		this.parallel = parallel;
+	}
+
+	@Override
+	protected boolean checkProcessing(){
+		return true;
+	}
+
+	@Override
+	protected final void processEntities(ImmutableBag<Entity> entities){
+		final ImmutableBag<Entity>              bag;
+		final CountDownLatch                    latch;
+		final AtomicReference<RuntimeException> failure;
+		int                                     size;
+		int                                     ranges;
+		int                                     from;
+		int                                     to;
+
+		size   = entities.size();
+		ranges = parallel ? Math.min(WorkerPool.SIZE + 1, size / threshold) : 1;
+
+		if(ranges < 2){
+			processRange(entities, 0, size);
+			return;
+		}
+
+		bag     = entities;
+		latch   = new CountDownLatch(ranges - 1);
+		failure = new AtomicReference<RuntimeException>(null);
+
+		// Hand every range but the first to the workers.
+		for(int r = 1; r < ranges; r++){
+			from = (int)(((long)size * r) / ranges);
+			to   = (int)(((long)size * (r + 1)) / ranges);
+			WorkerPool.EXECUTOR.execute(new RangeTask(bag, from, to, latch, failure));
+		}
+
+		processRange(entities, 0, size / ranges);
+
+		// Wait for the workers.
+		try{
+			latch.await();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the entities to be processed.");
+		}
+
+		if(failure.get() != null)
+			throw failure.get();
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;;
+	  ; PARALLEL HELPERS ;
+	  ;;;;;;;;;;;;;;;;;;;;*/
+
+	private final class RangeTask implements Runnable{
+		private final ImmutableBag<Entity>              entities;
+		private final int                               from;
+		private final int                               to;
+		private final CountDownLatch                    latch;
+		private final AtomicReference<RuntimeException> failure;
+
+		public RangeTask(ImmutableBag<Entity> entities, int from, int to, CountDownLatch latch, AtomicReference<RuntimeException> failure){
+			this.entities = entities;
+			this.from     = from;
+			this.to       = to;
+			this.latch    = latch;
+			this.failure  = failure;
+		}
+
+		@Override
+		public void run(){
+			try{
+				processRange(entities, from, to);
+			}catch(RuntimeException e){
+				failure.compareAndSet(null, e);
+			}finally{
+				latch.countDown();
+			}
+		}
+	}
+
+	/**
+	 * <p>Worker threads shared by every parallel system. Created the first time they are needed.</p>
+	 */
+	private static final class WorkerPool{
+		public static final int             SIZE     = Math.max(0, Runtime.getRuntime().availableProcessors() - 1);
+		public static final ExecutorService EXECUTOR = SIZE > 0 ? Executors.newFixedThreadPool(SIZE, new WorkerThreadFactory()) : null;
+	}
+
+	private static final class WorkerThreadFactory implements ThreadFactory{
+		private final AtomicInteger count = new AtomicInteger(0);
+
+		@Override
+		public Thread newThread(Runnable r){
+			Thread thread = new Thread(r, "EntityProcessingWorker-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -90,6 +90,7 @@ public class RobotArmPositioningSystem extends EntityProcessingSystem {
 					if(!tempGP.oButton){
 						geometry.position.x += -tempGP.axisLeftY * STEP_SIZE;
 						geometry.position.y += tempGP.axisLeftX * STEP_SIZE;
+						geometry.markChanged();
 						if(Math.abs(tempGP.axisLeftX) < Ouya.STICK_DEADZONE && Math.abs(tempGP.axisLeftY) < Ouya.STICK_DEADZONE)
 							input = null;
 						else
@@ -116,6 +117,7 @@ public class RobotArmPositioningSystem extends EntityProcessingSystem {
 						geometry.position.x -= tempKey.keyDown ? STEP_SIZE : 0.0f;
 						geometry.position.y -= tempKey.keyLeft ? STEP_SIZE : 0.0f;
 						geometry.position.y += tempKey.keyRight ? STEP_SIZE : 0.0f;
+						geometry.markChanged();
 						if(!tempKey.keyUp && !tempKey.keyUp && !tempKey.keyUp && !tempKey.keyUp)
 							input = null;
 						else
@@ -156,6 +158,7 @@ public class RobotArmPositioningSystem extends EntityProcessingSystem {
 			geometry.position.x = (auto.startPoint.x * (1.0f - auto.distance)) + (auto.endPoint.x * auto.distance);
 			geometry.position.y = (auto.startPoint.y * (1.0f - auto.distance)) + (auto.endPoint.y * auto.distance);
 			geometry.position.z = (auto.startPoint.z * (1.0f - auto.distance)) + (auto.endPoint.z * auto.distance);
+			geometry.markChanged();
 
 			Gdx.app.log(TAG, CLASS_NAME + ".autoMove(): Current position: " + Utils.vector2String(geometry.position));
 
@@ -24,6 +24,8 @@ public abstract class ProjectConstants{
 	public static final int     SENSOR_REPORT_PORT         = 9991;
 	public static final int     APP_CONTROL_PORT           = 9992;
 	public static final String  MULTICAST_ADDRESS          = "230.0.0.1";
+	public static final int     MOTOR_COMMAND_WINDOW       = 8;
+	public static final int     PROTOCOL_DETECTION_TIMEOUT = 500;
 
 	public static final int     EXIT_SUCCESS               = 0;
 	public static final int     EXIT_FAILURE               = 1;
@@ -41,6 +43,36 @@ public abstract class ProjectConstants{
 	public static final int     CALIBRATION_PATTERN_POINTS = 54;
 	public static final int     CALIBRATION_SAMPLES        = 10;
 
+	public static final int     DROP_POLICY_LATEST_FRAME   = 0;
+	public static final int     DROP_POLICY_MAX_FRAME_AGE  = 1;
+	public static final int     DROP_POLICY_THROTTLE       = 2;
+
+	public static final boolean ASYNC_MARKER_DETECTION     = true;
+	public static final int     DETECTION_DROP_POLICY      = DROP_POLICY_LATEST_FRAME;
+	public static final long    MAX_DETECTION_FRAME_AGE    = 100;
+	public static final int     MAX_DETECTION_RATE         = 30;
+
+	public static final boolean MOTOR_EVENT_COALESCING     = true;
+	public static final int     MOTOR_EVENT_QUEUE_CAPACITY = 64;
+
+	public static final int     SENSOR_HISTORY_CAPACITY    = 256;
+
+	public static final int     MAX_ROBOT_SESSIONS         = 8;
+	public static final int     EXPECTED_ROBOTS            = 1;
+
+	public static final boolean RECORD_SESSIONS            = false;
+	public static final String  SESSION_LOG_FILE           = "nxtar_session.log";
+
+	public static final boolean ADAPTIVE_VIDEO_QUALITY     = true;
+	public static final long    VIDEO_LATENCY_BUDGET       = 150;
+
+	public static final boolean FRAME_LATENCY_TRACING      = true;
+
+	public static final boolean MARKER_POSE_FILTERING      = true;
+	public static final long    MAX_POSE_PREDICTION        = 100;
+
+	public static final int     PARALLEL_THRESHOLD         = 1024;
+
 	static{
 		OVERSCAN = Ouya.runningOnOuya ? 0.9f : 1.0f;
 		MENU_BUTTON_FONT_SIZE = Ouya.runningOnOuya ? 60 : 40;
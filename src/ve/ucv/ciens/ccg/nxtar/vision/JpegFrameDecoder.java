@@ -0,0 +1,724 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.vision;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ve.ucv.ciens.ccg.nxtar.interfaces.FrameDecoder;
+
+/**
+ * <p>Pure Java decoder for baseline JPEG frames, as produced by the camera of the NxtAR-cam
+ * application.</p>
+ * <p>Supports sequential Huffman coded images with 8 bit precision, one (grayscale) or three
+ * (YCbCr) components, any chroma subsampling and restart intervals. Progressive and arithmetic
+ * coded images are rejected. Every size, count and index read from the image is checked, so a
+ * corrupt frame ends in an {@link IllegalArgumentException}. Decoded frames are kept in a small
+ * pool of direct buffers so the decoder does not allocate memory once the pool is warm.</p>
+ * <p>Subsampled chroma is upsampled by repeating the nearest sample instead of interpolating, so
+ * colors differ slightly from libjpeg and <code>javax.imageio</code> along color edges. Grayscale
+ * images match them within one level.</p>
+ * <p>It does not depend on native code nor on an OpenGL context.</p>
+ */
+public class JpegFrameDecoder implements FrameDecoder{
+	private static final int   MAX_POOLED_FRAMES = 4;
+	private static final int   MAX_IMAGE_SIZE    = 4096;
+	private static final int[] ZIGZAG            = {
+		 0,  1,  8, 16,  9,  2,  3, 10,
+		17, 24, 32, 25, 18, 11,  4,  5,
+		12, 19, 26, 33, 40, 48, 41, 34,
+		27, 20, 13,  6,  7, 14, 21, 28,
+		35, 42, 49, 56, 57, 50, 43, 36,
+		29, 22, 15, 23, 30, 37, 44, 51,
+		58, 59, 52, 45, 38, 31, 39, 46,
+		53, 60, 61, 54, 47, 55, 62, 63
+	};
+
+	/**
+	 * <p>Inverse DCT basis. Element [x * 8 + u] holds C(u) * cos((2x + 1) * u * PI / 16) / 2.</p>
+	 */
+	private static final float[] IDCT_BASIS = new float[64];
+
+	static{
+		for(int x = 0; x < 8; x++){
+			for(int u = 0; u < 8; u++){
+				double c = (u == 0) ? 1.0 / Math.sqrt(2.0) : 1.0;
+				IDCT_BASIS[x * 8 + u] = (float)(c * Math.cos((2 * x + 1) * u * Math.PI / 16.0) / 2.0);
+			}
+		}
+	}
+
+	private static class HuffmanTable{
+		public boolean defined  = false;
+		public int[]   lookup   = new int[256];
+		public int[]   maxCode  = new int[18];
+		public int[]   valPtr   = new int[17];
+		public int[]   minCode  = new int[17];
+		public int[]   values   = new int[256];
+	}
+
+	private static class Component{
+		public int          id;
+		public int          h;
+		public int          v;
+		public int          quantTable;
+		public int          blocksPerLine;
+		public int          blocksPerColumn;
+		public int          planeWidth;
+		public byte[]       plane = new byte[0];
+		public int          dcPredictor;
+		public HuffmanTable dcTable;
+		public HuffmanTable acTable;
+	}
+
+	private final List<DecodedFrame> pool;
+	private final int[][]            quantTables;
+	private final HuffmanTable[]     dcTables;
+	private final HuffmanTable[]     acTables;
+	private final Component[]        components;
+	private final int[]              coefficients;
+	private final float[]            workspace;
+	private byte[]                   rowBuffer;
+
+	// Decoding state.
+	private byte[]  data;
+	private int     pos;
+	private int     end;
+	private int     bitBuffer;
+	private int     bitCount;
+	private boolean markerReached;
+	private int     width;
+	private int     height;
+	private int     numComponents;
+	private int     maxH;
+	private int     maxV;
+	private int     mcusPerLine;
+	private int     mcusPerColumn;
+	private int     restartInterval;
+	private boolean frameRead;
+	private int     scansRead;
+
+	public JpegFrameDecoder(){
+		pool         = new ArrayList<DecodedFrame>(MAX_POOLED_FRAMES);
+		quantTables  = new int[4][64];
+		dcTables     = new HuffmanTable[4];
+		acTables     = new HuffmanTable[4];
+		components   = new Component[3];
+		coefficients = new int[64];
+		workspace    = new float[64];
+		rowBuffer    = new byte[0];
+
+		for(int i = 0; i < 4; i++){
+			dcTables[i] = new HuffmanTable();
+			acTables[i] = new HuffmanTable();
+		}
+
+		for(int i = 0; i < components.length; i++)
+			components[i] = new Component();
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+	  ; FRAME DECODER INTERFACE METHODS ;
+	  ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;*/
+
+	@Override
+	public synchronized DecodedFrame decode(byte[] data, int offset, int length) throws IllegalArgumentException{
+		DecodedFrame frame;
+		boolean      done = false;
+
+		if(data == null || offset < 0 || length < 4 || offset + length > data.length)
+			throw new IllegalArgumentException("Invalid frame buffer.");
+
+		this.data       = data;
+		pos             = offset;
+		end             = offset + length;
+		restartInterval = 0;
+		frameRead       = false;
+		scansRead       = 0;
+
+		for(int i = 0; i < 4; i++){
+			dcTables[i].defined = false;
+			acTables[i].defined = false;
+		}
+
+		try{
+			if(readUnsignedShort() != 0xFFD8)
+				throw new IllegalArgumentException("Not a JPEG image.");
+
+			while(!done){
+				int marker = nextMarker();
+
+				switch(marker){
+				case 0xC0:
+				case 0xC1:
+					readFrameHeader();
+					break;
+				case 0xC4:
+					readHuffmanTables();
+					break;
+				case 0xDB:
+					readQuantizationTables();
+					break;
+				case 0xDD:
+					readUnsignedShort();
+					restartInterval = readUnsignedShort();
+					break;
+				case 0xDA:
+					readScan();
+					break;
+				case 0xD9:
+					done = true;
+					break;
+				default:
+					if(marker >= 0xC2 && marker <= 0xCF && marker != 0xC8 && marker != 0xCC)
+						throw new IllegalArgumentException("Only baseline JPEG images are supported.");
+					skipSegment();
+					break;
+				}
+			}
+
+			if(!frameRead || scansRead == 0)
+				throw new IllegalArgumentException("The JPEG image has no frame data.");
+
+			frame = acquireFrame(width * height * 3);
+			frame.width  = width;
+			frame.height = height;
+			writePixels(frame.pixels);
+
+		}finally{
+			this.data = null;
+		}
+
+		return frame;
+	}
+
+	@Override
+	public void release(DecodedFrame frame){
+		if(frame == null)
+			return;
+
+		synchronized(pool){
+			if(pool.size() < MAX_POOLED_FRAMES)
+				pool.add(frame);
+		}
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;
+	  ; MARKER SEGMENTS ;
+	  ;;;;;;;;;;;;;;;;;;;*/
+
+	private void readFrameHeader(){
+		int segmentEnd = readSegmentEnd();
+
+		if(readUnsignedByte() != 8)
+			throw new IllegalArgumentException("Only 8 bit JPEG images are supported.");
+
+		height        = readUnsignedShort();
+		width         = readUnsignedShort();
+		numComponents = readUnsignedByte();
+
+		if(width == 0 || height == 0 || width > MAX_IMAGE_SIZE || height > MAX_IMAGE_SIZE)
+			throw new IllegalArgumentException("Invalid JPEG image dimensions.");
+		if(numComponents != 1 && numComponents != 3)
+			throw new IllegalArgumentException("Only grayscale and YCbCr JPEG images are supported.");
+
+		maxH = 1;
+		maxV = 1;
+		for(int i = 0; i < numComponents; i++){
+			Component c  = components[i];
+			c.id         = readUnsignedByte();
+			int factors  = readUnsignedByte();
+			c.h          = factors >> 4;
+			c.v          = factors & 0x0F;
+			c.quantTable = readUnsignedByte() & 0x03;
+
+			if(c.h < 1 || c.h > 4 || c.v < 1 || c.v > 4)
+				throw new IllegalArgumentException("Invalid JPEG sampling factors.");
+
+			maxH = Math.max(maxH, c.h);
+			maxV = Math.max(maxV, c.v);
+		}
+
+		mcusPerLine   = (width + 8 * maxH - 1) / (8 * maxH);
+		mcusPerColumn = (height + 8 * maxV - 1) / (8 * maxV);
+
+		for(int i = 0; i < numComponents; i++){
+			Component c       = components[i];
+			int planeHeight   = mcusPerColumn * c.v * 8;
+			c.planeWidth      = mcusPerLine * c.h * 8;
+			c.blocksPerLine   = ((width * c.h + maxH - 1) / maxH + 7) / 8;
+			c.blocksPerColumn = ((height * c.v + maxV - 1) / maxV + 7) / 8;
+
+			if(c.plane.length < c.planeWidth * planeHeight)
+				c.plane = new byte[c.planeWidth * planeHeight];
+		}
+
+		pos = segmentEnd;
+		frameRead = true;
+	}
+
+	private void readQuantizationTables(){
+		int segmentEnd = readSegmentEnd();
+
+		while(pos < segmentEnd){
+			int info      = readUnsignedByte();
+			int precision = info >> 4;
+			int id        = info & 0x0F;
+
+			if(id > 3)
+				throw new IllegalArgumentException("Invalid JPEG quantization table.");
+
+			// Tables are stored in zig-zag order, keep them in natural order.
+			for(int i = 0; i < 64; i++)
+				quantTables[id][ZIGZAG[i]] = precision == 0 ? readUnsignedByte() : readUnsignedShort();
+		}
+
+		pos = segmentEnd;
+	}
+
+	private void readHuffmanTables(){
+		int   segmentEnd = readSegmentEnd();
+		int[] counts     = new int[16];
+
+		while(pos < segmentEnd){
+			int info  = readUnsignedByte();
+			int type  = info >> 4;
+			int id    = info & 0x0F;
+			int total = 0;
+
+			if(type > 1 || id > 3)
+				throw new IllegalArgumentException("Invalid JPEG Huffman table.");
+
+			for(int i = 0; i < 16; i++){
+				counts[i] = readUnsignedByte();
+				total += counts[i];
+			}
+
+			if(total > 256)
+				throw new IllegalArgumentException("Invalid JPEG Huffman table.");
+
+			HuffmanTable table = type == 0 ? dcTables[id] : acTables[id];
+			for(int i = 0; i < total; i++)
+				table.values[i] = readUnsignedByte();
+
+			buildHuffmanTable(table, counts);
+		}
+
+		pos = segmentEnd;
+	}
+
+	private void buildHuffmanTable(HuffmanTable table, int[] counts){
+		int code = 0;
+		int k    = 0;
+
+		// Canonical code ranges for each code length, as described in section F.2.2.3 of the standard.
+		for(int length = 1; length <= 16; length++){
+			table.valPtr[length]  = k;
+			table.minCode[length] = code;
+			code += counts[length - 1];
+			k    += counts[length - 1];
+
+			// More codes than fit in this length would overflow the lookup table.
+			if(code > (1 << length))
+				throw new IllegalArgumentException("Invalid JPEG Huffman table.");
+
+			table.maxCode[length] = counts[length - 1] > 0 ? code - 1 : -1;
+			code <<= 1;
+		}
+		table.maxCode[17] = Integer.MAX_VALUE;
+
+		// Lookup table for the codes of up to 8 bits.
+		Arrays.fill(table.lookup, 0);
+		for(int length = 1; length <= 8; length++){
+			int shift = 8 - length;
+			for(int i = 0; i < counts[length - 1]; i++){
+				int first = (table.minCode[length] + i) << shift;
+				int entry = (length << 8) | table.values[table.valPtr[length] + i];
+				for(int j = 0; j < (1 << shift); j++)
+					table.lookup[first + j] = entry;
+			}
+		}
+
+		table.defined = true;
+	}
+
+	private void readScan(){
+		int         segmentEnd;
+		int         count;
+		Component[] scanComponents;
+
+		if(!frameRead)
+			throw new IllegalArgumentException("JPEG scan found before the frame header.");
+
+		segmentEnd     = readSegmentEnd();
+		scanComponents = new Component[readUnsignedByte()];
+
+		for(int i = 0; i < scanComponents.length; i++){
+			int id     = readUnsignedByte();
+			int tables = readUnsignedByte();
+
+			for(int j = 0; j < numComponents; j++){
+				if(components[j].id == id)
+					scanComponents[i] = components[j];
+			}
+
+			if(scanComponents[i] == null)
+				throw new IllegalArgumentException("Invalid JPEG scan component.");
+
+			scanComponents[i].dcTable = dcTables[(tables >> 4) & 0x03];
+			scanComponents[i].acTable = acTables[tables & 0x03];
+
+			if(!scanComponents[i].dcTable.defined || !scanComponents[i].acTable.defined)
+				throw new IllegalArgumentException("Undefined JPEG Huffman table.");
+		}
+
+		// Spectral selection and successive approximation are not used by baseline images.
+		pos = segmentEnd;
+
+		resetEntropyDecoder(scanComponents);
+		count = 0;
+
+		if(scanComponents.length == 1){
+			Component c = scanComponents[0];
+
+			for(int row = 0; row < c.blocksPerColumn; row++){
+				for(int col = 0; col < c.blocksPerLine; col++){
+					if(restartInterval > 0 && count > 0 && count % restartInterval == 0)
+						processRestart(scanComponents);
+					decodeBlock(c, row, col);
+					count++;
+				}
+			}
+
+		}else{
+			for(int mcuRow = 0; mcuRow < mcusPerColumn; mcuRow++){
+				for(int mcuCol = 0; mcuCol < mcusPerLine; mcuCol++){
+					if(restartInterval > 0 && count > 0 && count % restartInterval == 0)
+						processRestart(scanComponents);
+
+					for(Component c : scanComponents){
+						for(int v = 0; v < c.v; v++){
+							for(int h = 0; h < c.h; h++)
+								decodeBlock(c, mcuRow * c.v + v, mcuCol * c.h + h);
+						}
+					}
+					count++;
+				}
+			}
+		}
+
+		scansRead++;
+	}
+
+	private void skipSegment(){
+		pos = readSegmentEnd();
+	}
+
+	private int nextMarker(){
+		while(pos + 1 < end){
+			if((data[pos] & 0xFF) == 0xFF){
+				int marker = data[pos + 1] & 0xFF;
+				if(marker != 0x00 && marker != 0xFF && (marker < 0xD0 || marker > 0xD7)){
+					pos += 2;
+					return marker;
+				}
+			}
+			pos++;
+		}
+
+		// Treat a truncated image as if the end of image marker was found.
+		return 0xD9;
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;;
+	  ; ENTROPY DECODING ;
+	  ;;;;;;;;;;;;;;;;;;;;*/
+
+	private void resetEntropyDecoder(Component[] scanComponents){
+		bitBuffer     = 0;
+		bitCount      = 0;
+		markerReached = false;
+
+		for(Component c : scanComponents)
+			c.dcPredictor = 0;
+	}
+
+	private void processRestart(Component[] scanComponents){
+		// Skip to the restart marker, stopping at any other marker.
+		while(pos + 1 < end){
+			if((data[pos] & 0xFF) == 0xFF){
+				int marker = data[pos + 1] & 0xFF;
+				if(marker >= 0xD0 && marker <= 0xD7){
+					pos += 2;
+					break;
+				}else if(marker != 0x00 && marker != 0xFF){
+					break;
+				}
+			}
+			pos++;
+		}
+
+		resetEntropyDecoder(scanComponents);
+	}
+
+	private void fillBits(){
+		while(bitCount <= 24){
+			int b = 0;
+
+			if(!markerReached && pos < end){
+				b = data[pos] & 0xFF;
+				if(b == 0xFF){
+					int next = pos + 1 < end ? data[pos + 1] & 0xFF : 0xD9;
+					if(next == 0x00){
+						pos += 2;
+					}else{
+						// Pad with zeros until the marker is handled.
+						markerReached = true;
+						b = 0;
+					}
+				}else{
+					pos++;
+				}
+			}
+
+			bitBuffer = (bitBuffer << 8) | b;
+			bitCount += 8;
+		}
+	}
+
+	private int decodeHuffman(HuffmanTable table){
+		int entry;
+		int length;
+		int code;
+
+		fillBits();
+
+		entry = table.lookup[(bitBuffer >>> (bitCount - 8)) & 0xFF];
+		if(entry != 0){
+			bitCount -= entry >> 8;
+			return entry & 0xFF;
+		}
+
+		length = 9;
+		code = (bitBuffer >>> (bitCount - length)) & 0x1FF;
+		while(code > table.maxCode[length]){
+			length++;
+			if(length > 16)
+				throw new IllegalArgumentException("Corrupt JPEG data.");
+			code = (bitBuffer >>> (bitCount - length)) & ((1 << length) - 1);
+		}
+
+		bitCount -= length;
+		return table.values[table.valPtr[length] + code - table.minCode[length]];
+	}
+
+	private int receiveExtend(int size){
+		int value;
+
+		if(size == 0)
+			return 0;
+		if(size > 16)
+			throw new IllegalArgumentException("Corrupt JPEG data.");
+
+		fillBits();
+		value = (bitBuffer >>> (bitCount - size)) & ((1 << size) - 1);
+		bitCount -= size;
+
+		return value < (1 << (size - 1)) ? value - (1 << size) + 1 : value;
+	}
+
+	private void decodeBlock(Component c, int blockRow, int blockCol){
+		int[] quant = quantTables[c.quantTable];
+		int   k;
+
+		Arrays.fill(coefficients, 0);
+
+		c.dcPredictor += receiveExtend(decodeHuffman(c.dcTable));
+		coefficients[0] = c.dcPredictor * quant[0];
+
+		k = 1;
+		while(k < 64){
+			int rs  = decodeHuffman(c.acTable);
+			int run = rs >> 4;
+			int s   = rs & 0x0F;
+
+			if(s == 0){
+				if(run < 15)
+					break;
+				k += 16;
+				continue;
+			}
+
+			k += run;
+			if(k > 63)
+				break;
+
+			int z = ZIGZAG[k];
+			coefficients[z] = receiveExtend(s) * quant[z];
+			k++;
+		}
+
+		inverseDct(c.plane, (blockRow * 8) * c.planeWidth + blockCol * 8, c.planeWidth);
+	}
+
+	/*;;;;;;;;;;;;;;;;;;;;;;;;
+	  ; PIXEL RECONSTRUCTION ;
+	  ;;;;;;;;;;;;;;;;;;;;;;;;*/
+
+	private void inverseDct(byte[] out, int offset, int stride){
+		// Rows.
+		for(int y = 0; y < 8; y++){
+			int row = y * 8;
+
+			if(coefficients[row + 1] == 0 && coefficients[row + 2] == 0 && coefficients[row + 3] == 0 && coefficients[row + 4] == 0 &&
+			   coefficients[row + 5] == 0 && coefficients[row + 6] == 0 && coefficients[row + 7] == 0){
+				float dc = coefficients[row] * IDCT_BASIS[0];
+				for(int x = 0; x < 8; x++)
+					workspace[row + x] = dc;
+				continue;
+			}
+
+			for(int x = 0; x < 8; x++){
+				float sum = 0.0f;
+				for(int u = 0; u < 8; u++)
+					sum += IDCT_BASIS[x * 8 + u] * coefficients[row + u];
+				workspace[row + x] = sum;
+			}
+		}
+
+		// Columns.
+		for(int x = 0; x < 8; x++){
+			for(int y = 0; y < 8; y++){
+				float sum = 0.0f;
+				for(int v = 0; v < 8; v++)
+					sum += IDCT_BASIS[y * 8 + v] * workspace[v * 8 + x];
+
+				int value = (int)(sum + 128.5f);
+				out[offset + y * stride + x] = (byte)(value < 0 ? 0 : (value > 255 ? 255 : value));
+			}
+		}
+	}
+
+	private void writePixels(ByteBuffer pixels){
+		int rowLength = width * 3;
+
+		if(rowBuffer.length < rowLength)
+			rowBuffer = new byte[rowLength];
+
+		pixels.clear();
+
+		if(numComponents == 1){
+			Component g = components[0];
+
+			for(int y = 0; y < height; y++){
+				int base = y * g.planeWidth;
+				for(int x = 0, i = 0; x < width; x++, i += 3){
+					byte value = g.plane[base + x];
+					rowBuffer[i]     = value;
+					rowBuffer[i + 1] = value;
+					rowBuffer[i + 2] = value;
+				}
+				pixels.put(rowBuffer, 0, rowLength);
+			}
+
+		}else{
+			Component cy = components[0];
+			Component cb = components[1];
+			Component cr = components[2];
+
+			for(int y = 0; y < height; y++){
+				int yBase  = ((y * cy.v) / maxV) * cy.planeWidth;
+				int cbBase = ((y * cb.v) / maxV) * cb.planeWidth;
+				int crBase = ((y * cr.v) / maxV) * cr.planeWidth;
+
+				for(int x = 0, i = 0; x < width; x++, i += 3){
+					int luma   = cy.plane[yBase + (x * cy.h) / maxH] & 0xFF;
+					int blue   = (cb.plane[cbBase + (x * cb.h) / maxH] & 0xFF) - 128;
+					int red    = (cr.plane[crBase + (x * cr.h) / maxH] & 0xFF) - 128;
+
+					// ITU-R BT.601 conversion in 16.16 fixed point.
+					int r = luma + ((91881 * red + 32768) >> 16);
+					int gr = luma - ((22554 * blue + 46802 * red - 32768) >> 16);
+					int b = luma + ((116130 * blue + 32768) >> 16);
+
+					rowBuffer[i]     = (byte)(r < 0 ? 0 : (r > 255 ? 255 : r));
+					rowBuffer[i + 1] = (byte)(gr < 0 ? 0 : (gr > 255 ? 255 : gr));
+					rowBuffer[i + 2] = (byte)(b < 0 ? 0 : (b > 255 ? 255 : b));
+				}
+				pixels.put(rowBuffer, 0, rowLength);
+			}
+		}
+
+		pixels.flip();
+	}
+
+	/*;;;;;;;;;;;;;;;;;;
+	  ; HELPER METHODS ;
+	  ;;;;;;;;;;;;;;;;;;*/
+
+	private DecodedFrame acquireFrame(int capacity){
+		DecodedFrame frame = null;
+
+		synchronized(pool){
+			for(int i = 0; i < pool.size(); i++){
+				if(pool.get(i).pixels.capacity() >= capacity){
+					frame = pool.remove(i);
+					break;
+				}
+			}
+
+			// Drop a pooled frame that is too small to make room for a bigger one.
+			if(frame == null && pool.size() == MAX_POOLED_FRAMES)
+				pool.remove(0);
+		}
+
+		if(frame == null){
+			frame = new DecodedFrame();
+			frame.pixels = ByteBuffer.allocateDirect(capacity);
+		}
+
+		return frame;
+	}
+
+	private int readUnsignedByte(){
+		if(pos >= end)
+			throw new IllegalArgumentException("Truncated JPEG image.");
+		return data[pos++] & 0xFF;
+	}
+
+	private int readUnsignedShort(){
+		return (readUnsignedByte() << 8) | readUnsignedByte();
+	}
+
+	/**
+	 * <p>Reads the length of the current marker segment.</p>
+	 *
+	 * @return The position of the end of the segment.
+	 * @throws IllegalArgumentException If the segment does not fit in the image.
+	 */
+	private int readSegmentEnd() throws IllegalArgumentException{
+		int start  = pos;
+		int length = readUnsignedShort();
+
+		// Shorter lengths would move back to the marker and loop over it forever.
+		if(length < 2 || start + length > end)
+			throw new IllegalArgumentException("Invalid JPEG segment length.");
+
+		return start + length;
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.vision;
+
+import ve.ucv.ciens.ccg.nxtar.interfaces.FrameDecoder;
+import ve.ucv.ciens.ccg.nxtar.interfaces.ImageProcessor;
+import ve.ucv.ciens.ccg.nxtar.network.monitors.VideoFrame;
+
+/**
+ * <p>Caches the result of {@link ImageProcessor#findMarkersInFrame(byte[])} for the last video
+ * frame processed.</p>
+ * <p>The render loop runs faster than the video stream, so most render ticks see the same frame
+ * as the previous tick. Frames are identified by their sequence number, so a cached result is
+ * returned until the {@link ve.ucv.ciens.ccg.nxtar.network.monitors.VideoFrameMonitor} publishes a
+ * newer frame.</p>
+ * <p>If a frame decoder is given, the results carry the decoded video frame. The decoded frame of
+ * a result that is replaced before being claimed is returned to the decoder.</p>
+ */
+public class MarkerDetectionCache{
+	private ImageProcessor        processor;
+	private FrameDecoder          decoder;
+	private MarkerDetectionResult cachedResult;
+	private long                  hits;
+	private long                  misses;
+
+	public MarkerDetectionCache(ImageProcessor processor) throws IllegalArgumentException{
+		this(processor, null);
+	}
+
+	/**
+	 * @param processor The image processor used to find the markers.
+	 * @param decoder The decoder for the video frames. Can be null.
+	 * @throws IllegalArgumentException If the processor is null.
+	 */
+	public MarkerDetectionCache(ImageProcessor processor, FrameDecoder decoder) throws IllegalArgumentException{
+		if(processor == null)
+			throw new IllegalArgumentException("Processor is null.");
+
+		this.processor = processor;
+		this.decoder   = decoder;
+		invalidate();
+		resetCounters();
+	}
+
+	/**
+	 * <p>Finds the markers in the given frame, running the image processor only if the frame is
+	 * different from the last frame processed.</p>
+	 *
+	 * @param frame The frame to process. Can be null.
+	 * @return The detection result for the frame or null if there is no frame.
+	 */
+	public MarkerDetectionResult findMarkersInFrame(VideoFrame frame){
+		if(frame == null)
+			return null;
+
+		if(cachedResult != null && frame.sequence == cachedResult.frameSequence){
+			hits++;
+
+		}else{
+			MarkerDetector.discard(cachedResult, decoder);
+			cachedResult = MarkerDetector.detect(processor, decoder, frame);
+			misses++;
+		}
+
+		return cachedResult;
+	}
+
+	/**
+	 * <p>Forces the next lookup to run the image processor.</p>
+	 */
+	public void invalidate(){
+		MarkerDetector.discard(cachedResult, decoder);
+		cachedResult = null;
+	}
+
+	public long getHits(){
+		return hits;
+	}
+
+	public long getMisses(){
+		return misses;
+	}
+
+	public void resetCounters(){
+		hits   = 0L;
+		misses = 0L;
+	}
+}
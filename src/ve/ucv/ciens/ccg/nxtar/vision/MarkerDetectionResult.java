@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.vision;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import ve.ucv.ciens.ccg.nxtar.interfaces.FrameDecoder;
+import ve.ucv.ciens.ccg.nxtar.interfaces.FrameDecoder.DecodedFrame;
+import ve.ucv.ciens.ccg.nxtar.interfaces.ImageProcessor.MarkerData;
+
+/**
+ * <p>The markers found in a video frame together with the information of the frame they were
+ * found in. Instances are immutable once published.</p>
+ * <p>A result may carry the decoded pixels of its frame. The decoded frame belongs to a
+ * {@link FrameDecoder} pool, so exactly one party must return it to the pool: whoever succeeds in
+ * {@link #claimDecodedFrame()}.</p>
+ */
+public class MarkerDetectionResult{
+	public final MarkerData   markerData;
+	public final long         frameSequence;
+	public final long         frameTimestamp;
+	public final int          frameWidth;
+	public final int          frameHeight;
+	public final DecodedFrame decodedFrame;
+
+	/**
+	 * <p>Arrival time of the frame, as given by {@link System#nanoTime()}.</p>
+	 */
+	public final long         frameReceiveTimestamp;
+
+	/**
+	 * <p>Time when the detection finished, as given by {@link System#nanoTime()}.</p>
+	 */
+	public final long         detectionEnd;
+
+	private AtomicBoolean     decodedFrameClaimed;
+
+	public MarkerDetectionResult(MarkerData markerData, long frameSequence, long frameTimestamp, int frameWidth, int frameHeight){
+		this(markerData, null, frameSequence, frameTimestamp, frameWidth, frameHeight);
+	}
+
+	public MarkerDetectionResult(MarkerData markerData, DecodedFrame decodedFrame, long frameSequence, long frameTimestamp, int frameWidth, int frameHeight){
+		this(markerData, decodedFrame, frameSequence, frameTimestamp, frameTimestamp, System.nanoTime(), frameWidth, frameHeight);
+	}
+
+	public MarkerDetectionResult(MarkerData markerData, DecodedFrame decodedFrame, long frameSequence, long frameTimestamp, long frameReceiveTimestamp, long detectionEnd, int frameWidth, int frameHeight){
+		this.markerData            = markerData;
+		this.decodedFrame          = decodedFrame;
+		this.frameSequence         = frameSequence;
+		this.frameTimestamp        = frameTimestamp;
+		this.frameReceiveTimestamp = frameReceiveTimestamp;
+		this.detectionEnd          = detectionEnd;
+		this.frameWidth            = frameWidth;
+		this.frameHeight           = frameHeight;
+		decodedFrameClaimed        = new AtomicBoolean(false);
+	}
+
+	/**
+	 * <p>Takes ownership of the decoded frame. Only the first call returns the frame, and the caller
+	 * must release it to the decoder that produced it.</p>
+	 *
+	 * @return The decoded frame, or null if there is no decoded frame or it was already claimed.
+	 */
+	public DecodedFrame claimDecodedFrame(){
+		if(decodedFrame != null && decodedFrameClaimed.compareAndSet(false, true))
+			return decodedFrame;
+		else
+			return null;
+	}
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.vision;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import ve.ucv.ciens.ccg.nxtar.interfaces.FrameDecoder;
+import ve.ucv.ciens.ccg.nxtar.interfaces.ImageProcessor;
+import ve.ucv.ciens.ccg.nxtar.network.monitors.VideoFrame;
+import ve.ucv.ciens.ccg.nxtar.network.monitors.VideoFrameMonitor;
+import ve.ucv.ciens.ccg.nxtar.utils.ProjectConstants;
+
+import com.badlogic.gdx.Gdx;
+
+/**
+ * <p>Runs the marker detection outside of the render thread.</p>
+ * <p>This thread consumes frames from the {@link VideoFrameMonitor}, passes them to the
+ * {@link ImageProcessor} and publishes the results in a single slot mailbox. The render thread
+ * only reads the latest result from the mailbox, so a slow detection pass no longer lowers the
+ * render frame rate. Frames published while a detection is running are skipped, and the selected
+ * {@link frame_drop_policy_t} may drop more frames.</p>
+ * <p>If a frame decoder is given, the video frame is also decoded in this thread, so the render
+ * thread only has to upload the pixels to a texture.</p>
+ * <p>Frames are taken from the monitor of the default robot session, or from the monitor given
+ * to {@link #play(VideoFrameMonitor)}. While this thread is running it is the only consumer of that
+ * monitor, so it must be paused before any other code reads frames from it.</p>
+ */
+public class MarkerDetectionThread extends Thread{
+	public static final String  THREAD_NAME        = "MarkerDetectionThread";
+	private static final String TAG                = "NXTAR_CORE_DETECTIONTHREAD";
+	private static final String CLASS_NAME         = MarkerDetectionThread.class.getSimpleName();
+	private static final long   FRAME_WAIT_TIMEOUT = 100000000L;
+	private static final long   MAX_CLOCK_JUMP     = 10000L;
+
+	/**
+	 * <p>Policies for dropping frames when the detection falls behind the video stream.</p>
+	 */
+	public enum frame_drop_policy_t{
+		/**
+		 * <p>Always process the newest frame available.</p>
+		 */
+		LATEST_FRAME,
+
+		/**
+		 * <p>Process the newest frame available unless it is older than the maximum frame age.</p>
+		 */
+		MAX_FRAME_AGE,
+
+		/**
+		 * <p>Process the newest frame available but never exceed the maximum detection rate.</p>
+		 */
+		THROTTLE;
+
+		/**
+		 * <p>Maps one of the <code>DROP_POLICY_*</code> codes of {@link ProjectConstants} to its policy.</p>
+		 *
+		 * @param code The policy code.
+		 * @return The policy.
+		 * @throws IllegalArgumentException If the code is not a policy code.
+		 */
+		public static frame_drop_policy_t fromCode(int code) throws IllegalArgumentException{
+			switch(code){
+			case ProjectConstants.DROP_POLICY_LATEST_FRAME:
+				return LATEST_FRAME;
+			case ProjectConstants.DROP_POLICY_MAX_FRAME_AGE:
+				return MAX_FRAME_AGE;
+			case ProjectConstants.DROP_POLICY_THROTTLE:
+				return THROTTLE;
+			default:
+				throw new IllegalArgumentException("Unknown frame drop policy " + code + ".");
+			}
+		}
+	}
+
+	private ImageProcessor                         processor;
+	private FrameDecoder                           decoder;
+	private VideoFrameMonitor                      frameMonitor;
+	private VideoFrameMonitor                      nextFrameMonitor;
+	private AtomicReference<MarkerDetectionResult> mailbox;
+	private frame_drop_policy_t                    dropPolicy;
+	private long                                   maxFrameAge;
+	private long                                   minDetectionInterval;
+	private long                                   lastSequence;
+	private volatile boolean                       done;
+	private boolean                                pause;
+	private boolean                                paused;
+	private Object                                 pauseMonitor;
+	private int                                    detectionsPerSecond;
+	private int                                    droppedFramesPerSecond;
+	private long                                   latencyPerSecond;
+	private volatile int                           detectionFps;
+	private volatile int                           droppedFrames;
+	private volatile long                          detectionLatency;
+	private long                                   minClockOffset;
+
+	/**
+	 * <p>Creates a paused detection thread.</p>
+	 *
+	 * @param processor The image processor used to find the markers.
+	 * @param decoder The decoder for the video frames. Can be null.
+	 * @param dropPolicy The frame drop policy.
+	 * @param maxFrameAge Maximum age in milliseconds of a processed frame. Used by {@link frame_drop_policy_t#MAX_FRAME_AGE}.
+	 * @param maxDetectionRate Maximum number of detections per second. Used by {@link frame_drop_policy_t#THROTTLE}.
+	 * @throws IllegalArgumentException If the processor or the policy are null, or the limits are not positive.
+	 */
+	public MarkerDetectionThread(ImageProcessor processor, FrameDecoder decoder, frame_drop_policy_t dropPolicy, long maxFrameAge, int maxDetectionRate) throws IllegalArgumentException{
+		super(THREAD_NAME);
+
+		if(processor == null)
+			throw new IllegalArgumentException("Processor is null.");
+		if(dropPolicy == null)
+			throw new IllegalArgumentException("Drop policy is null.");
+		if(maxFrameAge <= 0 || maxDetectionRate <= 0)
+			throw new IllegalArgumentException("Frame age and detection rate must be greater than cero.");
+
+		this.processor         = processor;
+		this.decoder           = decoder;
+		this.dropPolicy        = dropPolicy;
+		this.maxFrameAge       = maxFrameAge * 1000000L;
+		minDetectionInterval   = 1000000000L / maxDetectionRate;
+		frameMonitor           = VideoFrameMonitor.getInstance();
+		nextFrameMonitor       = frameMonitor;
+		mailbox                = new AtomicReference<MarkerDetectionResult>(null);
+		lastSequence           = 0L;
+		done                   = false;
+		pause                  = true;
+		paused                 = false;
+		pauseMonitor           = new Object();
+		detectionsPerSecond    = 0;
+		droppedFramesPerSecond = 0;
+		latencyPerSecond       = 0L;
+		detectionFps           = 0;
+		droppedFrames          = 0;
+		detectionLatency       = 0L;
+		minClockOffset         = Long.MAX_VALUE;
+	}
+
+	/**
+	 * <p>Returns the most recent detection result without removing it from the mailbox.</p>
+	 *
+	 * @return The latest result or null if no frame has been processed yet.
+	 */
+	public MarkerDetectionResult getLatestResult(){
+		return mailbox.get();
+	}
+
+	/**
+	 * <p>Number of frames processed during the last second.</p>
+	 */
+	public int getDetectionFps(){
+		return detectionFps;
+	}
+
+	/**
+	 * <p>Number of frames dropped during the last second.</p>
+	 */
+	public int getDroppedFrames(){
+		return droppedFrames;
+	}
+
+	/**
+	 * <p>Mean age in milliseconds of the frames processed during the last second, measured when
+	 * their detection finished. See {@link #getFrameOrigin(VideoFrame)} for where the age starts.</p>
+	 */
+	public long getDetectionLatency(){
+		return detectionLatency;
+	}
+
+	/**
+	 * <p>Stops processing frames. Returns after the current detection, if any, has finished.</p>
+	 */
+	public void pause(){
+		synchronized(pauseMonitor){
+			pause = true;
+			while(!paused && !done && isAlive()){
+				try{ pauseMonitor.wait(); }catch(InterruptedException ie){ }
+			}
+		}
+	}
+
+	public void play(){
+		synchronized(pauseMonitor){
+			pause = false;
+			pauseMonitor.notifyAll();
+		}
+	}
+
+	/**
+	 * <p>Resumes the thread, taking the frames from the given monitor from now on.</p>
+	 *
+	 * @param monitor The frame monitor of the robot session to process.
+	 * @throws IllegalArgumentException If the monitor is null.
+	 */
+	public void play(VideoFrameMonitor monitor) throws IllegalArgumentException{
+		if(monitor == null)
+			throw new IllegalArgumentException("Frame monitor is null.");
+
+		synchronized(pauseMonitor){
+			nextFrameMonitor = monitor;
+			pause            = false;
+			pauseMonitor.notifyAll();
+		}
+	}
+
+	public void finish(){
+		done = true;
+		play();
+	}
+
+	@Override
+	public void run(){
+		long then = System.currentTimeMillis();
+		long now;
+
+		while(!done){
+			synchronized(pauseMonitor){
+				if(pause && !done){
+					paused = true;
+					pauseMonitor.notifyAll();
+					while(pause && !done){
+						try{ pauseMonitor.wait(); }catch(InterruptedException ie){ }
+					}
+					paused = false;
+
+					// Frames published while paused are not counted as dropped.
+					lastSequence = 0L;
+				}
+
+				// Every robot numbers its frames and stamps its capture times on its own.
+				if(nextFrameMonitor != frameMonitor){
+					frameMonitor   = nextFrameMonitor;
+					lastSequence   = 0L;
+					minClockOffset = Long.MAX_VALUE;
+				}
+			}
+
+			if(!done && frameMonitor.awaitFrameNewerThan(lastSequence, FRAME_WAIT_TIMEOUT)){
+				try{
+					processLatestFrame();
+				}catch(RuntimeException e){
+					// A frame that cannot be processed is lost, but the thread goes on with the next one.
+					Gdx.app.error(TAG, CLASS_NAME + ".run() :: Frame processing failed: " + e);
+					droppedFramesPerSecond++;
+				}
+			}
+
+			now = System.currentTimeMillis();
+			if(now - then >= 1000){
+				detectionFps = detectionsPerSecond;
+				droppedFrames = droppedFramesPerSecond;
+				detectionLatency = detectionsPerSecond > 0 ? latencyPerSecond / detectionsPerSecond / 1000000L : 0L;
+				detectionsPerSecond = 0;
+				droppedFramesPerSecond = 0;
+				latencyPerSecond = 0L;
+				then = now;
+			}
+		}
+
+		Gdx.app.debug(TAG, CLASS_NAME + ".run() :: Thread finished.");
+	}
+
+	private void processLatestFrame(){
+		VideoFrame            frame;
+		MarkerDetectionResult result;
+		long                  start;
+		long                  origin;
+		long                  remaining;
+
+		frame = frameMonitor.getLatestFrame();
+		if(frame == null || frame.sequence <= lastSequence)
+			return;
+
+		// Count the frames skipped since the last one processed.
+		if(lastSequence > 0L)
+			droppedFramesPerSecond += (int)(frame.sequence - lastSequence - 1);
+		lastSequence = frame.sequence;
+
+		start  = System.nanoTime();
+		origin = getFrameOrigin(frame);
+
+		if(dropPolicy == frame_drop_policy_t.MAX_FRAME_AGE && start - origin > maxFrameAge){
+			droppedFramesPerSecond++;
+			return;
+		}
+
+		result = MarkerDetector.detect(processor, decoder, frame);
+
+		// Results replaced before the render thread claimed their frame give it back to the pool.
+		MarkerDetector.discard(mailbox.getAndSet(result), decoder);
+		detectionsPerSecond++;
+		latencyPerSecond += System.nanoTime() - origin;
+
+		if(dropPolicy == frame_drop_policy_t.THROTTLE){
+			remaining = minDetectionInterval - (System.nanoTime() - start);
+			if(remaining > 0L){
+				try{ sleep(remaining / 1000000L, (int)(remaining % 1000000L)); }catch(InterruptedException ie){ }
+			}
+		}
+	}
+
+	/**
+	 * <p>Estimates when a frame started its way to this thread, on the clock of
+	 * {@link System#nanoTime()}.</p>
+	 * <p>Frames with a capture time from the robot start when they were captured. The clocks of the
+	 * robot and this device are not synchronized, so the capture time is placed relative to the frame
+	 * that took the least time to arrive, which is taken as the transit time of the link. Other
+	 * frames start when their first fragment arrived, so the age always includes the reassembly.</p>
+	 */
+	private long getFrameOrigin(VideoFrame frame){
+		long offset;
+
+		if(frame.captureTimestamp == 0L)
+			return frame.receiveTimestamp;
+
+		offset = frame.receiveTimestamp / 1000000L - frame.captureTimestamp;
+
+		// A faster frame improves the estimate, and a jump this large means the clock of the robot changed.
+		if(offset < minClockOffset || offset - minClockOffset > MAX_CLOCK_JUMP)
+			minClockOffset = offset;
+
+		return frame.receiveTimestamp - (offset - minClockOffset) * 1000000L;
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.vision;
+
+import ve.ucv.ciens.ccg.nxtar.interfaces.DecodedFrameProcessor;
+import ve.ucv.ciens.ccg.nxtar.interfaces.FrameDecoder;
+import ve.ucv.ciens.ccg.nxtar.interfaces.FrameDecoder.DecodedFrame;
+import ve.ucv.ciens.ccg.nxtar.interfaces.ImageProcessor;
+import ve.ucv.ciens.ccg.nxtar.interfaces.ImageProcessor.MarkerData;
+import ve.ucv.ciens.ccg.nxtar.interfaces.PipelineEventsListener;
+import ve.ucv.ciens.ccg.nxtar.network.monitors.VideoFrame;
+import ve.ucv.ciens.ccg.nxtar.profiling.FrameLatencyTracer;
+import ve.ucv.ciens.ccg.nxtar.profiling.FrameLatencyTracer.stage_t;
+import ve.ucv.ciens.ccg.nxtar.profiling.PipelineEvents;
+
+import com.badlogic.gdx.Gdx;
+
+/**
+ * <p>Runs a single detection pass over a video frame, shared by {@link MarkerDetectionCache} and
+ * {@link MarkerDetectionThread}.</p>
+ * <p>If the image processor implements {@link DecodedFrameProcessor} the frame is decoded once
+ * and the same pixels are used both for the detection and for the rendered video frame. Otherwise
+ * the output frame of the processor is decoded here, outside of the render thread. If the frame
+ * decoder does not support a frame the result carries no decoded frame and the renderer falls back
+ * to decoding the output frame itself.</p>
+ */
+final class MarkerDetector{
+	private static final String TAG        = "NXTAR_CORE_MARKERDETECTOR";
+	private static final String CLASS_NAME = MarkerDetector.class.getSimpleName();
+
+	private MarkerDetector(){}
+
+	static MarkerDetectionResult detect(ImageProcessor processor, FrameDecoder decoder, VideoFrame frame){
+		MarkerData             data    = null;
+		DecodedFrame           decoded = null;
+		FrameLatencyTracer     tracer  = FrameLatencyTracer.getInstance();
+		PipelineEventsListener events  = PipelineEvents.getListener();
+		long                   start   = System.nanoTime();
+		long                   end;
+
+		tracer.record(stage_t.DETECTION_WAIT, start - frame.timestamp);
+
+		if(processor instanceof DecodedFrameProcessor && decoder != null){
+			decoded = decode(decoder, frame.data, 0, frame.length);
+			if(decoded != null)
+				data = ((DecodedFrameProcessor)processor).findMarkersInDecodedFrame(decoded);
+		}
+
+		if(decoded == null){
+			data = processor.findMarkersInFrame(frame.getFrameBytes());
+			if(data != null && data.outFrame != null && decoder != null)
+				decoded = decode(decoder, data.outFrame, 0, data.outFrame.length);
+		}
+
+		end = System.nanoTime();
+		tracer.record(stage_t.DETECTION, end - start);
+		if(events != null)
+			events.onMarkerDetection(frame.sequence, start, end);
+
+		return new MarkerDetectionResult(data, decoded, frame.sequence, frame.timestamp, frame.receiveTimestamp, end, frame.width, frame.height);
+	}
+
+	/**
+	 * <p>Returns the decoded frame of a result that will not be rendered to the decoder pool.</p>
+	 */
+	static void discard(MarkerDetectionResult result, FrameDecoder decoder){
+		DecodedFrame decoded;
+
+		if(result != null && decoder != null){
+			decoded = result.claimDecodedFrame();
+			if(decoded != null)
+				decoder.release(decoded);
+		}
+	}
+
+	private static DecodedFrame decode(FrameDecoder decoder, byte[] data, int offset, int length){
+		try{
+			return decoder.decode(data, offset, length);
+		}catch(IllegalArgumentException e){
+			Gdx.app.debug(TAG, CLASS_NAME + ".decode() :: Frame not supported by the decoder: " + e.getMessage());
+			return null;
+		}catch(RuntimeException e){
+			// A decoder bug must not take down the thread that called it, treat the frame as lost.
+			Gdx.app.error(TAG, CLASS_NAME + ".decode() :: Decoder failed: " + e);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2014 Miguel Angel Astor Romero
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ve.ucv.ciens.ccg.nxtar.vision;
+
+import com.badlogic.gdx.math.Matrix3;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Quaternion;
+import com.badlogic.gdx.math.Vector3;
+
+/**
+ * <p>Smooths the poses of the detected markers and predicts them between detections.</p>
+ * <p>Each marker code has it's own filter. Translations go through a One Euro filter (Casiez,
+ * Roussel and Vogel, CHI 2012): a low pass filter whose cutoff frequency grows with the speed of
+ * the marker, so still markers stop jittering while moving markers do not lag behind. Rotations
+ * are smoothed the same way, using spherical linear interpolation between the last filtered
+ * rotation and the measured one.</p>
+ * <p>Poses are predicted at any time after the last measurement by extrapolating the filtered
+ * linear and angular velocities, up to a maximum horizon after which the pose is held. A marker
+ * that was not measured for a while starts over from it's next measurement.</p>
+ * <p>Not thread safe. All methods must be called from the same thread.</p>
+ */
+public class MarkerPoseFilter{
+	public static final int    NUM_MARKER_CODES      = 1024;
+
+	/**
+	 * <p>Cutoff frequency in hertz used when the marker is still.</p>
+	 */
+	private static final float MIN_CUTOFF            = 1.0f;
+
+	/**
+	 * <p>Cutoff frequency increase in hertz per unit of translation speed.</p>
+	 */
+	private static final float TRANSLATION_BETA      = 0.2f;
+
+	/**
+	 * <p>Cutoff frequency increase in hertz per radian per second of angular speed.</p>
+	 */
+	private static final float ROTATION_BETA         = 2.0f;
+
+	/**
+	 * <p>Cutoff frequency in hertz of the filter applied to the speeds.</p>
+	 */
+	private static final float DERIVATIVE_CUTOFF     = 1.0f;
+
+	/**
+	 * <p>Time without measurements in nanoseconds after which a marker starts over.</p>
+	 */
+	private static final long  RESET_TIMEOUT         = 500000000L;
+
+	private static final float NANOS_PER_SECOND      = 1000000000.0f;
+
+	private final MarkerState[] states;
+	private final long          maxPrediction;
+
+	private final Quaternion    tempRotation;
+	private final Quaternion    tempDelta;
+	private final Matrix4       tempMatrix;
+
+	/**
+	 * @param maxPrediction Longest time in nanoseconds the poses are extrapolated after a measurement.
+	 * @throws IllegalArgumentException If maxPrediction is negative.
+	 */
+	public MarkerPoseFilter(long maxPrediction) throws IllegalArgumentException{
+		if(maxPrediction < 0)
+			throw new IllegalArgumentException("Maximum prediction is negative.");
+
+		this.states        = new MarkerState[NUM_MARKER_CODES];
+		this.maxPrediction = maxPrediction;
+		this.tempRotation  = new Quaternion();
+		this.tempDelta     = new Quaternion();
+		this.tempMatrix    = new Matrix4();
+	}
+
+	/**
+	 * <p>Adds a measurement of the pose of a marker.</p>
+	 *
+	 * @param code The code of the marker. Codes outside of [0, 1023] are ignored.
+	 * @param time The time the pose was measured in nanoseconds, as given by {@link System#nanoTime()}.
+	 * @param translation The measured translation.
+	 * @param rotation The measured rotation.
+	 */
+	public void update(int code, long time, Vector3 translation, Matrix3 rotation){
+		MarkerState state;
+		float       dt;
+		float       alpha;
+		float       speed;
+		float       angle;
+
+		if(code < 0 || code >= NUM_MARKER_CODES)
+			return;
+
+		if(states[code] == null)
+			states[code] = new MarkerState();
+		state = states[code];
+
+		tempRotation.setFromMatrix(true, rotation).nor();
+
+		// Ignore measurements that are not newer than the last one.
+		if(state.initialized && time <= state.time)
+			return;
+
+		// Start over if this is the first measurement in a while.
+		if(!state.initialized || time - state.time > RESET_TIMEOUT){
+			state.translation.set(translation);
+			state.rotation.set(tempRotation);
+			state.velocity.set(0.0f, 0.0f, 0.0f);
+			state.angularVelocity.set(0.0f, 0.0f, 0.0f);
+			state.angularSpeed = 0.0f;
+			state.time         = time;
+			state.initialized  = true;
+			return;
+		}
+
+		dt = (time - state.time) / NANOS_PER_SECOND;
+
+		// Translation: estimate the speed, then filter with a cutoff that depends on it.
+		alpha = smoothingFactor(dt, DERIVATIVE_CUTOFF);
+		state.velocity.x += alpha * (((translation.x - state.translation.x) / dt) - state.velocity.x);
+		state.velocity.y += alpha * (((translation.y - state.translation.y) / dt) - state.velocity.y);
+		state.velocity.z += alpha * (((translation.z - state.translation.z) / dt) - state.velocity.z);
+		speed = state.velocity.len();
+		state.translation.lerp(translation, smoothingFactor(dt, MIN_CUTOFF + (TRANSLATION_BETA * speed)));
+
+		// Rotation: use the shortest path to the measurement.
+		if(state.rotation.dot(tempRotation) < 0.0f)
+			tempRotation.mul(-1.0f);
+
+		angle              = angleBetween(state.rotation, tempRotation);
+		state.angularSpeed += alpha * ((angle / dt) - state.angularSpeed);
+
+		// Keep the angular velocity from the last filtered rotation to the new one as an axis scaled by the rotation rate.
+		tempDelta.set(state.rotation).conjugate();
+		state.rotation.slerp(tempRotation, smoothingFactor(dt, MIN_CUTOFF + (ROTATION_BETA * state.angularSpeed))).nor();
+		tempDelta.mulLeft(state.rotation).nor();
+		if(tempDelta.w < 0.0f)
+			tempDelta.mul(-1.0f);
+		angle = tempDelta.getAxisAngleRad(state.angularVelocity);
+		state.angularVelocity.scl(angle / dt);
+
+		state.time = time;
+	}
+
+	/**
+	 * <p>Predicts the pose of a marker at the given time.</p>
+	 *
+	 * @param code The code of the marker.
+	 * @param time The time to predict in nanoseconds, as given by {@link System#nanoTime()}.
+	 * @param translation Set to the predicted translation.
+	 * @param rotation Set to the predicted rotation.
+	 * @return false if the marker was never measured, in which case the outputs are not changed.
+	 */
+	public boolean predict(int code, long time, Vector3 translation, Matrix3 rotation){
+		MarkerState state;
+		float       horizon;
+
+		if(code < 0 || code >= NUM_MARKER_CODES || states[code] == null || !states[code].initialized)
+			return false;
+
+		state   = states[code];
+		horizon = Math.max(0L, Math.min(time - state.time, maxPrediction)) / NANOS_PER_SECOND;
+
+		translation.set(state.translation).mulAdd(state.velocity, horizon);
+
+		tempRotation.setFromAxisRad(state.angularVelocity, state.angularVelocity.len() * horizon).mul(state.rotation).nor();
+		rotation.set(tempMatrix.set(tempRotation));
+
+		return true;
+	}
+
+	/**
+	 * <p>Forgets every marker.</p>
+	 */
+	public void reset(){
+		for(int i = 0; i < states.length; i++)
+			if(states[i] != null)
+				states[i].initialized = false;
+	}
+
+	/**
+	 * <p>Smoothing factor of an exponential low pass filter with the given cutoff frequency.</p>
+	 */
+	private static float smoothingFactor(float dt, float cutoff){
+		float tau = 1.0f / (2.0f * (float)Math.PI * cutoff);
+
+		return 1.0f / (1.0f + (tau / dt));
+	}
+
+	/**
+	 * @return The angle in radians between two unit quaternions on the same hemisphere.
+	 */
+	private static float angleBetween(Quaternion a, Quaternion b){
+		float dot = Math.min(1.0f, Math.abs(a.dot(b)));
+
+		return 2.0f * (float)Math.acos(dot);
+	}
+
+	private static final class MarkerState{
+		public final Vector3    translation;
+		public final Vector3    velocity;
+		public final Quaternion rotation;
+		public final Vector3    angularVelocity;
+		public float            angularSpeed;
+		public long             time;
+		public boolean          initialized;
+
+		public MarkerState(){
+			translation     = new Vector3();
+			velocity        = new Vector3();
+			rotation        = new Quaternion();
+			angularVelocity = new Vector3();
+			angularSpeed    = 0.0f;
+			time            = 0L;
+			initialized     = false;
+		}
+	}
+}